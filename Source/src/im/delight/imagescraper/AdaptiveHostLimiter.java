@@ -0,0 +1,244 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of concurrent image probes per host adaptively and fails probes fast when a host keeps failing
+ * <p>
+ * The limit of every host grows by one for every `limit` successful probes and is halved on every failure (additive increase, multiplicative decrease), while slow responses shrink it gently
+ * <p>
+ * After a number of consecutive failures the circuit of the host is opened so that all probes of the host fail right away, and after a while a single probe is let through to test whether the host has recovered
+ * <p>
+ * The statistics are meant to be shared by all scrapes (see `getDefault()`) and this class is thread-safe
+ */
+public class AdaptiveHostLimiter {
+
+	/** The probe may be started and `release()` must be called afterwards */
+	public static final int RESULT_ACQUIRED = 0;
+	/** The host is at its limit so the probe should be retried after `RETRY_DELAY_MILLIS` */
+	public static final int RESULT_BUSY = 1;
+	/** The circuit of the host is open so the probe should fail right away */
+	public static final int RESULT_OPEN = 2;
+	/** The probe may be started as the single probe that tests whether a host with an open circuit has recovered and `release()` must be called afterwards with `trial` set */
+	public static final int RESULT_TRIAL = 3;
+	/** The delay after which probes that have been rejected as busy should be retried (in milliseconds) */
+	public static final long RETRY_DELAY_MILLIS = 50;
+	public static final int DEFAULT_INITIAL_LIMIT = 4;
+	public static final int DEFAULT_MAX_LIMIT = 16;
+	/** The number of consecutive failures after which the circuit of a host is opened */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	/** The time that the circuit of a host stays open before a single probe is let through again (in milliseconds) */
+	public static final long DEFAULT_OPEN_MILLIS = 30000;
+	/** Responses that take longer than this (in milliseconds) shrink the limit of the host */
+	public static final long DEFAULT_SLOW_LATENCY_MILLIS = 2000;
+	private static final int MIN_LIMIT = 1;
+	/** The factor that the limit is multiplied with after a failure */
+	private static final double DECREASE_FACTOR_FAILURE = 0.5;
+	/** The factor that the limit is multiplied with after a slow response */
+	private static final double DECREASE_FACTOR_SLOW = 0.9;
+	/** The maximum number of hosts that are remembered (the least recently used hosts are forgotten first) */
+	private static final int MAX_HOSTS = 1024;
+	private static AdaptiveHostLimiter mDefaultInstance;
+	private final Map<String, HostState> mHosts;
+	private int mInitialLimit = DEFAULT_INITIAL_LIMIT;
+	private int mMaxLimit = DEFAULT_MAX_LIMIT;
+	private int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private long mOpenMillis = DEFAULT_OPEN_MILLIS;
+	private long mSlowLatencyMillis = DEFAULT_SLOW_LATENCY_MILLIS;
+
+	/**
+	 * Returns the limiter that is shared across the whole process
+	 *
+	 * @return the shared limiter
+	 */
+	public static synchronized AdaptiveHostLimiter getDefault() {
+		if (mDefaultInstance == null) {
+			mDefaultInstance = new AdaptiveHostLimiter();
+		}
+		return mDefaultInstance;
+	}
+
+	public AdaptiveHostLimiter() {
+		mHosts = new LinkedHashMap<String, HostState>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HostState> eldest) {
+				return size() > MAX_HOSTS && eldest.getValue().mInFlight == 0;
+			}
+
+		};
+	}
+
+	/**
+	 * Sets the bounds for the concurrency limit of every host
+	 *
+	 * @param initialLimit the limit for hosts that have not been seen before
+	 * @param maxLimit the limit that is never exceeded
+	 */
+	public synchronized void setLimits(int initialLimit, int maxLimit) {
+		mInitialLimit = initialLimit;
+		mMaxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets when the circuit of a host is opened and for how long
+	 *
+	 * @param failureThreshold the number of consecutive failures after which the circuit is opened
+	 * @param openMillis the time that the circuit stays open (in milliseconds)
+	 */
+	public synchronized void setCircuitBreaker(int failureThreshold, long openMillis) {
+		mFailureThreshold = failureThreshold;
+		mOpenMillis = openMillis;
+	}
+
+	/**
+	 * Sets the latency above which responses are considered slow and shrink the limit of their host
+	 *
+	 * @param slowLatencyMillis the latency in milliseconds
+	 */
+	public synchronized void setSlowLatency(long slowLatencyMillis) {
+		mSlowLatencyMillis = slowLatencyMillis;
+	}
+
+	/**
+	 * Tries to start a probe of the given host
+	 *
+	 * @param host the host name
+	 * @return one of the `RESULT_*` constants
+	 */
+	public synchronized int tryAcquire(String host) {
+		final HostState state = getHostState(host);
+		if (state.mOpenUntil != 0) {
+			if (System.currentTimeMillis() < state.mOpenUntil || state.mTrialRunning) {
+				return RESULT_OPEN;
+			}
+			// half-open: a single probe tests whether the host has recovered
+			state.mTrialRunning = true;
+			state.mInFlight++;
+			return RESULT_TRIAL;
+		}
+		if (state.mInFlight >= (int) state.mLimit) {
+			return RESULT_BUSY;
+		}
+		state.mInFlight++;
+		return RESULT_ACQUIRED;
+	}
+
+	/**
+	 * Reports the outcome of a probe that has been started with `tryAcquire()`
+	 *
+	 * @param host the host name
+	 * @param latencyMillis the duration of the probe in milliseconds
+	 * @param failed whether the probe failed due to network problems (e.g. timeouts) rather than HTTP errors
+	 * @param trial whether the probe has been started as the trial of the host (i.e. `tryAcquire()` returned `RESULT_TRIAL`)
+	 */
+	public synchronized void release(String host, long latencyMillis, boolean failed, boolean trial) {
+		final HostState state = mHosts.get(host);
+		if (state == null || state.mInFlight == 0) {
+			return;
+		}
+		state.mInFlight--;
+		// while the circuit is open, only the trial decides about it as all other probes have been started before it was opened
+		final boolean decidesCircuit = trial || state.mOpenUntil == 0;
+		if (failed) {
+			state.mLimit = Math.max(MIN_LIMIT, state.mLimit*DECREASE_FACTOR_FAILURE);
+			if (decidesCircuit) {
+				state.mConsecutiveFailures++;
+				if (trial || state.mConsecutiveFailures >= mFailureThreshold) {
+					state.mOpenUntil = System.currentTimeMillis()+mOpenMillis;
+				}
+			}
+		}
+		else {
+			if (decidesCircuit) {
+				state.mConsecutiveFailures = 0;
+				state.mOpenUntil = 0;
+			}
+			if (latencyMillis > mSlowLatencyMillis) {
+				state.mLimit = Math.max(MIN_LIMIT, state.mLimit*DECREASE_FACTOR_SLOW);
+			}
+			else {
+				state.mLimit = Math.min(mMaxLimit, state.mLimit+1/state.mLimit);
+			}
+		}
+		if (trial) { // probes that have been started before the circuit was opened must not end the trial
+			state.mTrialRunning = false;
+		}
+	}
+
+	/**
+	 * Releases a probe that has been started with `tryAcquire()` but has not been run (e.g. because another task is probing the same image) or has been aborted without affecting the statistics
+	 *
+	 * @param host the host name
+	 * @param trial whether the probe has been started as the trial of the host (i.e. `tryAcquire()` returned `RESULT_TRIAL`)
+	 */
+	public synchronized void releaseUnused(String host, boolean trial) {
+		final HostState state = mHosts.get(host);
+		if (state == null || state.mInFlight == 0) {
+			return;
+		}
+		state.mInFlight--;
+		if (trial) { // another probe may test the host right away
+			state.mTrialRunning = false;
+		}
+	}
+
+	/**
+	 * Returns the current concurrency limit of the given host
+	 *
+	 * @param host the host name
+	 * @return the limit or `0` if the circuit of the host is open
+	 */
+	public synchronized int getLimit(String host) {
+		final HostState state = mHosts.get(host);
+		if (state == null) {
+			return mInitialLimit;
+		}
+		return state.mOpenUntil == 0 ? (int) state.mLimit : 0;
+	}
+
+	private HostState getHostState(String host) {
+		HostState state = mHosts.get(host);
+		if (state == null) {
+			state = new HostState(mInitialLimit);
+			mHosts.put(host, state);
+		}
+		return state;
+	}
+
+	/** The statistics of a single host */
+	private static class HostState {
+
+		private double mLimit;
+		private int mInFlight;
+		private int mConsecutiveFailures;
+		/** The point in time until which the circuit is open (in milliseconds) or `0` if the circuit is closed */
+		private long mOpenUntil;
+		/** Whether the single probe that tests a host with an open circuit is running */
+		private boolean mTrialRunning;
+
+		public HostState(double limit) {
+			mLimit = limit;
+		}
+
+	}
+
+}
@@ -0,0 +1,557 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Scrapes any number of web pages with shared resources and streams their results to a callback as they are completed
+ * <p>
+ * URLs are taken from the input only as fast as they can be scraped so that memory stays bounded no matter how large the input is
+ * <p>
+ * Every host is only scraped by a limited number of scrapes at the same time and new scrapes of the same host are started with a minimum interval
+ * <p>
+ * If a checkpoint file is set, the progress is saved regularly so that an interrupted batch can be resumed with the same input
+ */
+public class BatchScraper {
+
+	/** The default maximum number of web pages that are scraped at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_SCRAPES = 16;
+	/** The default maximum number of web pages of the same host that are scraped at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_SCRAPES_PER_HOST = 2;
+	/** The default minimum interval between the starts of two scrapes of the same host (in milliseconds) */
+	public static final long DEFAULT_MIN_INTERVAL_PER_HOST_MILLIS = 250;
+	/** The default number of completed web pages after which the checkpoint is saved */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+	/** The number of URLs that are read ahead from the input (per concurrent scrape) so that other hosts can be served while one host is busy */
+	private static final int READ_AHEAD_FACTOR = 8;
+	/** Version of the checkpoint file format */
+	private static final int CHECKPOINT_VERSION = 1;
+	private final BatchScraperCallback mCallback;
+	private final int mImagesRequestedCount;
+	private int mMaxConcurrentScrapes = DEFAULT_MAX_CONCURRENT_SCRAPES;
+	private int mMaxConcurrentScrapesPerHost = DEFAULT_MAX_CONCURRENT_SCRAPES_PER_HOST;
+	private long mMinIntervalPerHostMillis = DEFAULT_MIN_INTERVAL_PER_HOST_MILLIS;
+	private int mCheckpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private File mCheckpointFile;
+	private String mUserAgent;
+	private HttpTransport mTransport;
+	private ScraperExecutor mExecutor;
+	private NioProbeEngine mProbeEngine;
+	private ProbeCache mProbeCache;
+	private ResultCache mResultCache;
+	private boolean mProbeDimensions;
+	private int mMaxCandidates = ImageScraper.DEFAULT_MAX_CANDIDATES;
+	private ScraperListener mListener;
+	private long mMaxPageBytes = ImageScraper.DEFAULT_MAX_PAGE_BYTES;
+	private boolean mHeadOnly;
+	private ImagePolicy mImagePolicy = ImagePolicy.getDefault();
+	private long mDeadlineMillis;
+	/** Guards all state below */
+	private final Object mLock = new Object();
+	private Iterator<String> mInput;
+	/** The index in the input of the next URL that will be read */
+	private long mNextIndex;
+	/** The URLs that have been read from the input but have not been started yet (in the order of the input) */
+	private final LinkedList<Job> mBuffered = new LinkedList<Job>();
+	private final HashMap<String, HostState> mHosts = new HashMap<String, HostState>();
+	private final HashSet<ImageScraper> mRunning = new HashSet<ImageScraper>();
+	/** All URLs before this index in the input have been completed */
+	private long mWatermark;
+	/** The indices after the watermark that have been completed already */
+	private final TreeSet<Long> mCompletedAfterWatermark = new TreeSet<Long>();
+	private int mCompletedSinceCheckpoint;
+	private boolean mStarted;
+	private boolean mCancelled;
+	private boolean mFinished;
+	/** Makes sure that the checkpoint file is only written by one thread at a time */
+	private final Object mCheckpointLock = new Object();
+
+	/**
+	 * Constructs a new batch
+	 *
+	 * @param callback the callback that receives all results
+	 * @param imagesRequestedCount the number of images requested for every web page
+	 */
+	public BatchScraper(BatchScraperCallback callback, int imagesRequestedCount) {
+		mCallback = callback;
+		mImagesRequestedCount = imagesRequestedCount;
+	}
+
+	/**
+	 * Sets the maximum number of web pages that are scraped (or waiting for a thread of the executor) at the same time
+	 *
+	 * @param maxConcurrentScrapes the maximum number of concurrent scrapes
+	 */
+	public void setMaxConcurrentScrapes(int maxConcurrentScrapes) {
+		mMaxConcurrentScrapes = maxConcurrentScrapes;
+	}
+
+	/**
+	 * Sets the limits for every single host so that no host is overloaded
+	 *
+	 * @param maxConcurrentScrapes the maximum number of web pages of the same host that are scraped at the same time
+	 * @param minIntervalMillis the minimum interval between the starts of two scrapes of the same host (in milliseconds)
+	 */
+	public void setHostLimits(int maxConcurrentScrapes, long minIntervalMillis) {
+		mMaxConcurrentScrapesPerHost = maxConcurrentScrapes;
+		mMinIntervalPerHostMillis = minIntervalMillis;
+	}
+
+	/**
+	 * Sets a file where the progress is saved regularly so that the batch can be resumed after an interruption
+	 * <p>
+	 * If the file exists when the batch is started, all URLs that have been completed before are skipped (which requires the same input in the same order)
+	 *
+	 * @param checkpointFile the file to use or `null` to disable checkpoints
+	 * @param interval the number of completed web pages after which the checkpoint is saved
+	 */
+	public void setCheckpointFile(File checkpointFile, int interval) {
+		mCheckpointFile = checkpointFile;
+		mCheckpointInterval = interval;
+	}
+
+	public void setUserAgent(String userAgent) {
+		mUserAgent = userAgent;
+	}
+
+	public void setHttpTransport(HttpTransport transport) {
+		mTransport = transport;
+	}
+
+	public void setExecutor(ScraperExecutor executor) {
+		mExecutor = executor;
+	}
+
+	public void setProbeEngine(NioProbeEngine probeEngine) {
+		mProbeEngine = probeEngine;
+	}
+
+	public void setProbeCache(ProbeCache probeCache) {
+		mProbeCache = probeCache;
+	}
+
+	public void setResultCache(ResultCache resultCache) {
+		mResultCache = resultCache;
+	}
+
+	public void setProbeDimensions(boolean probeDimensions) {
+		mProbeDimensions = probeDimensions;
+	}
+
+	/**
+	 * Sets the maximum number of image candidates that are probed per web page (see `ImageScraper.setMaxCandidates()`)
+	 *
+	 * @param maxCandidates the maximum number of candidates or `CandidateRanker.UNBOUNDED`
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		mMaxCandidates = maxCandidates;
+	}
+
+	/**
+	 * Sets the maximum number of bytes that are read from every web page (see `ImageScraper.setMaxPageBytes()`)
+	 *
+	 * @param maxPageBytes the maximum number of bytes or `0` for no limit
+	 */
+	public void setMaxPageBytes(long maxPageBytes) {
+		mMaxPageBytes = maxPageBytes;
+	}
+
+	/**
+	 * Sets whether reading stops at the end of the `head` section if the meta data provides any image (see `ImageScraper.setHeadOnly()`)
+	 *
+	 * @param headOnly whether to stop reading at the end of the `head` section
+	 */
+	public void setHeadOnly(boolean headOnly) {
+		mHeadOnly = headOnly;
+	}
+
+	/**
+	 * Sets the policy that decides which images are accepted and how they are ranked in all scrapes (see `ImageScraper.setImagePolicy()`)
+	 *
+	 * @param policy the policy to use
+	 */
+	public void setImagePolicy(ImagePolicy policy) {
+		mImagePolicy = policy;
+	}
+
+	/**
+	 * Sets the listener that receives the timings and probe outcomes of all scrapes (see `ImageScraper.setListener()`)
+	 *
+	 * @param listener the listener (e.g. a ScraperMetrics instance) or `null`
+	 */
+	public void setListener(ScraperListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Sets the maximum duration of every single scrape (see `ImageScraper.setDeadline()`)
+	 *
+	 * @param timeoutMillis the maximum duration in milliseconds or `0` for none
+	 */
+	public void setDeadline(long timeoutMillis) {
+		mDeadlineMillis = timeoutMillis;
+	}
+
+	/**
+	 * Starts scraping the given web pages on a separate thread
+	 *
+	 * @param urls the URLs of the web pages (which are read lazily so that the input may be larger than the available memory)
+	 * @throws IOException if the checkpoint file exists but could not be read
+	 */
+	public void start(Iterable<String> urls) throws IOException {
+		synchronized (mLock) {
+			if (mStarted) {
+				throw new IllegalStateException("The batch has been started already");
+			}
+			mStarted = true;
+			mInput = urls.iterator();
+			readCheckpoint();
+		}
+		final Thread dispatcher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatch();
+			}
+
+		}, "ImageScraper-batch");
+		dispatcher.start();
+	}
+
+	/** Stops starting new scrapes, cancels all running scrapes (without delivering their partial results) and saves the checkpoint */
+	public void cancel() {
+		final ImageScraper[] running;
+		synchronized (mLock) {
+			mCancelled = true;
+			running = mRunning.toArray(new ImageScraper[mRunning.size()]);
+			mLock.notifyAll();
+		}
+		for (ImageScraper scraper : running) {
+			scraper.cancel();
+		}
+	}
+
+	/**
+	 * Waits until all web pages have been scraped or the batch has been cancelled
+	 *
+	 * @throws InterruptedException if the current thread has been interrupted while waiting
+	 */
+	public void awaitFinished() throws InterruptedException {
+		synchronized (mLock) {
+			while (!mFinished) {
+				mLock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of URLs at the beginning of the input that have all been completed
+	 *
+	 * @return the number of completed URLs
+	 */
+	public long getCompletedCount() {
+		synchronized (mLock) {
+			return mWatermark;
+		}
+	}
+
+	/** Starts the buffered web pages as soon as the limits allow for it until the input has been exhausted */
+	private void dispatch() {
+		try {
+			synchronized (mLock) {
+				while (!mCancelled) {
+					readAhead();
+					if (mBuffered.isEmpty() && mRunning.isEmpty()) {
+						break;
+					}
+					final long now = System.currentTimeMillis();
+					long waitMillis = 0; // until a scrape has been completed
+					if (mRunning.size() < mMaxConcurrentScrapes) {
+						final Iterator<Job> jobs = mBuffered.iterator();
+						Job next = null;
+						while (jobs.hasNext()) {
+							final Job job = jobs.next();
+							final HostState host = getHostState(job.mHost);
+							if (host.mRunning >= mMaxConcurrentScrapesPerHost) {
+								continue;
+							}
+							if (host.mNextStart > now) {
+								final long hostWaitMillis = host.mNextStart-now;
+								if (waitMillis == 0 || hostWaitMillis < waitMillis) {
+									waitMillis = hostWaitMillis;
+								}
+								continue;
+							}
+							jobs.remove();
+							next = job;
+							break;
+						}
+						if (next != null) {
+							startJob(next, now);
+							continue;
+						}
+					}
+					mLock.wait(waitMillis);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			cancel();
+		}
+		finally {
+			writeCheckpoint();
+			synchronized (mLock) {
+				mFinished = true;
+				mLock.notifyAll();
+			}
+			mCallback.onBatchFinished();
+		}
+	}
+
+	/** Reads more URLs from the input until enough URLs are buffered (skipping those that are completed according to the checkpoint) */
+	private void readAhead() {
+		final int maxBuffered = mMaxConcurrentScrapes*READ_AHEAD_FACTOR;
+		while (mBuffered.size() < maxBuffered && mInput.hasNext()) {
+			final String url = mInput.next();
+			final long index = mNextIndex++;
+			if (index < mWatermark || mCompletedAfterWatermark.contains(index)) {
+				continue;
+			}
+			mBuffered.add(new Job(index, url));
+		}
+	}
+
+	private HostState getHostState(String host) {
+		HostState state = mHosts.get(host);
+		if (state == null) {
+			if (mHosts.size() >= mMaxConcurrentScrapes*READ_AHEAD_FACTOR*2) {
+				pruneHosts();
+			}
+			state = new HostState();
+			mHosts.put(host, state);
+		}
+		return state;
+	}
+
+	/** Forgets all hosts that have no running scrapes and are not rate-limited anymore so that the number of hosts remembered stays bounded */
+	private void pruneHosts() {
+		final long now = System.currentTimeMillis();
+		final Iterator<HostState> states = mHosts.values().iterator();
+		while (states.hasNext()) {
+			final HostState state = states.next();
+			if (state.mRunning == 0 && state.mNextStart <= now) {
+				states.remove();
+			}
+		}
+	}
+
+	private void startJob(final Job job, long now) {
+		final HostState host = getHostState(job.mHost);
+		host.mRunning++;
+		host.mNextStart = now+mMinIntervalPerHostMillis;
+		final ImageScraper scraper = new ImageScraper(null, job.mURL, mImagesRequestedCount);
+		scraper.setCallback(new ImageScraperCallback() {
+
+			@Override
+			public void onStarted() { }
+
+			@Override
+			public void onFinished(ImageScraperResult output) {
+				onJobFinished(job, scraper, output);
+			}
+
+		});
+		if (mUserAgent != null) {
+			scraper.setUserAgent(mUserAgent);
+		}
+		scraper.setHttpTransport(mTransport);
+		scraper.setExecutor(mExecutor);
+		scraper.setProbeEngine(mProbeEngine);
+		scraper.setProbeCache(mProbeCache);
+		scraper.setResultCache(mResultCache);
+		scraper.setProbeDimensions(mProbeDimensions);
+		scraper.setMaxCandidates(mMaxCandidates);
+		scraper.setListener(mListener);
+		scraper.setMaxPageBytes(mMaxPageBytes);
+		scraper.setHeadOnly(mHeadOnly);
+		scraper.setImagePolicy(mImagePolicy);
+		scraper.setDeadline(mDeadlineMillis);
+		mRunning.add(scraper);
+		scraper.start();
+	}
+
+	private void onJobFinished(Job job, ImageScraper scraper, ImageScraperResult result) {
+		final boolean cancelled;
+		synchronized (mLock) {
+			cancelled = mCancelled;
+		}
+		// results of scrapes that have been cancelled with the batch are dropped as they will be scraped again when the batch is resumed
+		try {
+			if (!cancelled) {
+				mCallback.onResult(job.mURL, result);
+			}
+		}
+		finally {
+			// the slot is released even if the callback fails so that the batch does not stall
+			boolean checkpointDue = false;
+			synchronized (mLock) {
+				mRunning.remove(scraper);
+				final HostState host = mHosts.get(job.mHost);
+				host.mRunning--;
+				if (host.mRunning == 0 && host.mNextStart <= System.currentTimeMillis()) {
+					mHosts.remove(job.mHost);
+				}
+				if (!cancelled) {
+					// the URL is marked as completed only after its result has been delivered
+					mCompletedAfterWatermark.add(job.mIndex);
+					while (mCompletedAfterWatermark.remove(mWatermark)) {
+						mWatermark++;
+					}
+					mCompletedSinceCheckpoint++;
+					if (mCompletedSinceCheckpoint >= mCheckpointInterval) {
+						mCompletedSinceCheckpoint = 0;
+						checkpointDue = true;
+					}
+				}
+				mLock.notifyAll();
+			}
+			if (checkpointDue) {
+				writeCheckpoint();
+			}
+		}
+	}
+
+	/** Restores the progress from the checkpoint file (if any) */
+	private void readCheckpoint() throws IOException {
+		if (mCheckpointFile == null || !mCheckpointFile.isFile()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(mCheckpointFile)));
+			if (in.readInt() != CHECKPOINT_VERSION) {
+				throw new IOException("Unsupported checkpoint version");
+			}
+			mWatermark = in.readLong();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				mCompletedAfterWatermark.add(in.readLong());
+			}
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) { }
+			}
+		}
+	}
+
+	/** Saves the progress to the checkpoint file (if any) by writing a temporary file first and renaming it afterwards */
+	private void writeCheckpoint() {
+		if (mCheckpointFile == null) {
+			return;
+		}
+		synchronized (mCheckpointLock) {
+			final long watermark;
+			final Long[] completedAfterWatermark;
+			synchronized (mLock) {
+				watermark = mWatermark;
+				completedAfterWatermark = mCompletedAfterWatermark.toArray(new Long[mCompletedAfterWatermark.size()]);
+			}
+			final File temporaryFile = new File(mCheckpointFile.getPath()+".tmp");
+			DataOutputStream out = null;
+			try {
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+				out.writeInt(CHECKPOINT_VERSION);
+				out.writeLong(watermark);
+				out.writeInt(completedAfterWatermark.length);
+				for (Long index : completedAfterWatermark) {
+					out.writeLong(index);
+				}
+				out.close();
+				out = null;
+				if (!temporaryFile.renameTo(mCheckpointFile)) {
+					mCheckpointFile.delete();
+					temporaryFile.renameTo(mCheckpointFile);
+				}
+			}
+			catch (IOException e) {
+				temporaryFile.delete();
+			}
+			finally {
+				if (out != null) {
+					try {
+						out.close();
+					}
+					catch (IOException e) { }
+				}
+			}
+		}
+	}
+
+	/** A single web page of the input */
+	private static class Job {
+
+		private final long mIndex;
+		private final String mURL;
+		private final String mHost;
+
+		public Job(long index, String url) {
+			mIndex = index;
+			mURL = url;
+			mHost = getHost(url);
+		}
+
+		private static String getHost(String url) {
+			try {
+				return new URL(url).getHost().toLowerCase(Locale.US);
+			}
+			catch (MalformedURLException e) {
+				return "";
+			}
+		}
+
+	}
+
+	/** The politeness state of a single host */
+	private static class HostState {
+
+		/** The number of scrapes of this host that are running */
+		private int mRunning;
+		/** The point in time when the next scrape of this host may be started (in milliseconds) */
+		private long mNextStart;
+
+	}
+
+}
@@ -0,0 +1,31 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/** Callback that receives the results of a BatchScraper as they are completed */
+public interface BatchScraperCallback {
+
+	/**
+	 * Called as soon as a single web page has been scraped (on one of the threads of the executor, possibly for several web pages at the same time)
+	 *
+	 * @param url the URL of the web page as it has been passed to the BatchScraper
+	 * @param result the result for the web page
+	 */
+	public void onResult(String url, ImageScraperResult result);
+	/** Called once all web pages have been scraped or the batch has been cancelled */
+	public void onBatchFinished();
+
+}
@@ -0,0 +1,362 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Storage for the entries of a cache that keeps them in memory with LRU eviction and may additionally write them to a directory so that they survive restarts
+ * <p>
+ * Files are written to a temporary file first and then renamed so that readers never see partial entries, and the directory is pruned (least recently used files first) when it holds too many entries
+ *
+ * @param <V> the type of the entries
+ */
+abstract class CacheStore<V> {
+
+	private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+	/** The share of the maximum number of files that is kept when the directory is pruned (so that it is not pruned on every write) */
+	private static final double PRUNE_FACTOR = 0.9;
+	private final Map<String, V> mEntries;
+	private final String mFileExtension;
+	private final Object mPruneLock = new Object();
+	private File mDiskDirectory;
+	private int mMaxDiskEntries;
+	/** The number of files in the directory (may be slightly off as files are counted only when the directory is set or pruned) */
+	private int mDiskEntryCount;
+
+	/**
+	 * Constructs a new store
+	 *
+	 * @param maxEntries the maximum number of entries to keep in memory (the least recently used entries are evicted first)
+	 * @param fileExtension the extension of the files that the entries are written to
+	 */
+	public CacheStore(final int maxEntries, String fileExtension) {
+		mFileExtension = fileExtension;
+		mEntries = new LinkedHashMap<String, V>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * Reads an entry from the given stream
+	 *
+	 * @param in the stream to read from
+	 * @return the entry
+	 * @throws IOException if the entry could not be read
+	 */
+	protected abstract V read(DataInputStream in) throws IOException;
+
+	/**
+	 * Writes the given entry to the given stream
+	 *
+	 * @param out the stream to write to
+	 * @param entry the entry to write
+	 * @throws IOException if the entry could not be written
+	 */
+	protected abstract void write(DataOutputStream out, V entry) throws IOException;
+
+	/**
+	 * Returns whether the given entry that has been read from disk may still be used (otherwise its file is deleted)
+	 *
+	 * @param entry the entry
+	 * @return whether the entry may still be used
+	 */
+	protected abstract boolean isUsable(V entry);
+
+	/**
+	 * Sets a directory where all entries are written to as well
+	 *
+	 * @param directory the directory to use (will be created if necessary) or `null` to keep entries in memory only
+	 * @param maxDiskEntries the maximum number of entries to keep in the directory
+	 */
+	public void setDiskDirectory(File directory, int maxDiskEntries) {
+		if (directory != null && !directory.isDirectory()) {
+			directory.mkdirs();
+		}
+		synchronized (this) {
+			mDiskDirectory = directory;
+			mMaxDiskEntries = maxDiskEntries;
+			mDiskEntryCount = 0;
+		}
+		if (directory != null) {
+			prune(directory, true); // counts the existing files and removes the ones that have been left behind by interrupted writes
+		}
+	}
+
+	/**
+	 * Returns the entry for the given key from memory or disk
+	 *
+	 * @param key the key
+	 * @return the entry or `null`
+	 */
+	public V get(String key) {
+		final File file;
+		synchronized (this) {
+			final V entry = mEntries.get(key);
+			if (entry != null) {
+				return entry;
+			}
+			file = getDiskFile(key);
+		}
+		if (file == null) {
+			return null;
+		}
+		final V entry = readFromDisk(file);
+		if (entry == null) {
+			return null;
+		}
+		if (!isUsable(entry)) { // entry can never be used again
+			file.delete();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis()); // the files that have been used least recently are pruned first
+		synchronized (this) {
+			mEntries.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Stores the given entry for the given key in memory and on disk
+	 *
+	 * @param key the key
+	 * @param entry the entry
+	 */
+	public void put(String key, V entry) {
+		final File file;
+		synchronized (this) {
+			mEntries.put(key, entry);
+			file = getDiskFile(key);
+		}
+		if (file != null) {
+			final boolean added = !file.exists();
+			if (writeToDisk(file, entry) && added) {
+				onFileAdded(file.getParentFile());
+			}
+		}
+	}
+
+	/** Removes all entries from memory and disk */
+	public void clear() {
+		final File directory;
+		synchronized (this) {
+			mEntries.clear();
+			directory = mDiskDirectory;
+			mDiskEntryCount = 0;
+		}
+		if (directory != null) {
+			final File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (file.getName().endsWith(mFileExtension) || file.getName().endsWith(mFileExtension+TEMPORARY_FILE_EXTENSION)) {
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+
+	private File getDiskFile(String key) {
+		if (mDiskDirectory == null) {
+			return null;
+		}
+		return new File(mDiskDirectory, hash(key)+mFileExtension);
+	}
+
+	private void onFileAdded(File directory) {
+		final boolean full;
+		synchronized (this) {
+			if (!directory.equals(mDiskDirectory)) {
+				return;
+			}
+			mDiskEntryCount++;
+			full = mDiskEntryCount > mMaxDiskEntries;
+		}
+		if (full) {
+			prune(directory, false);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory holds a bit less than the maximum number of entries
+	 *
+	 * @param directory the directory to prune
+	 * @param removeTemporaryFiles whether to remove temporary files as well (which must only be done when no entries can be written at the same time)
+	 */
+	private void prune(File directory, boolean removeTemporaryFiles) {
+		synchronized (mPruneLock) {
+			final File[] listed = directory.listFiles();
+			if (listed == null) {
+				return;
+			}
+			int count = 0;
+			for (int i = 0; i < listed.length; i++) {
+				final String name = listed[i].getName();
+				if (name.endsWith(mFileExtension)) {
+					listed[count++] = listed[i];
+				}
+				else if (removeTemporaryFiles && name.endsWith(mFileExtension+TEMPORARY_FILE_EXTENSION)) {
+					listed[i].delete();
+				}
+			}
+			final File[] files = Arrays.copyOf(listed, count);
+			final int maxDiskEntries;
+			synchronized (this) {
+				maxDiskEntries = mMaxDiskEntries;
+			}
+			if (files.length > maxDiskEntries) {
+				final long[] lastModified = new long[files.length];
+				final Integer[] order = new Integer[files.length];
+				for (int i = 0; i < files.length; i++) {
+					lastModified[i] = files[i].lastModified(); // read once as the sort must not see changing values
+					order[i] = i;
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+
+					@Override
+					public int compare(Integer a, Integer b) {
+						final long valueA = lastModified[a];
+						final long valueB = lastModified[b];
+						return valueA < valueB ? -1 : (valueA == valueB ? 0 : 1);
+					}
+
+				});
+				final int keep = (int) (maxDiskEntries*PRUNE_FACTOR);
+				for (int i = 0; i < files.length-keep; i++) {
+					if (files[order[i]].delete()) {
+						count--;
+					}
+				}
+			}
+			synchronized (this) {
+				if (directory.equals(mDiskDirectory)) {
+					mDiskEntryCount = count;
+				}
+			}
+		}
+	}
+
+	private V readFromDisk(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return read(in);
+		}
+		catch (IOException e) {
+			file.delete();
+			return null;
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException e) { }
+			}
+		}
+	}
+
+	/** Writes the given entry to a temporary file first and then replaces the given file with it so that readers never see a partial entry */
+	private boolean writeToDisk(File file, V entry) {
+		File temporaryFile = null;
+		DataOutputStream out = null;
+		try {
+			temporaryFile = File.createTempFile(file.getName(), mFileExtension+TEMPORARY_FILE_EXTENSION, file.getParentFile());
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			write(out, entry);
+			out.close();
+			out = null;
+			if (!temporaryFile.renameTo(file)) {
+				file.delete();
+				if (!temporaryFile.renameTo(file)) {
+					temporaryFile.delete();
+					return false;
+				}
+			}
+			return true;
+		}
+		catch (IOException e) {
+			if (temporaryFile != null) {
+				temporaryFile.delete();
+			}
+			return false;
+		}
+		finally {
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException e) { }
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	/** Returns a file name that is safe for all file systems and unique for the given key */
+	static String hash(String value) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+			final StringBuilder out = new StringBuilder(digest.length*2);
+			for (byte b : digest) {
+				out.append(Character.forDigit((b >> 4) & 0x0F, 16));
+				out.append(Character.forDigit(b & 0x0F, 16));
+			}
+			return out.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static void writeNullableString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
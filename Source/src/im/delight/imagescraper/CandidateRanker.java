@@ -0,0 +1,325 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scores the image candidates of a document by cheap heuristics so that only the most promising ones have to be probed over the network
+ * <p>
+ * The score is based on the section of the document (article vs. footer), the declared dimensions, the `srcset` descriptors and the URL itself (e.g. `thumb`, `icon` or `1x1`)
+ * <p>
+ * Variants of the same image (the `src` and the `srcset` candidates of a single tag) are reduced to the best one and images that are already part of the result (e.g. from OpenGraph tags) are skipped
+ */
+public class CandidateRanker {
+
+	/** The capacity to use if all candidates should be kept */
+	public static final int UNBOUNDED = 0;
+	/** The score of candidates that are certainly not worth probing (e.g. tracking pixels) */
+	public static final int SCORE_REJECTED = Integer.MIN_VALUE;
+	/** The minimum score of candidates that are promising enough to be probed before the rest of the document is known (e.g. large images in the content) */
+	public static final int SCORE_PROMISING = 30;
+	/** The parts of URLs that identify tracking pixels and placeholders */
+	private static final String[] URL_PATTERNS_REJECTED = { "1x1.", "1x1/", "pixel.", "spacer", "blank.", "transparent.", "placeholder", "tracking", "beacon" };
+	/** The parts of URLs that identify small or decorative images */
+	private static final String[] URL_PATTERNS_SMALL = { "thumb", "icon", "logo", "avatar", "sprite", "badge", "button", "emoji", "smiley", "banner", "/ads/", "widget" };
+	/** The parts of URLs that identify large images */
+	private static final String[] URL_PATTERNS_LARGE = { "large", "full", "original", "hero", "feature" };
+	private static final int MIN_URL_DIMENSION = 100;
+	private static final int LARGE_DIMENSION = 600;
+	private static final int MAX_ASPECT_RATIO = 4;
+	private final int mCapacity;
+	/** The best candidate for every canonical URL */
+	private final HashMap<String, Entry> mEntries;
+	/** The canonical URLs that are already part of the result and must not be probed again */
+	private final HashSet<String> mExcludedKeys;
+	/** The canonical URLs that have been returned for probing already */
+	private final HashSet<String> mTakenKeys;
+	/** The tags whose best variant has been returned for probing already */
+	private final HashSet<Integer> mTakenGroups;
+	private int mRejectedCount;
+
+	private static class Entry {
+
+		private final String mURL;
+		private final String mKey;
+		private final ImageCandidate mCandidate;
+		private final int mScore;
+
+		public Entry(String url, String key, ImageCandidate candidate, int score) {
+			mURL = url;
+			mKey = key;
+			mCandidate = candidate;
+			mScore = score;
+		}
+
+	}
+
+	/** Sorts entries by their score in descending order and by their position in the document otherwise */
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.mScore != b.mScore) {
+				return a.mScore > b.mScore ? -1 : 1;
+			}
+			return a.mCandidate.getPosition() - b.mCandidate.getPosition();
+		}
+
+	};
+
+	/**
+	 * Constructs a new ranker
+	 *
+	 * @param capacity the maximum number of candidates to return or `UNBOUNDED`
+	 */
+	public CandidateRanker(int capacity) {
+		mCapacity = capacity;
+		mEntries = new HashMap<String, Entry>();
+		mExcludedKeys = new HashSet<String>();
+		mTakenKeys = new HashSet<String>();
+		mTakenGroups = new HashSet<Integer>();
+	}
+
+	/**
+	 * Adds the given candidate (which replaces a previous candidate for the same image if it tells more about the image)
+	 *
+	 * @param url the absolute URL of the candidate
+	 * @param key the canonical URL that is equal for all variants of the same image (see URLCanonicalizer)
+	 * @param candidate the candidate to add
+	 */
+	public synchronized void add(String url, String key, ImageCandidate candidate) {
+		final int score = score(candidate);
+		if (score == SCORE_REJECTED) {
+			mRejectedCount++;
+			return;
+		}
+		final Entry previous = mEntries.get(key);
+		if (previous != null) {
+			// candidates from tags know their variants so they are preferred to the same URL found in the text
+			final boolean previousInTag = previous.mCandidate.getGroup() != ImageCandidate.NO_GROUP;
+			final boolean inTag = candidate.getGroup() != ImageCandidate.NO_GROUP;
+			if (previousInTag && !inTag || (previousInTag == inTag && previous.mScore >= score)) {
+				return;
+			}
+		}
+		mEntries.put(key, new Entry(url, key, candidate, score));
+	}
+
+	/**
+	 * Excludes the given image from the ranking because it is already part of the result
+	 *
+	 * @param key the canonical URL of the image to exclude
+	 */
+	public synchronized void exclude(String key) {
+		mExcludedKeys.add(key);
+	}
+
+	/**
+	 * Returns the number of candidates that have been rejected right away
+	 *
+	 * @return the number of rejected candidates
+	 */
+	public synchronized int getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	/**
+	 * Returns the number of distinct images that have been added and not rejected
+	 *
+	 * @return the number of candidates
+	 */
+	public synchronized int getCandidateCount() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Returns the absolute URLs of the best candidates that have not been returned by `takeTopURLs()` yet, up to the capacity in total (best candidates first)
+	 *
+	 * @return the URLs that should be probed
+	 */
+	public synchronized List<String> getTopURLs() {
+		return takeTopURLs(mCapacity == UNBOUNDED ? Integer.MAX_VALUE : mCapacity-mTakenKeys.size(), SCORE_REJECTED);
+	}
+
+	/**
+	 * Returns the absolute URLs of the best candidates that have not been returned before (best candidates first) so that they can be probed while more candidates are still being added
+	 * <p>
+	 * Only candidates from tags that are complete should be added before this is called, as the other variants of a tag are never returned afterwards
+	 *
+	 * @param count the maximum number of URLs to return
+	 * @param minScore the minimum score of the candidates to return
+	 * @return the URLs that should be probed now
+	 */
+	public synchronized List<String> takeTopURLs(int count, int minScore) {
+		// only the best variant of every image is kept
+		final HashMap<Integer, Entry> bestInGroup = new HashMap<Integer, Entry>();
+		final ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.size());
+		for (Entry entry : mEntries.values()) {
+			if (mExcludedKeys.contains(entry.mKey) || mTakenKeys.contains(entry.mKey)) {
+				continue;
+			}
+			final int group = entry.mCandidate.getGroup();
+			if (group == ImageCandidate.NO_GROUP) {
+				entries.add(entry);
+			}
+			else if (!mTakenGroups.contains(group)) {
+				final Entry best = bestInGroup.get(group);
+				if (best == null || ENTRY_COMPARATOR.compare(entry, best) < 0) {
+					bestInGroup.put(group, entry);
+				}
+			}
+		}
+		entries.addAll(bestInGroup.values());
+		Collections.sort(entries, ENTRY_COMPARATOR);
+
+		final ArrayList<String> out = new ArrayList<String>();
+		for (int i = 0; i < entries.size() && out.size() < count; i++) {
+			final Entry entry = entries.get(i);
+			if (entry.mScore < minScore) {
+				break; // the entries are sorted by their score
+			}
+			out.add(entry.mURL);
+			mTakenKeys.add(entry.mKey);
+			if (entry.mCandidate.getGroup() != ImageCandidate.NO_GROUP) {
+				mTakenGroups.add(entry.mCandidate.getGroup());
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the number of candidates that have been returned for probing so far
+	 *
+	 * @return the number of candidates
+	 */
+	public synchronized int getTakenCount() {
+		return mTakenKeys.size();
+	}
+
+	/**
+	 * Returns the heuristic score of the given candidate (the higher the more promising)
+	 *
+	 * @param candidate the candidate to score
+	 * @return the score or `SCORE_REJECTED` if the candidate should not be probed at all
+	 */
+	public static int score(ImageCandidate candidate) {
+		final String url = candidate.getURL().toLowerCase(Locale.US);
+		if (containsAny(url, URL_PATTERNS_REJECTED)) {
+			return SCORE_REJECTED;
+		}
+		final int width = candidate.getWidth();
+		final int height = candidate.getHeight();
+		if ((width > 0 && width < ImageScraper.MIN_DECLARED_IMAGE_DIMENSION) || (height > 0 && height < ImageScraper.MIN_DECLARED_IMAGE_DIMENSION)) {
+			return SCORE_REJECTED;
+		}
+
+		int score = 0;
+
+		// SECTION OF THE DOCUMENT BEGIN
+		if (candidate.getContext() == ImageCandidate.CONTEXT_CONTENT) {
+			score += 30;
+		}
+		else if (candidate.getContext() == ImageCandidate.CONTEXT_BOILERPLATE) {
+			score -= 40;
+		}
+		if (candidate.getSource() != ImageCandidate.SOURCE_TEXT) {
+			score += 10; // URLs in scripts and styles are often backgrounds and sprites
+		}
+		// SECTION OF THE DOCUMENT END
+
+		// DECLARED DIMENSIONS BEGIN
+		if (width > 0 && height > 0) {
+			score += Math.min(40, (int) ((long) width * height / 10000));
+			if (width > height * MAX_ASPECT_RATIO || height > width * MAX_ASPECT_RATIO) {
+				score -= 15; // banners and dividers
+			}
+		}
+		else if (width >= LARGE_DIMENSION || height >= LARGE_DIMENSION) {
+			score += 20;
+		}
+		if (candidate.getDescriptorWidth() > 0) {
+			score += Math.min(30, candidate.getDescriptorWidth() / 40);
+		}
+		else if (candidate.getDescriptorDensity() > 1) {
+			score += Math.min(15, (int) (candidate.getDescriptorDensity() * 5));
+		}
+		// DECLARED DIMENSIONS END
+
+		// URL PATTERNS BEGIN
+		if (containsAny(url, URL_PATTERNS_SMALL)) {
+			score -= 25;
+		}
+		if (containsAny(url, URL_PATTERNS_LARGE)) {
+			score += 10;
+		}
+		final int urlDimension = findDimension(url);
+		if (urlDimension > 0 && urlDimension < MIN_URL_DIMENSION) {
+			score -= 30;
+		}
+		else if (urlDimension >= LARGE_DIMENSION) {
+			score += 15;
+		}
+		// URL PATTERNS END
+
+		return score;
+	}
+
+	private static boolean containsAny(String text, String[] patterns) {
+		for (String pattern : patterns) {
+			if (text.contains(pattern)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds dimensions in the given URL such as `-150x150` and returns the smaller one of them
+	 *
+	 * @param url the URL in lower case
+	 * @return the smaller dimension or `0` if none has been found
+	 */
+	private static int findDimension(String url) {
+		final int length = url.length();
+		for (int i = url.indexOf('x'); i > 0 && i < length-1; i = url.indexOf('x', i+1)) {
+			int start = i;
+			while (start > 0 && Character.isDigit(url.charAt(start-1))) {
+				start--;
+			}
+			int end = i+1;
+			while (end < length && Character.isDigit(url.charAt(end))) {
+				end++;
+			}
+			// both numbers must have between two and four digits to look like dimensions
+			if (i-start >= 2 && i-start <= 4 && end-i-1 >= 2 && end-i-1 <= 4) {
+				final int width = Integer.parseInt(url.substring(start, i));
+				final int height = Integer.parseInt(url.substring(i+1, end));
+				return Math.min(width, height);
+			}
+		}
+		return 0;
+	}
+
+}
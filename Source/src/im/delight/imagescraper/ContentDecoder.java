@@ -0,0 +1,161 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates compressed transfer of web pages and decodes the compressed responses while they are being read
+ * <p>
+ * `gzip` and `deflate` are always supported, `br` (Brotli) only if the decoder `org.brotli.dec.BrotliInputStream` is available on the classpath
+ */
+public class ContentDecoder {
+
+	private static final String BROTLI_DECODER_CLASS = "org.brotli.dec.BrotliInputStream";
+	private static final int BUFFER_SIZE = 4096;
+	/** The constructor of the Brotli decoder or `null` if it is not available */
+	private static final Constructor<?> BROTLI_DECODER = findBrotliDecoder();
+
+	private ContentDecoder() { }
+
+	private static Constructor<?> findBrotliDecoder() {
+		try {
+			return Class.forName(BROTLI_DECODER_CLASS).getConstructor(InputStream.class);
+		}
+		catch (Exception e) { // class or constructor not found
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether responses compressed with Brotli can be decoded
+	 *
+	 * @return whether Brotli is supported
+	 */
+	public static boolean isBrotliSupported() {
+		return BROTLI_DECODER != null;
+	}
+
+	/**
+	 * Returns the value for the `Accept-Encoding` header that lists all supported encodings
+	 *
+	 * @return the value of the header
+	 */
+	public static String getAcceptEncoding() {
+		return isBrotliSupported() ? "gzip, deflate, br" : "gzip, deflate";
+	}
+
+	/**
+	 * Wraps the given body so that it is decoded while it is being read
+	 * <p>
+	 * The decoded body must be closed to release the native resources of its decoders, which does not close the given body (so that its connection can still be reused)
+	 *
+	 * @param in the body as it has been transferred
+	 * @param contentEncoding the value of the `Content-Encoding` header (may be `null`)
+	 * @return the decoded body
+	 * @throws IOException if the encoding is not supported or the body is not encoded correctly
+	 */
+	public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+		final InputStream body = new FilterInputStream(in) {
+
+			@Override
+			public void close() { } // the body is closed by its owner
+
+		};
+		if (contentEncoding == null) {
+			return body;
+		}
+		// multiple encodings are listed in the order in which they have been applied
+		final String[] encodings = contentEncoding.split(",");
+		InputStream out = body;
+		try {
+			for (int i = encodings.length-1; i >= 0; i--) {
+				final String encoding = encodings[i].trim().toLowerCase(Locale.US);
+				if (encoding.equals("") || encoding.equals("identity")) {
+					continue;
+				}
+				else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+					out = new GZIPInputStream(out, BUFFER_SIZE);
+				}
+				else if (encoding.equals("deflate")) {
+					out = createInflater(out);
+				}
+				else if (encoding.equals("br") && BROTLI_DECODER != null) {
+					out = createBrotliDecoder(out);
+				}
+				else {
+					throw new IOException("Unsupported content encoding: "+encoding);
+				}
+			}
+		}
+		catch (IOException e) {
+			out.close(); // releases the decoders that have been created already
+			throw e;
+		}
+		return out;
+	}
+
+	/** Creates a decoder for `deflate`, which should be wrapped in zlib format but is sent as raw deflate data by some servers */
+	private static InputStream createInflater(InputStream in) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(2);
+		final int cmf = buffered.read();
+		final int flg = buffered.read();
+		buffered.reset();
+		final boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && (cmf * 256 + flg) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(buffered, inflater, BUFFER_SIZE) {
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				}
+				finally {
+					inflater.end(); // an inflater that has been passed in is not ended by the stream itself
+				}
+			}
+
+		};
+	}
+
+	private static InputStream createBrotliDecoder(InputStream in) throws IOException {
+		try {
+			return (InputStream) BROTLI_DECODER.newInstance(in);
+		}
+		catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not create Brotli decoder: "+e.getCause());
+		}
+		catch (Exception e) {
+			throw new IOException("Could not create Brotli decoder: "+e);
+		}
+	}
+
+}
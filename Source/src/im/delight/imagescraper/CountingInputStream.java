@@ -0,0 +1,105 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Stream that counts the bytes that have been read through it and optionally ends after a maximum number of bytes */
+class CountingInputStream extends FilterInputStream {
+
+	private final long mLimit;
+	private volatile long mCount;
+
+	public CountingInputStream(InputStream in) {
+		this(in, 0);
+	}
+
+	/**
+	 * Constructs a new stream that ends as soon as the given number of bytes has been read
+	 *
+	 * @param in the stream to read from
+	 * @param limit the maximum number of bytes or `0` for no limit
+	 */
+	public CountingInputStream(InputStream in, long limit) {
+		super(in);
+		mLimit = limit;
+	}
+
+	/**
+	 * Returns the number of bytes that have been read so far
+	 *
+	 * @return the number of bytes
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns whether this stream has ended because the maximum number of bytes has been read
+	 *
+	 * @return whether the limit has been reached
+	 */
+	public boolean isLimitReached() {
+		return mLimit > 0 && mCount >= mLimit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (isLimitReached()) {
+			return -1;
+		}
+		final int b = super.read();
+		if (b >= 0) {
+			mCount++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (isLimitReached()) {
+			return -1;
+		}
+		if (mLimit > 0) {
+			length = (int) Math.min(length, mLimit-mCount);
+		}
+		final int count = super.read(buffer, offset, length);
+		if (count > 0) {
+			mCount += count;
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (mLimit > 0) {
+			n = Math.min(n, mLimit-mCount);
+		}
+		final long skipped = super.skip(n);
+		mCount += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+}
@@ -0,0 +1,172 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values (e.g. durations in milliseconds or sizes in bytes) with log-linear buckets
+ * <p>
+ * Every power of two is divided into eight buckets so that percentiles are accurate within 12.5% while recording a value costs only a few atomic increments
+ * <p>
+ * This class is thread-safe
+ */
+public class Histogram {
+
+	/** The number of linear sub-buckets per power of two (as a power of two itself) */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	/** Values below `2^MAX_EXPONENT` are distinguished, larger values are counted in the last bucket */
+	private static final int MAX_EXPONENT = 40;
+	/** One group of linear buckets for the values below `SUB_BUCKET_COUNT`, one group for every power of two above and the overflow bucket */
+	private static final int BUCKET_COUNT = (MAX_EXPONENT-SUB_BUCKET_BITS+1) * SUB_BUCKET_COUNT + 1;
+	private final AtomicLongArray mCounts;
+	private final AtomicLong mCount;
+	private final AtomicLong mSum;
+	private final AtomicLong mMax;
+
+	public Histogram() {
+		mCounts = new AtomicLongArray(BUCKET_COUNT);
+		mCount = new AtomicLong();
+		mSum = new AtomicLong();
+		mMax = new AtomicLong();
+	}
+
+	/**
+	 * Records the given value
+	 *
+	 * @param value the value to record (negative values are recorded as `0`)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		mCounts.incrementAndGet(getBucket(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max = mMax.get();
+		while (value > max && !mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public long getSum() {
+		return mSum.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public double getMean() {
+		final long count = mCount.get();
+		return count == 0 ? 0 : (double) mSum.get() / count;
+	}
+
+	/**
+	 * Returns the value below which the given share of all recorded values lies
+	 *
+	 * @param percentile the percentile between `0` and `100` (e.g. `99`)
+	 * @return the upper bound of the bucket that contains the percentile (but never more than the maximum) or `0` if no values have been recorded
+	 */
+	public long getPercentile(double percentile) {
+		final long count = mCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Returns the number of buckets so that all buckets can be exported (see `getBucketUpperBound()` and `getBucketCount()`)
+	 *
+	 * @return the number of buckets
+	 */
+	public int getNumberOfBuckets() {
+		return BUCKET_COUNT;
+	}
+
+	/**
+	 * Returns the largest value that is counted in the given bucket
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the inclusive upper bound
+	 */
+	public long getBucketUpperBound(int bucket) {
+		if (bucket == BUCKET_COUNT-1) {
+			return Long.MAX_VALUE;
+		}
+		if (bucket < SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		final int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		final long subBucket = bucket % SUB_BUCKET_COUNT;
+		return ((SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Returns the number of values that have been recorded in the given bucket
+	 *
+	 * @param bucket the index of the bucket
+	 * @return the number of values
+	 */
+	public long getBucketCount(int bucket) {
+		return mCounts.get(bucket);
+	}
+
+	/** Removes all recorded values (values that are recorded at the same time may be lost) */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	private static int getBucket(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		final int exponent = 63-Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKET_COUNT-1;
+		}
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram [count=" + getCount() + ", mean=" + Math.round(getMean()) + ", p50=" + getPercentile(50) + ", p90=" + getPercentile(90) + ", p99=" + getPercentile(99) + ", max=" + getMax() + "]";
+	}
+
+}
@@ -0,0 +1,165 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Decides whether a response contains an HTML document and decodes it with the charset that the document declares
+ * <p>
+ * The charset is taken from the byte order mark, the `Content-Type` header or a `meta` tag within the first bytes of the document (in this order, similar to the HTML specification)
+ */
+public class HtmlDecoder {
+
+	/** The number of bytes at the beginning of the document that are searched for a `meta` tag declaring the charset */
+	public static final int PRESCAN_BYTES = 1024;
+
+	private HtmlDecoder() { }
+
+	/**
+	 * Returns whether the given `Content-Type` header describes an HTML document
+	 *
+	 * @param contentType the value of the `Content-Type` header (may be `null`)
+	 * @return whether the document is HTML (or its type is unknown)
+	 */
+	public static boolean isHtml(String contentType) {
+		if (contentType == null) {
+			return true;
+		}
+		final int semicolon = contentType.indexOf(';');
+		final String mimeType = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.US);
+		return mimeType.equals("") || mimeType.equals("text/html") || mimeType.equals("application/xhtml+xml");
+	}
+
+	/**
+	 * Extracts the charset from the given `Content-Type` header
+	 *
+	 * @param contentType the value of the `Content-Type` header (may be `null`)
+	 * @return the charset or `null` if none has been declared
+	 */
+	public static String getCharset(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		for (String parameter : contentType.split(";")) {
+			final String[] pair = parameter.trim().split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+				final String charset = pair[1].trim().replace("\"", "").replace("'", "");
+				return charset.equals("") ? null : charset;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a reader that decodes the given document with the charset that it declares
+	 *
+	 * @param in the stream of the document
+	 * @param contentType the value of the `Content-Type` header (may be `null`)
+	 * @param defaultCharset the charset to use if the document does not declare any
+	 * @return the reader
+	 * @throws IOException if the beginning of the document could not be read
+	 */
+	public static Reader createReader(InputStream in, String contentType, String defaultCharset) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(in, PRESCAN_BYTES * 2);
+		buffered.mark(PRESCAN_BYTES);
+		final byte[] prefix = new byte[PRESCAN_BYTES];
+		int length = 0;
+		int count;
+		while (length < PRESCAN_BYTES && (count = buffered.read(prefix, length, PRESCAN_BYTES-length)) != -1) {
+			length += count;
+		}
+		buffered.reset();
+
+		// DETECT CHARSET BEGIN
+		String charset;
+		if (length >= 3 && (prefix[0] & 0xFF) == 0xEF && (prefix[1] & 0xFF) == 0xBB && (prefix[2] & 0xFF) == 0xBF) {
+			charset = "UTF-8";
+			buffered.skip(3);
+		}
+		else if (length >= 2 && (((prefix[0] & 0xFF) == 0xFE && (prefix[1] & 0xFF) == 0xFF) || ((prefix[0] & 0xFF) == 0xFF && (prefix[1] & 0xFF) == 0xFE))) {
+			charset = "UTF-16"; // the decoder consumes the byte order mark itself
+		}
+		else {
+			charset = getSupportedCharset(getCharset(contentType));
+			if (charset == null) {
+				charset = getSupportedCharset(findMetaCharset(new String(prefix, 0, length, "ISO-8859-1")));
+			}
+			if (charset == null) {
+				charset = defaultCharset;
+			}
+		}
+		// DETECT CHARSET END
+
+		return new InputStreamReader(buffered, charset);
+	}
+
+	/**
+	 * Searches the given beginning of a document for a `meta` tag that declares the charset (`<meta charset="...">` or `<meta http-equiv="Content-Type" content="...">`)
+	 *
+	 * @param prefix the beginning of the document decoded as ISO-8859-1
+	 * @return the charset or `null` if none has been declared
+	 */
+	static String findMetaCharset(String prefix) {
+		final String lowerCase = prefix.toLowerCase(Locale.US);
+		final HashMap<String, String> attributes = new HashMap<String, String>();
+		int start = lowerCase.indexOf("<meta");
+		while (start >= 0) {
+			final int end = lowerCase.indexOf('>', start);
+			if (end < 0) {
+				break;
+			}
+			HtmlTagParser.parse(prefix.substring(start, end+1), attributes);
+			String charset = attributes.get("charset");
+			if (charset == null) {
+				final String httpEquiv = attributes.get("http-equiv");
+				if (httpEquiv != null && httpEquiv.trim().equalsIgnoreCase("content-type")) {
+					charset = getCharset(attributes.get("content"));
+				}
+			}
+			if (charset != null && charset.trim().length() > 0) {
+				charset = charset.trim();
+				// the bytes that have been read so far are not UTF-16 so the declaration must be wrong (as defined by the HTML specification)
+				return charset.toLowerCase(Locale.US).startsWith("utf-16") ? "UTF-8" : charset;
+			}
+			start = lowerCase.indexOf("<meta", end);
+		}
+		return null;
+	}
+
+	/** Returns the given charset if the runtime supports it or `null` otherwise */
+	private static String getSupportedCharset(String charset) {
+		if (charset == null) {
+			return null;
+		}
+		try {
+			return Charset.isSupported(charset) ? charset : null;
+		}
+		catch (IllegalArgumentException e) { // illegal name
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,580 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Reads an HTML document from a stream in fixed-size chunks and reports base URLs, meta tags, link tags and image URLs in a single forward pass
+ * <p>
+ * Image URLs are found by their file extension anywhere in the document (anchored on the extension while the URL characters are read) as well as in the `src`, `srcset` and lazy-loading attributes of `img` and `source` tags
+ * <p>
+ * Meta data (`base`, `meta` and `link` tags) is only read until the closing `head` tag
+ * <p>
+ * Only the tag that is currently being inspected and the URL that is currently being read are buffered, so the complete document is never held in memory
+ */
+public class HtmlScanner {
+
+	/** The number of characters that are read from the stream at once */
+	public static final int BUFFER_SIZE = 4096;
+	/** Image URLs ending in `.jpg` or `.jpeg` */
+	public static final int FORMAT_JPEG = 1;
+	/** Image URLs ending in `.png` */
+	public static final int FORMAT_PNG = 2;
+	/** Image URLs ending in `.webp` */
+	public static final int FORMAT_WEBP = 4;
+	/** Image URLs ending in `.gif` */
+	public static final int FORMAT_GIF = 8;
+	/** Image URLs ending in `.avif` */
+	public static final int FORMAT_AVIF = 16;
+	public static final int FORMAT_ALL = FORMAT_JPEG | FORMAT_PNG | FORMAT_WEBP | FORMAT_GIF | FORMAT_AVIF;
+	/** The maximum length of a `meta`, `base` or `link` tag that is inspected (longer tags are skipped) */
+	private static final int MAX_TAG_LENGTH = 4096;
+	/** The maximum length of an image URL (longer runs of URL characters, e.g. data URIs, are discarded) */
+	private static final int MAX_URL_LENGTH = 2048;
+	/** The maximum length of a tag name that we are interested in (including the slash of closing tags) */
+	private static final int MAX_TAG_NAME_LENGTH = 8;
+	/** The attributes of `img` and `source` tags that contain a single image URL */
+	private static final String[] IMAGE_URL_ATTRIBUTES = { "src", "data-src", "data-lazy-src", "data-original" };
+	/** The attributes of `img` and `source` tags that contain a list of image candidates */
+	private static final String[] IMAGE_SRCSET_ATTRIBUTES = { "srcset", "data-srcset" };
+	/** The quotes (as named character references) that may surround the URL inside of a CSS `url()` in a `style` attribute */
+	private static final String[] ESCAPED_QUOTES = { "&quot;", "&apos;" };
+	private static final byte CHAR_CLASS_URL = 1;
+	private static final byte CHAR_CLASS_FIRST = 2;
+	/** Lookup table for the classes of all ASCII characters (whether they may appear inside of an image URL and at its beginning) */
+	private static final byte[] CHAR_CLASSES = new byte[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '/' || c == '?') {
+				CHAR_CLASSES[c] = CHAR_CLASS_URL | CHAR_CLASS_FIRST;
+			}
+			else if ("-.~:[]@!$&()*+,;=%".indexOf(c) >= 0) {
+				CHAR_CLASSES[c] = CHAR_CLASS_URL;
+			}
+		}
+	}
+
+	private static final int STATE_TEXT = 0;
+	private static final int STATE_TAG_NAME = 1;
+	private static final int STATE_TAG = 2;
+	private final HtmlScannerCallback mCallback;
+	private final char[] mBuffer;
+	/** The name of the tag that is currently being opened */
+	private final StringBuilder mTagName;
+	/** The contents of the `meta`, `base` or `link` tag that is currently being read */
+	private final StringBuilder mTag;
+	/** The attributes of the last tag that has been read completely */
+	private final HashMap<String, String> mAttributes;
+	/** The run of URL characters that is currently being read */
+	private final StringBuilder mRun;
+	private int mState;
+	/** The quote character that the current tag is inside of or 0 if none */
+	private char mQuote;
+	/** The image formats whose file extensions are detected (combination of the `FORMAT_*` constants) */
+	private int mFormats = FORMAT_JPEG;
+	/** The end position of the last image file extension inside the current run or 0 if none */
+	private int mExtensionEnd;
+	/** Whether the current run has exceeded the maximum URL length */
+	private boolean mRunOverflow;
+	private boolean mBaseURLFound;
+	/** Whether the closing `head` tag has been read so that no more meta data is expected */
+	private boolean mHeadEnded;
+	/** Whether the tag that is currently being read is an `img` or `source` tag (whose URLs are reported with their attributes) */
+	private boolean mInImageTag;
+	/** The number of `article` and `main` sections that are currently open */
+	private int mContentDepth;
+	/** The number of `footer`, `nav` and `aside` sections that are currently open */
+	private int mBoilerplateDepth;
+	/** The number of `img` and `source` tags that have been read so far */
+	private int mImageTagCount;
+	/** The number of image URLs that have been reported so far */
+	private int mImageURLCount;
+	private volatile boolean mStopped;
+
+	/**
+	 * Constructs a new HtmlScanner that reports to the given callback
+	 *
+	 * @param callback callback where all findings will be sent to
+	 */
+	public HtmlScanner(HtmlScannerCallback callback) {
+		mCallback = callback;
+		mBuffer = new char[BUFFER_SIZE];
+		mTagName = new StringBuilder(MAX_TAG_NAME_LENGTH);
+		mTag = new StringBuilder();
+		mAttributes = new HashMap<String, String>();
+		mRun = new StringBuilder();
+	}
+
+	/**
+	 * Sets the image formats whose URLs should be reported (JPEG only by default)
+	 *
+	 * @param formats a combination of the `FORMAT_*` constants
+	 */
+	public void setImageFormats(int formats) {
+		mFormats = formats;
+	}
+
+	/**
+	 * Reads the given document until its end or until `stop()` is called
+	 *
+	 * @param reader the HTML document to read
+	 * @return the number of characters that have been read
+	 * @throws IOException if the document could not be read
+	 */
+	public long scan(Reader reader) throws IOException {
+		long charsRead = 0;
+		int count;
+		while (!mStopped && (count = reader.read(mBuffer, 0, BUFFER_SIZE)) != -1) {
+			charsRead += count;
+			for (int i = 0; i < count && !mStopped; i++) {
+				onChar(mBuffer[i]);
+			}
+		}
+		if (!mStopped) {
+			onRunEnd();
+		}
+		return charsRead;
+	}
+
+	/** Stops reading the document as soon as possible (may be called from within the callback or from another thread) */
+	public void stop() {
+		mStopped = true;
+	}
+
+	private void onChar(final char c) {
+		// DETECT IMAGE URLS BEGIN
+		if (isURLChar(c)) {
+			if (mRunOverflow || mRun.length() >= MAX_URL_LENGTH) {
+				mRunOverflow = true;
+			}
+			else {
+				mRun.append(c);
+				if (isExtensionEnd(c)) {
+					mExtensionEnd = mRun.length();
+				}
+			}
+		}
+		else {
+			onRunEnd();
+		}
+		// DETECT IMAGE URLS END
+
+		// DETECT BASE AND META TAGS BEGIN
+		switch (mState) {
+			case STATE_TEXT:
+				if (c == '<') {
+					mTagName.setLength(0);
+					mState = STATE_TAG_NAME;
+				}
+				break;
+			case STATE_TAG_NAME:
+				if (isLetter(c) && mTagName.length() < MAX_TAG_NAME_LENGTH) {
+					mTagName.append(Character.toLowerCase(c));
+				}
+				else if (c == '/' && mTagName.length() == 0) {
+					mTagName.append(c);
+				}
+				else if (c == '<') {
+					mTagName.setLength(0);
+				}
+				else if (!isLetter(c) && updateSection(mTagName)) {
+					mState = STATE_TEXT;
+				}
+				else if (!isLetter(c) && isHeadEndTag(mTagName)) {
+					mState = STATE_TEXT;
+					if (!mHeadEnded) {
+						mHeadEnded = true;
+						mCallback.onHeadEnd();
+					}
+				}
+				else if (!isLetter(c) && ((!mHeadEnded && isMetaDataTag(mTagName)) || isImageTag(mTagName))) {
+					mTag.setLength(0);
+					mTag.append('<').append(mTagName).append(c);
+					mQuote = 0;
+					mInImageTag = isImageTag(mTagName);
+					if (c == '>') {
+						onTag();
+					}
+					else {
+						mState = STATE_TAG;
+					}
+				}
+				else {
+					mState = STATE_TEXT;
+				}
+				break;
+			case STATE_TAG:
+				if (mTag.length() >= MAX_TAG_LENGTH) {
+					mState = STATE_TEXT;
+				}
+				else {
+					mTag.append(c);
+					if (mQuote != 0) {
+						if (c == mQuote) {
+							mQuote = 0;
+						}
+					}
+					else if (c == '"' || c == '\'') {
+						mQuote = c;
+					}
+					else if (c == '>') {
+						onTag();
+					}
+				}
+				break;
+		}
+		// DETECT BASE AND META TAGS END
+	}
+
+	/** Executes as soon as a complete `meta`, `base` or `link` tag has been read */
+	private void onTag() {
+		mState = STATE_TEXT;
+		final String tagName = HtmlTagParser.parse(mTag, mAttributes);
+		if (tagName.equals("meta")) {
+			// OpenGraph uses the `property` attribute whereas Twitter cards use the `name` attribute
+			String property = mAttributes.get("property");
+			if (property == null) {
+				property = mAttributes.get("name");
+			}
+			final String content = mAttributes.get("content");
+			if (property != null && content != null && content.length() > 0) {
+				property = property.trim().toLowerCase(Locale.US);
+				if (property.startsWith("og:") || property.startsWith("twitter:")) {
+					mCallback.onMetaTag(property, content.trim());
+				}
+			}
+		}
+		else if (tagName.equals("link")) {
+			final String rel = mAttributes.get("rel");
+			final String href = mAttributes.get("href");
+			if (rel != null && href != null && href.length() > 0) {
+				mCallback.onLinkTag(rel.trim().toLowerCase(Locale.US), href.trim());
+			}
+		}
+		else if (tagName.equals("img") || tagName.equals("source")) {
+			onImageTag();
+		}
+		else if (tagName.equals("base") && !mBaseURLFound) {
+			final String href = mAttributes.get("href");
+			if (href != null && href.length() > 0) {
+				mBaseURLFound = true;
+				mCallback.onBaseURL(href.trim());
+			}
+		}
+	}
+
+	/** Reports the image URLs from the attributes of the `img` or `source` tag that has just been read */
+	private void onImageTag() {
+		final int group = mImageTagCount++;
+		final int width = parseDimension(mAttributes.get("width"));
+		final int height = parseDimension(mAttributes.get("height"));
+		for (String attribute : IMAGE_URL_ATTRIBUTES) {
+			final String value = mAttributes.get(attribute);
+			if (value != null) {
+				onAttributeURL(value.trim(), ImageCandidate.SOURCE_TAG, width, height, 0, 0, group);
+			}
+		}
+		for (String attribute : IMAGE_SRCSET_ATTRIBUTES) {
+			final String value = mAttributes.get(attribute);
+			if (value == null) {
+				continue;
+			}
+			// every candidate is a URL followed by optional descriptors (e.g. `480w` or `2x`) and separated by commas
+			final int length = value.length();
+			int i = 0;
+			while (i < length) {
+				while (i < length && (Character.isWhitespace(value.charAt(i)) || value.charAt(i) == ',')) {
+					i++;
+				}
+				final int urlStart = i;
+				while (i < length && !Character.isWhitespace(value.charAt(i))) {
+					i++;
+				}
+				int urlEnd = i;
+				final boolean hasDescriptors = urlEnd == 0 || value.charAt(urlEnd-1) != ',';
+				while (urlEnd > urlStart && value.charAt(urlEnd-1) == ',') {
+					urlEnd--;
+				}
+				final int descriptorsStart = i;
+				if (hasDescriptors) {
+					while (i < length && value.charAt(i) != ',') {
+						i++;
+					}
+				}
+				if (urlEnd > urlStart) {
+					final String descriptors = value.substring(descriptorsStart, i).trim();
+					int descriptorWidth = 0;
+					float descriptorDensity = 0;
+					if (descriptors.length() > 1) {
+						final char unit = Character.toLowerCase(descriptors.charAt(descriptors.length()-1));
+						try {
+							if (unit == 'w') {
+								descriptorWidth = Integer.parseInt(descriptors.substring(0, descriptors.length()-1));
+							}
+							else if (unit == 'x') {
+								descriptorDensity = Float.parseFloat(descriptors.substring(0, descriptors.length()-1));
+							}
+						}
+						catch (NumberFormatException e) { } // the descriptor is only a hint
+					}
+					onAttributeURL(value.substring(urlStart, urlEnd), ImageCandidate.SOURCE_SRCSET, width, height, descriptorWidth, descriptorDensity, group);
+				}
+			}
+		}
+	}
+
+	/** Reports the given URL from an attribute unless it is embedded or has the extension of a format that has not been requested */
+	private void onAttributeURL(String url, int source, int width, int height, int descriptorWidth, float descriptorDensity, int group) {
+		if (url.length() == 0 || url.length() > MAX_URL_LENGTH || url.startsWith("data:") || url.startsWith("javascript:")) {
+			return;
+		}
+		int pathEnd = url.length();
+		for (int i = 0; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			if (c == '?' || c == '#') {
+				pathEnd = i;
+				break;
+			}
+		}
+		final String path = url.substring(0, pathEnd).toLowerCase(Locale.US);
+		final int format = getFormat(path);
+		if (format == 0 ? path.endsWith(".svg") : (format & mFormats) == 0) {
+			return;
+		}
+		mCallback.onImageURL(new ImageCandidate(url, source, getContext(), width, height, descriptorWidth, descriptorDensity, group, mImageURLCount++));
+	}
+
+	/**
+	 * Parses the value of a `width` or `height` attribute
+	 *
+	 * @param value the value of the attribute (may be `null`)
+	 * @return the dimension in pixels or `0` if unknown or relative
+	 */
+	private static int parseDimension(String value) {
+		if (value == null) {
+			return 0;
+		}
+		int dimension = 0;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c >= '0' && c <= '9' && dimension < 100000) {
+				dimension = dimension * 10 + (c - '0');
+			}
+			else if (c == '%') {
+				return 0;
+			}
+			else if (c != ' ') {
+				break;
+			}
+		}
+		return dimension;
+	}
+
+	/**
+	 * Keeps track of the sections of the document that are currently open
+	 *
+	 * @param tagName the name of the tag that is being opened (starting with a slash if it is being closed)
+	 * @return whether the tag is the beginning or end of a section
+	 */
+	private boolean updateSection(CharSequence tagName) {
+		final int length = tagName.length();
+		if (length < 3 || length > 8) {
+			return false;
+		}
+		final String name = tagName.toString();
+		if (name.equals("article") || name.equals("main")) {
+			mContentDepth++;
+		}
+		else if (name.equals("/article") || name.equals("/main")) {
+			mContentDepth = Math.max(0, mContentDepth-1);
+		}
+		else if (name.equals("footer") || name.equals("nav") || name.equals("aside")) {
+			mBoilerplateDepth++;
+		}
+		else if (name.equals("/footer") || name.equals("/nav") || name.equals("/aside")) {
+			mBoilerplateDepth = Math.max(0, mBoilerplateDepth-1);
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	/** Returns the section of the document that is currently being read as one of the `ImageCandidate.CONTEXT_*` constants */
+	private int getContext() {
+		if (mBoilerplateDepth > 0) {
+			return ImageCandidate.CONTEXT_BOILERPLATE;
+		}
+		else if (mContentDepth > 0) {
+			return ImageCandidate.CONTEXT_CONTENT;
+		}
+		else {
+			return ImageCandidate.CONTEXT_NEUTRAL;
+		}
+	}
+
+	/** Returns whether the given character that has just been added to the current run completes the file extension of a requested format */
+	private boolean isExtensionEnd(char c) {
+		switch (c) {
+			case 'g': case 'G':
+				return ((mFormats & FORMAT_JPEG) != 0 && (endsWithIgnoreCase(mRun, ".jpg") || endsWithIgnoreCase(mRun, ".jpeg"))) || ((mFormats & FORMAT_PNG) != 0 && endsWithIgnoreCase(mRun, ".png"));
+			case 'p': case 'P':
+				return (mFormats & FORMAT_WEBP) != 0 && endsWithIgnoreCase(mRun, ".webp");
+			case 'f': case 'F':
+				return ((mFormats & FORMAT_GIF) != 0 && endsWithIgnoreCase(mRun, ".gif")) || ((mFormats & FORMAT_AVIF) != 0 && endsWithIgnoreCase(mRun, ".avif"));
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the format of the given path by its file extension
+	 *
+	 * @param path the path in lower case
+	 * @return one of the `FORMAT_*` constants or `0` if unknown
+	 */
+	static int getFormat(String path) {
+		if (path.endsWith(".jpg") || path.endsWith(".jpeg")) {
+			return FORMAT_JPEG;
+		}
+		else if (path.endsWith(".png")) {
+			return FORMAT_PNG;
+		}
+		else if (path.endsWith(".webp")) {
+			return FORMAT_WEBP;
+		}
+		else if (path.endsWith(".gif")) {
+			return FORMAT_GIF;
+		}
+		else if (path.endsWith(".avif")) {
+			return FORMAT_AVIF;
+		}
+		else {
+			return 0;
+		}
+	}
+
+	/** Executes as soon as a run of URL characters has ended and reports the JPEG URL that it contains (if any) */
+	private void onRunEnd() {
+		if (!mRunOverflow && mExtensionEnd > 0) {
+			// the URL must start with one of the allowed first characters and must have at least two characters before its extension
+			final int dotPosition = mRun.lastIndexOf(".", mExtensionEnd-1);
+			int start = 0;
+			while (start < dotPosition && !isFirstURLChar(mRun.charAt(start))) {
+				start++;
+			}
+			// parentheses may be part of a URL, but a CSS reference such as `background:url(a.jpg)` or `url(&quot;a.jpg&quot;)` in a `style` attribute is not
+			final int cssReference = findCSSReference(start, dotPosition);
+			if (cssReference >= 0) {
+				start = cssReference+4;
+				for (String quote : ESCAPED_QUOTES) {
+					if (startsWithIgnoreCase(mRun, start, quote)) {
+						start += quote.length();
+						break;
+					}
+				}
+				while (start < dotPosition && !isFirstURLChar(mRun.charAt(start))) {
+					start++;
+				}
+			}
+			// URLs inside of `img` and `source` tags are reported together with the tag's attributes instead
+			if (dotPosition-start >= 2 && !(mState == STATE_TAG && mInImageTag)) {
+				mCallback.onImageURL(new ImageCandidate(mRun.substring(start, mExtensionEnd), ImageCandidate.SOURCE_TEXT, getContext(), 0, 0, 0, 0, ImageCandidate.NO_GROUP, mImageURLCount++));
+			}
+		}
+		mRun.setLength(0);
+		mExtensionEnd = 0;
+		mRunOverflow = false;
+	}
+
+	/** Returns the position of the last `url(` in the current run between the given positions that does not continue a word (or `-1` if there is none) */
+	private int findCSSReference(int start, int end) {
+		for (int i = end-4; i >= start; i--) {
+			if ((i == 0 || !isAlphanumeric(mRun.charAt(i-1))) && startsWithIgnoreCase(mRun, i, "url(")) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isMetaDataTag(CharSequence tagName) {
+		if (tagName.length() != 4) {
+			return false;
+		}
+		final String name = tagName.toString();
+		return name.equals("meta") || name.equals("base") || name.equals("link");
+	}
+
+	private static boolean isImageTag(CharSequence tagName) {
+		final int length = tagName.length();
+		if (length != 3 && length != 6) {
+			return false;
+		}
+		final String name = tagName.toString();
+		return name.equals("img") || name.equals("source");
+	}
+
+	private static boolean isHeadEndTag(CharSequence tagName) {
+		return tagName.length() == 5 && tagName.toString().equals("/head");
+	}
+
+	/** Returns whether the given builder ends with the given lower-case suffix (ignoring the case of ASCII letters) */
+	private static boolean endsWithIgnoreCase(StringBuilder builder, String suffix) {
+		return startsWithIgnoreCase(builder, builder.length()-suffix.length(), suffix);
+	}
+
+	/** Returns whether the given builder contains the given lower-case string at the given offset (ignoring the case of ASCII letters) */
+	private static boolean startsWithIgnoreCase(StringBuilder builder, int offset, String prefix) {
+		if (offset < 0 || offset+prefix.length() > builder.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = builder.charAt(offset+i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a'-'A';
+			}
+			if (c != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return isLetter(c) || (c >= '0' && c <= '9');
+	}
+
+	/** Returns whether the given character may appear as the first character of an image URL */
+	private static boolean isFirstURLChar(char c) {
+		return c < 128 && (CHAR_CLASSES[c] & CHAR_CLASS_FIRST) != 0;
+	}
+
+	/** Returns whether the given character may appear inside of an image URL */
+	private static boolean isURLChar(char c) {
+		return c < 128 && (CHAR_CLASSES[c] & CHAR_CLASS_URL) != 0;
+	}
+
+}
@@ -0,0 +1,51 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/** Callback that receives everything the HtmlScanner finds while it is reading through an HTML document */
+public interface HtmlScannerCallback {
+
+	/**
+	 * Called when a base URL has been found in the document
+	 *
+	 * @param url the value of the base tag's `href` attribute
+	 */
+	public void onBaseURL(String url);
+	/**
+	 * Called for every OpenGraph or Twitter card meta tag that has been found in the `head` section of the document
+	 *
+	 * @param property the name of the property in lower case (e.g. `og:image` or `twitter:image`)
+	 * @param content the value of the property
+	 */
+	public void onMetaTag(String property, String content);
+	/**
+	 * Called for every link tag that has been found in the `head` section of the document
+	 *
+	 * @param rel the value of the `rel` attribute in lower case (e.g. `image_src`)
+	 * @param href the value of the `href` attribute
+	 */
+	public void onLinkTag(String rel, String href);
+	/**
+	 * Called for every image URL that has been found in the document
+	 *
+	 * @param candidate the image URL exactly as it appears in the document (may be relative) together with the hints about its relevance
+	 */
+	public void onImageURL(ImageCandidate candidate);
+	/** Called when the closing `head` tag has been read, i.e. all meta data that the document provides is known now */
+	public void onHeadEnd();
+
+}
@@ -0,0 +1,110 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Locale;
+import java.util.Map;
+
+/** Parses the name and attributes of a single HTML start tag without regular expressions, accepting attributes in any order and with any quoting */
+public class HtmlTagParser {
+
+	private HtmlTagParser() { }
+
+	/**
+	 * Parses the given start tag (e.g. `<meta property="og:image" content='a.jpg'>`)
+	 * <p>
+	 * Attribute names are converted to lower case, values are returned as they are written, and only the first occurrence of every attribute is kept
+	 *
+	 * @param tag the complete tag including its angle brackets
+	 * @param attributes the map that the attributes are written to (will be cleared first), where attributes without a value are mapped to an empty string
+	 * @return the name of the tag in lower case
+	 */
+	public static String parse(CharSequence tag, Map<String, String> attributes) {
+		attributes.clear();
+		final int length = tag.length();
+		int i = 0;
+		if (i < length && tag.charAt(i) == '<') {
+			i++;
+		}
+		// READ TAG NAME BEGIN
+		final int nameStart = i;
+		while (i < length && !isSpace(tag.charAt(i)) && tag.charAt(i) != '>' && tag.charAt(i) != '/') {
+			i++;
+		}
+		final String tagName = tag.subSequence(nameStart, i).toString().toLowerCase(Locale.US);
+		// READ TAG NAME END
+
+		while (i < length) {
+			// SKIP SEPARATORS BEGIN
+			char c = tag.charAt(i);
+			if (isSpace(c) || c == '/') {
+				i++;
+				continue;
+			}
+			if (c == '>') {
+				break;
+			}
+			// SKIP SEPARATORS END
+
+			// READ ATTRIBUTE NAME BEGIN
+			final int attributeNameStart = i;
+			while (i < length && !isSpace(c = tag.charAt(i)) && c != '=' && c != '>' && c != '/') {
+				i++;
+			}
+			final String attributeName = tag.subSequence(attributeNameStart, i).toString().toLowerCase(Locale.US);
+			while (i < length && isSpace(tag.charAt(i))) {
+				i++;
+			}
+			// READ ATTRIBUTE NAME END
+
+			// READ ATTRIBUTE VALUE BEGIN
+			String value = "";
+			if (i < length && tag.charAt(i) == '=') {
+				i++;
+				while (i < length && isSpace(tag.charAt(i))) {
+					i++;
+				}
+				if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+					final char quote = tag.charAt(i++);
+					final int valueStart = i;
+					while (i < length && tag.charAt(i) != quote) {
+						i++;
+					}
+					value = tag.subSequence(valueStart, i).toString();
+					i++; // skip the closing quote
+				}
+				else {
+					final int valueStart = i;
+					while (i < length && !isSpace(tag.charAt(i)) && tag.charAt(i) != '>') {
+						i++;
+					}
+					value = tag.subSequence(valueStart, i).toString();
+				}
+			}
+			// READ ATTRIBUTE VALUE END
+
+			if (attributeName.length() > 0 && !attributes.containsKey(attributeName)) {
+				attributes.put(attributeName, value);
+			}
+		}
+		return tagName;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+}
@@ -0,0 +1,81 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Single HTTP request that is sent through an HttpTransport */
+public class HttpRequest {
+
+	public static final String METHOD_GET = "GET";
+	public static final String METHOD_HEAD = "HEAD";
+	private final String mURL;
+	private final Map<String, String> mHeaders;
+	private String mMethod;
+	private int mConnectTimeout;
+	private int mReadTimeout;
+
+	/**
+	 * Constructs a new GET request for the given URL using the default timeouts
+	 *
+	 * @param url the URL to request
+	 */
+	public HttpRequest(String url) {
+		mURL = url;
+		mHeaders = new LinkedHashMap<String, String>();
+		mMethod = METHOD_GET;
+		mConnectTimeout = ImageScraper.NETWORK_CONNECT_TIMEOUT_MILLIS;
+		mReadTimeout = ImageScraper.NETWORK_READ_TIMEOUT_MILLIS;
+	}
+
+	public String getURL() {
+		return mURL;
+	}
+
+	public String getMethod() {
+		return mMethod;
+	}
+
+	public void setMethod(String method) {
+		mMethod = method;
+	}
+
+	public Map<String, String> getHeaders() {
+		return mHeaders;
+	}
+
+	public void setHeader(String name, String value) {
+		mHeaders.put(name, value);
+	}
+
+	public int getConnectTimeout() {
+		return mConnectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		mConnectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return mReadTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		mReadTimeout = readTimeout;
+	}
+
+}
@@ -0,0 +1,67 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Response to an HttpRequest whose body can be read as a stream */
+public interface HttpResponse {
+
+	/**
+	 * Returns the final URL of the response (after all redirects have been followed)
+	 *
+	 * @return the final URL
+	 */
+	public String getURL();
+	/**
+	 * Returns the HTTP status code of the response
+	 *
+	 * @return the status code (e.g. `200`)
+	 */
+	public int getStatusCode();
+	/**
+	 * Returns the value of the given response header
+	 *
+	 * @param name the case-insensitive name of the header
+	 * @return the header's value or `null` if it has not been sent
+	 */
+	public String getHeader(String name);
+	/**
+	 * Returns the value of the `Content-Type` header
+	 *
+	 * @return the content type or `null` if it has not been sent
+	 */
+	public String getContentType();
+	/**
+	 * Returns the value of the `Content-Length` header
+	 *
+	 * @return the content length or `-1` if it is unknown
+	 */
+	public long getContentLength();
+	/**
+	 * Returns the stream that the response body can be read from
+	 *
+	 * @return the response body (empty if there is none)
+	 * @throws IOException if the body could not be opened
+	 */
+	public InputStream getInputStream() throws IOException;
+	/** Releases the connection of this response (so that it can be reused if possible) */
+	public void close();
+	/** Closes the connection of this response right away so that a read that is blocked on another thread fails (`close()` must still be called afterwards) */
+	public void abort();
+
+}
@@ -0,0 +1,34 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.IOException;
+
+/** Transport that sends HTTP requests for the ImageScraper and the ImageChecker (may be replaced, e.g. for testing against a local server) */
+public interface HttpTransport {
+
+	/**
+	 * Sends the given request and returns the response as soon as its headers are available
+	 * <p>
+	 * The caller must `close()` the response when done so that its connection can be reused
+	 *
+	 * @param request the request to send
+	 * @return the response to the request
+	 * @throws IOException if the request could not be sent or no response was received
+	 */
+	public HttpResponse execute(HttpRequest request) throws IOException;
+
+}
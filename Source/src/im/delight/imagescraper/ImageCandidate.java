@@ -0,0 +1,153 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/** An image URL that has been found in a document together with the hints about its relevance that the document provides (before it has been probed) */
+public class ImageCandidate {
+
+	/** The URL has been found in the text of the document (e.g. in a script, a style or a link) */
+	public static final int SOURCE_TEXT = 0;
+	/** The URL has been found in the `src` (or a lazy-loading) attribute of an `img` or `source` tag */
+	public static final int SOURCE_TAG = 1;
+	/** The URL has been found in the `srcset` attribute of an `img` or `source` tag */
+	public static final int SOURCE_SRCSET = 2;
+	/** The URL has been found outside of any content or boilerplate section */
+	public static final int CONTEXT_NEUTRAL = 0;
+	/** The URL has been found inside of an `article` or `main` section */
+	public static final int CONTEXT_CONTENT = 1;
+	/** The URL has been found inside of a `footer`, `nav` or `aside` section */
+	public static final int CONTEXT_BOILERPLATE = 2;
+	/** The group of URLs that have not been found in a tag (and may therefore be different images) */
+	public static final int NO_GROUP = -1;
+	private final String mURL;
+	private final int mSource;
+	private final int mContext;
+	private final int mWidth;
+	private final int mHeight;
+	private final int mDescriptorWidth;
+	private final float mDescriptorDensity;
+	private final int mGroup;
+	private final int mPosition;
+
+	/**
+	 * Constructs a new candidate
+	 *
+	 * @param url the URL exactly as it appears in the document (may be relative)
+	 * @param source one of the `SOURCE_*` constants
+	 * @param context one of the `CONTEXT_*` constants
+	 * @param width the width that the tag declares or `0` if unknown
+	 * @param height the height that the tag declares or `0` if unknown
+	 * @param descriptorWidth the width descriptor from the `srcset` attribute (e.g. `480w`) or `0` if none
+	 * @param descriptorDensity the pixel density descriptor from the `srcset` attribute (e.g. `2x`) or `0` if none
+	 * @param group the index of the tag that the URL has been found in (all URLs of a tag are variants of the same image) or `NO_GROUP`
+	 * @param position the position of the URL among all URLs of the document
+	 */
+	public ImageCandidate(String url, int source, int context, int width, int height, int descriptorWidth, float descriptorDensity, int group, int position) {
+		mURL = url;
+		mSource = source;
+		mContext = context;
+		mWidth = width;
+		mHeight = height;
+		mDescriptorWidth = descriptorWidth;
+		mDescriptorDensity = descriptorDensity;
+		mGroup = group;
+		mPosition = position;
+	}
+
+	public String getURL() {
+		return mURL;
+	}
+
+	/**
+	 * Returns where in the document the URL has been found
+	 *
+	 * @return one of the `SOURCE_*` constants
+	 */
+	public int getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Returns the section of the document that the URL has been found in
+	 *
+	 * @return one of the `CONTEXT_*` constants
+	 */
+	public int getContext() {
+		return mContext;
+	}
+
+	/**
+	 * Returns the width that the `width` attribute of the tag declares
+	 *
+	 * @return the width in pixels or `0` if unknown
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Returns the height that the `height` attribute of the tag declares
+	 *
+	 * @return the height in pixels or `0` if unknown
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns the width descriptor of this candidate in the `srcset` attribute
+	 *
+	 * @return the width in pixels or `0` if none
+	 */
+	public int getDescriptorWidth() {
+		return mDescriptorWidth;
+	}
+
+	/**
+	 * Returns the pixel density descriptor of this candidate in the `srcset` attribute
+	 *
+	 * @return the density or `0` if none
+	 */
+	public float getDescriptorDensity() {
+		return mDescriptorDensity;
+	}
+
+	/**
+	 * Returns the index of the tag that this candidate has been found in so that variants of the same image can be recognized
+	 *
+	 * @return the index of the tag or `NO_GROUP`
+	 */
+	public int getGroup() {
+		return mGroup;
+	}
+
+	/**
+	 * Returns the position of this candidate among all URLs of the document
+	 *
+	 * @return the zero-based position
+	 */
+	public int getPosition() {
+		return mPosition;
+	}
+
+	@Override
+	public String toString() {
+		return "ImageCandidate [mURL=" + mURL + ", mSource=" + mSource + ", mContext=" + mContext + ", mWidth=" + mWidth + ", mHeight=" + mHeight + ", mDescriptorWidth=" + mDescriptorWidth + ", mDescriptorDensity=" + mDescriptorDensity + ", mGroup=" + mGroup + ", mPosition=" + mPosition + "]";
+	}
+
+}
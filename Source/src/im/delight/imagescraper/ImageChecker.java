@@ -16,50 +16,190 @@ package im.delight.imagescraper;
  * limitations under the License.
  */
 
-import android.annotation.SuppressLint;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /** Checks a given list of image URLs for their filesize and MIME type and returns the largest image files to its callback */
-public class ImageChecker {
-
-    private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
-    private static final int KEEP_ALIVE_TIME = 1;
-    private static final int THREAD_COUNT = 6;
-    private final PriorityBlockingQueue<ImageURL> mImageURLs;
-    private final LinkedBlockingQueue<Runnable> mWorkQueue;
-    private final ThreadPoolExecutor mThreadPool;
+public class ImageChecker implements NioProbeCallback {
+
+    private TopImageCollector mCollector;
+    /** The number of images that are needed or `TopImageCollector.UNBOUNDED` to keep all of them */
+    private int mMaxResults = TopImageCollector.UNBOUNDED;
+    private final ScraperQueue mThreadPool;
     private ImageCheckerCallback mCallback;
     private String mUserAgent;
+    private final HttpTransport mTransport;
+    private boolean mProbeDimensions;
+    private ImagePolicy mPolicy = ImagePolicy.getDefault();
+    private ProbeCache mProbeCache;
+    private final NioProbeEngine mProbeEngine;
+    /** The number of probes that have been sent to the NioProbeEngine and have not finished yet */
+    private int mPendingProbes;
+    private boolean mShutdown;
+    /** The URLs whose results are dropped because better variants of the same images have been submitted */
+    private final Set<String> mDiscardedURLs = new HashSet<String>();
+    /** The tasks that have been submitted and have not finished yet (so that they can be aborted) */
+    private final Set<ImageCheckerTask> mRunningTasks = Collections.synchronizedSet(new HashSet<ImageCheckerTask>());
+    private int mConnectTimeout = ImageScraper.NETWORK_CONNECT_TIMEOUT_MILLIS;
+    private int mReadTimeout = ImageScraper.NETWORK_READ_TIMEOUT_MILLIS;
+    private AdaptiveHostLimiter mHostLimiter = AdaptiveHostLimiter.getDefault();
+    private final ScraperExecutor mExecutor;
+    private ScraperListener mListener;
+    /** The URL of the web page that the images belong to (reported to the listener) */
+    private String mPageURL;
+    /** The times when the probes on the NioProbeEngine have been submitted (only if there is a listener) */
+    private final ConcurrentHashMap<String, Long> mSubmitTimes = new ConcurrentHashMap<String, Long>();
 
     /**
-     * Constructs a new ThreadedImageChecker with the given callback
+     * Constructs a new ThreadedImageChecker with the given callback that runs on the shared ScraperExecutor
      *
      * @param callback callback where the results will be sent to
      * @param userAgent the value for the `User-Agent` HTTP header
-     * @param allowCoreThreadTimeOut value for `ThreadPoolExecutor.allowCoreThreadTimeOut()`
+     * @param allowCoreThreadTimeOut no longer used as the threads of the shared executor always time out when idle
      */
-	@SuppressLint("NewApi")
 	public ImageChecker(ImageCheckerCallback callback, String userAgent, boolean allowCoreThreadTimeOut) {
+		this(callback, userAgent, PooledHttpTransport.getDefault(), ScraperExecutor.getDefault());
+	}
+
+    /**
+     * Constructs a new ThreadedImageChecker with the given callback
+     *
+     * @param callback callback where the results will be sent to
+     * @param userAgent the value for the `User-Agent` HTTP header
+     * @param transport the transport that all requests are sent through
+     * @param executor the executor whose threads the probes run on (fairly shared with the probes of other web pages)
+     */
+	public ImageChecker(ImageCheckerCallback callback, String userAgent, HttpTransport transport, ScraperExecutor executor) {
     	mCallback = callback;
-    	mImageURLs = new PriorityBlockingQueue<ImageURL>();
-    	mWorkQueue = new LinkedBlockingQueue<Runnable>();
-    	mThreadPool = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, mWorkQueue) {
+    	mTransport = transport;
+    	mProbeEngine = null;
+    	mExecutor = executor;
+    	mCollector = createCollector();
+    	mThreadPool = new ScraperQueue(executor) {
             @Override
             protected void afterExecute(Runnable r, Throwable t) {
                 super.afterExecute(r, t);
                 ImageCheckerTask g = (ImageCheckerTask) r;
-                mImageURLs.add(new ImageURL(g.getURL(), g.getFileSize()));
+                if (g.isDeferred()) { // the host of the image is at its limit so other hosts are served first
+                	mThreadPool.executeLater(g, AdaptiveHostLimiter.RETRY_DELAY_MILLIS);
+                	return;
+                }
+                mRunningTasks.remove(g);
+                reportProbeFinished(g.getURL(), g.getRejectReason(), g.getStatusCode(), g.getQueueMillis(), g.getDurationMillis());
+                collect(new ImageURL(g.getURL(), g.getFileSize(), g.getProbeMethod(), g.getWidth(), g.getHeight()));
             }
         };
         mUserAgent = userAgent;
-        if (allowCoreThreadTimeOut) {
-        	if (android.os.Build.VERSION.SDK_INT >= 9) {
-        		mThreadPool.allowCoreThreadTimeOut(true);
-        	}
-        }
+    }
+
+    /**
+     * Constructs a new ImageChecker with the given callback that probes all images on the non-blocking sockets of the given engine
+     *
+     * @param callback callback where the results will be sent to
+     * @param userAgent the value for the `User-Agent` HTTP header
+     * @param probeEngine the engine that all probes are multiplexed on
+     */
+	public ImageChecker(ImageCheckerCallback callback, String userAgent, NioProbeEngine probeEngine) {
+		mCallback = callback;
+		mTransport = null;
+		mProbeEngine = probeEngine;
+		mExecutor = null;
+		mCollector = createCollector();
+		mThreadPool = null;
+		mUserAgent = userAgent;
+	}
+
+    /**
+     * Sets whether the dimensions of all images should be read from their first bytes so that they can be ranked by their number of pixels
+     * <p>
+     * Must be called before the first URL is submitted
+     *
+     * @param probeDimensions whether to read the images' dimensions and rank by them
+     */
+    public void setProbeDimensions(boolean probeDimensions) {
+    	mProbeDimensions = probeDimensions;
+    	mCollector = createCollector();
+    }
+
+    /**
+     * Sets the policy that decides which images are accepted and how they are ranked
+     * <p>
+     * Must be called before the first URL is submitted
+     *
+     * @param policy the policy to apply
+     */
+    public void setPolicy(ImagePolicy policy) {
+    	mPolicy = policy;
+    	mCollector = createCollector();
+    }
+
+    /**
+     * Sets the number of images that are needed so that only the best ones are kept while the probes are running
+     * <p>
+     * All submitted URLs are still probed as the size of an image is not known before its probe has finished
+     * <p>
+     * Must be called before the first URL is submitted
+     *
+     * @param maxResults the number of images that are needed or `TopImageCollector.UNBOUNDED` to keep all of them
+     */
+    public void setMaxResults(int maxResults) {
+    	mMaxResults = maxResults;
+    	mCollector = createCollector();
+    }
+
+    /**
+     * Sets the timeouts for all probes that run on threads (probes on a NioProbeEngine use the timeouts of the engine)
+     *
+     * @param connectTimeoutMillis the timeout for connection attempts in milliseconds
+     * @param readTimeoutMillis the timeout for read operations in milliseconds
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+    	mConnectTimeout = connectTimeoutMillis;
+    	mReadTimeout = readTimeoutMillis;
+    }
+
+    /**
+     * Sets the limiter that adapts the number of concurrent probes per host and fails probes of failing hosts fast
+     * <p>
+     * The shared `AdaptiveHostLimiter.getDefault()` is used by default so that all scrapes learn from each other
+     *
+     * @param hostLimiter the limiter to use or `null` to probe without limits
+     */
+    public void setHostLimiter(AdaptiveHostLimiter hostLimiter) {
+    	mHostLimiter = hostLimiter;
+    }
+
+    /**
+     * Sets the listener that receives the outcome and timings of every probe
+     *
+     * @param listener the listener or `null`
+     * @param pageURL the URL of the web page that the images belong to
+     */
+    public void setListener(ScraperListener listener, String pageURL) {
+    	mListener = listener;
+    	mPageURL = pageURL;
+    }
+
+    /**
+     * Returns the best images that have been found so far (best images first)
+     *
+     * @return the images found so far
+     */
+    public List<ImageURL> getImageURLs() {
+    	return mCollector.toList();
+    }
+
+    /**
+     * Sets the cache that is consulted before any image is probed and that all probe results are stored in
+     *
+     * @param probeCache the cache to use or `null` to probe every image
+     */
+    public void setProbeCache(ProbeCache probeCache) {
+    	mProbeCache = probeCache;
     }
 
     /**
@@ -69,8 +209,80 @@ public class ImageChecker {
      */
     public void start(Iterable<String> urls) {
         for (String url : urls) {
-        	mThreadPool.execute(new ImageCheckerTask(url, mUserAgent));
+        	submit(url);
         }
+        finish();
+    }
+
+    /**
+     * Starts downloading the given URL right away so that URLs can be checked while more of them are still being found
+     * <p>
+     * Call `finish()` as soon as all URLs have been submitted
+     *
+     * @param url the URL to download
+     */
+    public void submit(String url) {
+    	if (!isShutdown()) {
+    		if (mProbeCache != null) {
+    			final ProbeCacheEntry entry = mProbeCache.get(url);
+    			if (entry != null && entry.isSufficientFor(mProbeDimensions, mPolicy)) {
+    				reportProbeFinished(url, mPolicy.getRejectReason(entry), 0, 0, 0);
+    				collect(entry.toImageURL(url, mPolicy));
+    				return;
+    			}
+    		}
+    		if (mProbeEngine != null) {
+    			synchronized (this) {
+    				mPendingProbes++;
+    			}
+    			if (mListener != null) {
+    				mSubmitTimes.put(url, System.nanoTime());
+    				reportProbeSubmitted(url, -1);
+    			}
+    			mProbeEngine.probe(url, mUserAgent, mProbeDimensions, mPolicy, this);
+    			return;
+    		}
+    		final ImageCheckerTask task = new ImageCheckerTask(url, mUserAgent, mTransport);
+    		task.setProbeDimensions(mProbeDimensions);
+    		task.setPolicy(mPolicy);
+    		task.setProbeCache(mProbeCache);
+    		task.setTimeouts(mConnectTimeout, mReadTimeout);
+    		task.setHostLimiter(mHostLimiter);
+    		if (mListener != null) {
+    			reportProbeSubmitted(url, mExecutor.getQueuedProbeCount());
+    		}
+    		mRunningTasks.add(task);
+    		mThreadPool.execute(task);
+    	}
+    }
+
+    /**
+     * Drops the result for the given URL (now or as soon as its probe finishes) because a better variant of the same image has been submitted
+     *
+     * @param url the URL that has been submitted before
+     */
+    public void discard(String url) {
+    	synchronized (mDiscardedURLs) {
+    		mDiscardedURLs.add(url);
+    		mCollector.remove(url);
+    	}
+    }
+
+    /** Waits until all submitted URLs have been downloaded and returns the largest ones to the callback */
+    public void finish() {
+    	if (mProbeEngine != null) {
+    		try {
+    			synchronized (this) {
+    				mShutdown = true;
+    				while (mPendingProbes > 0) {
+    					wait();
+    				}
+    			}
+    		}
+    		catch (InterruptedException e) { }
+    		onFinished();
+    		return;
+    	}
         mThreadPool.shutdown();
         try {
 			while (!mThreadPool.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -83,10 +295,136 @@ public class ImageChecker {
 		}
     }
 
+    /** Discards all URLs that have not been downloaded yet without returning any results to the callback */
+    public void cancel() {
+    	if (mProbeEngine != null) {
+    		synchronized (this) {
+    			mShutdown = true;
+    			mCallback = null; // probes that are still in flight finish on the engine but are ignored
+    			mPendingProbes = 0;
+    			notifyAll();
+    		}
+    		return;
+    	}
+    	abortRunningTasks(); // before the threads are interrupted, which alone would make the probes look like network errors
+    	mThreadPool.shutdownNow();
+    }
+
+    /** Stops all probes right away (closing their connections) but still returns the images found so far to the callback once `finish()` is called */
+    public void abort() {
+    	if (mProbeEngine != null) {
+    		synchronized (this) {
+    			mShutdown = true;
+    			mPendingProbes = 0;
+    			notifyAll();
+    		}
+    		return;
+    	}
+    	abortRunningTasks(); // before the threads are interrupted, which alone would make the probes look like network errors
+    	mThreadPool.shutdownNow();
+    }
+
+    private void abortRunningTasks() {
+    	final ImageCheckerTask[] tasks;
+    	synchronized (mRunningTasks) {
+    		tasks = mRunningTasks.toArray(new ImageCheckerTask[mRunningTasks.size()]);
+    	}
+    	for (ImageCheckerTask task : tasks) {
+    		task.abort();
+    	}
+    }
+
+    @Override
+    public void onProbeFinished(String url, ProbeCacheEntry result) {
+    	synchronized (this) {
+    		if (mPendingProbes == 0) { // cancelled
+    			return;
+    		}
+    	}
+    	try {
+    		if (mListener != null) {
+    			final Long submitTime = mSubmitTimes.remove(url);
+    			final long durationMillis = submitTime == null ? 0 : (System.nanoTime()-submitTime) / 1000000;
+    			reportProbeFinished(url, result == null ? ScraperListener.REASON_NETWORK_ERROR : mPolicy.getRejectReason(result), 0, 0, durationMillis);
+    		}
+    		if (result == null) {
+    			collect(new ImageURL(url, 0));
+    		}
+    		else {
+    			if (mProbeCache != null) { // rejected images are cached as well, only network failures are not
+    				mProbeCache.put(url, result);
+    			}
+    			collect(result.toImageURL(url, mPolicy));
+    		}
+    	}
+    	finally {
+    		// `finish()` must never wait for a probe that has failed while its result was being collected
+    		synchronized (this) {
+    			if (mPendingProbes > 0) {
+    				mPendingProbes--;
+    			}
+    			if (mPendingProbes == 0) {
+    				notifyAll();
+    			}
+    		}
+    	}
+    }
+
+    /** Reports the submitted probe to the listener (if any) while ignoring any exceptions that the listener throws */
+    private void reportProbeSubmitted(String url, int queueDepth) {
+    	if (mListener != null) {
+    		try {
+    			mListener.onProbeSubmitted(mPageURL, url, queueDepth);
+    		}
+    		catch (RuntimeException e) { }
+    	}
+    }
+
+    /** Reports the finished probe to the listener (if any) while ignoring any exceptions that the listener throws */
+    private void reportProbeFinished(String url, int reason, int statusCode, long queueMillis, long durationMillis) {
+    	if (mListener != null) {
+    		try {
+    			mListener.onProbeFinished(mPageURL, url, reason, statusCode, queueMillis, durationMillis);
+    		}
+    		catch (RuntimeException e) { }
+    	}
+    }
+
+    private TopImageCollector createCollector() {
+    	return new TopImageCollector(mMaxResults, mPolicy.getScorer(mProbeDimensions));
+    }
+
+    private void collect(ImageURL image) {
+    	final boolean added;
+    	synchronized (mDiscardedURLs) {
+    		added = !mDiscardedURLs.contains(image.getURL()) && mCollector.add(image);
+    	}
+    	if (added) {
+    		final ImageCheckerCallback callback;
+    		synchronized (this) {
+    			callback = mCallback;
+    		}
+    		if (callback instanceof ProgressiveImageCheckerCallback) {
+    			((ProgressiveImageCheckerCallback) callback).onImageAccepted(image);
+    		}
+    	}
+    }
+
+    private synchronized boolean isShutdown() {
+    	if (mProbeEngine != null) {
+    		return mShutdown;
+    	}
+    	return mThreadPool.isShutdown();
+    }
+
     /** Executes as soon as all downloads have finished */
     private void onFinished() {
-    	if (mCallback != null) {
-    		mCallback.onImageCheckerFinished(mImageURLs);
+    	final ImageCheckerCallback callback;
+    	synchronized (this) {
+    		callback = mCallback;
+    	}
+    	if (callback != null) {
+    		callback.onImageCheckerFinished(mCollector.toQueue());
     	}
     }
 
@@ -24,7 +24,7 @@ public interface ImageCheckerCallback {
 	/**
 	 * Called as soon as the ImageChecker finished its work
 	 * 
-	 * @param imageURLs list of ImageURL instances sorted by their file size in descending order (largest files first)
+	 * @param imageURLs list of ImageURL instances sorted by their file size in descending order (largest files first), limited to the number of images needed if set via `ImageChecker.setMaxResults()`
 	 */
 	public void onImageCheckerFinished(PriorityBlockingQueue<ImageURL> imageURLs);
 
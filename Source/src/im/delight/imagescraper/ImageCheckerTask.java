@@ -16,17 +16,76 @@ package im.delight.imagescraper;
  * limitations under the License.
  */
 
-import java.net.HttpURLConnection;
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
-/** Single task that is run by the ImageChecker and checks a single image URL for its MIME type and file size */
+/**
+ * Single task that is run by the ImageChecker and checks a single image URL for its MIME type and file size
+ * <p>
+ * The image is requested with `HEAD` first so that no body is transferred at all and with `GET` for the first byte only if that fails
+ * <p>
+ * Whether the image is accepted is decided by an ImagePolicy, whose MIME type and file size bounds are applied as soon as the headers have arrived
+ */
 public class ImageCheckerTask implements Runnable {
 
+	/** The image has not been checked (successfully) */
+	public static final int PROBE_METHOD_NONE = 0;
+	/** The file size has been read from the response to a `HEAD` request */
+	public static final int PROBE_METHOD_HEAD = 1;
+	/** The file size has been read from the `Content-Range` of a `GET` request for the first byte only */
+	public static final int PROBE_METHOD_RANGE = 2;
+	/** The server has ignored the range so the file size has been read from the response to a full `GET` request */
+	public static final int PROBE_METHOD_GET = 3;
+	private static final int HTTP_PARTIAL_CONTENT = 206;
+	private static final int HTTP_NOT_MODIFIED = 304;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_GONE = 410;
+	/** Bodies with at most this many bytes left are read to their end so that the connection can be reused, while larger ones are dropped together with their connection */
+	private static final int MAX_SKIPPED_BODY_BYTES = 1024;
+	/** The tasks that are currently running across all ImageChecker instances, so that every image is only probed once at a time */
+	private static final ConcurrentHashMap<String, ImageCheckerTask> IN_FLIGHT = new ConcurrentHashMap<String, ImageCheckerTask>();
 	private final String mURL;
+	private final CountDownLatch mDone = new CountDownLatch(1);
     private final String mUserAgent;
+    private final HttpTransport mTransport;
     private int mFileSize;
+    private int mProbeMethod;
+    /** The file size as it has been probed (before the policy has been applied) or `0` if unknown */
+    private long mRawFileSize;
+    /** The method that `mRawFileSize` has been determined with */
+    private int mRawProbeMethod;
+    private ImagePolicy mPolicy = ImagePolicy.getDefault();
+    private boolean mProbeDimensions;
+    /** Whether the image header has actually been read (and not skipped because the policy has ruled the image out already) */
+    private boolean mDimensionsProbed;
+    private int mWidth;
+    private int mHeight;
+    private String mContentType;
+    private String mETag;
+    private String mLastModified;
+    private ProbeCache mProbeCache;
+    private int mConnectTimeout = ImageScraper.NETWORK_CONNECT_TIMEOUT_MILLIS;
+    private int mReadTimeout = ImageScraper.NETWORK_READ_TIMEOUT_MILLIS;
+    /** The response that is currently being read (so that it can be aborted from another thread) */
+    private volatile HttpResponse mResponse;
+    private volatile boolean mAborted;
+    private AdaptiveHostLimiter mHostLimiter;
+    /** Whether this task has not been run because its host was at its limit (so that it must be run again later) */
+    private boolean mDeferred;
+    /** Why the image has been rejected (one of the `ScraperListener.REASON_*` constants) */
+    private int mRejectReason;
+    /** Why the probe has failed before the policy could be applied or `ScraperListener.REASON_ACCEPTED` if it has not failed */
+    private int mFailureReason;
+    private int mStatusCode;
+    private final long mCreatedAt = System.nanoTime();
+    private long mStartedAt;
+    private long mFinishedAt;
 
     /**
      * Constructs a new single ImageChecker task with the given URL
@@ -35,8 +94,20 @@ public class ImageCheckerTask implements Runnable {
      * @param userAgent value for the `User-Agent` HTTP header
      */
     public ImageCheckerTask(String url, String userAgent) {
+        this(url, userAgent, PooledHttpTransport.getDefault());
+    }
+
+    /**
+     * Constructs a new single ImageChecker task with the given URL
+     *
+     * @param url image URL to check for MIME type and file size
+     * @param userAgent value for the `User-Agent` HTTP header
+     * @param transport the transport to send the request through
+     */
+    public ImageCheckerTask(String url, String userAgent, HttpTransport transport) {
         mURL = url;
         mUserAgent = userAgent;
+        mTransport = transport;
     }
 
     /**
@@ -57,44 +128,542 @@ public class ImageCheckerTask implements Runnable {
         return mFileSize;
     }
 
-    /** Runs the ImageChecker tasks and detects the MIME type and file size for the URL that was passed */
+    /**
+     * Returns the method that the file size has been determined with
+     *
+     * @return one of the `PROBE_METHOD_*` constants
+     */
+    public int getProbeMethod() {
+    	return mProbeMethod;
+    }
+
+    /**
+     * Returns why the image has been rejected
+     *
+     * @return one of the `ScraperListener.REASON_*` constants
+     */
+    public int getRejectReason() {
+    	return mRejectReason;
+    }
+
+    /**
+     * Returns the HTTP status code of the last response
+     *
+     * @return the status code or `0` if no response has been received
+     */
+    public int getStatusCode() {
+    	return mStatusCode;
+    }
+
+    /**
+     * Returns how long this task has waited before it has been run (for the last time)
+     *
+     * @return the time in milliseconds
+     */
+    public long getQueueMillis() {
+    	return (mStartedAt-mCreatedAt) / 1000000;
+    }
+
+    /**
+     * Returns how long this task has been running (for the last time)
+     *
+     * @return the time in milliseconds
+     */
+    public long getDurationMillis() {
+    	return (mFinishedAt-mStartedAt) / 1000000;
+    }
+
+    /**
+     * Sets whether the first bytes of the image should be downloaded as well in order to read its width and height
+     *
+     * @param probeDimensions whether to read the image's dimensions
+     */
+    public void setProbeDimensions(boolean probeDimensions) {
+    	mProbeDimensions = probeDimensions;
+    }
+
+    /**
+     * Returns the width of the image if its dimensions have been probed
+     *
+     * @return the width in pixels or `0` if unknown
+     */
+    public int getWidth() {
+    	return mWidth;
+    }
+
+    /**
+     * Returns the height of the image if its dimensions have been probed
+     *
+     * @return the height in pixels or `0` if unknown
+     */
+    public int getHeight() {
+    	return mHeight;
+    }
+
+    /**
+     * Sets the policy that decides whether the image is accepted
+     *
+     * @param policy the policy to apply
+     */
+    public void setPolicy(ImagePolicy policy) {
+    	mPolicy = policy;
+    }
+
+    /**
+     * Sets the cache that results are looked up in for revalidation and stored in after probing
+     *
+     * @param probeCache the cache to use or `null`
+     */
+    public void setProbeCache(ProbeCache probeCache) {
+    	mProbeCache = probeCache;
+    }
+
+    /**
+     * Sets the timeouts for all requests of this task
+     *
+     * @param connectTimeoutMillis the timeout for connection attempts in milliseconds
+     * @param readTimeoutMillis the timeout for read operations in milliseconds
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+    	mConnectTimeout = connectTimeoutMillis;
+    	mReadTimeout = readTimeoutMillis;
+    }
+
+    /**
+     * Sets the limiter that decides whether the host of the image may be probed right now
+     *
+     * @param hostLimiter the limiter to use or `null` to probe without limits
+     */
+    public void setHostLimiter(AdaptiveHostLimiter hostLimiter) {
+    	mHostLimiter = hostLimiter;
+    }
+
+    /**
+     * Returns whether this task has not been run because its host was at its limit so that it must be run again after `AdaptiveHostLimiter.RETRY_DELAY_MILLIS`
+     *
+     * @return whether the task has been deferred
+     */
+    public boolean isDeferred() {
+    	return mDeferred;
+    }
+
+    /**
+     * Stops this task as soon as possible by closing its current connection (may be called from any thread)
+     * <p>
+     * The result of an aborted task is neither cached nor reliable, so it is not shared with other tasks that are waiting for the same image either
+     */
+    public void abort() {
+    	mAborted = true;
+    	final HttpResponse response = mResponse;
+    	if (response != null) {
+    		response.abort();
+    	}
+    }
+
+    /**
+     * Runs the ImageChecker tasks and detects the MIME type and file size for the URL that was passed
+     * <p>
+     * If the same URL is being probed by another task right now (e.g. for another web page), that task's result is used instead, unless that task has been aborted
+     */
 	@Override
 	public void run() {
-		HttpURLConnection urlConnection = null;
-		URL url;
+		mStartedAt = System.nanoTime();
+		try {
+			runProbe();
+		}
+		finally {
+			mFinishedAt = System.nanoTime();
+		}
+	}
+
+	private void runProbe() {
+		mDeferred = false;
+		final String host = mHostLimiter == null ? null : getHost(mURL);
+		// the policy is part of the key as it decides which bodies are skipped
+		final String flightKey = (mProbeDimensions ? mURL+" dimensions " : mURL+" ")+mPolicy.getProbeKey();
+		while (true) {
+			boolean trial = false;
+			if (mHostLimiter != null) {
+				final int permission = mHostLimiter.tryAcquire(host);
+				if (permission == AdaptiveHostLimiter.RESULT_BUSY) {
+					mDeferred = true;
+					return;
+				}
+				else if (permission == AdaptiveHostLimiter.RESULT_OPEN) {
+					// the host keeps failing so the image is rejected right away instead of waiting for the timeouts
+					mFileSize = 0;
+					mProbeMethod = PROBE_METHOD_NONE;
+					mRejectReason = ScraperListener.REASON_HOST_FAILING;
+					return;
+				}
+				trial = permission == AdaptiveHostLimiter.RESULT_TRIAL;
+			}
+			final ImageCheckerTask leader = IN_FLIGHT.putIfAbsent(flightKey, this);
+			if (leader == null) {
+				lead(flightKey, host, trial);
+				return;
+			}
+			if (mHostLimiter != null) {
+				mHostLimiter.releaseUnused(host, trial);
+			}
+			try {
+				leader.mDone.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			// an aborted leader has been stopped by its own scrape, so its result tells nothing about the image and the probe is started again
+			if (!leader.mAborted || mAborted) {
+				copyResultFrom(leader);
+				return;
+			}
+		}
+	}
+
+	/** Probes the image on behalf of all tasks that are waiting for the same flight key */
+	private void lead(String flightKey, String host, boolean trial) {
 		try {
-			url = new URL(mURL);
+			if (mHostLimiter == null) {
+				probe();
+			}
+			else {
+				final long startTime = System.currentTimeMillis();
+				boolean completed = false;
+				try {
+					completed = probe();
+				}
+				finally {
+					if (mAborted) { // the probe has been stopped by us so it tells nothing about the host
+						mHostLimiter.releaseUnused(host, trial);
+					}
+					else {
+						mHostLimiter.release(host, System.currentTimeMillis()-startTime, !completed, trial);
+					}
+				}
+			}
+		}
+		finally {
+			IN_FLIGHT.remove(flightKey, this);
+			mDone.countDown();
+		}
+	}
+
+	private static String getHost(String url) {
+		try {
+			return new URL(url).getHost().toLowerCase(Locale.US);
 		}
 		catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/** Takes over the probed properties of the other task, which may have used a different policy */
+	private void copyResultFrom(ImageCheckerTask other) {
+		mRawFileSize = other.mRawFileSize;
+		mRawProbeMethod = other.mRawProbeMethod;
+		mDimensionsProbed = other.mDimensionsProbed;
+		mWidth = other.mWidth;
+		mHeight = other.mHeight;
+		mContentType = other.mContentType;
+		mETag = other.mETag;
+		mLastModified = other.mLastModified;
+		mFailureReason = other.mFailureReason;
+		mStatusCode = other.mStatusCode;
+		evaluate();
+	}
+
+	/** Applies the policy to the probed properties unless the probe has failed already */
+	private void evaluate() {
+		if (mFailureReason == ScraperListener.REASON_ACCEPTED) {
+			mRejectReason = mPolicy.getRejectReason(mContentType, mRawFileSize, mWidth, mHeight);
+		}
+		else {
+			mRejectReason = mFailureReason;
+		}
+		if (mRejectReason == ScraperListener.REASON_ACCEPTED) {
+			mFileSize = (int) Math.min(mRawFileSize, Integer.MAX_VALUE);
+			mProbeMethod = mRawProbeMethod;
+		}
+		else {
 			mFileSize = 0;
-			return;
+			mProbeMethod = PROBE_METHOD_NONE;
+		}
+	}
+
+	/**
+	 * Probes the image (or revalidates its expired cache entry)
+	 *
+	 * @return whether the probe has been completed (i.e. not interrupted by network problems)
+	 */
+	private boolean probe() {
+		mRawFileSize = 0;
+		mRawProbeMethod = PROBE_METHOD_NONE;
+		mDimensionsProbed = false;
+		mWidth = 0;
+		mHeight = 0;
+		mContentType = null;
+		mETag = null;
+		mLastModified = null;
+		mFailureReason = ScraperListener.REASON_ACCEPTED;
+		mStatusCode = 0;
+		if (mProbeCache != null) {
+			final ProbeCacheEntry expiredEntry = mProbeCache.getForRevalidation(mURL);
+			if (expiredEntry != null && expiredEntry.isSufficientFor(mProbeDimensions, mPolicy) && revalidate(expiredEntry)) {
+				evaluate();
+				return true;
+			}
+		}
+		final boolean completed = mProbeDimensions ? probeHeader() : probeFileSize();
+		evaluate();
+		// results are cached even if the image has been rejected but not if the probe failed due to network problems
+		if (completed && !mAborted && mProbeCache != null) {
+			mProbeCache.put(mURL, new ProbeCacheEntry(mContentType, (int) Math.min(mRawFileSize, Integer.MAX_VALUE), mRawProbeMethod, mDimensionsProbed, mWidth, mHeight, mETag, mLastModified, System.currentTimeMillis()));
 		}
+		return completed;
+	}
+
+	/**
+	 * Asks the server whether the expired cache entry is still valid and uses it if that is the case
+	 *
+	 * @param entry the expired cache entry
+	 * @return whether the entry could be used
+	 */
+	private boolean revalidate(ProbeCacheEntry entry) {
 		try {
-			urlConnection = (HttpURLConnection) url.openConnection();
-			urlConnection.setReadTimeout(ImageScraper.NETWORK_READ_TIMEOUT_MILLIS);
-			urlConnection.setConnectTimeout(ImageScraper.NETWORK_CONNECT_TIMEOUT_MILLIS);
-			urlConnection.setUseCaches(false);
-			urlConnection.setRequestProperty("User-Agent", mUserAgent);
-			urlConnection.connect();
-			final String mimeType = urlConnection.getContentType();
-			if (mimeType == null || mimeType.contains(ImageScraper.MIME_TYPE_JPEG)) {
-				mFileSize = urlConnection.getContentLength();
+			final HttpRequest request = createRequest(HttpRequest.METHOD_HEAD, null);
+			if (entry.getETag() != null) {
+				request.setHeader("If-None-Match", entry.getETag());
 			}
-			else {
-				mFileSize = 0;
+			if (entry.getLastModified() != null) {
+				request.setHeader("If-Modified-Since", entry.getLastModified());
 			}
-			if (mFileSize < ImageScraper.MIN_FILESIZE_BYTES || mFileSize > ImageScraper.MAX_FILESIZE_BYTES) {
-				mFileSize = 0;
+			final HttpResponse response = execute(request);
+			try {
+				if (response.getStatusCode() != HTTP_NOT_MODIFIED) {
+					return false;
+				}
+			}
+			finally {
+				response.close();
 			}
 		}
 		catch (IOException e) {
-			mFileSize = 0;
+			return false;
 		}
-		finally {
-			if (urlConnection != null) {
-				urlConnection.disconnect();
+		mContentType = entry.getContentType();
+		mRawFileSize = entry.getFileSize();
+		mRawProbeMethod = entry.getProbeMethod();
+		mDimensionsProbed = entry.isDimensionsProbed();
+		mWidth = entry.getWidth();
+		mHeight = entry.getHeight();
+		mETag = entry.getETag();
+		mLastModified = entry.getLastModified();
+		mProbeCache.put(mURL, entry.revalidated(System.currentTimeMillis()));
+		return true;
+	}
+
+	/**
+	 * Detects the file size with as few bytes transferred as possible
+	 *
+	 * @return whether the probe has been completed (i.e. not interrupted by network problems)
+	 */
+	private boolean probeFileSize() {
+		try {
+			// TRY HEAD REQUEST BEGIN
+			HttpResponse response = execute(HttpRequest.METHOD_HEAD, null);
+			try {
+				onResponse(response);
+				if (isSuccessful(response.getStatusCode())) {
+					final long contentLength = response.getContentLength();
+					if (contentLength >= 0) {
+						onFileSize(contentLength, PROBE_METHOD_HEAD);
+						return true;
+					}
+					if (!mPolicy.isAcceptedMimeType(response.getContentType())) {
+						return true; // the file size does not matter anymore
+					}
+				}
+				else if (isMissing(response.getStatusCode())) {
+					mFailureReason = ScraperListener.REASON_HTTP_STATUS;
+					return true;
+				}
+			}
+			finally {
+				response.close();
+			}
+			// TRY HEAD REQUEST END
+
+			// FALL BACK TO RANGE REQUEST BEGIN
+			// servers that reject `HEAD` or do not send `Content-Length` for it are asked for the first byte only
+			response = execute(HttpRequest.METHOD_GET, "bytes=0-0");
+			try {
+				onResponse(response);
+				onRangeResponse(response);
+				return true;
+			}
+			finally {
+				releaseBody(response, 0); // the server may have ignored the range and sent the whole file
+			}
+			// FALL BACK TO RANGE REQUEST END
+		}
+		catch (IOException e) {
+			mRawFileSize = 0;
+			mRawProbeMethod = PROBE_METHOD_NONE;
+			onFailure(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Downloads the first bytes of the image only and reads both its file size and its dimensions
+	 *
+	 * @return whether the probe has been completed (i.e. not interrupted by network problems)
+	 */
+	private boolean probeHeader() {
+		try {
+			final HttpResponse response = execute(HttpRequest.METHOD_GET, "bytes=0-"+(ImageHeaderParser.DEFAULT_MAX_BYTES-1));
+			CountingInputStream input = null;
+			try {
+				onResponse(response);
+				onRangeResponse(response);
+				// the body is not read at all if the headers rule the image out already
+				if (mFailureReason == ScraperListener.REASON_ACCEPTED && mPolicy.isAcceptedMimeType(mContentType) && mPolicy.isAcceptedFileSize(mRawFileSize)) {
+					// the parser stops reading as soon as it has found the dimensions
+					mDimensionsProbed = true;
+					input = new CountingInputStream(response.getInputStream());
+					final ImageHeaderParser parser = new ImageHeaderParser();
+					if (parser.parse(new BufferedInputStream(input, 1024))) {
+						mWidth = parser.getWidth();
+						mHeight = parser.getHeight();
+					}
+				}
+				return true;
+			}
+			finally {
+				releaseBody(response, input == null ? 0 : input.getCount());
 			}
 		}
+		catch (IOException e) {
+			mRawFileSize = 0;
+			mRawProbeMethod = PROBE_METHOD_NONE;
+			onFailure(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Closes the given response without draining a large remainder of its body, which would cost more than a new connection
+	 *
+	 * @param response the response to close
+	 * @param bytesRead the number of bytes that have been read from the body already
+	 */
+	private static void releaseBody(HttpResponse response, long bytesRead) {
+		final long contentLength = response.getContentLength();
+		if (contentLength < 0 || contentLength-bytesRead > MAX_SKIPPED_BODY_BYTES) {
+			response.abort();
+		}
+		response.close();
+	}
+
+	/** Remembers why the probe has failed */
+	private void onFailure(IOException e) {
+		if (mAborted) {
+			mFailureReason = ScraperListener.REASON_ABORTED;
+		}
+		else if (e instanceof SocketTimeoutException) {
+			mFailureReason = ScraperListener.REASON_TIMEOUT;
+		}
+		else {
+			mFailureReason = ScraperListener.REASON_NETWORK_ERROR;
+		}
+	}
+
+	/** Reads the file size from the response to a `GET` request for a range of the file */
+	private void onRangeResponse(HttpResponse response) {
+		if (response.getStatusCode() == HTTP_PARTIAL_CONTENT) {
+			onFileSize(parseContentRangeLength(response.getHeader("Content-Range")), PROBE_METHOD_RANGE);
+		}
+		else if (isSuccessful(response.getStatusCode())) {
+			onFileSize(response.getContentLength(), PROBE_METHOD_GET);
+		}
+		else {
+			mFailureReason = ScraperListener.REASON_HTTP_STATUS;
+		}
+	}
+
+	/** Remembers the headers of the given response that are required for caching */
+	private void onResponse(HttpResponse response) {
+		mStatusCode = response.getStatusCode();
+		mContentType = response.getContentType();
+		mETag = response.getHeader("ETag");
+		mLastModified = response.getHeader("Last-Modified");
+	}
+
+	private HttpResponse execute(String method, String range) throws IOException {
+		return execute(createRequest(method, range));
+	}
+
+	private HttpResponse execute(HttpRequest request) throws IOException {
+		if (mAborted) {
+			throw new IOException("Aborted");
+		}
+		final HttpResponse response = mTransport.execute(request);
+		mResponse = response;
+		if (mAborted) { // aborted while the request was being sent
+			response.abort();
+		}
+		return response;
+	}
+
+	private HttpRequest createRequest(String method, String range) {
+		final HttpRequest request = new HttpRequest(mURL);
+		request.setMethod(method);
+		request.setConnectTimeout(mConnectTimeout);
+		request.setReadTimeout(mReadTimeout);
+		request.setHeader("User-Agent", mUserAgent);
+		if (range != null) {
+			request.setHeader("Range", range);
+		}
+		return request;
+	}
+
+	private void onFileSize(long fileSize, int probeMethod) {
+		if (fileSize > 0) {
+			mRawFileSize = fileSize;
+			mRawProbeMethod = probeMethod;
+		}
+	}
+
+	static boolean isSuccessful(int statusCode) {
+		return statusCode >= 200 && statusCode < 300;
+	}
+
+	/** Returns whether the given status code tells that the file does not exist (no matter which method is used) */
+	static boolean isMissing(int statusCode) {
+		return statusCode == HTTP_NOT_FOUND || statusCode == HTTP_GONE;
+	}
+
+	/**
+	 * Extracts the complete length of the file from the given `Content-Range` header
+	 *
+	 * @param contentRange the value of the `Content-Range` header, e.g. `bytes 0-0/12345` (may be `null`)
+	 * @return the complete length or `-1` if it is unknown
+	 */
+	static long parseContentRangeLength(String contentRange) {
+		if (contentRange == null) {
+			return -1;
+		}
+		final int slashPosition = contentRange.lastIndexOf('/');
+		if (slashPosition < 0) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.substring(slashPosition+1).trim());
+		}
+		catch (NumberFormatException e) { // length is `*` if unknown
+			return -1;
+		}
 	}
 
 }
@@ -0,0 +1,222 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the width and height of an image from the first bytes of its file without decoding (or even downloading) the complete image
+ * <p>
+ * Supports JPEG (SOF marker), PNG (IHDR chunk), GIF (logical screen descriptor) and WebP (VP8, VP8L and VP8X chunks)
+ * <p>
+ * Reading stops as soon as the header has been parsed or the maximum number of bytes has been read
+ */
+public class ImageHeaderParser {
+
+	/** The default maximum number of bytes that are read (enough for the headers of nearly all images, including JPEGs with EXIF data) */
+	public static final int DEFAULT_MAX_BYTES = 16384;
+	private final int mMaxBytes;
+	private InputStream mInputStream;
+	private int mPosition;
+	private int mWidth;
+	private int mHeight;
+
+	public ImageHeaderParser() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructs a new parser that reads at most the given number of bytes
+	 *
+	 * @param maxBytes the maximum number of bytes to read
+	 */
+	public ImageHeaderParser(int maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Reads the dimensions of the image from the given stream
+	 *
+	 * @param in the stream containing the image file from its first byte
+	 * @return whether the dimensions could be read
+	 */
+	public boolean parse(InputStream in) {
+		mInputStream = in;
+		mPosition = 0;
+		mWidth = 0;
+		mHeight = 0;
+		try {
+			final int first = read();
+			final int second = read();
+			if (first == 0xFF && second == 0xD8) {
+				parseJPEG();
+			}
+			else if (first == 0x89 && second == 'P') {
+				parsePNG();
+			}
+			else if (first == 'G' && second == 'I') {
+				parseGIF();
+			}
+			else if (first == 'R' && second == 'I') {
+				parseWebP();
+			}
+		}
+		catch (IOException e) {
+			mWidth = 0;
+			mHeight = 0;
+		}
+		finally {
+			mInputStream = null;
+		}
+		if (mWidth <= 0 || mHeight <= 0) {
+			mWidth = 0;
+			mHeight = 0;
+			return false;
+		}
+		return true;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	private void parseJPEG() throws IOException {
+		while (true) {
+			// every segment starts with at least one `0xFF` followed by the marker
+			int marker = read();
+			if (marker != 0xFF) {
+				continue;
+			}
+			do {
+				marker = read();
+			}
+			while (marker == 0xFF);
+			if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // markers without a payload
+				continue;
+			}
+			if (marker == 0xD9 || marker == 0xDA) { // end of image or start of scan before any frame header
+				return;
+			}
+			final int length = readUInt16BE();
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) { // start of frame (except DHT, JPG and DAC)
+				read(); // sample precision
+				mHeight = readUInt16BE();
+				mWidth = readUInt16BE();
+				return;
+			}
+			skip(length-2);
+		}
+	}
+
+	private void parsePNG() throws IOException {
+		if (read() != 'N' || read() != 'G') {
+			return;
+		}
+		skip(4); // rest of the signature
+		skip(4); // length of the first chunk
+		if (read() != 'I' || read() != 'H' || read() != 'D' || read() != 'R') {
+			return;
+		}
+		mWidth = readInt32BE();
+		mHeight = readInt32BE();
+	}
+
+	private void parseGIF() throws IOException {
+		if (read() != 'F') {
+			return;
+		}
+		skip(3); // version (`87a` or `89a`)
+		mWidth = readUInt16LE();
+		mHeight = readUInt16LE();
+	}
+
+	private void parseWebP() throws IOException {
+		if (read() != 'F' || read() != 'F') {
+			return;
+		}
+		skip(4); // file size
+		if (read() != 'W' || read() != 'E' || read() != 'B' || read() != 'P') {
+			return;
+		}
+		if (read() != 'V' || read() != 'P' || read() != '8') {
+			return;
+		}
+		final int format = read();
+		skip(4); // chunk size
+		if (format == ' ') { // lossy
+			skip(3); // frame tag
+			if (read() != 0x9D || read() != 0x01 || read() != 0x2A) {
+				return;
+			}
+			mWidth = readUInt16LE() & 0x3FFF;
+			mHeight = readUInt16LE() & 0x3FFF;
+		}
+		else if (format == 'L') { // lossless
+			if (read() != 0x2F) {
+				return;
+			}
+			final int bits = read() | (read() << 8) | (read() << 16) | (read() << 24);
+			mWidth = (bits & 0x3FFF)+1;
+			mHeight = ((bits >> 14) & 0x3FFF)+1;
+		}
+		else if (format == 'X') { // extended
+			skip(4); // flags and reserved bytes
+			mWidth = readUInt24LE()+1;
+			mHeight = readUInt24LE()+1;
+		}
+	}
+
+	private int read() throws IOException {
+		if (mPosition >= mMaxBytes) {
+			throw new EOFException();
+		}
+		final int b = mInputStream.read();
+		if (b == -1) {
+			throw new EOFException();
+		}
+		mPosition++;
+		return b;
+	}
+
+	private void skip(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			read();
+		}
+	}
+
+	private int readUInt16BE() throws IOException {
+		return (read() << 8) | read();
+	}
+
+	private int readUInt16LE() throws IOException {
+		return read() | (read() << 8);
+	}
+
+	private int readUInt24LE() throws IOException {
+		return read() | (read() << 8) | (read() << 16);
+	}
+
+	private int readInt32BE() throws IOException {
+		return (read() << 24) | (read() << 16) | (read() << 8) | read();
+	}
+
+}
@@ -0,0 +1,321 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.Locale;
+
+/**
+ * Decides which images are eligible (by their MIME type, file size, dimensions and aspect ratio) and how the eligible images are ranked
+ * <p>
+ * Every criterion is applied as early as the information is available: file extensions while the web page is read, declared dimensions before probing, MIME type and file size as soon as the headers of a probe have arrived and probed dimensions after the first bytes of the image
+ * <p>
+ * Dimensions that are not known (neither declared nor probed) never cause an image to be rejected
+ * <p>
+ * Configure the policy before passing it to any scrape as it is shared by all threads of that scrape
+ */
+public class ImagePolicy {
+
+	/** The value for any upper bound that should not be enforced */
+	public static final int UNLIMITED = 0;
+	private static ImagePolicy mDefaultInstance;
+	private int mImageFormats = HtmlScanner.FORMAT_JPEG;
+	private long mMinFileSize = ImageScraper.MIN_FILESIZE_BYTES;
+	private long mMaxFileSize = ImageScraper.MAX_FILESIZE_BYTES;
+	private int mMinWidth;
+	private int mMinHeight;
+	private int mMaxWidth = UNLIMITED;
+	private int mMaxHeight = UNLIMITED;
+	private double mMinAspectRatio;
+	private double mMaxAspectRatio = UNLIMITED;
+	/** The scorer to rank images with or `null` to rank by number of pixels when dimensions are probed and by file size otherwise */
+	private ImageScorer mScorer;
+
+	/**
+	 * Returns the policy that is shared across the whole process, which accepts JPEG files between `ImageScraper.MIN_FILESIZE_BYTES` and `ImageScraper.MAX_FILESIZE_BYTES` of any dimensions
+	 *
+	 * @return the shared policy
+	 */
+	public static synchronized ImagePolicy getDefault() {
+		if (mDefaultInstance == null) {
+			mDefaultInstance = new ImagePolicy();
+		}
+		return mDefaultInstance;
+	}
+
+	/**
+	 * Returns a copy of this policy that does not change when this policy is configured further
+	 *
+	 * @return the copy
+	 */
+	public ImagePolicy copy() {
+		final ImagePolicy out = new ImagePolicy();
+		out.mImageFormats = mImageFormats;
+		out.mMinFileSize = mMinFileSize;
+		out.mMaxFileSize = mMaxFileSize;
+		out.mMinWidth = mMinWidth;
+		out.mMinHeight = mMinHeight;
+		out.mMaxWidth = mMaxWidth;
+		out.mMaxHeight = mMaxHeight;
+		out.mMinAspectRatio = mMinAspectRatio;
+		out.mMaxAspectRatio = mMaxAspectRatio;
+		out.mScorer = mScorer;
+		return out;
+	}
+
+	/**
+	 * Sets the image formats that are accepted, which applies both to the file extensions that are searched for in web pages and to the MIME types of the probed files
+	 *
+	 * @param formats a combination of the `HtmlScanner.FORMAT_*` constants (`HtmlScanner.FORMAT_JPEG` by default)
+	 */
+	public void setImageFormats(int formats) {
+		mImageFormats = formats;
+	}
+
+	public int getImageFormats() {
+		return mImageFormats;
+	}
+
+	/**
+	 * Sets the range of file sizes that are accepted
+	 *
+	 * @param minBytes the minimum file size in bytes
+	 * @param maxBytes the maximum file size in bytes or `UNLIMITED`
+	 */
+	public void setFileSizeBounds(long minBytes, long maxBytes) {
+		mMinFileSize = minBytes;
+		mMaxFileSize = maxBytes;
+	}
+
+	/**
+	 * Returns the largest file size that is accepted
+	 *
+	 * @return the maximum file size in bytes or `Long.MAX_VALUE` if unlimited
+	 */
+	public long getMaxFileSize() {
+		return mMaxFileSize == UNLIMITED ? Long.MAX_VALUE : mMaxFileSize;
+	}
+
+	/**
+	 * Sets the range of widths and heights that are accepted
+	 *
+	 * @param minWidth the minimum width in pixels
+	 * @param minHeight the minimum height in pixels
+	 * @param maxWidth the maximum width in pixels or `UNLIMITED`
+	 * @param maxHeight the maximum height in pixels or `UNLIMITED`
+	 */
+	public void setDimensionBounds(int minWidth, int minHeight, int maxWidth, int maxHeight) {
+		mMinWidth = minWidth;
+		mMinHeight = minHeight;
+		mMaxWidth = maxWidth;
+		mMaxHeight = maxHeight;
+	}
+
+	/**
+	 * Sets the range of aspect ratios (width divided by height) that are accepted, e.g. to reject banners and skyscrapers
+	 *
+	 * @param minAspectRatio the minimum aspect ratio
+	 * @param maxAspectRatio the maximum aspect ratio or `UNLIMITED`
+	 */
+	public void setAspectRatioBounds(double minAspectRatio, double maxAspectRatio) {
+		mMinAspectRatio = minAspectRatio;
+		mMaxAspectRatio = maxAspectRatio;
+	}
+
+	/**
+	 * Sets the function that the accepted images are ranked by
+	 *
+	 * @param scorer the scorer (e.g. `ImageScorer.FILE_SIZE`) or `null` to rank by number of pixels when dimensions are probed and by file size otherwise
+	 */
+	public void setScorer(ImageScorer scorer) {
+		mScorer = scorer;
+	}
+
+	/**
+	 * Returns the function that the accepted images are ranked by
+	 *
+	 * @param dimensionsProbed whether the dimensions of the images are probed
+	 * @return the scorer
+	 */
+	public ImageScorer getScorer(boolean dimensionsProbed) {
+		if (mScorer != null) {
+			return mScorer;
+		}
+		return dimensionsProbed ? ImageScorer.PIXEL_COUNT : ImageScorer.FILE_SIZE;
+	}
+
+	/**
+	 * Returns a key that is equal for all policies with the same configuration so that their results can be shared
+	 *
+	 * @return the key or `null` if a custom scorer is used (as its configuration is unknown)
+	 */
+	public String getKey() {
+		final String scorer;
+		if (mScorer == null) {
+			scorer = "default";
+		}
+		else if (mScorer == ImageScorer.FILE_SIZE) {
+			scorer = "file_size";
+		}
+		else if (mScorer == ImageScorer.PIXEL_COUNT) {
+			scorer = "pixel_count";
+		}
+		else {
+			return null;
+		}
+		return getProbeKey()+"/"+mMinWidth+"/"+mMinHeight+"/"+mMaxWidth+"/"+mMaxHeight+"/"+mMinAspectRatio+"/"+mMaxAspectRatio+"/"+scorer;
+	}
+
+	/**
+	 * Returns a key that is equal for all policies that let a probe skip the same responses (by MIME type and file size) so that their probes can be shared
+	 *
+	 * @return the key
+	 */
+	public String getProbeKey() {
+		return mImageFormats+"/"+mMinFileSize+"/"+mMaxFileSize;
+	}
+
+	/**
+	 * Returns whether a file with the given MIME type is accepted
+	 *
+	 * @param mimeType the value of the `Content-Type` header (may be `null` if the server did not send any)
+	 * @return whether the MIME type is accepted or unknown
+	 */
+	public boolean isAcceptedMimeType(String mimeType) {
+		if (mimeType == null) {
+			return true;
+		}
+		return (getFormatOfMimeType(mimeType) & mImageFormats) != 0;
+	}
+
+	/**
+	 * Returns whether a file of the given size is accepted
+	 *
+	 * @param fileSize the file size in bytes or a negative value if unknown
+	 * @return whether the file size is known and accepted
+	 */
+	public boolean isAcceptedFileSize(long fileSize) {
+		return fileSize > 0 && fileSize >= mMinFileSize && (mMaxFileSize == UNLIMITED || fileSize <= mMaxFileSize);
+	}
+
+	/**
+	 * Returns whether an image with the given dimensions is accepted
+	 *
+	 * @param width the width in pixels or `0` if unknown
+	 * @param height the height in pixels or `0` if unknown
+	 * @return whether the dimensions are accepted or unknown
+	 */
+	public boolean isAcceptedDimensions(int width, int height) {
+		if (width > 0 && (width < mMinWidth || (mMaxWidth != UNLIMITED && width > mMaxWidth))) {
+			return false;
+		}
+		if (height > 0 && (height < mMinHeight || (mMaxHeight != UNLIMITED && height > mMaxHeight))) {
+			return false;
+		}
+		return isAcceptedAspectRatio(width, height);
+	}
+
+	/**
+	 * Returns whether the given candidate may be probed at all, judged by the dimensions that the web page declares for it
+	 * <p>
+	 * Declared dimensions are only the size that the image is displayed with, so only its aspect ratio is checked
+	 *
+	 * @param candidate the candidate that has been found in the web page
+	 * @return whether the candidate should be probed
+	 */
+	public boolean isAcceptedCandidate(ImageCandidate candidate) {
+		return isAcceptedAspectRatio(candidate.getWidth(), candidate.getHeight());
+	}
+
+	private boolean isAcceptedAspectRatio(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return true;
+		}
+		final double aspectRatio = (double) width / height;
+		return aspectRatio >= mMinAspectRatio && (mMaxAspectRatio == UNLIMITED || aspectRatio <= mMaxAspectRatio);
+	}
+
+	/**
+	 * Returns why an image with the given properties is rejected
+	 *
+	 * @param mimeType the value of the `Content-Type` header (may be `null`)
+	 * @param fileSize the file size in bytes or `0` if unknown
+	 * @param width the width in pixels or `0` if unknown
+	 * @param height the height in pixels or `0` if unknown
+	 * @return one of the `ScraperListener.REASON_*` constants
+	 */
+	public int getRejectReason(String mimeType, long fileSize, int width, int height) {
+		if (!isAcceptedMimeType(mimeType)) {
+			return ScraperListener.REASON_MIME_TYPE;
+		}
+		else if (fileSize <= 0) {
+			return ScraperListener.REASON_UNKNOWN_SIZE;
+		}
+		else if (fileSize < mMinFileSize) {
+			return ScraperListener.REASON_TOO_SMALL;
+		}
+		else if (!isAcceptedFileSize(fileSize)) {
+			return ScraperListener.REASON_TOO_LARGE;
+		}
+		else if (!isAcceptedDimensions(width, height)) {
+			return ScraperListener.REASON_DIMENSIONS;
+		}
+		else {
+			return ScraperListener.REASON_ACCEPTED;
+		}
+	}
+
+	/**
+	 * Returns why the image of the given cache entry is rejected
+	 *
+	 * @param entry the cache entry
+	 * @return one of the `ScraperListener.REASON_*` constants
+	 */
+	public int getRejectReason(ProbeCacheEntry entry) {
+		return getRejectReason(entry.getContentType(), entry.getFileSize(), entry.getWidth(), entry.getHeight());
+	}
+
+	/**
+	 * Returns the image format that the given MIME type stands for
+	 *
+	 * @param mimeType the value of the `Content-Type` header (including any parameters)
+	 * @return one of the `HtmlScanner.FORMAT_*` constants or `0` if unknown
+	 */
+	static int getFormatOfMimeType(String mimeType) {
+		final int separatorPosition = mimeType.indexOf(';');
+		final String type = (separatorPosition < 0 ? mimeType : mimeType.substring(0, separatorPosition)).trim().toLowerCase(Locale.US);
+		if (type.equals(ImageScraper.MIME_TYPE_JPEG) || type.equals("image/jpg") || type.equals("image/pjpeg")) {
+			return HtmlScanner.FORMAT_JPEG;
+		}
+		else if (type.equals("image/png") || type.equals("image/apng")) {
+			return HtmlScanner.FORMAT_PNG;
+		}
+		else if (type.equals("image/webp")) {
+			return HtmlScanner.FORMAT_WEBP;
+		}
+		else if (type.equals("image/gif")) {
+			return HtmlScanner.FORMAT_GIF;
+		}
+		else if (type.equals("image/avif")) {
+			return HtmlScanner.FORMAT_AVIF;
+		}
+		else {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * Scores probed images so that the best ones can be kept, where larger scores are better
+ * <p>
+ * Images with equal scores are ranked by their file size and implementations must be thread-safe
+ */
+public interface ImageScorer {
+
+	/** Ranks images by their file size */
+	public static final ImageScorer FILE_SIZE = new ImageScorer() {
+
+		@Override
+		public long getScore(ImageURL image) {
+			return image.getFileSize();
+		}
+
+	};
+	/** Ranks images by their number of pixels, which is only known if their dimensions have been probed */
+	public static final ImageScorer PIXEL_COUNT = new ImageScorer() {
+
+		@Override
+		public long getScore(ImageURL image) {
+			return image.getPixelCount();
+		}
+
+	};
+
+	/**
+	 * Returns the score of the given image that has been accepted by the ImagePolicy
+	 *
+	 * @param image the image including its file size and (if probed) its dimensions
+	 * @return the score where larger values are better
+	 */
+	public long getScore(ImageURL image);
+
+}
@@ -16,41 +16,46 @@ package im.delight.imagescraper;
  * limitations under the License.
  */
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.util.EntityUtils;
+import java.util.concurrent.ScheduledFuture;
 
 /** Extracts all image files from a given web page and returns as many of the largest files' URLs as requested */
-public class ImageScraper extends Thread implements ImageCheckerCallback {
+public class ImageScraper extends Thread implements ProgressiveImageCheckerCallback, HtmlScannerCallback {
 
-	/** The maximum file size in bytes that an image file may have (otherwise file size is returned as 0) */
+	/** The maximum file size in bytes that an image file may have with the default ImagePolicy (otherwise file size is returned as 0) */
 	public static final int MAX_FILESIZE_BYTES = 786432;
-	/** The minimum file size in bytes that an image file must have (otherwise file size is returned as 0) */
+	/** The minimum file size in bytes that an image file must have with the default ImagePolicy (otherwise file size is returned as 0) */
 	public static final int MIN_FILESIZE_BYTES = 9050;
 	/** Timeout for network read operations (in milliseconds) */
 	public static final int NETWORK_READ_TIMEOUT_MILLIS = 5000;
 	/** Timeout for network connection attempts (in milliseconds) */
 	public static final int NETWORK_CONNECT_TIMEOUT_MILLIS = 3000;
+	/** Default timeout for read operations while downloading the web page (in milliseconds) */
+	public static final int PAGE_READ_TIMEOUT_MILLIS = 4000;
+	/** Default timeout for connection attempts to the web page (in milliseconds) */
+	public static final int PAGE_CONNECT_TIMEOUT_MILLIS = 2500;
+	/** OpenGraph images that declare a smaller width or height than this are ignored (e.g. icons and tracking pixels) */
+	public static final int MIN_DECLARED_IMAGE_DIMENSION = 50;
+	/** Default maximum number of bytes that are read from a web page (the rest of larger documents is ignored) */
+	public static final long DEFAULT_MAX_PAGE_BYTES = 2097152;
+	/** Default maximum number of image candidates that are probed per web page (the most promising ones by their position and attributes) */
+	public static final int DEFAULT_MAX_CANDIDATES = 20;
 	/** User-Agent string to send when accessing web pages */
 	public static final String NETWORK_DEFAULT_USER_AGENT = "Android";
-	/** MIME type that files must have to be eligible */
+	/** MIME type that files must have to be eligible with the default ImagePolicy */
 	public static final String MIME_TYPE_JPEG = "image/jpeg";
-	/** RegEx that matches OpenGraph meta tags' property attributes */
-	private static final String REGEX_OPEN_GRAPH_TAG_PROPERTY = "property(\\s*)=(\\s*)([\"']{1})(og:[a-zA-Z0-9]+)([\"']{1})";
-	/** RegEx that matches OpenGraph meta tags' content attributes */
-	private static final String REGEX_OPEN_GRAPH_TAG_CONTENT = "content(\\s*)=(\\s*)([\"']{1})([^\"']+)([\"']{1})";
-	/** RegEx that matches the connection between OpenGraph property and content attributes */
-	private static final String REGEX_OPEN_GRAPH_TAG_SEPARATOR = "(\\s+)";
-	/** RegEx that finds complete OpenGraph meta tags (concatenation of the expressions above) */
-	private static final String REGEX_OPEN_GRAPH_TAG = "("+REGEX_OPEN_GRAPH_TAG_PROPERTY+REGEX_OPEN_GRAPH_TAG_SEPARATOR+REGEX_OPEN_GRAPH_TAG_CONTENT+"|"+REGEX_OPEN_GRAPH_TAG_CONTENT+REGEX_OPEN_GRAPH_TAG_SEPARATOR+REGEX_OPEN_GRAPH_TAG_PROPERTY+")";
-	/** RegEx that finds an optional base URL that may be set in an HTML document */
-	private static final String REGEX_BASE_HREF = "base(\\s*)href=([\\\"']{1})([^\\\"']+)([\\\"']{1})";
+	/** Charset that is used to decode web pages that do not declare their own charset (as defined by HTTP/1.1) */
+	private static final String HTTP_DEFAULT_CHARSET = "ISO-8859-1";
+	private static final int HTTP_NOT_MODIFIED = 304;
+	/** The number of candidates after which the most promising ones are probed while the web page is still being read */
+	private static final int CANDIDATE_WINDOW = 8;
+	/** The scrapes that are currently running (by their coalescing key) so that concurrent scrapes of the same web page can share a single job */
+	private static final HashMap<String, ImageScraper> IN_FLIGHT = new HashMap<String, ImageScraper>();
 	/** The callback that results will be delivered to from this ImageScraper instance */
 	private ImageScraperCallback mCallback;
 	/** The number of image files that have been requested by the calling Activity */
@@ -59,18 +64,109 @@ public class ImageScraper extends Thread implements ImageCheckerCallback {
 	private final String mURL;
 	/** The (optional) pre-defined title of the given web page */
 	private final String mTitle;
-	/** The URL to the root directory of the given web page */
-	private final String mRootURL;
-	/** The base URL of the given web page that is usually the directory containing the web page */
-	private String mBaseURL;
 	/** A pending result that may exist which has not been delivered to the calling Activity yet as there was no callback */
 	private ImageScraperResult mPendingResult;
 	/** The result that this ImageScraper builds and will ultimately deliver back to the calling Activity */
 	private ImageScraperResult mOutput;
-	/** Whether the core thread for the ImageChecker may time out or not */
+	/** Whether the core thread for the ImageChecker may time out or not (no longer used as the threads of the shared executor always time out when idle) */
 	private boolean mAllowCoreThreadTimeOut;
 	/** Custom User-Agent string that will be sent with all requests */
 	private String mUserAgent;
+	/** Whether the dimensions of all images should be read so that the largest images (instead of the largest files) are returned */
+	private boolean mProbeDimensions;
+	/** Cache for the results of image probes (or `null` to probe every image) */
+	private ProbeCache mProbeCache;
+	/** Cache for complete results (or `null` to scrape every time) */
+	private ResultCache mResultCache;
+	/** The value of the web page's `ETag` header */
+	private String mETag;
+	/** The value of the web page's `Last-Modified` header */
+	private String mLastModified;
+	/** Custom executor that the scrape and its probes run on (or `null` to use the shared default) */
+	private ScraperExecutor mExecutor;
+	/** Custom transport that all requests will be sent through (or `null` to use the shared default) */
+	private HttpTransport mTransport;
+	/** Engine that all images are probed on with non-blocking sockets (or `null` to probe on the threads of the executor) */
+	private NioProbeEngine mProbeEngine;
+	/** Limits the number of concurrent probes per host adaptively (or `null` to probe without limits) */
+	private AdaptiveHostLimiter mHostLimiter = AdaptiveHostLimiter.getDefault();
+	/** Resolves the image URLs found in the web page against the URL that it has been retrieved from and its base URL */
+	private ImageURLFinder mImageURLFinder;
+	/** The canonical URLs of all images that have been submitted for probing with the rank of the best variant that has been submitted */
+	private HashMap<String, Integer> mImageURLs;
+	/** The URL of the variant that has been submitted for every canonical URL (only if every candidate is probed while the web page is still being read) */
+	private HashMap<String, String> mSubmittedVariants;
+	/** Decides which URLs point to the same image */
+	private URLCanonicalizer mCanonicalizer = URLCanonicalizer.getDefault();
+	/** Decides which images are eligible and how they are ranked */
+	private ImagePolicy mImagePolicy = ImagePolicy.getDefault();
+	/** Describes all options that change the result (besides the URL and the number of images) or `null` if they cannot be described */
+	private String mOptionsKey;
+	/** The maximum number of candidates that are probed or `CandidateRanker.UNBOUNDED` to probe all of them while the web page is still being read */
+	private int mMaxCandidates = DEFAULT_MAX_CANDIDATES;
+	/** Ranks the image candidates so that only the most promising ones are probed (or `null` if all of them are probed) */
+	private CandidateRanker mCandidateRanker;
+	/** The number of candidates that have been ranked since the most promising ones have been probed for the last time */
+	private int mCandidatesInWindow;
+	/** The tag of the candidate that has been ranked last */
+	private int mLastCandidateGroup = ImageCandidate.NO_GROUP;
+	/** The number of image URLs that have been found in the web page */
+	private int mCandidateCount;
+	/** The maximum number of bytes that are read from the web page or `0` for no limit */
+	private long mMaxPageBytes = DEFAULT_MAX_PAGE_BYTES;
+	/** Whether reading stops at the end of the `head` section as soon as the meta data provides any image */
+	private boolean mHeadOnly;
+	/** The number of images from the meta data that have been added to the result */
+	private int mMetaImageCount;
+	/** Receives the timings of all phases and probes (or `null`) */
+	private ScraperListener mListener;
+	/** The times when this scrape has been run, when the response headers have been received and when the web page has been read (from `System.nanoTime()`) */
+	private long mRunStartedAt;
+	private long mResponseAt;
+	private long mScanEndedAt;
+	/** Reads the web page and reports its meta data and image URLs */
+	private HtmlScanner mScanner;
+	/** Checks the image URLs while the web page is still being read */
+	private ImageChecker mImageChecker;
+	/** The OpenGraph image whose structured properties are currently being read (or `null`) */
+	private String mMetaImageURL;
+	/** The width that has been declared for the current OpenGraph image (or `0` if unknown) */
+	private int mMetaImageWidth;
+	/** The height that has been declared for the current OpenGraph image (or `0` if unknown) */
+	private int mMetaImageHeight;
+	/** Whether the `head` section of the web page has been read completely */
+	private boolean mHeadParsed;
+	/** Whether the result has been filled by OpenGraph images so that no image URL has to be checked anymore */
+	private boolean mFinishedEarly;
+	/** Whether concurrent scrapes of the same web page with the same settings should share a single job */
+	private boolean mCoalescing = true;
+	/** The key that this scrape has been registered with in `IN_FLIGHT` (or `null` if it has not been registered) */
+	private String mFlightKey;
+	/** The scrapes of the same web page that have been started while this scrape was running and that wait for its result */
+	private final ArrayList<ImageScraper> mFollowers = new ArrayList<ImageScraper>();
+	/** Guards the result and the delivery of the result, which may happen on the thread of the scrape or on the thread that cancels it */
+	private final Object mLock = new Object();
+	/** The calls to the callback that are waiting to be made, in order, so that no progress is reported after the final result (guarded by `mLock`) */
+	private final LinkedList<Runnable> mPendingCallbacks = new LinkedList<Runnable>();
+	/** Whether a thread is making the calls from `mPendingCallbacks` right now (guarded by `mLock`) */
+	private boolean mRunningCallbacks;
+	/** Whether the preliminary result from the `head` section has been reported to a ProgressiveScraperCallback */
+	private boolean mHeadReported;
+	/** Whether the result has been delivered already (so that it is never delivered twice) */
+	private boolean mDelivered;
+	/** Whether this scrape has been cancelled or has run into its deadline */
+	private volatile boolean mCancelled;
+	/** The response of the web page while it is being read (so that it can be aborted) */
+	private volatile HttpResponse mResponse;
+	private int mConnectTimeout = PAGE_CONNECT_TIMEOUT_MILLIS;
+	private int mReadTimeout = PAGE_READ_TIMEOUT_MILLIS;
+	private int mProbeConnectTimeout = NETWORK_CONNECT_TIMEOUT_MILLIS;
+	private int mProbeReadTimeout = NETWORK_READ_TIMEOUT_MILLIS;
+	/** The maximum duration of the whole scrape (in milliseconds) or `0` for none */
+	private long mTimeoutMillis;
+	/** The point in time when the scrape will be cancelled (in milliseconds) or `0` if it has not been started or has no deadline */
+	private long mDeadline;
+	private ScheduledFuture<?> mDeadlineTimer;
 
 	public ImageScraper(ImageScraperCallback callback, String url, int imagesRequestedCount) {
 		this(callback, url, imagesRequestedCount, true);
@@ -86,152 +182,955 @@ public class ImageScraper extends Thread implements ImageCheckerCallback {
 		mTitle = title;
 		mImagesRequestedCount = imagesRequestedCount;
 		mAllowCoreThreadTimeOut = allowCoreThreadTimeOut;
-		mRootURL = makeRootPath(url);
-		mBaseURL = makeBasePath(url);
 	}
 	
 	public void setUserAgent(String userAgent) {
 		mUserAgent = userAgent;
 	}
 	
+	public void setHttpTransport(HttpTransport transport) {
+		mTransport = transport;
+	}
+
+	public void setExecutor(ScraperExecutor executor) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * Sets an engine that probes all images on non-blocking sockets so that thousands of probes can run at the same time without a thread each
+	 * <p>
+	 * The HTTP transport is still used for the web page itself but not for the images
+	 *
+	 * @param probeEngine the engine to use or `null` to probe on the threads of the executor
+	 */
+	public void setProbeEngine(NioProbeEngine probeEngine) {
+		mProbeEngine = probeEngine;
+	}
+
+	/**
+	 * Sets a cache for the results of image probes so that images which have been probed before (e.g. on other pages of the same site) are not probed again
+	 * <p>
+	 * The same cache should be passed to all instances
+	 *
+	 * @param probeCache the cache to use or `null` to probe every image
+	 */
+	public void setProbeCache(ProbeCache probeCache) {
+		mProbeCache = probeCache;
+	}
+
+	/**
+	 * Sets a cache for complete results so that web pages which have been scraped recently are not scraped again
+	 * <p>
+	 * Expired results are revalidated with a conditional request and reused if the web page has not been modified
+	 * <p>
+	 * The same cache should be passed to all instances
+	 *
+	 * @param resultCache the cache to use or `null` to scrape every time
+	 */
+	public void setResultCache(ResultCache resultCache) {
+		mResultCache = resultCache;
+	}
+
+	/**
+	 * Sets whether this scrape may share its job with concurrent scrapes of the same web page (enabled by default)
+	 * <p>
+	 * Scrapes are only shared if their URL (after normalization), the number of images requested, the title, the User-Agent and the probe mode are equal
+	 *
+	 * @param coalescing whether to share jobs
+	 */
+	public void setCoalescing(boolean coalescing) {
+		mCoalescing = coalescing;
+	}
+
+	/**
+	 * Sets the limiter that adapts the number of concurrent probes per host and fails probes of failing hosts fast
+	 * <p>
+	 * The shared `AdaptiveHostLimiter.getDefault()` is used by default so that all scrapes learn from each other
+	 *
+	 * @param hostLimiter the limiter to use or `null` to probe without limits
+	 */
+	public void setHostLimiter(AdaptiveHostLimiter hostLimiter) {
+		mHostLimiter = hostLimiter;
+	}
+
+	/**
+	 * Sets the timeouts for the download of the web page (which are shortened automatically if the deadline is closer)
+	 *
+	 * @param connectTimeoutMillis the timeout for connection attempts in milliseconds
+	 * @param readTimeoutMillis the timeout for read operations in milliseconds
+	 */
+	public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+		mConnectTimeout = connectTimeoutMillis;
+		mReadTimeout = readTimeoutMillis;
+	}
+
+	/**
+	 * Sets the timeouts for every single image probe
+	 *
+	 * @param connectTimeoutMillis the timeout for connection attempts in milliseconds
+	 * @param readTimeoutMillis the timeout for read operations in milliseconds
+	 */
+	public void setProbeTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+		mProbeConnectTimeout = connectTimeoutMillis;
+		mProbeReadTimeout = readTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum number of bytes that are read from the web page, after which the rest of the document is ignored (the images found so far are still used)
+	 *
+	 * @param maxPageBytes the maximum number of bytes or `0` for no limit
+	 */
+	public void setMaxPageBytes(long maxPageBytes) {
+		mMaxPageBytes = maxPageBytes;
+	}
+
+	/**
+	 * Sets whether reading the web page stops at the end of its `head` section as soon as its meta data (e.g. OpenGraph) provides at least one image
+	 * <p>
+	 * The result may then contain fewer images than requested but most of the document does not have to be downloaded, which saves most of the bytes on news sites
+	 * <p>
+	 * Reading always stops at the end of the `head` section if the images from the meta data fill all slots of the result
+	 *
+	 * @param headOnly whether to stop reading at the end of the `head` section
+	 */
+	public void setHeadOnly(boolean headOnly) {
+		mHeadOnly = headOnly;
+	}
+
+	/**
+	 * Sets the listener that receives the timings of all phases of this scrape and the outcome of every probe
+	 *
+	 * @param listener the listener (e.g. a shared ScraperMetrics instance) or `null`
+	 */
+	public void setListener(ScraperListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Sets the rules that decide which URLs point to the same image so that every image is probed only once
+	 * <p>
+	 * The shared `URLCanonicalizer.getDefault()` is used by default, which groups the resized variants of images on common image CDNs
+	 *
+	 * @param canonicalizer the canonicalizer to use
+	 */
+	public void setURLCanonicalizer(URLCanonicalizer canonicalizer) {
+		mCanonicalizer = canonicalizer;
+	}
+
+	/**
+	 * Sets the policy that decides which image formats are searched for and which images are accepted (by MIME type, file size, dimensions and aspect ratio) and how they are ranked
+	 * <p>
+	 * The shared `ImagePolicy.getDefault()` is used by default, which accepts JPEG files between `MIN_FILESIZE_BYTES` and `MAX_FILESIZE_BYTES` and ranks them by file size (or by number of pixels if dimensions are probed)
+	 * <p>
+	 * The policy is copied when the scrape starts and policies with a custom scorer disable the ResultCache and the coalescing of this scrape
+	 *
+	 * @param policy the policy to use
+	 */
+	public void setImagePolicy(ImagePolicy policy) {
+		mImagePolicy = policy;
+	}
+
+	/**
+	 * Sets the maximum number of image candidates that are probed, which are chosen by cheap heuristics (section of the document, declared dimensions, `srcset` descriptors and URL patterns)
+	 * <p>
+	 * Up to half of them are probed while the web page is still being read (in windows of the most promising candidates found so far) and the rest once the web page has been read
+	 * <p>
+	 * At least as many candidates as images have been requested are always probed
+	 *
+	 * @param maxCandidates the maximum number of candidates or `CandidateRanker.UNBOUNDED` to probe every image while the web page is still being read
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		mMaxCandidates = maxCandidates;
+	}
+
+	/**
+	 * Sets the maximum duration of the whole scrape, after which it is cancelled and a partial result is delivered
+	 * <p>
+	 * The duration is measured from `start()` and scrapes with a deadline never share their job with other scrapes
+	 *
+	 * @param timeoutMillis the maximum duration in milliseconds or `0` for none
+	 */
+	public void setDeadline(long timeoutMillis) {
+		mTimeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Cancels this scrape as soon as possible and delivers a partial result with the best images found so far (may be called from any thread)
+	 * <p>
+	 * The download of the web page is stopped and all probes are aborted, which releases their connections
+	 * <p>
+	 * Scrapes that have joined this scrape (see `setCoalescing()`) receive the partial result as well
+	 */
+	public void cancel() {
+		mCancelled = true;
+		final HtmlScanner scanner;
+		final ImageChecker imageChecker;
+		synchronized (mLock) {
+			scanner = mScanner;
+			imageChecker = mImageChecker;
+		}
+		if (scanner != null) {
+			scanner.stop();
+		}
+		final HttpResponse response = mResponse;
+		if (response != null) {
+			response.abort(); // makes a read that is blocked fail right away
+		}
+		if (imageChecker != null) {
+			imageChecker.abort();
+		}
+		deliver(createPartialResult());
+	}
+
+	/**
+	 * Returns whether this scrape has been cancelled (or has run into its deadline)
+	 *
+	 * @return whether this scrape has been cancelled
+	 */
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * Sets whether the first bytes of every image should be read to detect its dimensions so that images are ranked by their number of pixels instead of their file size
+	 *
+	 * @param probeDimensions whether to rank images by their dimensions
+	 */
+	public void setProbeDimensions(boolean probeDimensions) {
+		mProbeDimensions = probeDimensions;
+	}
+	
 	public void setCallback(ImageScraperCallback callback) {
-		mCallback = callback;
-		if (mPendingResult != null) {
-			mCallback.onFinished(mPendingResult); // notify the callback that the ImageScraper has finished and return its results
+		final ImageScraperResult pendingResult;
+		synchronized (mLock) {
+			if (mPendingResult == null) {
+				mCallback = callback;
+				return;
+			}
+			pendingResult = mPendingResult;
 			mPendingResult = null;
-			mCallback = null; // unset the callback as we do not need to receive any further information
 		}
+		callback.onFinished(pendingResult); // notify the callback that the ImageScraper has finished and return its results
 	}
 	
-	private static String makeBasePath(String url) {
-		final int lastSlashPosition = url.lastIndexOf("/");
-		if (lastSlashPosition >= 0) {
-			return url.substring(0, lastSlashPosition)+"/";
+	/**
+	 * Starts this scrape on the shared ScraperExecutor instead of a new thread
+	 * <p>
+	 * This instance is never started as a thread of its own, i.e. `isAlive()` and `join()` do not reflect the scrape
+	 */
+	@Override
+	public synchronized void start() {
+		startDeadline();
+		getExecutor().executeScrape(this);
+	}
+
+	/** Starts measuring the maximum duration of this scrape (if any) */
+	private void startDeadline() {
+		synchronized (mLock) {
+			if (mTimeoutMillis <= 0 || mDeadline != 0) {
+				return;
+			}
+			mDeadline = System.currentTimeMillis()+mTimeoutMillis;
+			mDeadlineTimer = getExecutor().scheduleTimeout(new Runnable() {
+
+				@Override
+				public void run() {
+					cancel();
+				}
+
+			}, mTimeoutMillis);
 		}
-		else {
-			return url;
+	}
+
+	/** Returns the given timeout or the time left until the deadline if that is shorter */
+	private int limitTimeout(int timeoutMillis) {
+		if (mDeadline == 0) {
+			return timeoutMillis;
 		}
+		final long remaining = Math.max(1, mDeadline-System.currentTimeMillis());
+		return (int) Math.min(timeoutMillis, remaining);
 	}
-	
-	private static String makeRootPath(String url) {
-		final String urlWithoutProtocol = url.replace("://", "");
-		int firstSlashPosition = urlWithoutProtocol.indexOf("/");
-		if (!url.equals(urlWithoutProtocol)) {
-			firstSlashPosition += 3; // as we have removed 3 chars before and must consider this for the slash position
+
+	@Override
+	public void run() {
+		mRunStartedAt = System.nanoTime();
+		startDeadline();
+		if (mCancelled) {
+			return; // the partial result has been delivered already
 		}
-		if (firstSlashPosition >= 0) {
-			return url.substring(0, firstSlashPosition)+"/";
+		final ImageScraperCallback callback;
+		synchronized (mLock) {
+			callback = mCallback;
 		}
-		else {
-			return url;
+		if (callback != null) {
+			postCallback(new Runnable() {
+
+				@Override
+				public void run() {
+					callback.onStarted();
+				}
+
+			});
+		}
+
+		// the options are fixed from now on so that a policy that is configured further cannot mix up cached or shared results
+		mImagePolicy = mImagePolicy.copy();
+		mOptionsKey = createOptionsKey();
+
+		// CHECK THE RESULT CACHE BEGIN
+		ResultCacheEntry expiredEntry = null;
+		if (mResultCache != null && mOptionsKey != null) {
+			final ResultCacheEntry entry = mResultCache.get(mURL, mImagesRequestedCount, mOptionsKey);
+			if (entry != null) {
+				synchronized (mLock) {
+					mOutput = entry.getResult().copy(); // the cached instance must never be handed out
+				}
+				onFinished();
+				return;
+			}
+			expiredEntry = mResultCache.getForRevalidation(mURL, mImagesRequestedCount, mOptionsKey);
+		}
+		// CHECK THE RESULT CACHE END
+
+		// JOIN A RUNNING SCRAPE OF THE SAME WEB PAGE BEGIN
+		if (mCoalescing && mTimeoutMillis <= 0 && mOptionsKey != null) {
+			final String flightKey = ResultCache.normalizeURL(mURL)+" "+mImagesRequestedCount+" "+mOptionsKey;
+			synchronized (IN_FLIGHT) {
+				final ImageScraper leader = IN_FLIGHT.get(flightKey);
+				if (leader != null) {
+					leader.mFollowers.add(this); // the leader will deliver its result to this instance as well
+					return;
+				}
+				IN_FLIGHT.put(flightKey, this);
+				mFlightKey = flightKey;
+			}
+		}
+		// JOIN A RUNNING SCRAPE OF THE SAME WEB PAGE END
+
+		boolean completed = false;
+		try {
+			scrape(expiredEntry);
+			completed = true;
+		}
+		finally {
+			if (!completed) {
+				// an unexpected exception must neither leave this scrape without a result nor keep the scrapes that have joined it waiting
+				final ImageChecker imageChecker;
+				synchronized (mLock) {
+					imageChecker = mImageChecker;
+				}
+				if (imageChecker != null) {
+					imageChecker.cancel();
+				}
+				onFailed(ImageScraperResult.ERROR_IO);
+			}
 		}
 	}
 
-	@Override
-	public void run() {
-		if (mCallback != null) {
-			mCallback.onStarted();
-		}
-		// FETCH HTML BEGIN
-		BasicHttpParams httpParameters = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParameters, 2500);
-		HttpConnectionParams.setSoTimeout(httpParameters, 4000);
-		DefaultHttpClient client = new DefaultHttpClient(httpParameters);
-		String responseStr;
+	/**
+	 * Fetches and scans the web page and starts probing its images
+	 *
+	 * @param expiredEntry the expired result of a previous scrape that may be revalidated or `null`
+	 */
+	private void scrape(ResultCacheEntry expiredEntry) {
+		mImageURLFinder = new ImageURLFinder(mURL);
+		mImageURLFinder.setCanonicalizer(mCanonicalizer);
+		mImageURLFinder.setImageFormats(mImagePolicy.getImageFormats());
+		mImageURLs = new HashMap<String, Integer>();
+		mSubmittedVariants = new HashMap<String, String>();
+		if (mMaxCandidates != CandidateRanker.UNBOUNDED) {
+			mCandidateRanker = new CandidateRanker(Math.max(mMaxCandidates, mImagesRequestedCount));
+		}
+		// image URLs are checked as soon as they are found (while the web page is still downloading)
+		final ImageChecker imageChecker;
+		if (mProbeEngine == null) {
+			imageChecker = new ImageChecker(this, getUserAgent(), getHttpTransport(), getExecutor());
+		}
+		else {
+			imageChecker = new ImageChecker(this, getUserAgent(), mProbeEngine);
+		}
+		if (mProbeDimensions) {
+			imageChecker.setProbeDimensions(true);
+		}
+		imageChecker.setPolicy(mImagePolicy);
+		imageChecker.setProbeCache(mProbeCache);
+		imageChecker.setMaxResults(mImagesRequestedCount);
+		imageChecker.setTimeouts(mProbeConnectTimeout, mProbeReadTimeout);
+		imageChecker.setHostLimiter(mHostLimiter);
+		imageChecker.setListener(mListener, mURL);
+		synchronized (mLock) {
+			mOutput = new ImageScraperResult(mURL, mTitle, mImagesRequestedCount);
+			mScanner = new HtmlScanner(this);
+			mScanner.setImageFormats(mImagePolicy.getImageFormats());
+			mImageChecker = imageChecker;
+		}
+		if (mCancelled) { // cancelled while the scrape was being set up
+			return;
+		}
+
+		// FETCH AND SCAN HTML BEGIN
+		HttpResponse response = null;
+		CountingInputStream transferred = null;
+		CountingInputStream input = null;
+		long charsRead;
 		try {
-			HttpGet httpGet = new HttpGet(mURL);
-			httpGet.setHeader("User-Agent", getUserAgent());
-			final HttpResponse responseData = client.execute(httpGet);
-			responseStr = EntityUtils.toString(responseData.getEntity());
+			final HttpRequest request = new HttpRequest(mURL);
+			request.setConnectTimeout(limitTimeout(mConnectTimeout));
+			request.setReadTimeout(limitTimeout(mReadTimeout));
+			request.setHeader("User-Agent", getUserAgent());
+			request.setHeader("Accept-Encoding", ContentDecoder.getAcceptEncoding());
+			if (expiredEntry != null) {
+				if (expiredEntry.getETag() != null) {
+					request.setHeader("If-None-Match", expiredEntry.getETag());
+				}
+				if (expiredEntry.getLastModified() != null) {
+					request.setHeader("If-Modified-Since", expiredEntry.getLastModified());
+				}
+			}
+			final long requestStartedAt = System.nanoTime();
+			response = getHttpTransport().execute(request);
+			mResponse = response;
+			if (response.getURL() != null) {
+				// relative URLs refer to the URL that the document has been retrieved from after all redirects (RFC 3986, section 5.1.3) unless a `base` tag follows
+				mImageURLFinder.setBaseURL(response.getURL());
+			}
+			mResponseAt = System.nanoTime();
+			onPhaseFinished(ScraperListener.PHASE_PAGE_RESPONSE, requestStartedAt);
+			if (mCancelled) {
+				response.abort();
+			}
+			if (expiredEntry != null && response.getStatusCode() == HTTP_NOT_MODIFIED) {
+				// the web page has not changed so the previous result is still valid
+				mImageChecker.cancel();
+				mResultCache.put(mURL, mImagesRequestedCount, mOptionsKey, expiredEntry.revalidated(System.currentTimeMillis()));
+				synchronized (mLock) {
+					mOutput = expiredEntry.getResult().copy();
+				}
+				onFinished();
+				return;
+			}
+			if (!HtmlDecoder.isHtml(response.getContentType())) {
+				// the body is never read as it may be huge (e.g. a video) or endless
+				response.abort();
+				mImageChecker.cancel();
+				onFailed(ImageScraperResult.ERROR_CONTENT_TYPE);
+				return;
+			}
+			mETag = response.getHeader("ETag");
+			mLastModified = response.getHeader("Last-Modified");
+			// the limit applies to the decoded document so that small compressed responses cannot expand without bounds
+			transferred = new CountingInputStream(response.getInputStream());
+			input = new CountingInputStream(ContentDecoder.decode(transferred, response.getHeader("Content-Encoding")), mMaxPageBytes);
+			final Reader reader = HtmlDecoder.createReader(input, response.getContentType(), HTTP_DEFAULT_CHARSET);
+			charsRead = mScanner.scan(reader);
+			if (input.isLimitReached()) {
+				response.abort(); // the rest of the document is not needed so the connection is not drained
+			}
+			onPhaseFinished(ScraperListener.PHASE_PAGE_SCAN, mResponseAt);
 		}
 		catch (Exception e) {
-			if (mCallback != null) {
-				mCallback.onFinished(new ImageScraperResult(ImageScraperResult.ERROR_IO)); // notify the callback that the ImageScraper has finished and return its results
-				mCallback = null; // unset the callback as we do not need to receive any further information
+			if (!mCancelled) { // otherwise the partial result has been delivered already
+				mImageChecker.cancel();
+				onFailed(ImageScraperResult.ERROR_IO);
 			}
 			return;
 		}
-		if (responseStr == null || responseStr.equals("")) {
-			if (mCallback != null) {
-				mCallback.onFinished(new ImageScraperResult(ImageScraperResult.ERROR_EMPTY)); // notify the callback that the ImageScraper has finished and return its results
-				mCallback = null; // unset the callback as we do not need to receive any further information
+		finally {
+			mResponse = null;
+			if (input != null) {
+				try {
+					input.close(); // releases the native resources of the decoders but leaves the connection to the response
+				}
+				catch (IOException e) { }
 			}
+			if (response != null) {
+				response.close();
+			}
+		}
+		if (mCancelled) {
 			return;
 		}
-		mOutput = new ImageScraperResult(mURL, mTitle, mImagesRequestedCount);
-		// FETCH HTML END
-
-		// SEE IF HTML DOCUMENT HAS ANY BASE PATH SET BEGIN
-		final Pattern basePathRegex = Pattern.compile(REGEX_BASE_HREF);
-		final Matcher basePath = basePathRegex.matcher(responseStr);
-		if (basePath.find()) {
-			mBaseURL = basePath.group(3);
-		}
-		// SEE IF HTML DOCUMENT HAS ANY BASE PATH SET END
-
-		// TRY TO FIND OPEN GRAPH META TAGS BEGIN
-		final Pattern openGraphTagRegex = Pattern.compile(REGEX_OPEN_GRAPH_TAG);
-		final Matcher openGraphTag = openGraphTagRegex.matcher(responseStr);
-		String[] propertyName = new String[2];
-		String[] propertyContent = new String[2];
-		while (openGraphTag.find()) {
-			propertyName[0] = openGraphTag.group(5);
-			propertyContent[0] = openGraphTag.group(11);
-			propertyName[1] = openGraphTag.group(22);
-			propertyContent[1] = openGraphTag.group(16);
-			for (int i = 0; i < 2; i++) {
-				if (propertyName[i] != null && !propertyName[i].equals("")) {
-					if (propertyName[i].equals("og:url")) {
-						mOutput.setURL(propertyContent[i]);
-					}
-					else if (propertyName[i].equals("og:title")) {
-						mOutput.setTitle(propertyContent[i]);
-					}
-					else if (propertyName[i].equals("og:image")) {
-						mOutput.addImageURL(propertyContent[i], true);
-					}
+		if (charsRead == 0) {
+			mImageChecker.cancel();
+			onFailed(ImageScraperResult.ERROR_EMPTY);
+			return;
+		}
+		// FETCH AND SCAN HTML END
+
+		flushMetaImage(); // in case the document has no closing `head` tag
+		reportHead();
+
+		// PROBE THE MOST PROMISING CANDIDATES BEGIN
+		if (mCandidateRanker != null && !mFinishedEarly) {
+			for (String url : mCandidateRanker.getTopURLs()) {
+				final String key = mImageURLFinder.canonicalize(url);
+				if (!mImageURLs.containsKey(key)) { // the ranker has chosen the best variant already
+					mImageURLs.put(key, Integer.MAX_VALUE);
+					mImageChecker.submit(url);
 				}
 			}
 		}
-		// TRY TO FIND OPEN GRAPH META TAGS END
+		// PROBE THE MOST PROMISING CANDIDATES END
 
-		// TRY TO PARSE FULL HTML DOCUMENT BEGIN
-		final ImageURLFinder imageURLFinder = new ImageURLFinder(mRootURL, mBaseURL);
-		final Iterable<String> imageURLs = imageURLFinder.find(responseStr);
-		// TRY TO PARSE FULL HTML DOCUMENT END
+		if (mListener != null) {
+			try {
+				mListener.onPageRead(mURL, transferred.getCount(), input.getCount(), charsRead, mCandidateCount, mImageURLs.size());
+			}
+			catch (RuntimeException e) { } // a failing listener must not disturb the scrape
+		}
+		mScanEndedAt = System.nanoTime();
 
 		// GET THE LARGEST IMAGE FILES AND WAIT FOR CALLBACK BEGIN
-		new ImageChecker(this, getUserAgent(), mAllowCoreThreadTimeOut).start(imageURLs);
+		if (mFinishedEarly) {
+			storeInCache();
+			onFinished();
+		}
+		else {
+			mImageChecker.finish();
+		}
 		// GET THE LARGEST IMAGE FILES FROM THE LIST END
 	}
-	
+
+	@Override
+	public void onBaseURL(String url) {
+		mImageURLFinder.setBaseURL(url);
+	}
+
+	@Override
+	public void onMetaTag(String property, String content) {
+		if (property.equals("og:url")) {
+			synchronized (mLock) {
+				mOutput.setURL(content);
+			}
+		}
+		else if (property.equals("og:title")) {
+			synchronized (mLock) {
+				mOutput.setTitle(content);
+			}
+		}
+		else if (property.equals("og:image") || property.equals("og:image:url")) {
+			// the structured properties that follow (e.g. `og:image:width`) describe this image
+			flushMetaImage();
+			mMetaImageURL = content;
+		}
+		else if (property.equals("og:image:secure_url")) {
+			mMetaImageURL = content; // the secure URL of the same image is preferred
+		}
+		else if (property.equals("og:image:width")) {
+			mMetaImageWidth = parseDimension(content);
+		}
+		else if (property.equals("og:image:height")) {
+			mMetaImageHeight = parseDimension(content);
+		}
+		else if (property.equals("twitter:image") || property.equals("twitter:image:src")) {
+			flushMetaImage();
+			addMetaImage(content);
+		}
+	}
+
+	@Override
+	public void onLinkTag(String rel, String href) {
+		if ((" "+rel+" ").contains(" image_src ")) {
+			flushMetaImage();
+			addMetaImage(href);
+		}
+	}
+
+	/** Adds the OpenGraph image that is currently being described (if any) unless it declares that it is too small or that its dimensions are not accepted by the policy */
+	private void flushMetaImage() {
+		if (mMetaImageURL != null) {
+			final boolean tooSmall = (mMetaImageWidth > 0 && mMetaImageWidth < MIN_DECLARED_IMAGE_DIMENSION) || (mMetaImageHeight > 0 && mMetaImageHeight < MIN_DECLARED_IMAGE_DIMENSION);
+			if (!tooSmall && mImagePolicy.isAcceptedDimensions(mMetaImageWidth, mMetaImageHeight)) {
+				addMetaImage(mMetaImageURL);
+			}
+		}
+		mMetaImageURL = null;
+		mMetaImageWidth = 0;
+		mMetaImageHeight = 0;
+	}
+
+	/** Adds the given image from the meta data of the web page, which takes precedence over the images found in the document */
+	private void addMetaImage(String metaURL) {
+		final String url = mImageURLFinder.makeAbsoluteURL(metaURL);
+		if (mCandidateRanker != null) {
+			mCandidateRanker.exclude(mImageURLFinder.canonicalize(url));
+		}
+		synchronized (mLock) {
+			if (!mOutput.hasImageURL(url) && mOutput.addImageURL(url, true)) {
+				mMetaImageCount++;
+			}
+		}
+		// meta images take precedence so as soon as they fill all slots no other image can make it into the result
+		if (!mFinishedEarly && mOutput.isFull()) {
+			mFinishedEarly = true;
+			mImageChecker.cancel();
+			if (mHeadParsed) {
+				mScanner.stop();
+			}
+		}
+	}
+
+	private static int parseDimension(String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void onImageURL(ImageCandidate candidate) {
+		mCandidateCount++;
+		if (!mImagePolicy.isAcceptedCandidate(candidate)) {
+			return; // the declared aspect ratio rules the image out so it is never probed
+		}
+		if (mCandidateRanker != null) {
+			// the most promising candidates are probed in windows and the rest once all of them are known
+			if (!mFinishedEarly) {
+				// all variants of the previous tag are known once another tag begins
+				final boolean tagEnded = candidate.getGroup() == ImageCandidate.NO_GROUP || candidate.getGroup() != mLastCandidateGroup;
+				if (tagEnded && mCandidatesInWindow >= CANDIDATE_WINDOW) {
+					mCandidatesInWindow = 0;
+					probePromisingCandidates();
+				}
+				final String absoluteURL = mImageURLFinder.makeAbsoluteURL(candidate.getURL());
+				mCandidateRanker.add(absoluteURL, mImageURLFinder.canonicalize(absoluteURL), candidate);
+				mCandidatesInWindow++;
+				mLastCandidateGroup = candidate.getGroup();
+			}
+		}
+		else if (!mFinishedEarly) {
+			final String absoluteURL = mImageURLFinder.makeAbsoluteURL(candidate.getURL());
+			final String key = mImageURLFinder.canonicalize(absoluteURL);
+			final int rank = mImageURLFinder.getVariantRank(absoluteURL, candidate);
+			final Integer previousRank = mImageURLs.get(key);
+			// a better variant of an image that is being probed already is probed as well and the worse one is dropped from the result
+			if (previousRank == null || rank > previousRank) {
+				mImageURLs.put(key, rank);
+				final String previousURL = mSubmittedVariants.put(key, absoluteURL);
+				if (previousURL == null) {
+					mImageChecker.submit(absoluteURL);
+				}
+				else if (!previousURL.equals(absoluteURL)) {
+					mImageChecker.discard(previousURL);
+					mImageChecker.submit(absoluteURL);
+				}
+			}
+		}
+	}
+
+	/** Probes the most promising candidates found so far while the web page is still being read, using up to half of the candidates that may be probed */
+	private void probePromisingCandidates() {
+		final int budget = Math.max(mMaxCandidates, mImagesRequestedCount) / 2 - mCandidateRanker.getTakenCount();
+		if (budget <= 0) {
+			return;
+		}
+		for (String url : mCandidateRanker.takeTopURLs(budget, CandidateRanker.SCORE_PROMISING)) {
+			final String key = mImageURLFinder.canonicalize(url);
+			if (!mImageURLs.containsKey(key)) {
+				mImageURLs.put(key, Integer.MAX_VALUE);
+				mImageChecker.submit(url);
+			}
+		}
+	}
+
+	@Override
+	public void onHeadEnd() {
+		onPhaseFinished(ScraperListener.PHASE_PAGE_HEAD, mResponseAt);
+		flushMetaImage();
+		mHeadParsed = true;
+		reportHead();
+		if (mHeadOnly && mMetaImageCount > 0 && !mFinishedEarly) {
+			mFinishedEarly = true;
+			mImageChecker.cancel();
+		}
+		if (mFinishedEarly) {
+			// the remaining meta data has been read so we do not need the rest of the document
+			mScanner.stop();
+		}
+	}
+
+	@Override
+	public void onImageAccepted(ImageURL imageURL) {
+		final ProgressiveScraperCallback callback = getProgressiveCallback();
+		if (callback != null) {
+			final String url = imageURL.getURL();
+			final ImageScraperResult partialResult = createPartialResult();
+			postCallback(new Runnable() {
+
+				@Override
+				public void run() {
+					callback.onImageVerified(url, partialResult);
+				}
+
+			});
+		}
+	}
+
+	/** Reports the title, URL and meta images to a ProgressiveScraperCallback as soon as the `head` section has been parsed */
+	private void reportHead() {
+		final ProgressiveScraperCallback callback = getProgressiveCallback();
+		if (callback != null && !mHeadReported) {
+			mHeadReported = true;
+			final ImageScraperResult preliminary;
+			synchronized (mLock) {
+				preliminary = mOutput.copy();
+			}
+			preliminary.setPartial(true);
+			postCallback(new Runnable() {
+
+				@Override
+				public void run() {
+					callback.onHeadParsed(preliminary);
+				}
+
+			});
+		}
+	}
+
+	/** Returns the callback if it wants to receive the results found so far or `null` otherwise */
+	private ProgressiveScraperCallback getProgressiveCallback() {
+		synchronized (mLock) {
+			return mCallback instanceof ProgressiveScraperCallback ? (ProgressiveScraperCallback) mCallback : null;
+		}
+	}
+
+	/** Queues a call to the callback unless the result has been delivered already and makes the queued calls unless another thread is doing so */
+	private void postCallback(Runnable call) {
+		synchronized (mLock) {
+			if (mDelivered) {
+				return;
+			}
+			mPendingCallbacks.addLast(call);
+		}
+		runCallbacks();
+	}
+
+	/**
+	 * Makes the queued calls to the callback one after another without holding any lock
+	 * <p>
+	 * Only a single thread makes the calls at any time so that they are never made concurrently and always in the order in which they have been queued
+	 * <p>
+	 * An exception that is thrown by the callback is re-thrown after all queued calls have been made so that it cannot keep the final result from being delivered
+	 */
+	private void runCallbacks() {
+		synchronized (mLock) {
+			if (mRunningCallbacks) {
+				return; // the thread that is making the calls right now will make the new calls as well
+			}
+			mRunningCallbacks = true;
+		}
+		RuntimeException failure = null;
+		while (true) {
+			final Runnable call;
+			synchronized (mLock) {
+				call = mPendingCallbacks.poll();
+				if (call == null) {
+					mRunningCallbacks = false;
+					break;
+				}
+			}
+			try {
+				call.run();
+			}
+			catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
 	protected String getUserAgent() {
 		return mUserAgent == null ? NETWORK_DEFAULT_USER_AGENT : mUserAgent;
 	}
 
+	protected ScraperExecutor getExecutor() {
+		return mExecutor == null ? ScraperExecutor.getDefault() : mExecutor;
+	}
+
+	protected HttpTransport getHttpTransport() {
+		return mTransport == null ? PooledHttpTransport.getDefault() : mTransport;
+	}
+
 	@Override
 	public void onImageCheckerFinished(PriorityBlockingQueue<ImageURL> imageURLs) {
+		if (mCancelled) {
+			return; // the partial result has been delivered already
+		}
+
+		onPhaseFinished(ScraperListener.PHASE_PROBES, mScanEndedAt);
+
 		// COLLECT THE LARGEST IMAGE FILES BEGIN
-		boolean imageSlotsAvailable = true;
-		while (imageSlotsAvailable) { // while images available in queue
-			ImageURL imageURL = imageURLs.poll(); // get the next image
-			if (imageURL != null) { // if still images in queue
-				if (imageURL.getFileSize() > 0) { // if image could be accessed
-					imageSlotsAvailable = mOutput.addImageURL(imageURL.getURL()); // add it to result list
+		synchronized (mLock) {
+			boolean imageSlotsAvailable = true;
+			while (imageSlotsAvailable) { // while images available in queue
+				ImageURL imageURL = imageURLs.poll(); // get the next image
+				if (imageURL != null) { // if still images in queue
+					if (imageURL.getFileSize() > 0 && !hasVariantOf(mOutput, imageURL.getURL())) { // if image could be accessed and has not been added (as an OpenGraph image or as a larger variant) already
+						imageSlotsAvailable = mOutput.addImageURL(imageURL.getURL()); // add it to result list
+					}
+				}
+				else { // if no more images in queue
+					imageSlotsAvailable = false; // stop iterating
 				}
-			}
-			else { // if no more images in queue
-				imageSlotsAvailable = false; // stop iterating
 			}
 		}
 		// COLLECT THE LARGEST IMAGE FILES END
-		
-		if (mCallback != null) {
-			mCallback.onFinished(mOutput); // notify the callback that the ImageScraper has finished and return its results
+
+		storeInCache();
+		onFinished();
+	}
+
+	/** Stores the successful result in the result cache (if any) */
+	private void storeInCache() {
+		if (mResultCache != null && mOptionsKey != null && !mCancelled && mOutput.getErrorCode() == ImageScraperResult.ERROR_NONE) {
+			final ImageScraperResult result;
+			synchronized (mLock) {
+				result = mOutput.copy();
+			}
+			mResultCache.put(mURL, mImagesRequestedCount, mOptionsKey, new ResultCacheEntry(result, mETag, mLastModified, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Describes all options of this scrape that change its result, besides the URL and the number of images
+	 *
+	 * @return the key or `null` if the options cannot be described (e.g. because the policy uses a custom scorer)
+	 */
+	private String createOptionsKey() {
+		final String policyKey = mImagePolicy.getKey();
+		if (policyKey == null) {
+			return null;
+		}
+		return mProbeDimensions+" "+mHeadOnly+" "+mMaxCandidates+" "+mMaxPageBytes+" "+getUserAgent()+" "+mTitle+" "+policyKey+" "+mCanonicalizer.getKey();
+	}
+
+	/** Delivers the result to the callback or keeps it until a callback has been set */
+	private void onFinished() {
+		final ImageScraperResult result;
+		synchronized (mLock) {
+			result = mOutput;
+		}
+		deliver(result);
+	}
+
+	/** Returns whether the given result contains the given image or another variant of it */
+	private boolean hasVariantOf(ImageScraperResult result, String url) {
+		if (result.hasImageURL(url)) {
+			return true;
+		}
+		final String[] imageURLs = result.getImageURLs();
+		if (imageURLs == null || mImageURLFinder == null) {
+			return false;
+		}
+		final String key = mImageURLFinder.canonicalize(url);
+		for (String imageURL : imageURLs) {
+			if (imageURL != null && mImageURLFinder.canonicalize(imageURL).equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Delivers an error result to the callback (if any) */
+	private void onFailed(int errorCode) {
+		deliver(new ImageScraperResult(errorCode));
+	}
+
+	/** Returns a copy of the result built so far that is completed with the best images that have been probed so far */
+	private ImageScraperResult createPartialResult() {
+		final ImageScraperResult result;
+		synchronized (mLock) {
+			if (mOutput == null) {
+				result = new ImageScraperResult(mURL, mTitle, mImagesRequestedCount);
+			}
+			else {
+				result = mOutput.copy();
+			}
+			if (mImageChecker != null && result.getImageURLs() != null) {
+				for (ImageURL imageURL : mImageChecker.getImageURLs()) {
+					if (!hasVariantOf(result, imageURL.getURL()) && !result.addImageURL(imageURL.getURL())) {
+						break;
+					}
+				}
+			}
+		}
+		result.setPartial(true);
+		return result;
+	}
+
+	/** Delivers the given result exactly once (to the callback or as the pending result) and to all scrapes that have joined this scrape */
+	private void deliver(final ImageScraperResult result) {
+		final ImageScraperCallback callback;
+		synchronized (mLock) {
+			if (mDelivered) {
+				return;
+			}
+			mDelivered = true;
+			if (mDeadlineTimer != null) {
+				mDeadlineTimer.cancel(false);
+			}
+			callback = mCallback;
 			mCallback = null; // unset the callback as we do not need to receive any further information
+			if (callback == null) {
+				mPendingResult = result;
+			}
+			else { // queued while the result is marked as delivered so that it is the very last call
+				mPendingCallbacks.addLast(new Runnable() {
+
+					@Override
+					public void run() {
+						callback.onFinished(result); // notify the callback that the ImageScraper has finished and return its results
+					}
+
+				});
+			}
 		}
-		else {
-			mPendingResult = mOutput;
+		if (mRunStartedAt != 0) {
+			onPhaseFinished(ScraperListener.PHASE_TOTAL, mRunStartedAt);
+		}
+		try {
+			runCallbacks(); // returns right away if progress is being reported on another thread, which will then deliver the result
+		}
+		finally {
+			onFlightFinished(result);
+		}
+	}
+
+	/** Reports the duration of the given phase to the listener (if any) */
+	private void onPhaseFinished(int phase, long startedAt) {
+		if (mListener != null) {
+			try {
+				mListener.onPhaseFinished(mURL, phase, (System.nanoTime()-startedAt) / 1000000);
+			}
+			catch (RuntimeException e) { } // a failing listener must not disturb the scrape
+		}
+	}
+
+	/** Unregisters this scrape so that no more scrapes can join it and delivers the result to all scrapes that have joined */
+	private void onFlightFinished(ImageScraperResult result) {
+		final ArrayList<ImageScraper> followers;
+		synchronized (IN_FLIGHT) {
+			if (mFlightKey == null) {
+				return;
+			}
+			IN_FLIGHT.remove(mFlightKey);
+			mFlightKey = null;
+			followers = new ArrayList<ImageScraper>(mFollowers);
+			mFollowers.clear();
+		}
+		for (ImageScraper follower : followers) {
+			try {
+				follower.deliver(result.copy()); // every scrape receives its own instance
+			}
+			catch (RuntimeException e) {
+				// a failing callback of one scrape must not keep the other scrapes from receiving their result
+			}
 		}
 	}
 	
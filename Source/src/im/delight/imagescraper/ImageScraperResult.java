@@ -16,6 +16,9 @@ package im.delight.imagescraper;
  * limitations under the License.
  */
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -25,11 +28,17 @@ public class ImageScraperResult implements Parcelable {
 	public static final int ERROR_NONE = 0;
 	public static final int ERROR_IO = 1;
 	public static final int ERROR_EMPTY = 2;
+	/** The response is not an HTML document (e.g. an image or a video) */
+	public static final int ERROR_CONTENT_TYPE = 3;
+	/** Version of the compact serialized form written by `writeTo()` */
+	private static final int SERIALIZATION_VERSION = 1;
 	private final int mMaxImageURLs;
 	private final int mErrorCode;
 	private String mURL;
 	private String mTitle;
 	private String[] mImageURLs;
+	/** Whether the scrape has been cancelled or has run into its deadline before it could be completed */
+	private boolean mPartial;
 	
 	public ImageScraperResult(String url, String title, int maxImageURLs) {
 		mURL = url;
@@ -47,6 +56,32 @@ public class ImageScraperResult implements Parcelable {
 	public int getErrorCode() {
 		return mErrorCode;
 	}
+
+	/**
+	 * Returns whether this result only contains the images that had been found when the scrape was cancelled or ran into its deadline
+	 * <p>
+	 * Partial results are never cached
+	 *
+	 * @return whether this result is partial
+	 */
+	public boolean isPartial() {
+		return mPartial;
+	}
+
+	void setPartial(boolean partial) {
+		mPartial = partial;
+	}
+
+	/**
+	 * Returns a copy of this result that can be modified independently
+	 *
+	 * @return the copy
+	 */
+	ImageScraperResult copy() {
+		final ImageScraperResult out = new ImageScraperResult(mURL, mTitle, mImageURLs == null ? null : mImageURLs.clone(), mMaxImageURLs, mErrorCode);
+		out.mPartial = mPartial;
+		return out;
+	}
 	
 	public String getURL() {
 		return mURL;
@@ -64,8 +99,13 @@ public class ImageScraperResult implements Parcelable {
 		mTitle = title;
 	}
 	
+	/**
+	 * Returns the image URLs of this result (best images first, with `null` for slots that could not be filled)
+	 *
+	 * @return a copy of the image URLs or `null` if the scrape has failed
+	 */
 	public String[] getImageURLs() {
-		return mImageURLs;
+		return mImageURLs == null ? null : mImageURLs.clone();
 	}
 	
 	public boolean addImageURL(String imageURL) {
@@ -73,17 +113,9 @@ public class ImageScraperResult implements Parcelable {
 	}
 	
 	public boolean addImageURL(String imageURL, boolean isLowPriority) {
-		final int startIndex;
-		final int endIndex;
-		if (isLowPriority) {
-			startIndex = mMaxImageURLs-1;
-			endIndex = 0;
-		}
-		else {
-			startIndex = 0;
-			endIndex = mMaxImageURLs-1;
-		}
-		for (int i = startIndex; i <= endIndex; i++) {
+		// high-priority images fill the slots from the front whereas low-priority images fill them from the back
+		for (int n = 0; n < mMaxImageURLs; n++) {
+			final int i = isLowPriority ? mMaxImageURLs-1-n : n;
 			if (mImageURLs[i] == null) {
 				mImageURLs[i] = imageURL;
 				return true;
@@ -92,6 +124,41 @@ public class ImageScraperResult implements Parcelable {
 		return false;
 	}
 	
+	/**
+	 * Returns whether the given image URL has already been added to this result
+	 *
+	 * @param imageURL the image URL to look for
+	 * @return whether the URL is contained in this result
+	 */
+	public boolean hasImageURL(String imageURL) {
+		if (mImageURLs == null) {
+			return false;
+		}
+		for (int i = 0; i < mMaxImageURLs; i++) {
+			if (imageURL.equals(mImageURLs[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether all image slots have been filled so that no further image can be added
+	 *
+	 * @return whether this result is full
+	 */
+	public boolean isFull() {
+		if (mImageURLs == null) {
+			return true;
+		}
+		for (int i = 0; i < mMaxImageURLs; i++) {
+			if (mImageURLs[i] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public boolean isComplete() {
 		if (mTitle == null || mURL == null || mImageURLs == null) {
 			return false;
@@ -161,7 +228,7 @@ public class ImageScraperResult implements Parcelable {
 
 	@Override
 	public String toString() {
-		return "ImageScraperResult [mURL=" + mURL + ", mTitle=" + mTitle + ", mImageURLs=" + Arrays.toString(mImageURLs) + ", mMaxImageURLs=" + mMaxImageURLs + ", mErrorCode=" + mErrorCode + "]";
+		return "ImageScraperResult [mURL=" + mURL + ", mTitle=" + mTitle + ", mImageURLs=" + Arrays.toString(mImageURLs) + ", mMaxImageURLs=" + mMaxImageURLs + ", mErrorCode=" + mErrorCode + ", mPartial=" + mPartial + "]";
 	}
     
 	public static final Parcelable.Creator<ImageScraperResult> CREATOR = new Parcelable.Creator<ImageScraperResult>() {
@@ -187,6 +254,64 @@ public class ImageScraperResult implements Parcelable {
 		out.writeStringArray(mImageURLs);
 		out.writeInt(mMaxImageURLs);
 		out.writeInt(mErrorCode);
+		out.writeInt(mPartial ? 1 : 0);
+	}
+	
+	/**
+	 * Writes this result to the given stream in a compact binary form that (unlike a `Parcel`) may be stored persistently
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the result could not be written
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(SERIALIZATION_VERSION);
+		CacheStore.writeNullableString(out, mURL);
+		CacheStore.writeNullableString(out, mTitle);
+		if (mImageURLs == null) {
+			out.writeInt(-1);
+		}
+		else {
+			out.writeInt(mImageURLs.length);
+			for (String imageURL : mImageURLs) {
+				CacheStore.writeNullableString(out, imageURL);
+			}
+		}
+		out.writeInt(mMaxImageURLs);
+		out.writeInt(mErrorCode);
+	}
+
+	/**
+	 * Reads a result that has been written with `writeTo()` from the given stream
+	 *
+	 * @param in the stream to read from
+	 * @return the result
+	 * @throws IOException if the result could not be read or has been written by an incompatible version
+	 */
+	public static ImageScraperResult readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != SERIALIZATION_VERSION) {
+			throw new IOException("Unsupported version");
+		}
+		final String url = CacheStore.readNullableString(in);
+		final String title = CacheStore.readNullableString(in);
+		final int imageURLCount = in.readInt();
+		String[] imageURLs = null;
+		if (imageURLCount >= 0) {
+			imageURLs = new String[imageURLCount];
+			for (int i = 0; i < imageURLCount; i++) {
+				imageURLs[i] = CacheStore.readNullableString(in);
+			}
+		}
+		final int maxImageURLs = in.readInt();
+		final int errorCode = in.readInt();
+		return new ImageScraperResult(url, title, imageURLs, maxImageURLs, errorCode);
+	}
+
+	private ImageScraperResult(String url, String title, String[] imageURLs, int maxImageURLs, int errorCode) {
+		mURL = url;
+		mTitle = title;
+		mImageURLs = imageURLs;
+		mMaxImageURLs = maxImageURLs;
+		mErrorCode = errorCode;
 	}
 	
 	private ImageScraperResult(Parcel in) {
@@ -195,6 +320,7 @@ public class ImageScraperResult implements Parcelable {
 		mImageURLs = in.createStringArray();
 		mMaxImageURLs = in.readInt();
 		mErrorCode = in.readInt();
+		mPartial = in.readInt() == 1;
 	}
 
 }
@@ -22,10 +22,24 @@ public class ImageURL implements Comparable<ImageURL> {
 
 	private String mURL;
 	private int mFileSize;
+	private int mProbeMethod;
+	private int mWidth;
+	private int mHeight;
 
 	public ImageURL(String url, int fileSize) {
+		this(url, fileSize, ImageCheckerTask.PROBE_METHOD_NONE);
+	}
+
+	public ImageURL(String url, int fileSize, int probeMethod) {
+		this(url, fileSize, probeMethod, 0, 0);
+	}
+
+	public ImageURL(String url, int fileSize, int probeMethod, int width, int height) {
 		mURL = url;
 		mFileSize = fileSize;
+		mProbeMethod = probeMethod;
+		mWidth = width;
+		mHeight = height;
 	}
 
 	public String getURL() {
@@ -36,6 +50,42 @@ public class ImageURL implements Comparable<ImageURL> {
 		return mFileSize;
 	}
 
+	/**
+	 * Returns how the file size has been determined, which tells how many bytes have been transferred for this image
+	 *
+	 * @return one of the `ImageCheckerTask.PROBE_METHOD_*` constants
+	 */
+	public int getProbeMethod() {
+		return mProbeMethod;
+	}
+
+	/**
+	 * Returns the width of the image if its dimensions have been probed
+	 *
+	 * @return the width in pixels or `0` if unknown
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Returns the height of the image if its dimensions have been probed
+	 *
+	 * @return the height in pixels or `0` if unknown
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns the number of pixels of the image if its dimensions have been probed
+	 *
+	 * @return the number of pixels or `0` if unknown
+	 */
+	public long getPixelCount() {
+		return (long) mWidth * mHeight;
+	}
+
     public static Comparator<ImageURL> COMPARATOR = new Comparator<ImageURL>() {
 
     	@Override
@@ -98,7 +148,7 @@ public class ImageURL implements Comparable<ImageURL> {
 
 	@Override
 	public String toString() {
-		return "ImageURL [mURL=" + mURL + ", mFileSize=" + mFileSize + "]";
+		return "ImageURL [mURL=" + mURL + ", mFileSize=" + mFileSize + ", mProbeMethod=" + mProbeMethod + ", mWidth=" + mWidth + ", mHeight=" + mHeight + "]";
 	}
 
 }
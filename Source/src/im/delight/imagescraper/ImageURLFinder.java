@@ -16,59 +16,147 @@ package im.delight.imagescraper;
  * limitations under the License.
  */
 
-import java.util.HashSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
- * Extracts all JPEG URLs from the given HTML source text
+ * Extracts all image URLs from the given HTML source text
  * <p>
- * The specific part that we know most about is the file extension (which is actually at the end)
+ * The source is read in a single forward pass by an HtmlScanner which detects URLs by their file extension (without reversing the text) as well as in the attributes of `img` and `source` tags
  * <p>
- * Therefore we reverse the HTML string and the RegEx to match the file extension at the beginning of every reversed URL
+ * URLs are resolved against the base URL as defined by RFC 3986 and de-duplicated by their canonical form (see URLCanonicalizer), keeping the variant that is closest to the full-size image
  **/
 public class ImageURLFinder {
-	
-	private static final String REGEX_JPEG_FIRST = "[a-zA-Z0-9\\_\\/\\?]";
-	private static final String REGEX_JPEG_OTHERS = "[a-zA-Z0-9\\-\\.\\_\\~\\:\\/\\?\\[\\]\\@\\!\\$\\&\\(\\)\\*\\+\\,\\;\\=\\%]+";
-	private static final String REGEX_JPEG_DIVIDER = "\\.";
-	private static final String REGEX_JPEG_EXTENSION = "(gpj|gepj)"; // reversed string as we want the specific part 
-	private static final String REGEX_JPEG = REGEX_JPEG_EXTENSION+REGEX_JPEG_DIVIDER+REGEX_JPEG_OTHERS+REGEX_JPEG_FIRST;
-	private String mRootURL;
+
+	private int mImageFormats = HtmlScanner.FORMAT_JPEG;
 	private String mBaseURL;
+	private URLCanonicalizer mCanonicalizer = URLCanonicalizer.getDefault();
+
+	/**
+	 * Constructs a new ImageURLFinder that resolves relative URLs against the given web page
+	 *
+	 * @param pageURL the absolute URL of the web page
+	 */
+	public ImageURLFinder(String pageURL) {
+		mBaseURL = pageURL;
+	}
 
+	/**
+	 * Constructs a new ImageURLFinder that resolves relative URLs against the given base URL
+	 *
+	 * @param rootURL no longer used as the root is taken from the base URL
+	 * @param baseURL the absolute URL of the directory of the web page
+	 */
 	public ImageURLFinder(String rootURL, String baseURL) {
-		mRootURL = rootURL;
-		mBaseURL = baseURL;
+		this(baseURL);
+	}
+
+	/**
+	 * Sets the base URL that the web page declares in its `base` tag
+	 *
+	 * @param baseURL the value of the `href` attribute (which is resolved against the current base URL itself)
+	 */
+	public void setBaseURL(String baseURL) {
+		mBaseURL = URLResolver.resolve(mBaseURL, baseURL);
 	}
 	
+	/**
+	 * Sets the rules that decide which URLs point to the same image
+	 *
+	 * @param canonicalizer the canonicalizer to use (the shared `URLCanonicalizer.getDefault()` by default)
+	 */
+	public void setCanonicalizer(URLCanonicalizer canonicalizer) {
+		mCanonicalizer = canonicalizer;
+	}
+
+	/**
+	 * Sets the image formats whose URLs should be found (JPEG only by default)
+	 *
+	 * @param formats a combination of the `HtmlScanner.FORMAT_*` constants
+	 */
+	public void setImageFormats(int formats) {
+		mImageFormats = formats;
+	}
+
 	public Iterable<String> find(final String htmlSource) {
-		HashSet<String> out = new HashSet<String>();
-		final String reversedHTML = new StringBuilder(htmlSource).reverse().toString();
-		final Pattern jpegURLRegex = Pattern.compile(REGEX_JPEG);
-
-		final Matcher jpegURL = jpegURLRegex.matcher(reversedHTML);
-		String imageURL;
-		while (jpegURL.find()) {
-			imageURL = new StringBuilder(jpegURL.group(0)).reverse().toString();
-			out.add(makeAbsoluteURL(imageURL)); // add the re-reversed result to the output list
+		// every image keeps the position of its first spelling but the URL of its best variant
+		final LinkedHashMap<String, String> out = new LinkedHashMap<String, String>();
+		final HashMap<String, Integer> ranks = new HashMap<String, Integer>();
+		final HtmlScanner scanner = new HtmlScanner(new HtmlScannerCallback() {
+
+			@Override
+			public void onBaseURL(String url) { }
+
+			@Override
+			public void onMetaTag(String property, String content) { }
+
+			@Override
+			public void onLinkTag(String rel, String href) { }
+
+			@Override
+			public void onImageURL(ImageCandidate candidate) {
+				final String url = makeAbsoluteURL(candidate.getURL());
+				final String key = canonicalize(url);
+				final int rank = getVariantRank(url, candidate);
+				final Integer previousRank = ranks.get(key);
+				if (previousRank == null || rank > previousRank) {
+					out.put(key, url);
+					ranks.put(key, rank);
+				}
+			}
+
+			@Override
+			public void onHeadEnd() { }
+
+		});
+		scanner.setImageFormats(mImageFormats);
+		try {
+			scanner.scan(new StringReader(htmlSource));
 		}
-		return out;
+		catch (IOException e) { } // cannot happen when reading from a string
+		return out.values();
 	}
 	
+	/**
+	 * Resolves the given URL as it has been found in the web page against the base URL
+	 *
+	 * @param url the absolute or relative URL (which may contain character references such as `&amp;`)
+	 * @return the absolute URL
+	 */
 	public String makeAbsoluteURL(String url) {
-		if (url.startsWith("http://") || url.startsWith("https://")) { // URL is already complete with protocol
-			return url;
-		}
-		else if (url.startsWith("//")) { // URL is complete but protocol-relative
-			return "http://"+url.substring(2);
-		}
-		else if (url.startsWith("/")) { // URL is absolute
-			return mRootURL+url.substring(1);
+		return URLResolver.resolve(mBaseURL, url);
+	}
+
+	/**
+	 * Returns how close the given variant of an image is to the full-size image so that the best one of several variants can be kept
+	 * <p>
+	 * URLs that no rule of the canonicalizer matches are the full-size image, while other variants are ranked by their declared width or `srcset` descriptor
+	 *
+	 * @param absoluteURL the absolute URL of the variant
+	 * @param candidate the candidate that the URL has been found as
+	 * @return the rank (the higher the better)
+	 */
+	public int getVariantRank(String absoluteURL, ImageCandidate candidate) {
+		if (!mCanonicalizer.isVariant(absoluteURL)) {
+			return Integer.MAX_VALUE;
 		}
-		else { // URL is relative
-			return mBaseURL+url;
+		int width = Math.max(candidate.getWidth(), candidate.getDescriptorWidth());
+		if (candidate.getDescriptorDensity() > 0 && candidate.getWidth() > 0) {
+			width = Math.max(width, (int) (candidate.getWidth()*candidate.getDescriptorDensity()));
 		}
+		return width;
+	}
+
+	/**
+	 * Returns the key that is equal for all spellings and variants of the image with the given URL
+	 *
+	 * @param absoluteURL the absolute URL
+	 * @return the canonical key
+	 */
+	public String canonicalize(String absoluteURL) {
+		return mCanonicalizer.canonicalize(absoluteURL);
 	}
 
 }
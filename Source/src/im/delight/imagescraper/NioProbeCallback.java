@@ -0,0 +1,29 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/** Callback that receives the results of probes that have been run by the NioProbeEngine */
+public interface NioProbeCallback {
+
+	/**
+	 * Called as soon as the probe of the given image URL has finished (on the engine's selector thread, so implementations must return quickly)
+	 *
+	 * @param url the image URL that has been probed
+	 * @param result the result of the probe (with a file size of `0` if the image has been rejected) or `null` if the probe failed due to network problems
+	 */
+	public void onProbeFinished(String url, ProbeCacheEntry result);
+
+}
@@ -0,0 +1,776 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Probe engine that runs thousands of image probes at the same time on non-blocking sockets instead of one thread per probe
+ * <p>
+ * All connections are multiplexed on a single selector thread and host names are resolved on a small separate pool
+ * <p>
+ * Probes follow the same rules as the ImageCheckerTask: `HEAD` first, `GET` for the first byte only as the fallback, and `GET` for the first bytes only when reading dimensions
+ * <p>
+ * Every request uses a connection of its own which is closed as soon as the response headers (and the image header, if required) have been read
+ * <p>
+ * TLS connections are only used after the certificate has been verified for the host name with the default `HostnameVerifier`, just like `HttpsURLConnection` does
+ * <p>
+ * Results describe the file as it has been probed and the callbacks apply their own ImagePolicy to it
+ */
+public class NioProbeEngine {
+
+	/** The default maximum number of connections that may be open at the same time in total */
+	public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 1024;
+	/** The default maximum number of connections per host that may be open at the same time */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+	/** The number of threads that host names are resolved on (as DNS lookups are always blocking) */
+	private static final int RESOLVER_THREAD_COUNT = 2;
+	private static final int MAX_REDIRECTS = 5;
+	/** The maximum size of the response headers that is accepted */
+	private static final int MAX_HEADER_BYTES = 16384;
+	/** The interval in which probes are checked for timeouts (in milliseconds) */
+	private static final long TIMEOUT_CHECK_INTERVAL_MILLIS = 100;
+	private static final int PHASE_HEAD = 0;
+	private static final int PHASE_RANGE = 1;
+	private static final int HTTP_PARTIAL_CONTENT = 206;
+	private static NioProbeEngine mDefaultInstance;
+	private final int mMaxConnectionsTotal;
+	private final int mMaxConnectionsPerHost;
+	private final Selector mSelector;
+	private final ExecutorService mResolver;
+	/** Actions that must be run on the selector thread (as all state below is confined to that thread) */
+	private final ConcurrentLinkedQueue<Runnable> mActions;
+	/** Probes that are waiting for a free connection slot */
+	private final LinkedList<Probe> mWaiting;
+	/** Probes that are currently connecting or waiting for a response */
+	private final ArrayList<Probe> mActive;
+	/** Probes by their URL so that every URL is only probed once at a time */
+	private final HashMap<String, Probe> mInFlight;
+	private final HashMap<String, Integer> mHostConnections;
+	private int mConnections;
+	private long mNextTimeoutCheck;
+
+	/**
+	 * Returns the engine that is shared across the whole process
+	 *
+	 * @return the shared engine
+	 * @throws IOException if the selector could not be opened
+	 */
+	public static synchronized NioProbeEngine getDefault() throws IOException {
+		if (mDefaultInstance == null) {
+			mDefaultInstance = new NioProbeEngine(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_TOTAL);
+		}
+		return mDefaultInstance;
+	}
+
+	/**
+	 * Constructs a new engine and starts its selector thread
+	 *
+	 * @param maxConnectionsPerHost the maximum number of connections per host that may be open at the same time
+	 * @param maxConnectionsTotal the maximum number of connections that may be open at the same time in total
+	 * @throws IOException if the selector could not be opened
+	 */
+	public NioProbeEngine(int maxConnectionsPerHost, int maxConnectionsTotal) throws IOException {
+		mMaxConnectionsPerHost = maxConnectionsPerHost;
+		mMaxConnectionsTotal = maxConnectionsTotal;
+		mSelector = Selector.open();
+		mActions = new ConcurrentLinkedQueue<Runnable>();
+		mWaiting = new LinkedList<Probe>();
+		mActive = new ArrayList<Probe>();
+		mInFlight = new HashMap<String, Probe>();
+		mHostConnections = new HashMap<String, Integer>();
+		mResolver = Executors.newFixedThreadPool(RESOLVER_THREAD_COUNT, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "ImageScraper-resolver");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+		final Thread selectorThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				loop();
+			}
+
+		}, "ImageScraper-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Probes the given image URL and reports the result to the given callback
+	 *
+	 * @param url the image URL to probe
+	 * @param userAgent the value for the `User-Agent` HTTP header
+	 * @param probeDimensions whether the first bytes of the image should be read as well to detect its dimensions
+	 * @param callback the callback that the result is sent to (on the selector thread)
+	 */
+	public void probe(String url, String userAgent, boolean probeDimensions, NioProbeCallback callback) {
+		probe(url, userAgent, probeDimensions, ImagePolicy.getDefault(), callback);
+	}
+
+	/**
+	 * Probes the given image URL and reports the result to the given callback
+	 *
+	 * @param url the image URL to probe
+	 * @param userAgent the value for the `User-Agent` HTTP header
+	 * @param probeDimensions whether the first bytes of the image should be read as well to detect its dimensions
+	 * @param policy the policy that decides whether the probe can stop right after the headers (a running probe of the same image is only shared if its policy has the same probe key)
+	 * @param callback the callback that the result is sent to (on the selector thread)
+	 */
+	public void probe(final String url, final String userAgent, final boolean probeDimensions, final ImagePolicy policy, final NioProbeCallback callback) {
+		runOnSelectorThread(new Runnable() {
+
+			@Override
+			public void run() {
+				final String key = (probeDimensions ? url+" dimensions " : url+" ")+policy.getProbeKey();
+				Probe probe = mInFlight.get(key);
+				if (probe == null) {
+					try {
+						probe = new Probe(key, url, userAgent, probeDimensions, policy);
+					}
+					catch (IOException e) {
+						deliver(callback, url, null);
+						return;
+					}
+					mInFlight.put(key, probe);
+					probe.mCallbacks.add(callback);
+					try {
+						startAttempt(probe);
+					}
+					catch (RuntimeException e) {
+						onAttemptFailed(probe);
+					}
+				}
+				else {
+					probe.mCallbacks.add(callback); // the running probe will deliver its result to this callback as well
+				}
+			}
+
+		});
+	}
+
+	private void runOnSelectorThread(Runnable action) {
+		mActions.add(action);
+		mSelector.wakeup();
+	}
+
+	private void loop() {
+		while (true) {
+			try {
+				mSelector.select(TIMEOUT_CHECK_INTERVAL_MILLIS);
+				Runnable action;
+				while ((action = mActions.poll()) != null) {
+					action.run(); // every action fails its own probe if anything goes wrong
+				}
+				final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final Probe probe = (Probe) key.attachment();
+					try {
+						if (key.isValid() && key.isConnectable()) {
+							probe.mChannel.finishConnect();
+							onConnected(probe);
+						}
+						else if (key.isValid()) {
+							process(probe);
+						}
+					}
+					catch (IOException e) {
+						onAttemptFailed(probe);
+					}
+					catch (RuntimeException e) { // e.g. a malformed response that the engine could not handle
+						onAttemptFailed(probe);
+					}
+				}
+				checkTimeouts();
+			}
+			catch (IOException e) { } // the selector could not be polled this time so it is tried again
+		}
+	}
+
+	/** Starts a single request of the given probe as soon as a connection slot is available */
+	private void startAttempt(final Probe probe) {
+		final String host = probe.getHostKey();
+		final Integer hostConnections = mHostConnections.get(host);
+		if (mConnections >= mMaxConnectionsTotal || (hostConnections != null && hostConnections >= mMaxConnectionsPerHost)) {
+			mWaiting.add(probe);
+			return;
+		}
+		mConnections++;
+		mHostConnections.put(host, hostConnections == null ? 1 : hostConnections+1);
+		probe.mHasSlot = true;
+		probe.mDeadline = System.currentTimeMillis()+ImageScraper.NETWORK_CONNECT_TIMEOUT_MILLIS;
+		mActive.add(probe);
+		final String hostName = probe.mURL.getHost();
+		mResolver.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				InetAddress address;
+				try {
+					address = InetAddress.getByName(hostName);
+				}
+				catch (IOException e) {
+					address = null;
+				}
+				final InetAddress resolvedAddress = address;
+				runOnSelectorThread(new Runnable() {
+
+					@Override
+					public void run() {
+						if (!mActive.contains(probe)) { // timed out in the meantime
+							return;
+						}
+						if (resolvedAddress == null) {
+							onAttemptFailed(probe);
+						}
+						else {
+							try {
+								connect(probe, resolvedAddress);
+							}
+							catch (RuntimeException e) {
+								onAttemptFailed(probe);
+							}
+						}
+					}
+
+				});
+			}
+
+		});
+	}
+
+	private void connect(Probe probe, InetAddress address) {
+		try {
+			probe.mChannel = SocketChannel.open();
+			probe.mChannel.configureBlocking(false);
+			probe.mKey = probe.mChannel.register(mSelector, SelectionKey.OP_CONNECT, probe);
+			if (probe.mChannel.connect(new InetSocketAddress(address, probe.getPort()))) {
+				onConnected(probe);
+			}
+		}
+		catch (IOException e) {
+			onAttemptFailed(probe);
+		}
+	}
+
+	private void onConnected(Probe probe) throws IOException {
+		probe.mDeadline = System.currentTimeMillis()+ImageScraper.NETWORK_READ_TIMEOUT_MILLIS;
+		if (probe.isSecure()) {
+			try {
+				probe.mSSLEngine = SSLContext.getDefault().createSSLEngine(probe.mURL.getHost(), probe.getPort());
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new IOException("TLS is not available");
+			}
+			probe.mSSLEngine.setUseClientMode(true);
+			probe.mHostVerified = false;
+			probe.mSSLEngine.beginHandshake();
+			probe.mNetIn = ByteBuffer.allocate(probe.mSSLEngine.getSession().getPacketBufferSize());
+			probe.mNetOut = ByteBuffer.allocate(probe.mSSLEngine.getSession().getPacketBufferSize());
+			probe.mAppIn = ByteBuffer.allocate(probe.mSSLEngine.getSession().getApplicationBufferSize());
+		}
+		else {
+			probe.mAppIn = ByteBuffer.allocate(4096);
+		}
+		process(probe);
+	}
+
+	/** Makes as much progress as possible with the current request of the given probe without blocking */
+	private void process(Probe probe) throws IOException {
+		final SocketChannel channel = probe.mChannel;
+		if (probe.mSSLEngine == null) {
+			if (probe.mRequest.hasRemaining()) {
+				channel.write(probe.mRequest);
+				if (probe.mRequest.hasRemaining()) {
+					probe.mKey.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			probe.mKey.interestOps(SelectionKey.OP_READ);
+			int count;
+			while ((count = channel.read(probe.mAppIn)) > 0) {
+				if (consume(probe)) {
+					return;
+				}
+			}
+			if (count == -1) {
+				onEndOfStream(probe);
+			}
+			return;
+		}
+		final SSLEngine engine = probe.mSSLEngine;
+		while (true) {
+			// SEND PENDING TLS RECORDS BEGIN
+			if (probe.mNetOut.position() > 0) {
+				probe.mNetOut.flip();
+				channel.write(probe.mNetOut);
+				final boolean hasRemaining = probe.mNetOut.hasRemaining();
+				probe.mNetOut.compact();
+				if (hasRemaining) {
+					probe.mKey.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			// SEND PENDING TLS RECORDS END
+
+			SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+			if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+				Runnable task;
+				while ((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				continue;
+			}
+			final boolean handshaking = handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && handshakeStatus != SSLEngineResult.HandshakeStatus.FINISHED;
+			if (!handshaking && !probe.mHostVerified) {
+				// `SSLParameters.setEndpointIdentificationAlgorithm()` is not available on older platforms so the host name is checked here before the request is sent
+				if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(probe.mURL.getHost(), engine.getSession())) {
+					throw new SSLException("Certificate does not match host name "+probe.mURL.getHost());
+				}
+				probe.mHostVerified = true;
+			}
+			if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP || (!handshaking && probe.mRequest.hasRemaining())) {
+				final SSLEngineResult result = engine.wrap(probe.mRequest, probe.mNetOut);
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					throw new SSLException("Connection closed during handshake");
+				}
+				continue;
+			}
+
+			// RECEIVE TLS RECORDS BEGIN
+			probe.mKey.interestOps(SelectionKey.OP_READ);
+			final int count = channel.read(probe.mNetIn);
+			probe.mNetIn.flip();
+			final SSLEngineResult result = engine.unwrap(probe.mNetIn, probe.mAppIn);
+			probe.mNetIn.compact();
+			if (probe.mAppIn.position() > 0 && consume(probe)) {
+				return;
+			}
+			if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+				onEndOfStream(probe);
+				return;
+			}
+			if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				final ByteBuffer larger = ByteBuffer.allocate(probe.mAppIn.capacity()*2);
+				probe.mAppIn.flip();
+				larger.put(probe.mAppIn);
+				probe.mAppIn = larger;
+				continue;
+			}
+			if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+				if (count == -1) {
+					onEndOfStream(probe);
+					return;
+				}
+				if (count == 0) {
+					return; // wait for more data
+				}
+			}
+			// RECEIVE TLS RECORDS END
+		}
+	}
+
+	/**
+	 * Moves the received bytes to the response and checks whether the response is complete
+	 *
+	 * @return whether the current request has been completed
+	 */
+	private boolean consume(Probe probe) throws IOException {
+		probe.mDeadline = System.currentTimeMillis()+ImageScraper.NETWORK_READ_TIMEOUT_MILLIS;
+		probe.mAppIn.flip();
+		final int count = Math.min(probe.mAppIn.remaining(), MAX_HEADER_BYTES+ImageHeaderParser.DEFAULT_MAX_BYTES-probe.mResponse.size());
+		probe.mResponse.write(probe.mAppIn.array(), probe.mAppIn.arrayOffset()+probe.mAppIn.position(), count);
+		probe.mAppIn.clear();
+		if (probe.mBodyStart < 0) {
+			probe.mBodyStart = findHeaderEnd(probe.mResponse.toByteArray());
+			if (probe.mBodyStart < 0) {
+				if (probe.mResponse.size() >= MAX_HEADER_BYTES) {
+					throw new IOException("Response headers too large");
+				}
+				return false;
+			}
+			parseHeaders(probe);
+		}
+		if (probe.mResponse.size()-probe.mBodyStart >= probe.getBodyBytesRequired()) {
+			onAttemptFinished(probe);
+			return true;
+		}
+		return false;
+	}
+
+	private void onEndOfStream(Probe probe) {
+		if (probe.mBodyStart >= 0) {
+			onAttemptFinished(probe);
+		}
+		else {
+			onAttemptFailed(probe);
+		}
+	}
+
+	private static int findHeaderEnd(byte[] bytes) {
+		for (int i = 3; i < bytes.length; i++) {
+			if (bytes[i] == '\n' && bytes[i-1] == '\r' && bytes[i-2] == '\n' && bytes[i-3] == '\r') {
+				return i+1;
+			}
+		}
+		return -1;
+	}
+
+	private static void parseHeaders(Probe probe) throws IOException {
+		final String head = new String(probe.mResponse.toByteArray(), 0, probe.mBodyStart, "ISO-8859-1");
+		final String[] lines = head.split("\r\n");
+		final String[] statusLine = lines[0].split(" ", 3);
+		if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+			throw new IOException("Invalid status line");
+		}
+		try {
+			probe.mStatusCode = Integer.parseInt(statusLine[1]);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid status code");
+		}
+		probe.mHeaders.clear();
+		for (int i = 1; i < lines.length; i++) {
+			final int colonPosition = lines[i].indexOf(':');
+			if (colonPosition > 0) {
+				probe.mHeaders.put(lines[i].substring(0, colonPosition).trim().toLowerCase(Locale.US), lines[i].substring(colonPosition+1).trim());
+			}
+		}
+	}
+
+	/** Evaluates the response to the current request and either finishes the probe or starts the next request */
+	private void onAttemptFinished(Probe probe) {
+		releaseConnection(probe);
+		final int statusCode = probe.mStatusCode;
+		final String location = probe.mHeaders.get("location");
+		if (statusCode >= 300 && statusCode < 400 && location != null && probe.mRedirects < MAX_REDIRECTS) {
+			try {
+				probe.mRedirects++;
+				probe.mURL = new URL(probe.mURL, location);
+				probe.prepareRequest();
+				startAttempt(probe);
+			}
+			catch (IOException e) {
+				onProbeFinished(probe, null);
+			}
+			return;
+		}
+		final long contentLength = parseLong(probe.mHeaders.get("content-length"));
+		if (probe.mPhase == PHASE_HEAD) {
+			if (ImageCheckerTask.isSuccessful(statusCode)) {
+				if (contentLength > 0) {
+					onProbeFinished(probe, probe.createResult(contentLength, ImageCheckerTask.PROBE_METHOD_HEAD, false, 0, 0));
+					return;
+				}
+				if (!probe.mPolicy.isAcceptedMimeType(probe.mHeaders.get("content-type"))) {
+					onProbeFinished(probe, probe.createResult(0, ImageCheckerTask.PROBE_METHOD_NONE, false, 0, 0));
+					return;
+				}
+			}
+			else if (ImageCheckerTask.isMissing(statusCode)) {
+				onProbeFinished(probe, probe.createResult(0, ImageCheckerTask.PROBE_METHOD_NONE, false, 0, 0));
+				return;
+			}
+			// servers that reject `HEAD` or do not send `Content-Length` for it are asked for the first byte only
+			probe.mPhase = PHASE_RANGE;
+			try {
+				probe.prepareRequest();
+			}
+			catch (IOException e) {
+				onProbeFinished(probe, null);
+				return;
+			}
+			startAttempt(probe);
+			return;
+		}
+		final long fileSize = probe.getFileSize();
+		final int probeMethod;
+		if (fileSize <= 0) {
+			probeMethod = ImageCheckerTask.PROBE_METHOD_NONE;
+		}
+		else if (statusCode == HTTP_PARTIAL_CONTENT) {
+			probeMethod = ImageCheckerTask.PROBE_METHOD_RANGE;
+		}
+		else {
+			probeMethod = ImageCheckerTask.PROBE_METHOD_GET;
+		}
+		int width = 0;
+		int height = 0;
+		final boolean headerRead = probe.getBodyBytesRequired() > 0;
+		if (headerRead) {
+			final byte[] response = probe.mResponse.toByteArray();
+			final ImageHeaderParser parser = new ImageHeaderParser();
+			if (parser.parse(new ByteArrayInputStream(response, probe.mBodyStart, response.length-probe.mBodyStart))) {
+				width = parser.getWidth();
+				height = parser.getHeight();
+			}
+		}
+		onProbeFinished(probe, probe.createResult(fileSize, probeMethod, headerRead, width, height));
+	}
+
+	private void onAttemptFailed(Probe probe) {
+		releaseConnection(probe);
+		onProbeFinished(probe, null);
+	}
+
+	private void onProbeFinished(Probe probe, ProbeCacheEntry result) {
+		mInFlight.remove(probe.mFlightKey);
+		for (NioProbeCallback callback : probe.mCallbacks) {
+			deliver(callback, probe.mOriginalURL, result);
+		}
+	}
+
+	/** Sends the result to the given callback, where an exception of the callback must neither stop the selector thread nor keep the result from the other callbacks */
+	private static void deliver(NioProbeCallback callback, String url, ProbeCacheEntry result) {
+		try {
+			callback.onProbeFinished(url, result);
+		}
+		catch (RuntimeException e) { }
+	}
+
+	/** Closes the connection of the given probe and hands its slot to the next waiting probe */
+	private void releaseConnection(Probe probe) {
+		mActive.remove(probe);
+		if (probe.mChannel != null) {
+			try {
+				probe.mChannel.close(); // also cancels the selection key
+			}
+			catch (IOException e) { }
+			probe.mChannel = null;
+			probe.mKey = null;
+		}
+		probe.mSSLEngine = null;
+		if (!probe.mHasSlot) {
+			return;
+		}
+		probe.mHasSlot = false;
+		mConnections--;
+		final String host = probe.getHostKey();
+		final int hostConnections = mHostConnections.get(host)-1;
+		if (hostConnections == 0) {
+			mHostConnections.remove(host);
+		}
+		else {
+			mHostConnections.put(host, hostConnections);
+		}
+		// start as many waiting probes as possible
+		final int waitingCount = mWaiting.size();
+		for (int i = 0; i < waitingCount && mConnections < mMaxConnectionsTotal; i++) {
+			startAttempt(mWaiting.poll());
+		}
+	}
+
+	private void checkTimeouts() {
+		final long now = System.currentTimeMillis();
+		if (now < mNextTimeoutCheck) {
+			return;
+		}
+		mNextTimeoutCheck = now+TIMEOUT_CHECK_INTERVAL_MILLIS;
+		for (Probe probe : new ArrayList<Probe>(mActive)) {
+			if (now >= probe.mDeadline) {
+				onAttemptFailed(probe);
+			}
+		}
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/** State of a single probe (which may consist of several requests due to fallbacks and redirects) */
+	private static class Probe {
+
+		private final String mFlightKey;
+		private final String mOriginalURL;
+		private final String mUserAgent;
+		private final boolean mProbeDimensions;
+		private final ImagePolicy mPolicy;
+		private final ArrayList<NioProbeCallback> mCallbacks;
+		private final HashMap<String, String> mHeaders;
+		private URL mURL;
+		private int mPhase;
+		private int mRedirects;
+		private boolean mHasSlot;
+		private long mDeadline;
+		private SocketChannel mChannel;
+		private SelectionKey mKey;
+		private SSLEngine mSSLEngine;
+		/** Whether the certificate of the current TLS connection has been verified for the host name */
+		private boolean mHostVerified;
+		private ByteBuffer mNetIn;
+		private ByteBuffer mNetOut;
+		private ByteBuffer mAppIn;
+		private ByteBuffer mRequest;
+		private ByteArrayOutputStream mResponse;
+		/** The position of the body in the response or `-1` if the headers have not been received completely yet */
+		private int mBodyStart;
+		private int mStatusCode;
+
+		public Probe(String key, String url, String userAgent, boolean probeDimensions, ImagePolicy policy) throws IOException {
+			mFlightKey = key;
+			mOriginalURL = url;
+			mUserAgent = userAgent;
+			mProbeDimensions = probeDimensions;
+			mPolicy = policy;
+			mCallbacks = new ArrayList<NioProbeCallback>();
+			mHeaders = new HashMap<String, String>();
+			mURL = new URL(url);
+			mPhase = probeDimensions ? PHASE_RANGE : PHASE_HEAD;
+			prepareRequest();
+		}
+
+		/** Builds the request for the current phase and URL and resets the response */
+		public void prepareRequest() throws IOException {
+			if (!isSecure() && !mURL.getProtocol().equals("http")) {
+				throw new IOException("Unsupported protocol");
+			}
+			final StringBuilder request = new StringBuilder();
+			request.append(mPhase == PHASE_HEAD ? HttpRequest.METHOD_HEAD : HttpRequest.METHOD_GET);
+			request.append(' ').append(mURL.getFile().equals("") ? "/" : mURL.getFile()).append(" HTTP/1.1\r\n");
+			request.append("Host: ").append(mURL.getHost());
+			if (mURL.getPort() != -1) {
+				request.append(':').append(mURL.getPort());
+			}
+			request.append("\r\n");
+			request.append("User-Agent: ").append(mUserAgent).append("\r\n");
+			request.append("Accept: */*\r\n");
+			request.append("Connection: close\r\n");
+			if (mPhase == PHASE_RANGE) {
+				request.append("Range: bytes=0-").append(mProbeDimensions ? ImageHeaderParser.DEFAULT_MAX_BYTES-1 : 0).append("\r\n");
+			}
+			request.append("\r\n");
+			try {
+				mRequest = ByteBuffer.wrap(request.toString().getBytes("ISO-8859-1"));
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new IOException(e.getMessage());
+			}
+			mResponse = new ByteArrayOutputStream();
+			mBodyStart = -1;
+			mStatusCode = 0;
+			mHeaders.clear();
+			mNetIn = null;
+			mNetOut = null;
+			mAppIn = null;
+		}
+
+		public boolean isSecure() {
+			return mURL.getProtocol().equals("https");
+		}
+
+		public int getPort() {
+			return mURL.getPort() == -1 ? mURL.getDefaultPort() : mURL.getPort();
+		}
+
+		public String getHostKey() {
+			return mURL.getProtocol()+"://"+mURL.getHost()+":"+getPort();
+		}
+
+		public boolean isChunked() {
+			final String transferEncoding = mHeaders.get("transfer-encoding");
+			return transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked");
+		}
+
+		/**
+		 * Returns the complete file size that the response to a `GET` request declares
+		 *
+		 * @return the file size or `-1` if unknown
+		 */
+		public long getFileSize() {
+			if (mStatusCode == HTTP_PARTIAL_CONTENT) {
+				return ImageCheckerTask.parseContentRangeLength(mHeaders.get("content-range"));
+			}
+			else if (ImageCheckerTask.isSuccessful(mStatusCode)) {
+				return parseLong(mHeaders.get("content-length"));
+			}
+			else {
+				return -1;
+			}
+		}
+
+		/** Returns the number of body bytes that have to be read before the connection can be closed */
+		public int getBodyBytesRequired() {
+			if (mPhase == PHASE_HEAD || !mProbeDimensions || !ImageCheckerTask.isSuccessful(mStatusCode) || isChunked()) {
+				return 0;
+			}
+			// the image header is not needed if the response headers rule the image out already
+			if (!mPolicy.isAcceptedMimeType(mHeaders.get("content-type")) || !mPolicy.isAcceptedFileSize(getFileSize())) {
+				return 0;
+			}
+			final long contentLength = parseLong(mHeaders.get("content-length"));
+			if (contentLength >= 0 && contentLength < ImageHeaderParser.DEFAULT_MAX_BYTES) {
+				return (int) contentLength;
+			}
+			return ImageHeaderParser.DEFAULT_MAX_BYTES;
+		}
+
+		/**
+		 * Creates the result of this probe
+		 *
+		 * @param fileSize the file size or `0` if unknown
+		 * @param probeMethod one of the `ImageCheckerTask.PROBE_METHOD_*` constants
+		 * @param dimensionsProbed whether the image header has actually been read (and not skipped because the policy has ruled the image out)
+		 * @param width the width or `0` if unknown
+		 * @param height the height or `0` if unknown
+		 * @return the result
+		 */
+		public ProbeCacheEntry createResult(long fileSize, int probeMethod, boolean dimensionsProbed, int width, int height) {
+			return new ProbeCacheEntry(mHeaders.get("content-type"), (int) Math.max(Math.min(fileSize, Integer.MAX_VALUE), 0), probeMethod, dimensionsProbed, width, height, mHeaders.get("etag"), mHeaders.get("last-modified"), System.currentTimeMillis());
+		}
+
+	}
+
+}
@@ -0,0 +1,315 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * HttpTransport that is shared by all ImageScraper and ImageChecker instances and reuses connections via HTTP keep-alive
+ * <p>
+ * Connections are pooled per host by the platform's `HttpURLConnection` which only works if bodies are consumed and streams are closed instead of disconnecting
+ * <p>
+ * The number of connections that may be open at the same time is limited both per host and globally
+ * <p>
+ * The size of the platform's keep-alive pool (the system property `http.maxConnections`, which is `5` per host by default) is read only once per process, so it should be set to at least the per-host limit when the application starts
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+	/** The default maximum number of connections per host that may be open at the same time */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+	/** The default maximum number of connections that may be open at the same time in total */
+	public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 24;
+	/** The default maximum number of connections that may be open at the same time in total if the shared ScraperExecutor uses virtual threads (so that the global limit does not undo its higher limits) */
+	public static final int DEFAULT_VIRTUAL_MAX_CONNECTIONS_TOTAL = ScraperExecutor.DEFAULT_MAX_CONCURRENT_SCRAPES+ScraperExecutor.DEFAULT_VIRTUAL_PROBE_THREAD_COUNT;
+	/** The maximum number of redirects that are followed for a single request */
+	private static final int MAX_REDIRECTS = 5;
+	/** The maximum number of remaining body bytes that are skipped in order to keep a connection alive (otherwise the connection is dropped) */
+	private static final int MAX_DRAIN_BYTES = 8192;
+	/** The maximum number of hosts whose permits are remembered (the least recently used hosts without open connections are forgotten first) */
+	private static final int MAX_HOSTS = 1024;
+	private static PooledHttpTransport mDefaultInstance;
+	private final int mMaxConnectionsPerHost;
+	private final Semaphore mGlobalPermits;
+	private final Map<String, HostPermits> mHostPermits;
+
+	/**
+	 * Returns the transport that is shared across the whole process
+	 * <p>
+	 * If the shared ScraperExecutor uses virtual threads, the global limit is raised to `DEFAULT_VIRTUAL_MAX_CONNECTIONS_TOTAL` while the per-host limit stays the same
+	 *
+	 * @return the shared transport
+	 */
+	public static synchronized PooledHttpTransport getDefault() {
+		if (mDefaultInstance == null) {
+			final int maxConnectionsTotal = ScraperExecutor.getDefault().isUsingVirtualThreads() ? DEFAULT_VIRTUAL_MAX_CONNECTIONS_TOTAL : DEFAULT_MAX_CONNECTIONS_TOTAL;
+			mDefaultInstance = new PooledHttpTransport(DEFAULT_MAX_CONNECTIONS_PER_HOST, maxConnectionsTotal);
+		}
+		return mDefaultInstance;
+	}
+
+	/**
+	 * Constructs a new transport with the given connection limits
+	 *
+	 * @param maxConnectionsPerHost the maximum number of connections per host that may be open at the same time
+	 * @param maxConnectionsTotal the maximum number of connections that may be open at the same time in total
+	 */
+	public PooledHttpTransport(int maxConnectionsPerHost, int maxConnectionsTotal) {
+		mMaxConnectionsPerHost = maxConnectionsPerHost;
+		mGlobalPermits = new Semaphore(maxConnectionsTotal, true);
+		mHostPermits = new LinkedHashMap<String, HostPermits>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HostPermits> eldest) {
+				return size() > MAX_HOSTS && eldest.getValue().mUsers == 0;
+			}
+
+		};
+	}
+
+	@Override
+	public HttpResponse execute(HttpRequest request) throws IOException {
+		URL url = new URL(request.getURL());
+		String method = request.getMethod();
+		for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+			checkProtocol(url);
+			final HostPermits hostPermits = acquire(url);
+			// the permits are released here on every failure until a response has taken them over
+			boolean ownsPermits = true;
+			HttpURLConnection connection = null;
+			try {
+				connection = (HttpURLConnection) url.openConnection();
+				connection.setConnectTimeout(request.getConnectTimeout());
+				connection.setReadTimeout(request.getReadTimeout());
+				connection.setUseCaches(false);
+				// redirects are followed manually as `HttpURLConnection` does not follow redirects between HTTP and HTTPS
+				connection.setInstanceFollowRedirects(false);
+				connection.setRequestMethod(method);
+				for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+					connection.setRequestProperty(header.getKey(), header.getValue());
+				}
+				final int statusCode = connection.getResponseCode();
+				final String location = connection.getHeaderField("Location");
+				final PooledResponse response = new PooledResponse(url.toString(), connection, statusCode, hostPermits);
+				connection = null; // the response is responsible for the connection and the permits now
+				ownsPermits = false;
+				if (isRedirect(statusCode) && location != null && redirects < MAX_REDIRECTS) {
+					response.close();
+					url = new URL(url, location);
+					if (statusCode == HttpURLConnection.HTTP_SEE_OTHER && !method.equals(HttpRequest.METHOD_HEAD)) {
+						method = HttpRequest.METHOD_GET;
+					}
+				}
+				else {
+					return response;
+				}
+			}
+			finally {
+				if (connection != null) {
+					connection.disconnect();
+				}
+				if (ownsPermits) {
+					release(hostPermits);
+				}
+			}
+		}
+		throw new IOException("Too many redirects");
+	}
+
+	/** Rejects URLs that would not be opened as an `HttpURLConnection` (e.g. `ftp:` or `file:` in a redirect) before any permits are taken */
+	private static void checkProtocol(URL url) throws IOException {
+		final String protocol = url.getProtocol();
+		if (!protocol.equals("http") && !protocol.equals("https")) {
+			throw new IOException("Unsupported protocol: "+protocol);
+		}
+	}
+
+	private static boolean isRedirect(int statusCode) {
+		return statusCode == HttpURLConnection.HTTP_MOVED_PERM || statusCode == HttpURLConnection.HTTP_MOVED_TEMP || statusCode == HttpURLConnection.HTTP_SEE_OTHER || statusCode == 307 || statusCode == 308;
+	}
+
+	/** Waits for a free connection slot for the host of the given URL and returns the host's permits */
+	private HostPermits acquire(URL url) throws IOException {
+		final String host = url.getProtocol()+"://"+url.getHost()+":"+url.getPort();
+		HostPermits hostPermits;
+		synchronized (mHostPermits) {
+			hostPermits = mHostPermits.get(host);
+			if (hostPermits == null) {
+				hostPermits = new HostPermits(mMaxConnectionsPerHost);
+				mHostPermits.put(host, hostPermits);
+			}
+			hostPermits.mUsers++; // the permits of the host must not be forgotten while they are waited for or held
+		}
+		try {
+			hostPermits.mSemaphore.acquire();
+		}
+		catch (InterruptedException e) {
+			unuse(hostPermits);
+			throw new InterruptedIOException();
+		}
+		try {
+			mGlobalPermits.acquire();
+		}
+		catch (InterruptedException e) {
+			hostPermits.mSemaphore.release();
+			unuse(hostPermits);
+			throw new InterruptedIOException();
+		}
+		return hostPermits;
+	}
+
+	private void release(HostPermits hostPermits) {
+		mGlobalPermits.release();
+		hostPermits.mSemaphore.release();
+		unuse(hostPermits);
+	}
+
+	private void unuse(HostPermits hostPermits) {
+		synchronized (mHostPermits) {
+			hostPermits.mUsers--;
+		}
+	}
+
+	/** The connection slots of a single host */
+	private static class HostPermits {
+
+		private final Semaphore mSemaphore;
+		/** The number of requests that are waiting for or holding a slot of the host */
+		private int mUsers;
+
+		public HostPermits(int maxConnections) {
+			mSemaphore = new Semaphore(maxConnections, true);
+		}
+
+	}
+
+	/** Response that holds a connection slot until it is closed */
+	private class PooledResponse implements HttpResponse {
+
+		private final String mURL;
+		private final HttpURLConnection mConnection;
+		private final int mStatusCode;
+		private final HostPermits mHostPermits;
+		private InputStream mInputStream;
+		private boolean mClosed;
+		private volatile boolean mAborted;
+
+		public PooledResponse(String url, HttpURLConnection connection, int statusCode, HostPermits hostPermits) {
+			mURL = url;
+			mConnection = connection;
+			mStatusCode = statusCode;
+			mHostPermits = hostPermits;
+		}
+
+		@Override
+		public String getURL() {
+			return mURL;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return mStatusCode;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return mConnection.getHeaderField(name);
+		}
+
+		@Override
+		public String getContentType() {
+			return mConnection.getContentType();
+		}
+
+		@Override
+		public long getContentLength() {
+			final String contentLength = mConnection.getHeaderField("Content-Length");
+			if (contentLength == null) {
+				return -1;
+			}
+			try {
+				return Long.parseLong(contentLength.trim());
+			}
+			catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (mInputStream == null) {
+				if (mStatusCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+					mInputStream = mConnection.getInputStream();
+				}
+				else {
+					mInputStream = mConnection.getErrorStream();
+				}
+				if (mInputStream == null) {
+					mInputStream = new ByteArrayInputStream(new byte[0]);
+				}
+			}
+			return mInputStream;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (mClosed) {
+				return;
+			}
+			mClosed = true;
+			// the connection can only be reused if the remaining body is consumed and the stream is closed
+			boolean reusable = false;
+			try {
+				if (mAborted) {
+					throw new IOException("Aborted");
+				}
+				final InputStream in = getInputStream();
+				final byte[] buffer = new byte[1024];
+				int drained = 0;
+				int count;
+				while (drained <= MAX_DRAIN_BYTES && (count = in.read(buffer)) != -1) {
+					drained += count;
+				}
+				reusable = drained <= MAX_DRAIN_BYTES;
+				in.close();
+			}
+			catch (IOException e) { }
+			finally {
+				if (!reusable) {
+					mConnection.disconnect();
+				}
+				release(mHostPermits);
+			}
+		}
+
+		@Override
+		public void abort() {
+			mAborted = true;
+			mConnection.disconnect();
+		}
+
+	}
+
+}
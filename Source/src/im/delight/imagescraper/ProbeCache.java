@@ -0,0 +1,157 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cache for the results of image probes so that images which appear on many pages (e.g. logos) do not have to be probed on every scrape
+ * <p>
+ * Entries are kept in memory with LRU eviction and may additionally be written to a directory so that they survive restarts
+ * <p>
+ * Entries that have expired can optionally be revalidated with a conditional request instead of being probed again
+ */
+public class ProbeCache {
+
+	/** The default maximum number of entries that are kept in memory */
+	public static final int DEFAULT_MAX_ENTRIES = 512;
+	/** The default maximum number of entries that are kept on disk */
+	public static final int DEFAULT_MAX_DISK_ENTRIES = 10000;
+	/** The default time after which entries expire (in milliseconds) */
+	public static final long DEFAULT_TTL_MILLIS = 6 * 60 * 60 * 1000;
+	private static final String DISK_FILE_EXTENSION = ".probe";
+	private final long mTTLMillis;
+	private final CacheStore<ProbeCacheEntry> mStore;
+	private boolean mRevalidate;
+
+	public ProbeCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * Constructs a new in-memory cache
+	 *
+	 * @param maxEntries the maximum number of entries to keep in memory (the least recently used entries are evicted first)
+	 * @param ttlMillis the time after which entries expire (in milliseconds)
+	 */
+	public ProbeCache(int maxEntries, long ttlMillis) {
+		mTTLMillis = ttlMillis;
+		mStore = new CacheStore<ProbeCacheEntry>(maxEntries, DISK_FILE_EXTENSION) {
+
+			@Override
+			protected ProbeCacheEntry read(DataInputStream in) throws IOException {
+				return ProbeCacheEntry.readFrom(in);
+			}
+
+			@Override
+			protected void write(DataOutputStream out, ProbeCacheEntry entry) throws IOException {
+				entry.writeTo(out);
+			}
+
+			@Override
+			protected boolean isUsable(ProbeCacheEntry entry) {
+				return isFresh(entry) || (mRevalidate && entry.hasValidators());
+			}
+
+		};
+	}
+
+	/**
+	 * Sets a directory where all entries are written to as well so that they survive restarts
+	 *
+	 * @param directory the directory to use (will be created if necessary) or `null` to keep entries in memory only
+	 */
+	public void setDiskDirectory(File directory) {
+		setDiskDirectory(directory, DEFAULT_MAX_DISK_ENTRIES);
+	}
+
+	/**
+	 * Sets a directory where all entries are written to as well so that they survive restarts
+	 *
+	 * @param directory the directory to use (will be created if necessary) or `null` to keep entries in memory only
+	 * @param maxDiskEntries the maximum number of entries to keep in the directory (the least recently used entries are deleted first)
+	 */
+	public void setDiskDirectory(File directory, int maxDiskEntries) {
+		mStore.setDiskDirectory(directory, maxDiskEntries);
+	}
+
+	/**
+	 * Sets whether expired entries should be revalidated with `If-None-Match` or `If-Modified-Since` instead of being probed again
+	 *
+	 * @param revalidate whether to revalidate expired entries
+	 */
+	public void setRevalidate(boolean revalidate) {
+		mRevalidate = revalidate;
+	}
+
+	public boolean isRevalidating() {
+		return mRevalidate;
+	}
+
+	/**
+	 * Returns the entry for the given URL if it has not expired yet
+	 *
+	 * @param url the image URL
+	 * @return the entry or `null`
+	 */
+	public ProbeCacheEntry get(String url) {
+		final ProbeCacheEntry entry = mStore.get(url);
+		if (entry != null && isFresh(entry)) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entry for the given URL if it has expired but can be revalidated
+	 *
+	 * @param url the image URL
+	 * @return the entry or `null`
+	 */
+	public ProbeCacheEntry getForRevalidation(String url) {
+		if (!mRevalidate) {
+			return null;
+		}
+		final ProbeCacheEntry entry = mStore.get(url);
+		if (entry != null && !isFresh(entry) && entry.hasValidators()) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the given entry for the given URL
+	 *
+	 * @param url the image URL
+	 * @param entry the result of the probe
+	 */
+	public void put(String url, ProbeCacheEntry entry) {
+		mStore.put(url, entry);
+	}
+
+	/** Removes all entries from memory and disk */
+	public void clear() {
+		mStore.clear();
+	}
+
+	private boolean isFresh(ProbeCacheEntry entry) {
+		return System.currentTimeMillis()-entry.getTimestamp() < mTTLMillis;
+	}
+
+}
@@ -0,0 +1,205 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Result of a single image probe as it is stored in the ProbeCache
+ * <p>
+ * The entry holds the properties of the file as they have been probed (not whether the file has been accepted) so that scrapes with different ImagePolicy instances can share it
+ */
+public class ProbeCacheEntry {
+
+	/** Version of the serialized form that is written to disk */
+	private static final int SERIALIZATION_VERSION = 2;
+	private final String mContentType;
+	private final int mFileSize;
+	private final int mProbeMethod;
+	private final boolean mDimensionsProbed;
+	private final int mWidth;
+	private final int mHeight;
+	private final String mETag;
+	private final String mLastModified;
+	private final long mTimestamp;
+
+	/**
+	 * Constructs a new cache entry
+	 *
+	 * @param contentType the content type that the server has sent (may be `null`)
+	 * @param fileSize the file size of the image or `0` if unknown
+	 * @param probeMethod one of the `ImageCheckerTask.PROBE_METHOD_*` constants that the file size has been determined with
+	 * @param dimensionsProbed whether the image header has been read to detect the image's dimensions (`false` if it has been skipped because the file has been ruled out by its headers)
+	 * @param width the width of the image or `0` if unknown
+	 * @param height the height of the image or `0` if unknown
+	 * @param eTag the value of the `ETag` header (may be `null`)
+	 * @param lastModified the value of the `Last-Modified` header (may be `null`)
+	 * @param timestamp the time when the image has been probed (in milliseconds)
+	 */
+	public ProbeCacheEntry(String contentType, int fileSize, int probeMethod, boolean dimensionsProbed, int width, int height, String eTag, String lastModified, long timestamp) {
+		mContentType = contentType;
+		mFileSize = fileSize;
+		mProbeMethod = probeMethod;
+		mDimensionsProbed = dimensionsProbed;
+		mWidth = width;
+		mHeight = height;
+		mETag = eTag;
+		mLastModified = lastModified;
+		mTimestamp = timestamp;
+	}
+
+	public String getContentType() {
+		return mContentType;
+	}
+
+	public int getFileSize() {
+		return mFileSize;
+	}
+
+	public int getProbeMethod() {
+		return mProbeMethod;
+	}
+
+	public boolean isDimensionsProbed() {
+		return mDimensionsProbed;
+	}
+
+	/**
+	 * Returns whether this entry answers a probe with the given options, i.e. whether the image does not have to be probed again
+	 * <p>
+	 * Entries without dimensions are only sufficient for probes that need dimensions if the policy rules the file out by its headers anyway
+	 *
+	 * @param probeDimensions whether the probe needs the dimensions of the image
+	 * @param policy the policy of the probe
+	 * @return whether the entry is sufficient
+	 */
+	public boolean isSufficientFor(boolean probeDimensions, ImagePolicy policy) {
+		return !probeDimensions || mDimensionsProbed || !policy.isAcceptedMimeType(mContentType) || !policy.isAcceptedFileSize(mFileSize);
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public String getETag() {
+		return mETag;
+	}
+
+	public String getLastModified() {
+		return mLastModified;
+	}
+
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * Returns whether this entry has any validators that it can be revalidated with
+	 *
+	 * @return whether an `ETag` or `Last-Modified` value is present
+	 */
+	public boolean hasValidators() {
+		return mETag != null || mLastModified != null;
+	}
+
+	/**
+	 * Returns a copy of this entry that has been confirmed by the server at the given time
+	 *
+	 * @param timestamp the time of the revalidation (in milliseconds)
+	 * @return the revalidated entry
+	 */
+	public ProbeCacheEntry revalidated(long timestamp) {
+		return new ProbeCacheEntry(mContentType, mFileSize, mProbeMethod, mDimensionsProbed, mWidth, mHeight, mETag, mLastModified, timestamp);
+	}
+
+	/**
+	 * Converts this entry to the ImageURL that a probe of the given URL would have produced with the default ImagePolicy
+	 *
+	 * @param url the URL of the image
+	 * @return the ImageURL instance
+	 */
+	public ImageURL toImageURL(String url) {
+		return toImageURL(url, ImagePolicy.getDefault());
+	}
+
+	/**
+	 * Converts this entry to the ImageURL that a probe of the given URL would have produced with the given policy
+	 *
+	 * @param url the URL of the image
+	 * @param policy the policy that decides whether the image is accepted
+	 * @return the ImageURL instance (with a file size of `0` if the image has been rejected)
+	 */
+	public ImageURL toImageURL(String url, ImagePolicy policy) {
+		if (policy.getRejectReason(this) != ScraperListener.REASON_ACCEPTED) {
+			return new ImageURL(url, 0, ImageCheckerTask.PROBE_METHOD_NONE, mWidth, mHeight);
+		}
+		return new ImageURL(url, mFileSize, mProbeMethod, mWidth, mHeight);
+	}
+
+	/**
+	 * Writes this entry to the given stream in a compact binary form
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the entry could not be written
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(SERIALIZATION_VERSION);
+		CacheStore.writeNullableString(out, mContentType);
+		out.writeInt(mFileSize);
+		out.writeInt(mProbeMethod);
+		out.writeBoolean(mDimensionsProbed);
+		out.writeInt(mWidth);
+		out.writeInt(mHeight);
+		CacheStore.writeNullableString(out, mETag);
+		CacheStore.writeNullableString(out, mLastModified);
+		out.writeLong(mTimestamp);
+	}
+
+	/**
+	 * Reads an entry that has been written with `writeTo()` from the given stream
+	 *
+	 * @param in the stream to read from
+	 * @return the entry
+	 * @throws IOException if the entry could not be read or has been written by an incompatible version
+	 */
+	public static ProbeCacheEntry readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != SERIALIZATION_VERSION) {
+			throw new IOException("Unsupported version");
+		}
+		final String contentType = CacheStore.readNullableString(in);
+		final int fileSize = in.readInt();
+		final int probeMethod = in.readInt();
+		final boolean dimensionsProbed = in.readBoolean();
+		final int width = in.readInt();
+		final int height = in.readInt();
+		final String eTag = CacheStore.readNullableString(in);
+		final String lastModified = CacheStore.readNullableString(in);
+		final long timestamp = in.readLong();
+		return new ProbeCacheEntry(contentType, fileSize, probeMethod, dimensionsProbed, width, height, eTag, lastModified, timestamp);
+	}
+
+	@Override
+	public String toString() {
+		return "ProbeCacheEntry [mContentType=" + mContentType + ", mFileSize=" + mFileSize + ", mProbeMethod=" + mProbeMethod + ", mWidth=" + mWidth + ", mHeight=" + mHeight + ", mETag=" + mETag + ", mLastModified=" + mLastModified + ", mTimestamp=" + mTimestamp + "]";
+	}
+
+}
@@ -0,0 +1,29 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/** Callback that additionally receives every image as soon as it has been accepted, while the ImageChecker is still working */
+public interface ProgressiveImageCheckerCallback extends ImageCheckerCallback {
+
+	/**
+	 * Called whenever an image has been accepted and is among the best images found so far (may be called on any thread)
+	 *
+	 * @param imageURL the image that has been accepted
+	 */
+	public void onImageAccepted(ImageURL imageURL);
+
+}
@@ -0,0 +1,45 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * Callback that receives the best results found so far while the ImageScraper is still working, so that they can be shown before the slowest probe has finished
+ * <p>
+ * The progress methods are called on the threads of the scrape, its probes and its deadline, but never at the same time, always in order and never after `onFinished()`
+ * <p>
+ * No lock of the scrape is held while a method is called, so the callback may block or even cancel the scrape
+ * <p>
+ * Scrapes that have joined a running scrape of the same web page (see `ImageScraper.setCoalescing()`) only receive the final result
+ */
+public interface ProgressiveScraperCallback extends ImageScraperCallback {
+
+	/**
+	 * Called as soon as the `head` section of the web page has been parsed
+	 *
+	 * @param preliminary partial result with the title, the URL and the images from the meta data of the web page
+	 */
+	public void onHeadParsed(ImageScraperResult preliminary);
+	/**
+	 * Called whenever an image has been verified and is among the best images found so far
+	 *
+	 * @param imageURL the URL of the image that has just been verified
+	 * @param bestSoFar partial result with the best images found so far (which includes the new image unless better ones fill all slots)
+	 */
+	public void onImageVerified(String imageURL, ImageScraperResult bestSoFar);
+
+}
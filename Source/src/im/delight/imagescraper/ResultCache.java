@@ -0,0 +1,212 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Cache for complete scrape results so that web pages that are shared repeatedly are not downloaded and probed again every time
+ * <p>
+ * Results are keyed by the normalized URL of the web page, the number of images requested and the options of the scrape that change its result
+ * <p>
+ * Entries are kept in memory with LRU eviction and may additionally be written to a directory so that they survive restarts
+ * <p>
+ * Expired entries are revalidated with a conditional `GET` and reused if the server responds with `304 Not Modified`
+ */
+public class ResultCache {
+
+	/** The default maximum number of entries that are kept in memory */
+	public static final int DEFAULT_MAX_ENTRIES = 128;
+	/** The default maximum number of entries that are kept on disk */
+	public static final int DEFAULT_MAX_DISK_ENTRIES = 2000;
+	/** The default time after which entries expire (in milliseconds) */
+	public static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000;
+	private static final String DISK_FILE_EXTENSION = ".result";
+	private final long mTTLMillis;
+	private final CacheStore<ResultCacheEntry> mStore;
+
+	public ResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * Constructs a new in-memory cache
+	 *
+	 * @param maxEntries the maximum number of entries to keep in memory (the least recently used entries are evicted first)
+	 * @param ttlMillis the time after which entries expire and must be revalidated (in milliseconds)
+	 */
+	public ResultCache(int maxEntries, long ttlMillis) {
+		mTTLMillis = ttlMillis;
+		mStore = new CacheStore<ResultCacheEntry>(maxEntries, DISK_FILE_EXTENSION) {
+
+			@Override
+			protected ResultCacheEntry read(DataInputStream in) throws IOException {
+				return ResultCacheEntry.readFrom(in);
+			}
+
+			@Override
+			protected void write(DataOutputStream out, ResultCacheEntry entry) throws IOException {
+				entry.writeTo(out);
+			}
+
+			@Override
+			protected boolean isUsable(ResultCacheEntry entry) {
+				return isFresh(entry) || entry.hasValidators();
+			}
+
+		};
+	}
+
+	/**
+	 * Sets a directory where all entries are written to as well so that they survive restarts
+	 *
+	 * @param directory the directory to use (will be created if necessary) or `null` to keep entries in memory only
+	 */
+	public void setDiskDirectory(File directory) {
+		setDiskDirectory(directory, DEFAULT_MAX_DISK_ENTRIES);
+	}
+
+	/**
+	 * Sets a directory where all entries are written to as well so that they survive restarts
+	 *
+	 * @param directory the directory to use (will be created if necessary) or `null` to keep entries in memory only
+	 * @param maxDiskEntries the maximum number of entries to keep in the directory (the least recently used entries are deleted first)
+	 */
+	public void setDiskDirectory(File directory, int maxDiskEntries) {
+		mStore.setDiskDirectory(directory, maxDiskEntries);
+	}
+
+	/**
+	 * Returns the entry for the given web page if it has not expired yet
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @return the entry or `null`
+	 */
+	public ResultCacheEntry get(String url, int imagesRequestedCount) {
+		return get(url, imagesRequestedCount, "");
+	}
+
+	/**
+	 * Returns the entry for the given web page if it has not expired yet
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @param options a key that describes all other options of the scrape that change its result
+	 * @return the entry or `null`
+	 */
+	public ResultCacheEntry get(String url, int imagesRequestedCount, String options) {
+		final ResultCacheEntry entry = mStore.get(createKey(url, imagesRequestedCount, options));
+		if (entry != null && isFresh(entry)) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entry for the given web page if it has expired but can be revalidated
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @return the entry or `null`
+	 */
+	public ResultCacheEntry getForRevalidation(String url, int imagesRequestedCount) {
+		return getForRevalidation(url, imagesRequestedCount, "");
+	}
+
+	/**
+	 * Returns the entry for the given web page if it has expired but can be revalidated
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @param options a key that describes all other options of the scrape that change its result
+	 * @return the entry or `null`
+	 */
+	public ResultCacheEntry getForRevalidation(String url, int imagesRequestedCount, String options) {
+		final ResultCacheEntry entry = mStore.get(createKey(url, imagesRequestedCount, options));
+		if (entry != null && !isFresh(entry) && entry.hasValidators()) {
+			return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the given entry for the given web page
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @param entry the result of the scrape
+	 */
+	public void put(String url, int imagesRequestedCount, ResultCacheEntry entry) {
+		put(url, imagesRequestedCount, "", entry);
+	}
+
+	/**
+	 * Stores the given entry for the given web page
+	 *
+	 * @param url the URL of the web page
+	 * @param imagesRequestedCount the number of images requested
+	 * @param options a key that describes all other options of the scrape that change its result
+	 * @param entry the result of the scrape
+	 */
+	public void put(String url, int imagesRequestedCount, String options, ResultCacheEntry entry) {
+		mStore.put(createKey(url, imagesRequestedCount, options), entry);
+	}
+
+	/** Removes all entries from memory and disk */
+	public void clear() {
+		mStore.clear();
+	}
+
+	/**
+	 * Normalizes the given URL so that trivially different spellings of the same web page share a single entry
+	 * <p>
+	 * The scheme and host are lower-cased and the fragment is removed
+	 *
+	 * @param url the URL to normalize
+	 * @return the normalized URL
+	 */
+	public static String normalizeURL(String url) {
+		String normalized = url.trim();
+		final int hashPosition = normalized.indexOf('#');
+		if (hashPosition >= 0) {
+			normalized = normalized.substring(0, hashPosition);
+		}
+		final int schemeEnd = normalized.indexOf("://");
+		if (schemeEnd >= 0) {
+			int hostEnd = normalized.indexOf('/', schemeEnd+3);
+			if (hostEnd < 0) {
+				hostEnd = normalized.length();
+				normalized = normalized+"/";
+			}
+			normalized = normalized.substring(0, hostEnd).toLowerCase(Locale.US)+normalized.substring(hostEnd);
+		}
+		return normalized;
+	}
+
+	private static String createKey(String url, int imagesRequestedCount, String options) {
+		return normalizeURL(url)+" "+imagesRequestedCount+" "+options;
+	}
+
+	private boolean isFresh(ResultCacheEntry entry) {
+		return System.currentTimeMillis()-entry.getTimestamp() < mTTLMillis;
+	}
+
+}
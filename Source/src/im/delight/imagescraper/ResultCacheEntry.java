@@ -0,0 +1,119 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Result of a single scrape as it is stored in the ResultCache */
+public class ResultCacheEntry {
+
+	/** Version of the serialized form that is written to disk */
+	private static final int SERIALIZATION_VERSION = 1;
+	private final ImageScraperResult mResult;
+	private final String mETag;
+	private final String mLastModified;
+	private final long mTimestamp;
+
+	/**
+	 * Constructs a new cache entry
+	 *
+	 * @param result the result of the scrape
+	 * @param eTag the value of the web page's `ETag` header (may be `null`)
+	 * @param lastModified the value of the web page's `Last-Modified` header (may be `null`)
+	 * @param timestamp the time when the web page has been scraped (in milliseconds)
+	 */
+	public ResultCacheEntry(ImageScraperResult result, String eTag, String lastModified, long timestamp) {
+		mResult = result;
+		mETag = eTag;
+		mLastModified = lastModified;
+		mTimestamp = timestamp;
+	}
+
+	public ImageScraperResult getResult() {
+		return mResult;
+	}
+
+	public String getETag() {
+		return mETag;
+	}
+
+	public String getLastModified() {
+		return mLastModified;
+	}
+
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * Returns whether this entry has any validators that it can be revalidated with
+	 *
+	 * @return whether an `ETag` or `Last-Modified` value is present
+	 */
+	public boolean hasValidators() {
+		return mETag != null || mLastModified != null;
+	}
+
+	/**
+	 * Returns a copy of this entry that has been confirmed by the server at the given time
+	 *
+	 * @param timestamp the time of the revalidation (in milliseconds)
+	 * @return the revalidated entry
+	 */
+	public ResultCacheEntry revalidated(long timestamp) {
+		return new ResultCacheEntry(mResult, mETag, mLastModified, timestamp);
+	}
+
+	/**
+	 * Writes this entry to the given stream in a compact binary form
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the entry could not be written
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(SERIALIZATION_VERSION);
+		mResult.writeTo(out);
+		CacheStore.writeNullableString(out, mETag);
+		CacheStore.writeNullableString(out, mLastModified);
+		out.writeLong(mTimestamp);
+	}
+
+	/**
+	 * Reads an entry that has been written with `writeTo()` from the given stream
+	 *
+	 * @param in the stream to read from
+	 * @return the entry
+	 * @throws IOException if the entry could not be read or has been written by an incompatible version
+	 */
+	public static ResultCacheEntry readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != SERIALIZATION_VERSION) {
+			throw new IOException("Unsupported version");
+		}
+		final ImageScraperResult result = ImageScraperResult.readFrom(in);
+		final String eTag = CacheStore.readNullableString(in);
+		final String lastModified = CacheStore.readNullableString(in);
+		final long timestamp = in.readLong();
+		return new ResultCacheEntry(result, eTag, lastModified, timestamp);
+	}
+
+	@Override
+	public String toString() {
+		return "ResultCacheEntry [mResult=" + mResult + ", mETag=" + mETag + ", mLastModified=" + mLastModified + ", mTimestamp=" + mTimestamp + "]";
+	}
+
+}
@@ -0,0 +1,366 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import android.annotation.SuppressLint;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived executor that is shared by all scrapes instead of creating new threads for every web page
+ * <p>
+ * Scrapes (which download the web page and wait for their probes) and probes run on two separate bounded pools so that waiting scrapes can never block the probes they are waiting for
+ * <p>
+ * Every scrape submits its probes to its own ScraperQueue and the probe threads take tasks from all queues in turn, so that a web page with hundreds of images cannot starve the other web pages
+ * <p>
+ * On runtimes that support virtual threads (Java 21+) these may be used instead of platform threads so that far more probes can block on network I/O at the same time
+ * <p>
+ * Virtual threads are not pooled: every task gets a new virtual thread, which waits for one of a limited number of permits before it runs the task
+ */
+public class ScraperExecutor {
+
+	/** The default maximum number of web pages that are downloaded at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_SCRAPES = 4;
+	/** The default maximum number of image probes that run at the same time (across all web pages) on platform threads */
+	public static final int DEFAULT_PROBE_THREAD_COUNT = 12;
+	/** The default maximum number of image probes that run at the same time (across all web pages) on virtual threads */
+	public static final int DEFAULT_VIRTUAL_PROBE_THREAD_COUNT = 1024;
+	/** Use virtual threads if the runtime supports them and platform threads otherwise */
+	public static final int BACKEND_AUTO = 0;
+	/** Always use platform threads */
+	public static final int BACKEND_PLATFORM_THREADS = 1;
+	/** Use virtual threads (fails if the runtime does not support them) */
+	public static final int BACKEND_VIRTUAL_THREADS = 2;
+	private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
+	private static final int KEEP_ALIVE_TIME = 1;
+	private static ScraperExecutor mDefaultInstance;
+	/** Guards the list of ready queues as well as the state of all queues of this executor */
+	final Object mLock = new Object();
+	/** The queues that have pending tasks, in the order in which they will be served */
+	private final LinkedList<ScraperQueue> mReadyQueues;
+	/** Runs the scrapes (a ThreadPoolExecutor or a ThreadPerTaskExecutor) */
+	private final Executor mScrapePool;
+	/** Runs the probes (a ThreadPoolExecutor or a ThreadPerTaskExecutor) */
+	private final Executor mProbePool;
+	private final boolean mVirtualThreads;
+	/** Runs delayed tasks such as the deadlines of scrapes (created when it is needed for the first time) */
+	private ScheduledThreadPoolExecutor mTimer;
+	/** Runs the tasks of the timer once they are due so that a slow task (e.g. a callback) cannot delay the other deadlines (created when it is needed for the first time) */
+	private ThreadPoolExecutor mTimeoutPool;
+	/** Runs the next task of the next ready queue (one instance of this is submitted for every task) */
+	private final Runnable mDispatcher = new Runnable() {
+
+		@Override
+		public void run() {
+			runNext();
+		}
+
+	};
+
+	/**
+	 * Returns the executor that is shared across the whole process
+	 *
+	 * @return the shared executor
+	 */
+	public static synchronized ScraperExecutor getDefault() {
+		if (mDefaultInstance == null) {
+			if (isVirtualThreadSupported()) {
+				mDefaultInstance = new ScraperExecutor(DEFAULT_MAX_CONCURRENT_SCRAPES, DEFAULT_VIRTUAL_PROBE_THREAD_COUNT, BACKEND_VIRTUAL_THREADS);
+			}
+			else {
+				mDefaultInstance = new ScraperExecutor(DEFAULT_MAX_CONCURRENT_SCRAPES, DEFAULT_PROBE_THREAD_COUNT, BACKEND_PLATFORM_THREADS);
+			}
+		}
+		return mDefaultInstance;
+	}
+
+	/**
+	 * Replaces the executor that is shared across the whole process (should be called before the first scrape is started, because the shared PooledHttpTransport picks its global limit based on this executor)
+	 *
+	 * @param executor the new shared executor
+	 */
+	public static synchronized void setDefault(ScraperExecutor executor) {
+		mDefaultInstance = executor;
+	}
+
+	/**
+	 * Constructs a new executor with the given limits that runs on platform threads
+	 *
+	 * @param maxConcurrentScrapes the maximum number of web pages that are downloaded at the same time
+	 * @param probeThreadCount the maximum number of image probes that run at the same time
+	 */
+	public ScraperExecutor(int maxConcurrentScrapes, int probeThreadCount) {
+		this(maxConcurrentScrapes, probeThreadCount, BACKEND_PLATFORM_THREADS);
+	}
+
+	/**
+	 * Constructs a new executor with the given limits that runs on the given kind of threads
+	 *
+	 * @param maxConcurrentScrapes the maximum number of web pages that are downloaded at the same time
+	 * @param probeThreadCount the maximum number of image probes that run at the same time
+	 * @param backend one of the `BACKEND_*` constants
+	 */
+	public ScraperExecutor(int maxConcurrentScrapes, int probeThreadCount, int backend) {
+		if (backend == BACKEND_VIRTUAL_THREADS && !isVirtualThreadSupported()) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this runtime");
+		}
+		mVirtualThreads = backend != BACKEND_PLATFORM_THREADS && isVirtualThreadSupported();
+		mReadyQueues = new LinkedList<ScraperQueue>();
+		if (mVirtualThreads) {
+			mScrapePool = new ThreadPerTaskExecutor(createVirtualThreadFactory("ImageScraper-page-"), maxConcurrentScrapes);
+			mProbePool = new ThreadPerTaskExecutor(createVirtualThreadFactory("ImageScraper-probe-"), probeThreadCount);
+		}
+		else {
+			mScrapePool = createPool(maxConcurrentScrapes, "ImageScraper-page-");
+			mProbePool = createPool(probeThreadCount, "ImageScraper-probe-");
+		}
+	}
+
+	/**
+	 * Returns whether the threads of this executor are virtual threads
+	 *
+	 * @return whether virtual threads are used
+	 */
+	public boolean isUsingVirtualThreads() {
+		return mVirtualThreads;
+	}
+
+	/**
+	 * Returns whether the current runtime supports virtual threads (Java 21+ but not Android)
+	 *
+	 * @return whether virtual threads are supported
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return createVirtualThreadFactory("ImageScraper-") != null;
+	}
+
+	/**
+	 * Creates a factory for virtual threads via reflection so that this class still loads on runtimes without virtual threads
+	 *
+	 * @param namePrefix the prefix for the names of the threads
+	 * @return the factory or `null` if virtual threads are not supported
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		}
+		catch (Exception e) { // class or method not found or preview feature not enabled
+			return null;
+		}
+	}
+
+	@SuppressLint("NewApi")
+	private static ThreadPoolExecutor createPool(int threadCount, final String namePrefix) {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, namePrefix+mCount.incrementAndGet());
+			}
+
+		});
+		// idle threads are released so that an idle process does not keep any threads around
+		if (isCoreThreadTimeOutSupported()) {
+			pool.allowCoreThreadTimeOut(true);
+		}
+		return pool;
+	}
+
+	/** Returns whether `ThreadPoolExecutor.allowCoreThreadTimeOut()` is available, i.e. on Android 2.3+ and on every regular JVM (where the Android classes are missing) */
+	private static boolean isCoreThreadTimeOutSupported() {
+		try {
+			return android.os.Build.VERSION.SDK_INT >= 9;
+		}
+		catch (NoClassDefFoundError e) { // not running on Android
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of probes (of all web pages) that are waiting for a thread right now
+	 *
+	 * @return the number of waiting probes
+	 */
+	public int getQueuedProbeCount() {
+		if (mProbePool instanceof ThreadPerTaskExecutor) {
+			return ((ThreadPerTaskExecutor) mProbePool).getWaitingCount();
+		}
+		return ((ThreadPoolExecutor) mProbePool).getQueue().size();
+	}
+
+	/**
+	 * Runs the given scrape as soon as fewer than the maximum number of scrapes are running
+	 *
+	 * @param scrape the scrape to run
+	 */
+	public void executeScrape(Runnable scrape) {
+		mScrapePool.execute(scrape);
+	}
+
+	/**
+	 * Runs the given task once after the given delay (e.g. to enforce the deadline of a scrape)
+	 * <p>
+	 * The timer thread only hands the task off to a separate thread so that the task may block (e.g. in a callback) without delaying any other deadline
+	 *
+	 * @param task the task to run
+	 * @param delayMillis the delay in milliseconds
+	 * @return the future that can be used to cancel the task before it is due
+	 */
+	public ScheduledFuture<?> scheduleTimeout(final Runnable task, long delayMillis) {
+		final ScheduledThreadPoolExecutor timer;
+		final ThreadPoolExecutor timeoutPool;
+		synchronized (mLock) {
+			if (mTimer == null) {
+				mTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						final Thread thread = new Thread(r, "ImageScraper-timer");
+						thread.setDaemon(true);
+						return thread;
+					}
+
+				});
+				// deadlines are cancelled far more often than they run out, and cancelled tasks would stay in the queue until they are due
+				try {
+					mTimer.setRemoveOnCancelPolicy(true);
+				}
+				catch (NoSuchMethodError e) { } // before Android 5.0 cancelled tasks are only dropped once they are due
+			}
+			if (mTimeoutPool == null) {
+				// no limit on the number of threads as every due task must start right away, but idle threads are released quickly
+				mTimeoutPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						final Thread thread = new Thread(r, "ImageScraper-timeout-"+mCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+
+				});
+			}
+			timer = mTimer;
+			timeoutPool = mTimeoutPool;
+		}
+		return timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				timeoutPool.execute(task);
+			}
+
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Returns the number of timeouts that are waiting to become due (cancelled ones included if they are not removed right away) */
+	int getScheduledTimeoutCount() {
+		synchronized (mLock) {
+			return mTimer == null ? 0 : mTimer.getQueue().size();
+		}
+	}
+
+	/** Makes sure the given queue will be served and requests a probe thread for its new task */
+	void schedule(ScraperQueue queue) {
+		synchronized (mLock) {
+			if (!queue.mScheduled) {
+				queue.mScheduled = true;
+				mReadyQueues.addLast(queue);
+			}
+		}
+		mProbePool.execute(mDispatcher);
+	}
+
+	/** Takes a single task from the next ready queue (round-robin) and runs it */
+	private void runNext() {
+		ScraperQueue queue;
+		Runnable task;
+		synchronized (mLock) {
+			do {
+				queue = mReadyQueues.poll();
+				if (queue == null) { // tasks of cancelled queues have been discarded
+					return;
+				}
+				task = queue.mPending.poll();
+				if (queue.mPending.isEmpty()) {
+					queue.mScheduled = false;
+				}
+				else {
+					mReadyQueues.addLast(queue); // the queue is served again after all other ready queues
+				}
+			}
+			while (task == null);
+		}
+		queue.runTask(task);
+	}
+
+	/**
+	 * Executor that starts a new thread for every task (meant for virtual threads, which are cheap to create and must not be pooled) and limits the number of tasks that run at the same time
+	 * <p>
+	 * Tasks that exceed the limit wait for a permit on their own (virtual) thread instead of in a queue
+	 */
+	static class ThreadPerTaskExecutor implements Executor {
+
+		private final ThreadFactory mThreadFactory;
+		private final Semaphore mPermits;
+
+		public ThreadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrentTasks) {
+			mThreadFactory = threadFactory;
+			mPermits = new Semaphore(maxConcurrentTasks, true);
+		}
+
+		@Override
+		public void execute(final Runnable task) {
+			mThreadFactory.newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					mPermits.acquireUninterruptibly();
+					try {
+						task.run();
+					}
+					finally {
+						mPermits.release();
+					}
+				}
+
+			}).start();
+		}
+
+		/** Returns the number of tasks that are waiting for a permit right now (an estimate) */
+		public int getWaitingCount() {
+			return mPermits.getQueueLength();
+		}
+
+	}
+
+}
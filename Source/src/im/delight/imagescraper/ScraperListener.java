@@ -0,0 +1,105 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/**
+ * Listener that receives timings and outcomes from scrapes and their probes, e.g. to find out why scrapes are slow or to export metrics to a monitoring system
+ * <p>
+ * All methods are called on the threads of the scrape and its probes so they must return quickly and be thread-safe (see ScraperMetrics for an aggregating implementation)
+ * <p>
+ * Exceptions thrown by the listener are ignored so that they cannot disturb the scrape
+ */
+public interface ScraperListener {
+
+	/** From sending the request for the web page until its response headers have been received (includes DNS, connect, TLS and time to first byte) */
+	public static final int PHASE_PAGE_RESPONSE = 0;
+	/** From the response headers of the web page until its `head` section (base URL and meta data) has been parsed */
+	public static final int PHASE_PAGE_HEAD = 1;
+	/** From the response headers of the web page until the document has been read and all image URLs have been extracted */
+	public static final int PHASE_PAGE_SCAN = 2;
+	/** From the end of the document until all probes have finished */
+	public static final int PHASE_PROBES = 3;
+	/** From the start of the scrape until its result has been delivered */
+	public static final int PHASE_TOTAL = 4;
+	public static final int PHASE_COUNT = 5;
+	/** The image has been accepted */
+	public static final int REASON_ACCEPTED = 0;
+	/** The image has been rejected because of its MIME type */
+	public static final int REASON_MIME_TYPE = 1;
+	/** The image has been rejected because its file is too small */
+	public static final int REASON_TOO_SMALL = 2;
+	/** The image has been rejected because its file is too large */
+	public static final int REASON_TOO_LARGE = 3;
+	/** The image has been rejected because the server did not tell its file size */
+	public static final int REASON_UNKNOWN_SIZE = 4;
+	/** The image has been rejected because of the HTTP status code (e.g. `404`) */
+	public static final int REASON_HTTP_STATUS = 5;
+	/** The probe has run into its connect or read timeout */
+	public static final int REASON_TIMEOUT = 6;
+	/** The probe has failed because of any other network problem */
+	public static final int REASON_NETWORK_ERROR = 7;
+	/** The image has not been probed because its host keeps failing (see AdaptiveHostLimiter) */
+	public static final int REASON_HOST_FAILING = 8;
+	/** The probe has been aborted because the scrape has been cancelled */
+	public static final int REASON_ABORTED = 9;
+	/** The image has been rejected for a reason that is not known anymore (e.g. a cached or non-blocking probe) */
+	public static final int REASON_REJECTED = 10;
+	/** The image has been rejected because its dimensions or its aspect ratio are outside the bounds of the ImagePolicy */
+	public static final int REASON_DIMENSIONS = 11;
+	public static final int REASON_COUNT = 12;
+
+	/**
+	 * Called when a phase of a scrape has finished
+	 *
+	 * @param pageURL the URL of the web page
+	 * @param phase one of the `PHASE_*` constants
+	 * @param durationMillis the duration of the phase in milliseconds
+	 */
+	public void onPhaseFinished(String pageURL, int phase, long durationMillis);
+	/**
+	 * Called when the web page has been read completely and its image URLs have been submitted for probing
+	 *
+	 * @param pageURL the URL of the web page
+	 * @param bytesTransferred the number of bytes that have been read from the network (compressed if the server has used compression)
+	 * @param bytesDecoded the number of bytes that remained after decompression (equal to `bytesTransferred` if no compression has been used)
+	 * @param charsRead the number of characters that have been scanned
+	 * @param candidateCount the number of image URLs that have been found
+	 * @param probeCount the number of distinct images that have been submitted for probing
+	 */
+	public void onPageRead(String pageURL, long bytesTransferred, long bytesDecoded, long charsRead, int candidateCount, int probeCount);
+	/**
+	 * Called when an image has been submitted for probing
+	 *
+	 * @param pageURL the URL of the web page
+	 * @param imageURL the URL of the image
+	 * @param queueDepth the number of probes (of all web pages) that are waiting for a thread or `-1` if unknown
+	 */
+	public void onProbeSubmitted(String pageURL, String imageURL, int queueDepth);
+	/**
+	 * Called when the probe of an image has finished (or when its result has been taken from the cache)
+	 *
+	 * @param pageURL the URL of the web page
+	 * @param imageURL the URL of the image
+	 * @param reason one of the `REASON_*` constants
+	 * @param statusCode the HTTP status code of the last response or `0` if none
+	 * @param queueMillis the time that the probe has waited for a thread in milliseconds
+	 * @param durationMillis the time that the probe has taken in milliseconds
+	 */
+	public void onProbeFinished(String pageURL, String imageURL, int reason, int statusCode, long queueMillis, long durationMillis);
+
+}
@@ -0,0 +1,194 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ScraperListener that aggregates all events into histograms and counters so that they can be exported to a monitoring system periodically
+ * <p>
+ * The same instance should be passed to all scrapes and this class is thread-safe
+ */
+public class ScraperMetrics implements ScraperListener {
+
+	private static final String[] PHASE_NAMES = { "page_response", "page_head", "page_scan", "probes", "total" };
+	private static final String[] REASON_NAMES = { "accepted", "mime_type", "too_small", "too_large", "unknown_size", "http_status", "timeout", "network_error", "host_failing", "aborted", "rejected", "dimensions" };
+	private final Histogram[] mPhases;
+	private final Histogram mPageBytes;
+	private final Histogram mPageBytesTransferred;
+	private final Histogram mCandidates;
+	private final Histogram mProbesPerPage;
+	private final Histogram mQueueDepth;
+	private final Histogram mProbeQueueTime;
+	private final Histogram mProbeDuration;
+	private final AtomicLongArray mReasons;
+
+	public ScraperMetrics() {
+		mPhases = new Histogram[PHASE_COUNT];
+		for (int i = 0; i < PHASE_COUNT; i++) {
+			mPhases[i] = new Histogram();
+		}
+		mPageBytes = new Histogram();
+		mPageBytesTransferred = new Histogram();
+		mCandidates = new Histogram();
+		mProbesPerPage = new Histogram();
+		mQueueDepth = new Histogram();
+		mProbeQueueTime = new Histogram();
+		mProbeDuration = new Histogram();
+		mReasons = new AtomicLongArray(REASON_COUNT);
+	}
+
+	@Override
+	public void onPhaseFinished(String pageURL, int phase, long durationMillis) {
+		mPhases[phase].record(durationMillis);
+	}
+
+	@Override
+	public void onPageRead(String pageURL, long bytesTransferred, long bytesDecoded, long charsRead, int candidateCount, int probeCount) {
+		mPageBytes.record(bytesDecoded);
+		mPageBytesTransferred.record(bytesTransferred);
+		mCandidates.record(candidateCount);
+		mProbesPerPage.record(probeCount);
+	}
+
+	@Override
+	public void onProbeSubmitted(String pageURL, String imageURL, int queueDepth) {
+		if (queueDepth >= 0) {
+			mQueueDepth.record(queueDepth);
+		}
+	}
+
+	@Override
+	public void onProbeFinished(String pageURL, String imageURL, int reason, int statusCode, long queueMillis, long durationMillis) {
+		mReasons.incrementAndGet(reason);
+		mProbeQueueTime.record(queueMillis);
+		mProbeDuration.record(durationMillis);
+	}
+
+	/**
+	 * Returns the durations of the given phase in milliseconds
+	 *
+	 * @param phase one of the `ScraperListener.PHASE_*` constants
+	 * @return the histogram of the phase
+	 */
+	public Histogram getPhase(int phase) {
+		return mPhases[phase];
+	}
+
+	/** Returns the number of bytes per web page after decompression */
+	public Histogram getPageBytes() {
+		return mPageBytes;
+	}
+
+	/** Returns the number of bytes per web page that have been transferred over the network, i.e. before decompression */
+	public Histogram getPageBytesTransferred() {
+		return mPageBytesTransferred;
+	}
+
+	/** Returns the number of image URLs that have been found per web page */
+	public Histogram getCandidates() {
+		return mCandidates;
+	}
+
+	/** Returns the number of distinct images that have been probed per web page */
+	public Histogram getProbesPerPage() {
+		return mProbesPerPage;
+	}
+
+	/** Returns the number of probes that have been waiting for a thread whenever a probe was submitted */
+	public Histogram getQueueDepth() {
+		return mQueueDepth;
+	}
+
+	/** Returns the times that probes have waited for a thread in milliseconds */
+	public Histogram getProbeQueueTime() {
+		return mProbeQueueTime;
+	}
+
+	/** Returns the durations of all probes in milliseconds */
+	public Histogram getProbeDuration() {
+		return mProbeDuration;
+	}
+
+	/**
+	 * Returns the number of probes that have finished with the given outcome
+	 *
+	 * @param reason one of the `ScraperListener.REASON_*` constants
+	 * @return the number of probes
+	 */
+	public long getReasonCount(int reason) {
+		return mReasons.get(reason);
+	}
+
+	/**
+	 * Returns a short name for the given phase that can be used in metric names
+	 *
+	 * @param phase one of the `ScraperListener.PHASE_*` constants
+	 * @return the name (e.g. `page_response`)
+	 */
+	public static String getPhaseName(int phase) {
+		return PHASE_NAMES[phase];
+	}
+
+	/**
+	 * Returns a short name for the given outcome that can be used in metric names
+	 *
+	 * @param reason one of the `ScraperListener.REASON_*` constants
+	 * @return the name (e.g. `timeout`)
+	 */
+	public static String getReasonName(int reason) {
+		return REASON_NAMES[reason];
+	}
+
+	/** Removes all values that have been recorded so far (e.g. after they have been exported) */
+	public void reset() {
+		for (Histogram phase : mPhases) {
+			phase.reset();
+		}
+		mPageBytes.reset();
+		mPageBytesTransferred.reset();
+		mCandidates.reset();
+		mProbesPerPage.reset();
+		mQueueDepth.reset();
+		mProbeQueueTime.reset();
+		mProbeDuration.reset();
+		for (int i = 0; i < REASON_COUNT; i++) {
+			mReasons.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder out = new StringBuilder("ScraperMetrics [");
+		for (int i = 0; i < PHASE_COUNT; i++) {
+			out.append(PHASE_NAMES[i]).append('=').append(mPhases[i]).append(", ");
+		}
+		out.append("page_bytes=").append(mPageBytes);
+		out.append(", page_bytes_transferred=").append(mPageBytesTransferred);
+		out.append(", candidates=").append(mCandidates);
+		out.append(", probes_per_page=").append(mProbesPerPage);
+		out.append(", queue_depth=").append(mQueueDepth);
+		out.append(", probe_queue_time=").append(mProbeQueueTime);
+		out.append(", probe_duration=").append(mProbeDuration);
+		for (int i = 0; i < REASON_COUNT; i++) {
+			out.append(", ").append(REASON_NAMES[i]).append('=').append(mReasons.get(i));
+		}
+		return out.append(']').toString();
+	}
+
+}
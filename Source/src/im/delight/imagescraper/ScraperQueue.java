@@ -0,0 +1,194 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of tasks (usually the probes of a single web page) that runs on the shared threads of a ScraperExecutor
+ * <p>
+ * Behaves like a `ThreadPoolExecutor` of its own, i.e. it can be shut down, awaited and may override `afterExecute()`
+ */
+public class ScraperQueue extends AbstractExecutorService {
+
+	private final ScraperExecutor mExecutor;
+	/** Tasks that have not been started yet (guarded by the executor's lock) */
+	final LinkedList<Runnable> mPending;
+	/** Whether this queue is in the executor's list of ready queues (guarded by the executor's lock) */
+	boolean mScheduled;
+	/** Threads that are running tasks of this queue right now */
+	private final HashSet<Thread> mRunning;
+	private boolean mShutdown;
+	/** Whether the pending tasks have been discarded by `shutdownNow()` */
+	private boolean mStopped;
+	/** The number of tasks that will be added to this queue again after a delay (see `executeLater()`) */
+	private int mDelayed;
+
+	/**
+	 * Constructs a new queue whose tasks will run on the given executor
+	 *
+	 * @param executor the executor whose threads will run the tasks
+	 */
+	public ScraperQueue(ScraperExecutor executor) {
+		mExecutor = executor;
+		mPending = new LinkedList<Runnable>();
+		mRunning = new HashSet<Thread>();
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		synchronized (mExecutor.mLock) {
+			if (mShutdown) {
+				throw new RejectedExecutionException();
+			}
+			mPending.add(task);
+		}
+		mExecutor.schedule(this);
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized (mExecutor.mLock) {
+			mShutdown = true;
+			mExecutor.mLock.notifyAll();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		synchronized (mExecutor.mLock) {
+			mShutdown = true;
+			mStopped = true;
+			final List<Runnable> discarded = new ArrayList<Runnable>(mPending);
+			mPending.clear();
+			for (Thread thread : mRunning) {
+				thread.interrupt();
+			}
+			mExecutor.mLock.notifyAll();
+			return discarded;
+		}
+	}
+
+	@Override
+	public boolean isShutdown() {
+		synchronized (mExecutor.mLock) {
+			return mShutdown;
+		}
+	}
+
+	@Override
+	public boolean isTerminated() {
+		synchronized (mExecutor.mLock) {
+			return mShutdown && mPending.isEmpty() && mRunning.isEmpty() && mDelayed == 0;
+		}
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime()+unit.toNanos(timeout);
+		synchronized (mExecutor.mLock) {
+			while (!(mShutdown && mPending.isEmpty() && mRunning.isEmpty() && mDelayed == 0)) {
+				final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime());
+				if (remainingMillis <= 0) {
+					return false;
+				}
+				mExecutor.mLock.wait(remainingMillis);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Adds the given task to this queue again after the given delay, even if the queue has been shut down in the meantime (but not if it has been stopped by `shutdownNow()`)
+	 * <p>
+	 * The queue does not terminate before the task has been run
+	 *
+	 * @param task the task to run again (usually from within `afterExecute()`)
+	 * @param delayMillis the delay in milliseconds
+	 */
+	void executeLater(final Runnable task, long delayMillis) {
+		synchronized (mExecutor.mLock) {
+			if (mStopped) {
+				return;
+			}
+			mDelayed++;
+		}
+		mExecutor.scheduleTimeout(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (mExecutor.mLock) {
+					mDelayed--;
+					if (mStopped) {
+						mExecutor.mLock.notifyAll();
+						return;
+					}
+					mPending.add(task);
+				}
+				mExecutor.schedule(ScraperQueue.this);
+			}
+
+		}, delayMillis);
+	}
+
+	/**
+	 * Executes after each task of this queue has finished (on the thread that has run the task)
+	 *
+	 * @param r the task that has finished
+	 * @param t the exception that has terminated the task or `null`
+	 */
+	protected void afterExecute(Runnable r, Throwable t) { }
+
+	/** Runs the given task on the current (shared) thread */
+	void runTask(Runnable task) {
+		final Thread thread = Thread.currentThread();
+		synchronized (mExecutor.mLock) {
+			mRunning.add(thread);
+		}
+		Throwable thrown = null;
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) {
+			thrown = e;
+			throw e;
+		}
+		catch (Error e) {
+			thrown = e;
+			throw e;
+		}
+		finally {
+			try {
+				afterExecute(task, thrown);
+			}
+			finally {
+				synchronized (mExecutor.mLock) {
+					mRunning.remove(thread);
+					mExecutor.mLock.notifyAll();
+				}
+				// an interrupt that was meant for this queue must not affect the next task on the shared thread
+				Thread.interrupted();
+			}
+		}
+	}
+
+}
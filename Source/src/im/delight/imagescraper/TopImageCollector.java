@@ -0,0 +1,257 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Keeps only the best K images of all probe results in a fixed-size min-heap so that rejected and dominated images are dropped as soon as they arrive
+ * <p>
+ * Images are ranked by the score of an ImageScorer (e.g. their file size or their number of pixels) and then by their file size
+ * <p>
+ * This class is thread-safe
+ */
+public class TopImageCollector {
+
+	/** The capacity to use if all accepted images should be kept */
+	public static final int UNBOUNDED = 0;
+	private static final int INITIAL_UNBOUNDED_CAPACITY = 16;
+	private final int mCapacity;
+	private final ImageScorer mScorer;
+	/** The primary rank of every image in the heap (its score) */
+	private long[] mScores;
+	/** The secondary rank of every image in the heap (its file size) */
+	private long[] mTieBreakers;
+	private ImageURL[] mImages;
+	private int mSize;
+	private int mRejectedCount;
+	private int mDroppedCount;
+
+	/**
+	 * Constructs a new collector
+	 *
+	 * @param capacity the number of images to keep or `UNBOUNDED`
+	 * @param byDimensions whether to rank images by their number of pixels instead of their file size
+	 */
+	public TopImageCollector(int capacity, boolean byDimensions) {
+		this(capacity, byDimensions ? ImageScorer.PIXEL_COUNT : ImageScorer.FILE_SIZE);
+	}
+
+	/**
+	 * Constructs a new collector
+	 *
+	 * @param capacity the number of images to keep or `UNBOUNDED`
+	 * @param scorer the function that images are ranked by
+	 */
+	public TopImageCollector(int capacity, ImageScorer scorer) {
+		mCapacity = capacity;
+		mScorer = scorer;
+		final int initialCapacity = capacity == UNBOUNDED ? INITIAL_UNBOUNDED_CAPACITY : capacity;
+		mScores = new long[initialCapacity];
+		mTieBreakers = new long[initialCapacity];
+		mImages = new ImageURL[initialCapacity];
+	}
+
+	/**
+	 * Adds the given probe result unless it has been rejected or is dominated by the images collected so far
+	 *
+	 * @param image the probe result to add
+	 * @return whether the image has been kept (for now)
+	 */
+	public synchronized boolean add(ImageURL image) {
+		if (image.getFileSize() <= 0) {
+			mRejectedCount++;
+			return false;
+		}
+		final long score = mScorer.getScore(image);
+		final long tieBreaker = image.getFileSize();
+		if (mSize < mImages.length) {
+			mScores[mSize] = score;
+			mTieBreakers[mSize] = tieBreaker;
+			mImages[mSize] = image;
+			siftUp(mSize++);
+			return true;
+		}
+		if (mCapacity == UNBOUNDED) {
+			final int newCapacity = mImages.length*2;
+			mScores = Arrays.copyOf(mScores, newCapacity);
+			mTieBreakers = Arrays.copyOf(mTieBreakers, newCapacity);
+			mImages = Arrays.copyOf(mImages, newCapacity);
+			return add(image);
+		}
+		// the heap is full so the new image must beat the smallest one that has been kept
+		if (score < mScores[0] || (score == mScores[0] && tieBreaker <= mTieBreakers[0])) {
+			mDroppedCount++;
+			return false;
+		}
+		mScores[0] = score;
+		mTieBreakers[0] = tieBreaker;
+		mImages[0] = image;
+		mDroppedCount++;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Removes the image with the given URL (e.g. because a better variant of the same image has been found)
+	 *
+	 * @param url the URL of the image
+	 * @return whether the image has been kept until now
+	 */
+	public synchronized boolean remove(String url) {
+		for (int i = 0; i < mSize; i++) {
+			if (mImages[i].getURL().equals(url)) {
+				mSize--;
+				if (i < mSize) {
+					mScores[i] = mScores[mSize];
+					mTieBreakers[i] = mTieBreakers[mSize];
+					mImages[i] = mImages[mSize];
+					siftDown(i);
+					siftUp(i);
+				}
+				mImages[mSize] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of probe results that have been rejected because the image could not be accessed or did not meet the requirements
+	 *
+	 * @return the number of rejected images
+	 */
+	public synchronized int getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	/**
+	 * Returns the number of accepted images that have been dropped because enough better images have been found
+	 *
+	 * @return the number of dropped images
+	 */
+	public synchronized int getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Returns the collected images in the order of their rank (best images first)
+	 *
+	 * @return the collected images
+	 */
+	public synchronized List<ImageURL> toList() {
+		final List<ImageURL> out = new ArrayList<ImageURL>(mSize);
+		final PriorityBlockingQueue<ImageURL> queue = toQueue();
+		ImageURL image;
+		while ((image = queue.poll()) != null) {
+			out.add(image);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the collected images in a queue that is ordered by their rank (best images first)
+	 *
+	 * @return the collected images
+	 */
+	public synchronized PriorityBlockingQueue<ImageURL> toQueue() {
+		final PriorityBlockingQueue<ImageURL> queue = new PriorityBlockingQueue<ImageURL>(Math.max(mSize, 1), createComparator(mScorer));
+		for (int i = 0; i < mSize; i++) {
+			queue.add(mImages[i]);
+		}
+		return queue;
+	}
+
+	/**
+	 * Creates a comparator that sorts images by the score of the given scorer and then by their file size (both in descending order)
+	 *
+	 * @param scorer the function that images are ranked by
+	 * @return the comparator
+	 */
+	public static Comparator<ImageURL> createComparator(final ImageScorer scorer) {
+		return new Comparator<ImageURL>() {
+
+			@Override
+			public int compare(ImageURL a, ImageURL b) {
+				if (a.equals(b)) {
+					return 0;
+				}
+				final long scoreA = scorer.getScore(a);
+				final long scoreB = scorer.getScore(b);
+				if (scoreA != scoreB) {
+					return scoreA > scoreB ? -1 : 1;
+				}
+				else if (a.getFileSize() != b.getFileSize()) {
+					return a.getFileSize() > b.getFileSize() ? -1 : 1;
+				}
+				else {
+					return 0;
+				}
+			}
+
+		};
+	}
+
+	private boolean isLess(int i, int j) {
+		return mScores[i] < mScores[j] || (mScores[i] == mScores[j] && mTieBreakers[i] < mTieBreakers[j]);
+	}
+
+	private void swap(int i, int j) {
+		final long score = mScores[i];
+		mScores[i] = mScores[j];
+		mScores[j] = score;
+		final long tieBreaker = mTieBreakers[i];
+		mTieBreakers[i] = mTieBreakers[j];
+		mTieBreakers[j] = tieBreaker;
+		final ImageURL image = mImages[i];
+		mImages[i] = mImages[j];
+		mImages[j] = image;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			final int parent = (i-1)/2;
+			if (!isLess(i, parent)) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			final int left = 2*i+1;
+			if (left >= mSize) {
+				return;
+			}
+			int smallest = left;
+			if (left+1 < mSize && isLess(left+1, left)) {
+				smallest = left+1;
+			}
+			if (!isLess(smallest, i)) {
+				return;
+			}
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces absolute URLs to a canonical key so that different spellings of the same image (and optionally its resized variants on image CDNs) are only probed once
+ * <p>
+ * The key ignores the scheme of HTTP(S) URLs, the case of the scheme and host, default ports, dot segments, the fragment and the case of percent-encodings
+ * <p>
+ * Variants of the same image are grouped by rules that remove query parameters (e.g. `?w=300`) and parts of the path (e.g. `-300x200` before the file extension)
+ * <p>
+ * The rules must be configured before the instance is used, after which it is thread-safe
+ */
+public class URLCanonicalizer {
+
+	/** The query parameters that image CDNs commonly use to resize or re-encode the same image */
+	private static final String[] DEFAULT_IGNORED_PARAMETERS = { "w", "h", "width", "height", "resize", "fit", "crop", "quality", "q", "dpr", "auto", "zoom", "strip" };
+	/** The parts of paths that image CDNs and CMSs commonly use for resized variants of the same image */
+	private static final String[] DEFAULT_PATH_RULES = {
+		"-\\d{2,4}x\\d{2,4}(?=\\.[a-z]+$)", // WordPress, e.g. `photo-300x200.jpg`
+		"@\\d(?:\\.\\d+)?x(?=\\.[a-z]+$)", // high-density variants, e.g. `photo@2x.jpg`
+		"(?<=/upload)(?:/[a-z]{1,3}_[^/]+)+(?=/)" // Cloudinary transformations, e.g. `/upload/w_300,c_fill/`
+	};
+	private static URLCanonicalizer mDefaultInstance;
+	private final HashSet<String> mIgnoredParameters;
+	private final ArrayList<Pattern> mPathRules;
+	private boolean mIgnoreScheme = true;
+
+	/**
+	 * Returns the canonicalizer with the default rules that is shared across the whole process
+	 *
+	 * @return the shared canonicalizer
+	 */
+	public static synchronized URLCanonicalizer getDefault() {
+		if (mDefaultInstance == null) {
+			mDefaultInstance = new URLCanonicalizer(true);
+		}
+		return mDefaultInstance;
+	}
+
+	/**
+	 * Constructs a new canonicalizer
+	 *
+	 * @param defaultRules whether to group the variants of images on common image CDNs (otherwise only different spellings of the same URL are grouped)
+	 */
+	public URLCanonicalizer(boolean defaultRules) {
+		mIgnoredParameters = new HashSet<String>();
+		mPathRules = new ArrayList<Pattern>();
+		if (defaultRules) {
+			for (String parameter : DEFAULT_IGNORED_PARAMETERS) {
+				addIgnoredParameter(parameter);
+			}
+			for (String rule : DEFAULT_PATH_RULES) {
+				addPathRule(rule);
+			}
+		}
+	}
+
+	/**
+	 * Sets whether `http` and `https` URLs of the same resource are considered equal (enabled by default)
+	 *
+	 * @param ignoreScheme whether to ignore the scheme
+	 */
+	public void setIgnoreScheme(boolean ignoreScheme) {
+		mIgnoreScheme = ignoreScheme;
+	}
+
+	/**
+	 * Adds a query parameter that does not change the identity of an image (e.g. because it only selects the size)
+	 *
+	 * @param name the name of the parameter (case-insensitive)
+	 */
+	public void addIgnoredParameter(String name) {
+		mIgnoredParameters.add(name.toLowerCase(Locale.US));
+	}
+
+	/**
+	 * Adds a regular expression whose matches are removed from the path because they do not change the identity of an image
+	 *
+	 * @param regex the regular expression (case-insensitive)
+	 */
+	public void addPathRule(String regex) {
+		mPathRules.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+	}
+
+	/**
+	 * Returns a key that is equal for all canonicalizers with the same rules so that results that depend on them can be shared
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		final StringBuilder out = new StringBuilder();
+		out.append(mIgnoreScheme);
+		final ArrayList<String> parameters = new ArrayList<String>(mIgnoredParameters);
+		Collections.sort(parameters);
+		for (String parameter : parameters) {
+			out.append('&').append(parameter);
+		}
+		for (Pattern rule : mPathRules) {
+			out.append(' ').append(rule.pattern());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Returns the canonical key for the given absolute URL
+	 *
+	 * @param url the absolute URL
+	 * @return the key that is equal for all spellings and variants of the same image
+	 */
+	public String canonicalize(String url) {
+		final URLResolver.Components components = URLResolver.parse(url);
+		final boolean http = "http".equals(components.mScheme) || "https".equals(components.mScheme);
+		if (http && mIgnoreScheme) {
+			components.mScheme = null;
+		}
+		if (components.mAuthority != null) {
+			components.mAuthority = normalizeAuthority(components.mAuthority, components.mScheme, http && mIgnoreScheme);
+		}
+
+		// NORMALIZE PATH BEGIN
+		String path = normalizePercentEncoding(URLResolver.removeDotSegments(components.mPath));
+		if (path.length() == 0 && components.mAuthority != null) {
+			path = "/";
+		}
+		for (Pattern rule : mPathRules) {
+			path = rule.matcher(path).replaceAll("");
+		}
+		components.mPath = path;
+		// NORMALIZE PATH END
+
+		// NORMALIZE QUERY BEGIN
+		if (components.mQuery != null) {
+			final StringBuilder query = new StringBuilder(components.mQuery.length());
+			for (String parameter : components.mQuery.split("&")) {
+				if (parameter.length() == 0) {
+					continue;
+				}
+				final int equals = parameter.indexOf('=');
+				final String name = equals < 0 ? parameter : parameter.substring(0, equals);
+				if (!mIgnoredParameters.contains(name.toLowerCase(Locale.US))) {
+					if (query.length() > 0) {
+						query.append('&');
+					}
+					query.append(normalizePercentEncoding(parameter));
+				}
+			}
+			components.mQuery = query.length() > 0 ? query.toString() : null;
+		}
+		// NORMALIZE QUERY END
+
+		components.mFragment = null;
+		return components.toString();
+	}
+
+	/**
+	 * Returns whether the given absolute URL points to a resized or re-encoded variant of an image according to the rules (rather than to the full-size image)
+	 *
+	 * @param url the absolute URL
+	 * @return whether a rule matches the URL
+	 */
+	public boolean isVariant(String url) {
+		final URLResolver.Components components = URLResolver.parse(url);
+		final String path = normalizePercentEncoding(URLResolver.removeDotSegments(components.mPath));
+		for (Pattern rule : mPathRules) {
+			if (rule.matcher(path).find()) {
+				return true;
+			}
+		}
+		if (components.mQuery != null) {
+			for (String parameter : components.mQuery.split("&")) {
+				final int equals = parameter.indexOf('=');
+				final String name = equals < 0 ? parameter : parameter.substring(0, equals);
+				if (mIgnoredParameters.contains(name.toLowerCase(Locale.US))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Converts the host to lower case and removes its trailing dot as well as the default port of the scheme */
+	private static String normalizeAuthority(String authority, String scheme, boolean anyHttpScheme) {
+		final int at = authority.lastIndexOf('@');
+		final String userInfo = at < 0 ? "" : authority.substring(0, at+1);
+		String hostAndPort = authority.substring(at+1).toLowerCase(Locale.US);
+		final int colon = hostAndPort.lastIndexOf(':');
+		if (colon >= 0 && colon > hostAndPort.lastIndexOf(']')) { // not a colon inside of an IPv6 address
+			final String port = hostAndPort.substring(colon+1);
+			if (port.length() == 0 || (port.equals("80") && (anyHttpScheme || "http".equals(scheme))) || (port.equals("443") && (anyHttpScheme || "https".equals(scheme)))) {
+				hostAndPort = hostAndPort.substring(0, colon);
+			}
+		}
+		if (hostAndPort.endsWith(".")) {
+			hostAndPort = hostAndPort.substring(0, hostAndPort.length()-1);
+		}
+		return userInfo+hostAndPort;
+	}
+
+	/** Converts all percent-encodings to upper case and decodes those of unreserved characters (RFC 3986, section 6.2.2) */
+	private static String normalizePercentEncoding(String value) {
+		if (value.indexOf('%') < 0) {
+			return value;
+		}
+		final StringBuilder out = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '%' && i+2 < value.length() && Character.digit(value.charAt(i+1), 16) >= 0 && Character.digit(value.charAt(i+2), 16) >= 0) {
+				final char decoded = (char) (Character.digit(value.charAt(i+1), 16) * 16 + Character.digit(value.charAt(i+2), 16));
+				if ((decoded >= 'a' && decoded <= 'z') || (decoded >= 'A' && decoded <= 'Z') || (decoded >= '0' && decoded <= '9') || decoded == '-' || decoded == '.' || decoded == '_' || decoded == '~') {
+					out.append(decoded);
+				}
+				else {
+					out.append('%').append(Character.toUpperCase(value.charAt(i+1))).append(Character.toUpperCase(value.charAt(i+2)));
+				}
+				i += 2;
+			}
+			else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+}
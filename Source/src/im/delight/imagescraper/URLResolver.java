@@ -0,0 +1,346 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Locale;
+
+/** Resolves URL references against a base URL as defined by RFC 3986 (section 5) and decodes the character references that HTML documents use inside of URLs */
+public class URLResolver {
+
+	private URLResolver() { }
+
+	/** The five components of a URL reference as defined by RFC 3986 (section 3), where undefined components are `null` */
+	static class Components {
+
+		String mScheme;
+		String mAuthority;
+		String mPath;
+		String mQuery;
+		String mFragment;
+
+		/** Recomposes the components as defined by RFC 3986 (section 5.3) */
+		@Override
+		public String toString() {
+			final StringBuilder out = new StringBuilder();
+			if (mScheme != null) {
+				out.append(mScheme).append(':');
+			}
+			if (mAuthority != null) {
+				out.append("//").append(mAuthority);
+			}
+			out.append(mPath);
+			if (mQuery != null) {
+				out.append('?').append(mQuery);
+			}
+			if (mFragment != null) {
+				out.append('#').append(mFragment);
+			}
+			return out.toString();
+		}
+
+	}
+
+	/**
+	 * Resolves the given reference (as it has been found in an HTML document) against the given base URL
+	 * <p>
+	 * Character references (e.g. `&amp;`) are decoded first, and protocol-relative references inherit the scheme of the base URL
+	 *
+	 * @param baseURL the absolute base URL (e.g. the URL of the web page)
+	 * @param reference the absolute or relative reference
+	 * @return the absolute URL
+	 */
+	public static String resolve(String baseURL, String reference) {
+		final Components base = parse(baseURL);
+		final Components ref = parse(stripWhitespace(decodeEntities(reference)));
+		final Components target = new Components();
+
+		// TRANSFORM REFERENCES (RFC 3986, SECTION 5.2.2) BEGIN
+		if (ref.mScheme != null) {
+			target.mScheme = ref.mScheme;
+			target.mAuthority = ref.mAuthority;
+			target.mPath = removeDotSegments(ref.mPath);
+			target.mQuery = ref.mQuery;
+		}
+		else {
+			if (ref.mAuthority != null) {
+				target.mAuthority = ref.mAuthority;
+				target.mPath = removeDotSegments(ref.mPath);
+				target.mQuery = ref.mQuery;
+			}
+			else {
+				if (ref.mPath.length() == 0) {
+					target.mPath = base.mPath;
+					target.mQuery = ref.mQuery != null ? ref.mQuery : base.mQuery;
+				}
+				else {
+					if (ref.mPath.startsWith("/")) {
+						target.mPath = removeDotSegments(ref.mPath);
+					}
+					else {
+						target.mPath = removeDotSegments(merge(base, ref.mPath));
+					}
+					target.mQuery = ref.mQuery;
+				}
+				target.mAuthority = base.mAuthority;
+			}
+			target.mScheme = base.mScheme;
+		}
+		target.mFragment = ref.mFragment;
+		// TRANSFORM REFERENCES (RFC 3986, SECTION 5.2.2) END
+
+		if (target.mAuthority != null && target.mPath.length() == 0) {
+			target.mPath = "/";
+		}
+		return target.toString();
+	}
+
+	/**
+	 * Splits the given URL reference into its components (RFC 3986, appendix B)
+	 *
+	 * @param url the URL reference
+	 * @return the components
+	 */
+	static Components parse(String url) {
+		final Components out = new Components();
+		final int length = url.length();
+		int i = 0;
+
+		// the scheme is only present if the first colon appears before any slash, question mark or hash
+		int schemeEnd = -1;
+		for (int k = 0; k < length; k++) {
+			final char c = url.charAt(k);
+			if (c == ':') {
+				schemeEnd = k;
+				break;
+			}
+			else if (c == '/' || c == '?' || c == '#') {
+				break;
+			}
+		}
+		if (schemeEnd > 0 && isScheme(url, schemeEnd)) {
+			out.mScheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+			i = schemeEnd+1;
+		}
+
+		if (url.startsWith("//", i)) {
+			final int authorityStart = i+2;
+			i = authorityStart;
+			while (i < length && url.charAt(i) != '/' && url.charAt(i) != '?' && url.charAt(i) != '#') {
+				i++;
+			}
+			out.mAuthority = url.substring(authorityStart, i);
+		}
+
+		final int pathStart = i;
+		while (i < length && url.charAt(i) != '?' && url.charAt(i) != '#') {
+			i++;
+		}
+		out.mPath = url.substring(pathStart, i);
+
+		if (i < length && url.charAt(i) == '?') {
+			final int queryStart = i+1;
+			i = queryStart;
+			while (i < length && url.charAt(i) != '#') {
+				i++;
+			}
+			out.mQuery = url.substring(queryStart, i);
+		}
+
+		if (i < length && url.charAt(i) == '#') {
+			out.mFragment = url.substring(i+1);
+		}
+		return out;
+	}
+
+	/** Merges a relative path with the path of the base URL (RFC 3986, section 5.2.3) */
+	private static String merge(Components base, String path) {
+		if (base.mAuthority != null && base.mPath.length() == 0) {
+			return "/"+path;
+		}
+		final int lastSlash = base.mPath.lastIndexOf('/');
+		if (lastSlash < 0) {
+			return path;
+		}
+		return base.mPath.substring(0, lastSlash+1)+path;
+	}
+
+	/**
+	 * Removes the special `.` and `..` segments from the given path (RFC 3986, section 5.2.4)
+	 *
+	 * @param path the path to normalize
+	 * @return the path without dot segments
+	 */
+	static String removeDotSegments(String path) {
+		if (path.indexOf('.') < 0) {
+			return path;
+		}
+		final StringBuilder out = new StringBuilder(path.length());
+		String in = path;
+		while (in.length() > 0) {
+			if (in.startsWith("../")) {
+				in = in.substring(3);
+			}
+			else if (in.startsWith("./")) {
+				in = in.substring(2);
+			}
+			else if (in.startsWith("/./")) {
+				in = in.substring(2);
+			}
+			else if (in.equals("/.")) {
+				in = "/";
+			}
+			else if (in.startsWith("/../")) {
+				in = in.substring(3);
+				removeLastSegment(out);
+			}
+			else if (in.equals("/..")) {
+				in = "/";
+				removeLastSegment(out);
+			}
+			else if (in.equals(".") || in.equals("..")) {
+				in = "";
+			}
+			else {
+				// move the first segment (including its initial slash, if any) to the output
+				int segmentEnd = in.indexOf('/', in.startsWith("/") ? 1 : 0);
+				if (segmentEnd < 0) {
+					segmentEnd = in.length();
+				}
+				out.append(in, 0, segmentEnd);
+				in = in.substring(segmentEnd);
+			}
+		}
+		return out.toString();
+	}
+
+	private static void removeLastSegment(StringBuilder out) {
+		final int lastSlash = out.lastIndexOf("/");
+		out.setLength(lastSlash < 0 ? 0 : lastSlash);
+	}
+
+	private static boolean isScheme(String url, int end) {
+		if (!isLetter(url.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < end; i++) {
+			final char c = url.charAt(i);
+			if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/** Removes leading and trailing whitespace as well as tabs and line breaks inside of the URL (which browsers ignore as well) */
+	private static String stripWhitespace(String url) {
+		final String trimmed = url.trim();
+		if (trimmed.indexOf('\t') < 0 && trimmed.indexOf('\n') < 0 && trimmed.indexOf('\r') < 0) {
+			return trimmed;
+		}
+		final StringBuilder out = new StringBuilder(trimmed.length());
+		for (int i = 0; i < trimmed.length(); i++) {
+			final char c = trimmed.charAt(i);
+			if (c != '\t' && c != '\n' && c != '\r') {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Decodes the character references in the given attribute value (e.g. `&amp;`, `&#38;` or `&#x26;`)
+	 * <p>
+	 * Only the named references that commonly appear in URLs are supported, all other references are kept as they are
+	 *
+	 * @param value the value to decode
+	 * @return the decoded value
+	 */
+	public static String decodeEntities(String value) {
+		int ampersand = value.indexOf('&');
+		if (ampersand < 0) {
+			return value;
+		}
+		final StringBuilder out = new StringBuilder(value.length());
+		int i = 0;
+		while (ampersand >= 0) {
+			out.append(value, i, ampersand);
+			final int semicolon = value.indexOf(';', ampersand+1);
+			final int decoded = semicolon < 0 || semicolon-ampersand > 10 ? -1 : decodeEntity(value.substring(ampersand+1, semicolon));
+			if (decoded >= 0) {
+				out.appendCodePoint(decoded);
+				i = semicolon+1;
+			}
+			else {
+				out.append('&');
+				i = ampersand+1;
+			}
+			ampersand = value.indexOf('&', i);
+		}
+		out.append(value, i, value.length());
+		return out.toString();
+	}
+
+	/**
+	 * Decodes a single character reference
+	 *
+	 * @param name the reference without the ampersand and the semicolon (e.g. `amp` or `#x26`)
+	 * @return the code point or `-1` if the reference is unknown
+	 */
+	private static int decodeEntity(String name) {
+		if (name.startsWith("#")) {
+			try {
+				final int codePoint;
+				if (name.startsWith("#x") || name.startsWith("#X")) {
+					codePoint = Integer.parseInt(name.substring(2), 16);
+				}
+				else {
+					codePoint = Integer.parseInt(name.substring(1));
+				}
+				return codePoint > 0 && codePoint <= Character.MAX_CODE_POINT ? codePoint : -1;
+			}
+			catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		else if (name.equals("amp")) {
+			return '&';
+		}
+		else if (name.equals("quot")) {
+			return '"';
+		}
+		else if (name.equals("apos")) {
+			return '\'';
+		}
+		else if (name.equals("lt")) {
+			return '<';
+		}
+		else if (name.equals("gt")) {
+			return '>';
+		}
+		else if (name.equals("nbsp")) {
+			return ' ';
+		}
+		else {
+			return -1;
+		}
+	}
+
+}
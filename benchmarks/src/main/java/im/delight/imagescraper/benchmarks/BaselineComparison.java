@@ -0,0 +1,150 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the CSV results of a JMH run (`-rf csv`) with a baseline and lists every metric that has become worse by more than a threshold
+ * <p>
+ * Only the primary score, the 99th percentile (`:p0.99`) and the allocations per operation (`:gc.alloc.rate.norm`) are compared
+ * <p>
+ * Usage: `java -cp target/benchmarks.jar im.delight.imagescraper.benchmarks.BaselineComparison <baseline.csv> <results.csv> [<threshold in percent>]`
+ * <p>
+ * The exit code is `1` if any metric has regressed and `0` otherwise
+ */
+public class BaselineComparison {
+
+	/** The default change (in percent) that is still considered noise */
+	private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+	/** The secondary metrics that are compared in addition to the primary score */
+	private static final String[] COMPARED_SECONDARY_METRICS = { ":p0.99", ":gc.alloc.rate.norm" };
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BaselineComparison <baseline.csv> <results.csv> [<threshold in percent>]");
+			System.exit(2);
+		}
+		final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+		final Map<String, String[]> baseline = read(args[0]);
+		final Map<String, String[]> results = read(args[1]);
+
+		int regressions = 0;
+		for (Map.Entry<String, String[]> result : results.entrySet()) {
+			final String[] previous = baseline.get(result.getKey());
+			if (previous == null) {
+				System.out.println("NEW        "+result.getKey());
+				continue;
+			}
+			final double before = Double.parseDouble(previous[4]);
+			final double after = Double.parseDouble(result.getValue()[4]);
+			if (before <= 0 || Double.isNaN(before) || Double.isNaN(after)) {
+				continue;
+			}
+			final String unit = result.getValue()[6];
+			// throughput is better when it is higher whereas time and allocations are better when they are lower
+			final boolean higherIsBetter = unit.startsWith("ops/");
+			final double change = (after-before) / before * 100;
+			final double worsening = higherIsBetter ? -change : change;
+			final String status = worsening > threshold ? "REGRESSED " : (-worsening > threshold ? "IMPROVED  " : "OK        ");
+			if (worsening > threshold) {
+				regressions++;
+			}
+			System.out.println(status+result.getKey()+String.format(Locale.US, ": %.3f -> %.3f %s (%+.1f%%)", before, after, unit, change));
+		}
+		System.out.println(regressions+" regression(s) above "+threshold+"%");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	/** Reads the compared rows of the given CSV file, keyed by benchmark, mode and parameters */
+	private static Map<String, String[]> read(String path) throws IOException {
+		final Map<String, String[]> rows = new LinkedHashMap<String, String[]>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+		try {
+			String line = reader.readLine(); // header
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = parseLine(line);
+				if (fields.length < 7 || !isCompared(fields[0])) {
+					continue;
+				}
+				final StringBuilder key = new StringBuilder();
+				key.append(fields[0]).append(" [").append(fields[1]);
+				for (int i = 7; i < fields.length; i++) {
+					if (fields[i].length() > 0) { // parameters that another benchmark of the same run has
+						key.append(", ").append(fields[i]);
+					}
+				}
+				key.append(']');
+				rows.put(key.toString(), fields);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return rows;
+	}
+
+	private static boolean isCompared(String benchmark) {
+		final int colon = benchmark.indexOf(':');
+		if (colon < 0) {
+			return true;
+		}
+		for (String metric : COMPARED_SECONDARY_METRICS) {
+			if (benchmark.substring(colon).equals(metric)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Splits a line of a CSV file into its fields (which may be quoted) */
+	private static String[] parseLine(String line) {
+		final List<String> fields = new ArrayList<String>();
+		final StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i+1 < line.length() && line.charAt(i+1) == '"') {
+					field.append('"');
+					i++;
+				}
+				else {
+					quoted = !quoted;
+				}
+			}
+			else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+}
@@ -0,0 +1,101 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.HtmlScanner;
+import im.delight.imagescraper.HtmlScannerCallback;
+import im.delight.imagescraper.ImageCandidate;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/** Loads the checked-in HTML snapshots that all benchmarks run on (from `src/main/resources/corpus`) */
+final class Corpus {
+
+	/** The URL that all snapshots pretend to have been downloaded from */
+	public static final String PAGE_URL = "https://www.example.com/news/2016/01/article.html";
+	/** The root of `PAGE_URL` (for the baseline's `ImageURLFinder`) */
+	public static final String ROOT_URL = "https://www.example.com/";
+	/** The directory of `PAGE_URL` (for the baseline's `ImageURLFinder`) */
+	public static final String BASE_URL = "https://www.example.com/news/2016/01/";
+
+	private Corpus() { }
+
+	/**
+	 * Returns the source of the snapshot with the given name
+	 *
+	 * @param name the name of the snapshot without its extension, e.g. `page-64k`
+	 * @return the HTML source
+	 * @throws IOException if the snapshot does not exist or cannot be read
+	 */
+	public static String load(String name) throws IOException {
+		final InputStream resource = Corpus.class.getResourceAsStream("/corpus/"+name+".html.gz");
+		if (resource == null) {
+			throw new IOException("Snapshot not found: "+name);
+		}
+		final InputStream in = new GZIPInputStream(resource);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toString("UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns all image candidates of the given source in the order in which they appear (with their URLs exactly as they are written)
+	 *
+	 * @param source the HTML source
+	 * @return the candidates
+	 * @throws IOException if the source cannot be scanned
+	 */
+	public static List<ImageCandidate> findCandidates(String source) throws IOException {
+		final List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+		new HtmlScanner(new HtmlScannerCallback() {
+
+			@Override
+			public void onBaseURL(String url) { }
+
+			@Override
+			public void onMetaTag(String property, String content) { }
+
+			@Override
+			public void onLinkTag(String rel, String href) { }
+
+			@Override
+			public void onImageURL(ImageCandidate candidate) {
+				candidates.add(candidate);
+			}
+
+			@Override
+			public void onHeadEnd() { }
+
+		}).scan(new StringReader(source));
+		return candidates;
+	}
+
+}
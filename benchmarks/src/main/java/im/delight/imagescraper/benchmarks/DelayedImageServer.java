@@ -0,0 +1,112 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP server on the loopback interface that answers every request for an image after a fixed delay, like a CDN with a constant latency
+ * <p>
+ * The responses are scheduled instead of being delayed on a thread of their own, so that the server needs only a few threads no matter how many requests are pending
+ */
+public class DelayedImageServer {
+
+	/** The size of every image that is served, which is accepted by the default `ImagePolicy` */
+	public static final int FILE_SIZE = 50000;
+	private final HttpServer mServer;
+	private final ScheduledExecutorService mScheduler;
+
+	/**
+	 * Starts a new server on a free port
+	 *
+	 * @param delayMillis the time that every response is delayed by
+	 * @throws IOException if the server could not be started
+	 */
+	public DelayedImageServer(final long delayMillis) throws IOException {
+		mScheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "DelayedImageServer");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+		mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 4096);
+		mServer.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) {
+				mScheduler.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						respond(exchange);
+					}
+
+				}, delayMillis, TimeUnit.MILLISECONDS);
+			}
+
+		});
+		mServer.setExecutor(mScheduler);
+		mServer.start();
+	}
+
+	/**
+	 * Returns the URL of the image with the given name
+	 *
+	 * @param name the file name of the image
+	 * @return the absolute URL
+	 */
+	public String getURL(String name) {
+		return "http://127.0.0.1:"+mServer.getAddress().getPort()+"/"+name;
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mScheduler.shutdownNow();
+	}
+
+	private static void respond(HttpExchange exchange) {
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				// the length of a response to a HEAD request must be set manually
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(FILE_SIZE));
+				exchange.sendResponseHeaders(200, -1);
+			}
+			else {
+				exchange.sendResponseHeaders(501, -1);
+			}
+		}
+		catch (IOException e) { } // the client has given up
+		finally {
+			exchange.close();
+		}
+	}
+
+}
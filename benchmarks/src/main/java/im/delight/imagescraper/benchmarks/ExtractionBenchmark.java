@@ -0,0 +1,105 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.HtmlScanner;
+import im.delight.imagescraper.HtmlScannerCallback;
+import im.delight.imagescraper.ImageCandidate;
+import im.delight.imagescraper.ImageURLFinder;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures how fast image URLs are extracted from web pages of different sizes */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	@Param({ "page-1k", "page-64k", "page-1m", "page-5m" })
+	public String mPage;
+	private String mSource;
+
+	@Setup
+	public void setUp() throws IOException {
+		mSource = Corpus.load(mPage);
+	}
+
+	/** Scanning, resolving, canonicalizing and de-duplicating as done by `ImageURLFinder.find()` */
+	@Benchmark
+	public void findImageURLs(Blackhole blackhole) {
+		for (String url : new ImageURLFinder(Corpus.PAGE_URL).find(mSource)) {
+			blackhole.consume(url);
+		}
+	}
+
+	/** Reversing the source and matching the reversed regular expression as done by the `ImageURLFinder` of the baseline */
+	@Benchmark
+	public void findImageURLsReversed(Blackhole blackhole) {
+		for (String url : new LegacyImageURLFinder(Corpus.ROOT_URL, Corpus.BASE_URL).find(mSource)) {
+			blackhole.consume(url);
+		}
+	}
+
+	/** Scanning only (tags, attributes, `srcset` and URLs in the text) without resolving the URLs */
+	@Benchmark
+	public long scanHtml(final Blackhole blackhole) throws IOException {
+		final HtmlScanner scanner = new HtmlScanner(new HtmlScannerCallback() {
+
+			@Override
+			public void onBaseURL(String url) {
+				blackhole.consume(url);
+			}
+
+			@Override
+			public void onMetaTag(String property, String content) {
+				blackhole.consume(content);
+			}
+
+			@Override
+			public void onLinkTag(String rel, String href) {
+				blackhole.consume(href);
+			}
+
+			@Override
+			public void onImageURL(ImageCandidate candidate) {
+				blackhole.consume(candidate);
+			}
+
+			@Override
+			public void onHeadEnd() { }
+
+		});
+		return scanner.scan(new StringReader(mSource));
+	}
+
+}
@@ -0,0 +1,84 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expressions that `ImageScraper` used to find the base URL and the OpenGraph meta tags before `HtmlTagParser` replaced them
+ * <p>
+ * Copied from the baseline version of `ImageScraper.run()` without any changes to the expressions, so that `MetaTagBenchmark` can compare both
+ */
+final class LegacyMetaTagExtractor {
+
+	/** RegEx that matches OpenGraph meta tags' property attributes */
+	private static final String REGEX_OPEN_GRAPH_TAG_PROPERTY = "property(\\s*)=(\\s*)([\"']{1})(og:[a-zA-Z0-9]+)([\"']{1})";
+	/** RegEx that matches OpenGraph meta tags' content attributes */
+	private static final String REGEX_OPEN_GRAPH_TAG_CONTENT = "content(\\s*)=(\\s*)([\"']{1})([^\"']+)([\"']{1})";
+	/** RegEx that matches the connection between OpenGraph property and content attributes */
+	private static final String REGEX_OPEN_GRAPH_TAG_SEPARATOR = "(\\s+)";
+	/** RegEx that finds complete OpenGraph meta tags (concatenation of the expressions above) */
+	private static final String REGEX_OPEN_GRAPH_TAG = "("+REGEX_OPEN_GRAPH_TAG_PROPERTY+REGEX_OPEN_GRAPH_TAG_SEPARATOR+REGEX_OPEN_GRAPH_TAG_CONTENT+"|"+REGEX_OPEN_GRAPH_TAG_CONTENT+REGEX_OPEN_GRAPH_TAG_SEPARATOR+REGEX_OPEN_GRAPH_TAG_PROPERTY+")";
+	/** RegEx that finds an optional base URL that may be set in an HTML document */
+	private static final String REGEX_BASE_HREF = "base(\\s*)href=([\\\"']{1})([^\\\"']+)([\\\"']{1})";
+
+	private LegacyMetaTagExtractor() { }
+
+	/**
+	 * Finds the base URL and the values of `og:url`, `og:title` and `og:image` in the given source (compiling both expressions on every call as `run()` did)
+	 *
+	 * @param responseStr the HTML source
+	 * @return the base URL (if any) followed by the OpenGraph values in the order in which they appear
+	 */
+	public static List<String> extract(String responseStr) {
+		final List<String> out = new ArrayList<String>();
+
+		// SEE IF HTML DOCUMENT HAS ANY BASE PATH SET BEGIN
+		final Pattern basePathRegex = Pattern.compile(REGEX_BASE_HREF);
+		final Matcher basePath = basePathRegex.matcher(responseStr);
+		if (basePath.find()) {
+			out.add(basePath.group(3));
+		}
+		// SEE IF HTML DOCUMENT HAS ANY BASE PATH SET END
+
+		// TRY TO FIND OPEN GRAPH META TAGS BEGIN
+		final Pattern openGraphTagRegex = Pattern.compile(REGEX_OPEN_GRAPH_TAG);
+		final Matcher openGraphTag = openGraphTagRegex.matcher(responseStr);
+		String[] propertyName = new String[2];
+		String[] propertyContent = new String[2];
+		while (openGraphTag.find()) {
+			propertyName[0] = openGraphTag.group(5);
+			propertyContent[0] = openGraphTag.group(11);
+			propertyName[1] = openGraphTag.group(22);
+			propertyContent[1] = openGraphTag.group(16);
+			for (int i = 0; i < 2; i++) {
+				if (propertyName[i] != null && !propertyName[i].equals("")) {
+					if (propertyName[i].equals("og:url") || propertyName[i].equals("og:title") || propertyName[i].equals("og:image")) {
+						out.add(propertyContent[i]);
+					}
+				}
+			}
+		}
+		// TRY TO FIND OPEN GRAPH META TAGS END
+
+		return out;
+	}
+
+}
@@ -0,0 +1,97 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.HtmlScanner;
+import im.delight.imagescraper.HtmlScannerCallback;
+import im.delight.imagescraper.ImageCandidate;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures how fast the base URL and the meta tags are found, with the regular expressions of the baseline and with `HtmlScanner` and `HtmlTagParser` */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetaTagBenchmark {
+
+	@Param({ "snapshot-nodejs-url", "snapshot-underscore", "page-64k", "page-1m" })
+	public String mPage;
+	private String mSource;
+
+	@Setup
+	public void setUp() throws IOException {
+		mSource = Corpus.load(mPage);
+	}
+
+	/** Both regular expressions of the baseline over the whole document */
+	@Benchmark
+	public void findWithRegex(Blackhole blackhole) {
+		for (String value : LegacyMetaTagExtractor.extract(mSource)) {
+			blackhole.consume(value);
+		}
+	}
+
+	/** Scanning until the end of the `head` section, where meta data is no longer collected */
+	@Benchmark
+	public long findWithScanner(final Blackhole blackhole) throws IOException {
+		final HtmlScanner[] scanner = new HtmlScanner[1];
+		scanner[0] = new HtmlScanner(new HtmlScannerCallback() {
+
+			@Override
+			public void onBaseURL(String url) {
+				blackhole.consume(url);
+			}
+
+			@Override
+			public void onMetaTag(String property, String content) {
+				blackhole.consume(content);
+			}
+
+			@Override
+			public void onLinkTag(String rel, String href) {
+				blackhole.consume(href);
+			}
+
+			@Override
+			public void onImageURL(ImageCandidate candidate) { }
+
+			@Override
+			public void onHeadEnd() {
+				scanner[0].stop();
+			}
+
+		});
+		return scanner[0].scan(new StringReader(mSource));
+	}
+
+}
@@ -0,0 +1,116 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.ImageChecker;
+import im.delight.imagescraper.ImageCheckerCallback;
+import im.delight.imagescraper.ImageURL;
+import im.delight.imagescraper.PooledHttpTransport;
+import im.delight.imagescraper.ScraperExecutor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time that the ImageChecker needs to probe all candidates of a web page on platform threads and on virtual threads, against a local server with a fixed latency
+ * <p>
+ * The connection limits of the transport and the `AdaptiveHostLimiter` are lifted so that only the number of probes that the executor runs at the same time makes a difference
+ * <p>
+ * The virtual backend needs Java 21+ and fails on older runtimes (which JMH reports before it continues with the platform backend)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProbeBackendBenchmark {
+
+	private static final String USER_AGENT = "ProbeBackendBenchmark";
+
+	@Param({ "platform", "virtual" })
+	public String mBackend;
+	@Param({ "10", "100", "1000" })
+	public int mCandidates;
+	/** The latency of the server for every probe */
+	@Param({ "50" })
+	public long mDelayMillis;
+	private DelayedImageServer mServer;
+	private ScraperExecutor mExecutor;
+	private PooledHttpTransport mTransport;
+	private List<String> mURLs;
+
+	@Setup
+	public void setUp() throws IOException {
+		final int probeThreadCount;
+		if (mBackend.equals("virtual")) {
+			probeThreadCount = ScraperExecutor.DEFAULT_VIRTUAL_PROBE_THREAD_COUNT;
+			mExecutor = new ScraperExecutor(ScraperExecutor.DEFAULT_MAX_CONCURRENT_SCRAPES, probeThreadCount, ScraperExecutor.BACKEND_VIRTUAL_THREADS);
+		}
+		else {
+			probeThreadCount = ScraperExecutor.DEFAULT_PROBE_THREAD_COUNT;
+			mExecutor = new ScraperExecutor(ScraperExecutor.DEFAULT_MAX_CONCURRENT_SCRAPES, probeThreadCount, ScraperExecutor.BACKEND_PLATFORM_THREADS);
+		}
+		if (mExecutor.isUsingVirtualThreads() != mBackend.equals("virtual")) {
+			throw new IllegalStateException("The executor does not run on the requested backend: "+mBackend);
+		}
+		mTransport = new PooledHttpTransport(probeThreadCount, probeThreadCount);
+		mServer = new DelayedImageServer(mDelayMillis);
+		mURLs = new ArrayList<String>();
+		for (int i = 0; i < mCandidates; i++) {
+			mURLs.add(mServer.getURL("image-"+i+".jpg"));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		mServer.stop();
+	}
+
+	/** Probing all candidates of a single web page until the ImageChecker has finished */
+	@Benchmark
+	public List<ImageURL> probePage() {
+		final ImageChecker checker = new ImageChecker(new ImageCheckerCallback() {
+
+			@Override
+			public void onImageCheckerFinished(PriorityBlockingQueue<ImageURL> imageURLs) { }
+
+		}, USER_AGENT, mTransport, mExecutor);
+		checker.setHostLimiter(null);
+		checker.start(mURLs);
+		final List<ImageURL> images = checker.getImageURLs();
+		if (images.size() != mCandidates || images.get(0).getFileSize() != DelayedImageServer.FILE_SIZE) {
+			throw new IllegalStateException("Only "+images.size()+" of "+mCandidates+" candidates have been probed successfully");
+		}
+		return images;
+	}
+
+}
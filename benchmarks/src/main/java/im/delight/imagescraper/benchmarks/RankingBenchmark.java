@@ -0,0 +1,126 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.CandidateRanker;
+import im.delight.imagescraper.ImageCandidate;
+import im.delight.imagescraper.ImageCheckerTask;
+import im.delight.imagescraper.ImageScraper;
+import im.delight.imagescraper.ImageScraperResult;
+import im.delight.imagescraper.ImageURL;
+import im.delight.imagescraper.TopImageCollector;
+import im.delight.imagescraper.URLCanonicalizer;
+import im.delight.imagescraper.URLResolver;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the top-K selection of candidates (before probing) and of probed images (after probing) for all candidates of a web page */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RankingBenchmark {
+
+	/** The number of images that are requested from the scrape */
+	private static final int IMAGES_REQUESTED = 5;
+	/** The seed for the simulated file sizes so that every run ranks the same images */
+	private static final long SEED = 42;
+
+	@Param({ "page-64k", "page-1m" })
+	public String mPage;
+	private ImageCandidate[] mCandidates;
+	private String[] mURLs;
+	private String[] mKeys;
+	/** The distinct candidates after they have been probed (every URL is probed once), with simulated file sizes and dimensions */
+	private ImageURL[] mImages;
+
+	@Setup
+	public void setUp() throws IOException {
+		final List<ImageCandidate> candidates = Corpus.findCandidates(Corpus.load(mPage));
+		final URLCanonicalizer canonicalizer = new URLCanonicalizer(true);
+		final Random random = new Random(SEED);
+		mCandidates = candidates.toArray(new ImageCandidate[candidates.size()]);
+		mURLs = new String[mCandidates.length];
+		mKeys = new String[mCandidates.length];
+		final Set<String> distinctURLs = new LinkedHashSet<String>();
+		for (int i = 0; i < mCandidates.length; i++) {
+			mURLs[i] = URLResolver.resolve(Corpus.PAGE_URL, mCandidates[i].getURL());
+			mKeys[i] = canonicalizer.canonicalize(mURLs[i]);
+			distinctURLs.add(mURLs[i]);
+		}
+		mImages = new ImageURL[distinctURLs.size()];
+		int i = 0;
+		for (String url : distinctURLs) {
+			mImages[i++] = new ImageURL(url, 1000+random.nextInt(500000), ImageCheckerTask.PROBE_METHOD_HEAD, 16+random.nextInt(2000), 16+random.nextInt(2000));
+		}
+	}
+
+	/** Ranking all candidates by their markup to pick the ones that are probed (see `ImageScraper.setMaxCandidates()`) */
+	@Benchmark
+	public List<String> rankCandidates() {
+		final CandidateRanker ranker = new CandidateRanker(ImageScraper.DEFAULT_MAX_CANDIDATES);
+		for (int i = 0; i < mCandidates.length; i++) {
+			ranker.add(mURLs[i], mKeys[i], mCandidates[i]);
+		}
+		return ranker.getTopURLs();
+	}
+
+	/** Keeping the best probed images in a bounded heap while the probes finish */
+	@Benchmark
+	public List<ImageURL> collectTopImages() {
+		final TopImageCollector collector = new TopImageCollector(IMAGES_REQUESTED, false);
+		for (ImageURL image : mImages) {
+			collector.add(image);
+		}
+		return collector.toList();
+	}
+
+	/** Sorting all probed images with `ImageURL.COMPARATOR` and filling the result (as a reference for the bounded heap) */
+	@Benchmark
+	public ImageScraperResult sortAndFillResult() {
+		final List<ImageURL> images = new ArrayList<ImageURL>(Arrays.asList(mImages));
+		Collections.sort(images, ImageURL.COMPARATOR);
+		final ImageScraperResult result = new ImageScraperResult(Corpus.PAGE_URL, "", IMAGES_REQUESTED);
+		for (ImageURL image : images) {
+			if (!result.hasImageURL(image.getURL()) && !result.addImageURL(image.getURL())) {
+				break;
+			}
+		}
+		return result;
+	}
+
+}
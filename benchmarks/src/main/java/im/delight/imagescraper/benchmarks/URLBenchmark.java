@@ -0,0 +1,78 @@
+package im.delight.imagescraper.benchmarks;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import im.delight.imagescraper.ImageCandidate;
+import im.delight.imagescraper.URLCanonicalizer;
+import im.delight.imagescraper.URLResolver;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures how fast the URLs found in a typical article are resolved and canonicalized (one operation covers all URLs of the page) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLBenchmark {
+
+	/** The URLs exactly as they are written in the page (relative, protocol-relative, with `../` and character references) */
+	private String[] mReferences;
+	/** The same URLs after they have been resolved */
+	private String[] mAbsoluteURLs;
+	private URLCanonicalizer mCanonicalizer;
+
+	@Setup
+	public void setUp() throws IOException {
+		final List<ImageCandidate> candidates = Corpus.findCandidates(Corpus.load("page-64k"));
+		mReferences = new String[candidates.size()];
+		mAbsoluteURLs = new String[candidates.size()];
+		for (int i = 0; i < mReferences.length; i++) {
+			mReferences[i] = candidates.get(i).getURL();
+			mAbsoluteURLs[i] = URLResolver.resolve(Corpus.PAGE_URL, mReferences[i]);
+		}
+		mCanonicalizer = new URLCanonicalizer(true);
+	}
+
+	@Benchmark
+	public void resolve(Blackhole blackhole) {
+		for (String reference : mReferences) {
+			blackhole.consume(URLResolver.resolve(Corpus.PAGE_URL, reference));
+		}
+	}
+
+	@Benchmark
+	public void canonicalize(Blackhole blackhole) {
+		for (String url : mAbsoluteURLs) {
+			blackhole.consume(mCanonicalizer.canonicalize(url));
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveHostLimiterTest {
+
+	private static final String HOST = "www.example.com";
+	private static final long FAST_MILLIS = 10;
+	private AdaptiveHostLimiter mLimiter;
+
+	@Before
+	public void createLimiter() {
+		mLimiter = new AdaptiveHostLimiter();
+		mLimiter.setLimits(2, 4);
+		mLimiter.setSlowLatency(1000);
+		mLimiter.setCircuitBreaker(3, 60000);
+	}
+
+	/** Runs a single probe of the host with the given outcome */
+	private void probe(long latencyMillis, boolean failed) {
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		mLimiter.release(HOST, latencyMillis, failed, false);
+	}
+
+	@Test
+	public void rejectsProbesBeyondTheLimit() {
+		assertEquals(2, mLimiter.getLimit(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_BUSY, mLimiter.tryAcquire(HOST));
+		mLimiter.releaseUnused(HOST, false);
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		assertEquals(2, mLimiter.getLimit(HOST));
+	}
+
+	@Test
+	public void growsTheLimitByOneForEveryLimitSuccesses() {
+		probe(FAST_MILLIS, false);
+		probe(FAST_MILLIS, false);
+		assertEquals(2, mLimiter.getLimit(HOST)); // 2.9
+		probe(FAST_MILLIS, false);
+		assertEquals(3, mLimiter.getLimit(HOST));
+		for (int i = 0; i < 100; i++) {
+			probe(FAST_MILLIS, false);
+		}
+		assertEquals(4, mLimiter.getLimit(HOST));
+	}
+
+	@Test
+	public void halvesTheLimitOnEveryFailure() {
+		mLimiter.setLimits(4, 16);
+		probe(FAST_MILLIS, true);
+		assertEquals(2, mLimiter.getLimit(HOST));
+		probe(FAST_MILLIS, true);
+		assertEquals(1, mLimiter.getLimit(HOST));
+	}
+
+	@Test
+	public void shrinksTheLimitGentlyOnSlowResponses() {
+		mLimiter.setLimits(4, 16);
+		probe(5000, false);
+		assertEquals(3, mLimiter.getLimit(HOST)); // 3.6
+		probe(5000, false);
+		assertEquals(3, mLimiter.getLimit(HOST)); // 3.24
+	}
+
+	@Test
+	public void opensTheCircuitAfterConsecutiveFailuresOnly() {
+		mLimiter.setLimits(16, 16);
+		probe(FAST_MILLIS, true);
+		probe(FAST_MILLIS, true);
+		probe(FAST_MILLIS, false);
+		probe(FAST_MILLIS, true);
+		probe(FAST_MILLIS, true);
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		mLimiter.release(HOST, FAST_MILLIS, true, false);
+		assertEquals(0, mLimiter.getLimit(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+	}
+
+	@Test
+	public void letsASingleTrialThroughOnceTheCircuitHasBeenOpenLongEnough() throws Exception {
+		mLimiter.setCircuitBreaker(1, 50);
+		probe(FAST_MILLIS, true);
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+		Thread.sleep(100);
+		assertEquals(AdaptiveHostLimiter.RESULT_TRIAL, mLimiter.tryAcquire(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+		mLimiter.release(HOST, FAST_MILLIS, false, true);
+		assertEquals(2, mLimiter.getLimit(HOST)); // halved to 1 by the failure and grown by 1 by the trial
+		assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+	}
+
+	@Test
+	public void opensTheCircuitAgainWhenTheTrialFails() throws Exception {
+		mLimiter.setCircuitBreaker(5, 50);
+		for (int i = 0; i < 5; i++) {
+			probe(FAST_MILLIS, true);
+		}
+		Thread.sleep(100);
+		assertEquals(AdaptiveHostLimiter.RESULT_TRIAL, mLimiter.tryAcquire(HOST));
+		mLimiter.release(HOST, FAST_MILLIS, true, true);
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+	}
+
+	@Test
+	public void letsAnotherTrialThroughWhenTheTrialIsReleasedUnused() throws Exception {
+		mLimiter.setCircuitBreaker(1, 50);
+		probe(FAST_MILLIS, true);
+		Thread.sleep(100);
+		assertEquals(AdaptiveHostLimiter.RESULT_TRIAL, mLimiter.tryAcquire(HOST));
+		mLimiter.releaseUnused(HOST, true);
+		assertEquals(AdaptiveHostLimiter.RESULT_TRIAL, mLimiter.tryAcquire(HOST));
+	}
+
+	@Test
+	public void keepsTheCircuitOpenWhenAProbeFromBeforeSucceeds() {
+		mLimiter.setLimits(4, 16);
+		mLimiter.setCircuitBreaker(2, 60000);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		}
+		mLimiter.release(HOST, FAST_MILLIS, true, false);
+		mLimiter.release(HOST, FAST_MILLIS, true, false);
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+		mLimiter.release(HOST, FAST_MILLIS, false, false); // started before the circuit was opened
+		assertEquals(0, mLimiter.getLimit(HOST));
+		assertEquals(AdaptiveHostLimiter.RESULT_OPEN, mLimiter.tryAcquire(HOST));
+	}
+
+	@Test
+	public void doesNotExtendTheOpenTimeWhenAProbeFromBeforeFails() throws Exception {
+		mLimiter.setLimits(4, 16);
+		mLimiter.setCircuitBreaker(2, 200);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(AdaptiveHostLimiter.RESULT_ACQUIRED, mLimiter.tryAcquire(HOST));
+		}
+		mLimiter.release(HOST, FAST_MILLIS, true, false);
+		mLimiter.release(HOST, FAST_MILLIS, true, false);
+		Thread.sleep(250);
+		mLimiter.release(HOST, FAST_MILLIS, true, false); // started before the circuit was opened
+		assertEquals(AdaptiveHostLimiter.RESULT_TRIAL, mLimiter.tryAcquire(HOST));
+	}
+
+}
@@ -0,0 +1,141 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheStoreTest {
+
+	private static final String EXTENSION = ".test";
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+	private File mDirectory;
+
+	/** A store of strings that are all usable */
+	private static class StringStore extends CacheStore<String> {
+
+		public StringStore(int maxEntries) {
+			super(maxEntries, EXTENSION);
+		}
+
+		@Override
+		protected String read(DataInputStream in) throws IOException {
+			return in.readUTF();
+		}
+
+		@Override
+		protected void write(DataOutputStream out, String entry) throws IOException {
+			out.writeUTF(entry);
+		}
+
+		@Override
+		protected boolean isUsable(String entry) {
+			return true;
+		}
+
+	}
+
+	@Before
+	public void createDirectory() throws IOException {
+		mDirectory = mFolder.newFolder("store");
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, CacheStore.hash(key)+EXTENSION);
+	}
+
+	@Test
+	public void prunesTheLeastRecentlyUsedFiles() {
+		final StringStore store = new StringStore(100);
+		store.setDiskDirectory(mDirectory, 10);
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			store.put("key-"+i, "value-"+i);
+			assertTrue(getFile("key-"+i).setLastModified(now-(10-i)*60000)); // key-0 has been used least recently
+		}
+		store.put("key-10", "value-10");
+		// the directory is pruned to 90 % of its limit once the limit is exceeded
+		assertEquals(9, mDirectory.list().length);
+		assertFalse(getFile("key-0").exists());
+		assertFalse(getFile("key-1").exists());
+		assertTrue(getFile("key-2").exists());
+		assertTrue(getFile("key-10").exists());
+	}
+
+	@Test
+	public void countsTheFilesThatExistAlready() {
+		final StringStore writer = new StringStore(100);
+		writer.setDiskDirectory(mDirectory, 100);
+		for (int i = 0; i < 10; i++) {
+			writer.put("key-"+i, "value-"+i);
+		}
+		final StringStore store = new StringStore(100);
+		store.setDiskDirectory(mDirectory, 10);
+		assertEquals(10, mDirectory.list().length);
+		store.put("key-10", "value-10");
+		assertEquals(9, mDirectory.list().length);
+	}
+
+	@Test
+	public void removesTemporaryFilesThatHaveBeenLeftBehind() throws IOException {
+		final File temporaryFile = new File(mDirectory, "interrupted"+EXTENSION+".tmp");
+		final File otherFile = new File(mDirectory, "other.txt");
+		assertTrue(temporaryFile.createNewFile());
+		assertTrue(otherFile.createNewFile());
+		new StringStore(100).setDiskDirectory(mDirectory, 100);
+		assertFalse(temporaryFile.exists());
+		assertTrue(otherFile.exists());
+	}
+
+	@Test
+	public void deletesFilesThatCannotBeRead() throws IOException {
+		final FileOutputStream out = new FileOutputStream(getFile("key"));
+		out.write(1);
+		out.close();
+		final StringStore store = new StringStore(100);
+		store.setDiskDirectory(mDirectory, 100);
+		assertNull(store.get("key"));
+		assertFalse(getFile("key").exists());
+	}
+
+	@Test
+	public void overwritesEntriesWithoutCountingThemTwice() {
+		final StringStore store = new StringStore(100);
+		store.setDiskDirectory(mDirectory, 2);
+		store.put("key", "first");
+		store.put("key", "second");
+		store.put("other", "value");
+		assertEquals(2, mDirectory.list().length);
+		final StringStore reader = new StringStore(100);
+		reader.setDiskDirectory(mDirectory, 2);
+		assertEquals("second", reader.get("key"));
+	}
+
+}
@@ -0,0 +1,143 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class ContentDecoderTest {
+
+	private static final String TEXT = "<html><body><img src=\"a.jpg\"></body></html>";
+
+	/** A body that remembers whether it has been closed */
+	private static class Body extends ByteArrayInputStream {
+
+		public boolean mClosed;
+
+		public Body(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public void close() throws IOException {
+			mClosed = true;
+			super.close();
+		}
+
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data, boolean zlib) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib);
+		final DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater);
+		deflate.write(data);
+		deflate.close();
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+
+	@Test
+	public void passesUnencodedBodiesThrough() throws IOException {
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(TEXT.getBytes("UTF-8")), null)));
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(TEXT.getBytes("UTF-8")), "identity")));
+	}
+
+	@Test
+	public void decodesGzip() throws IOException {
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(gzip(TEXT.getBytes("UTF-8"))), "gzip")));
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(gzip(TEXT.getBytes("UTF-8"))), "X-GZIP")));
+	}
+
+	@Test
+	public void decodesDeflateWithAndWithoutZlibWrapper() throws IOException {
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(deflate(TEXT.getBytes("UTF-8"), true)), "deflate")));
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(deflate(TEXT.getBytes("UTF-8"), false)), "deflate")));
+	}
+
+	@Test
+	public void decodesMultipleEncodingsInReverseOrder() throws IOException {
+		final byte[] encoded = gzip(deflate(TEXT.getBytes("UTF-8"), true));
+		assertEquals(TEXT, read(ContentDecoder.decode(new Body(encoded), "deflate, gzip")));
+	}
+
+	@Test
+	public void neverClosesTheTransferredBody() throws IOException {
+		final Body plain = new Body(TEXT.getBytes("UTF-8"));
+		read(ContentDecoder.decode(plain, null));
+		assertFalse(plain.mClosed);
+		final Body compressed = new Body(gzip(TEXT.getBytes("UTF-8")));
+		read(ContentDecoder.decode(compressed, "gzip"));
+		assertFalse(compressed.mClosed);
+	}
+
+	@Test
+	public void rejectsUnsupportedEncodings() throws IOException {
+		final Body body = new Body(TEXT.getBytes("UTF-8"));
+		try {
+			ContentDecoder.decode(body, "compress");
+			fail();
+		}
+		catch (IOException e) {
+			assertFalse(body.mClosed);
+		}
+	}
+
+	@Test
+	public void rejectsCorruptBodies() throws IOException {
+		try {
+			ContentDecoder.decode(new Body(TEXT.getBytes("UTF-8")), "gzip");
+			fail();
+		}
+		catch (IOException e) { } // not in gzip format
+	}
+
+	@Test
+	public void advertisesOnlySupportedEncodings() {
+		assertTrue(ContentDecoder.getAcceptEncoding().startsWith("gzip, deflate"));
+		assertEquals(ContentDecoder.isBrotliSupported(), ContentDecoder.getAcceptEncoding().contains("br"));
+	}
+
+}
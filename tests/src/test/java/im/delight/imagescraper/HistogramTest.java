@@ -0,0 +1,131 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void isEmptyInitially() {
+		final Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void recordsSmallValuesExactly() {
+		final Histogram histogram = new Histogram();
+		for (int i = 0; i < 8; i++) {
+			histogram.record(i);
+		}
+		assertEquals(8, histogram.getCount());
+		assertEquals(28, histogram.getSum());
+		assertEquals(7, histogram.getMax());
+		assertEquals(3.5, histogram.getMean(), 0);
+		assertEquals(3, histogram.getPercentile(50));
+		assertEquals(7, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void keepsPercentilesWithinTheBucketPrecision() {
+		final Histogram histogram = new Histogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			final double exact = 10000 * percentile / 100;
+			final long estimate = histogram.getPercentile(percentile);
+			assertTrue(percentile+": "+estimate, estimate >= exact && estimate <= exact * 1.125);
+		}
+	}
+
+	@Test
+	public void neverReportsMoreThanTheMaximum() {
+		final Histogram histogram = new Histogram();
+		histogram.record(1000);
+		assertEquals(1000, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void recordsNegativeValuesAsZeroAndHugeValuesInTheLastBucket() {
+		final Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE / 2);
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(1, histogram.getBucketCount(histogram.getNumberOfBuckets()-1));
+		assertEquals(Long.MAX_VALUE, histogram.getBucketUpperBound(histogram.getNumberOfBuckets()-1));
+	}
+
+	@Test
+	public void hasContiguousBuckets() {
+		final Histogram histogram = new Histogram();
+		long previous = -1;
+		for (int i = 0; i < histogram.getNumberOfBuckets(); i++) {
+			final long bound = histogram.getBucketUpperBound(i);
+			assertTrue("bucket "+i, bound > previous);
+			// every value is counted in the bucket whose upper bound is the first one that is not smaller
+			final Histogram single = new Histogram();
+			single.record(previous+1);
+			assertEquals("bucket "+i, 1, single.getBucketCount(i));
+			previous = bound;
+			if (bound == Long.MAX_VALUE) {
+				break;
+			}
+		}
+	}
+
+	@Test
+	public void canBeReset() {
+		final Histogram histogram = new Histogram();
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		for (int i = 0; i < histogram.getNumberOfBuckets(); i++) {
+			assertEquals(0, histogram.getBucketCount(i));
+		}
+	}
+
+	@Test
+	public void countsConcurrentRecordings() throws InterruptedException {
+		final Histogram histogram = new Histogram();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						histogram.record(i);
+					}
+				}
+
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(40000, histogram.getCount());
+		assertEquals(9999, histogram.getMax());
+	}
+
+}
@@ -0,0 +1,121 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class HtmlDecoderTest {
+
+	private static String decode(byte[] document, String contentType) throws IOException {
+		final Reader reader = HtmlDecoder.createReader(new ByteArrayInputStream(document), contentType, "ISO-8859-1");
+		final StringBuilder out = new StringBuilder();
+		final char[] buffer = new char[256];
+		int count;
+		while ((count = reader.read(buffer)) != -1) {
+			out.append(buffer, 0, count);
+		}
+		return out.toString();
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		final byte[] out = Arrays.copyOf(first, first.length+second.length);
+		System.arraycopy(second, 0, out, first.length, second.length);
+		return out;
+	}
+
+	@Test
+	public void detectsHtmlByItsContentType() {
+		assertTrue(HtmlDecoder.isHtml(null));
+		assertTrue(HtmlDecoder.isHtml("text/html"));
+		assertTrue(HtmlDecoder.isHtml(" Text/HTML ; charset=utf-8"));
+		assertTrue(HtmlDecoder.isHtml("application/xhtml+xml"));
+		assertFalse(HtmlDecoder.isHtml("image/jpeg"));
+		assertFalse(HtmlDecoder.isHtml("application/json"));
+	}
+
+	@Test
+	public void extractsTheCharsetFromTheContentType() {
+		assertEquals("utf-8", HtmlDecoder.getCharset("text/html; charset=utf-8"));
+		assertEquals("Shift_JIS", HtmlDecoder.getCharset("text/html;CHARSET=\"Shift_JIS\""));
+		assertNull(HtmlDecoder.getCharset("text/html"));
+		assertNull(HtmlDecoder.getCharset("text/html; charset="));
+		assertNull(HtmlDecoder.getCharset(null));
+	}
+
+	@Test
+	public void findsTheCharsetInMetaTags() {
+		assertEquals("windows-1252", HtmlDecoder.findMetaCharset("<html><head><meta charset=\"windows-1252\">"));
+		assertEquals("koi8-r", HtmlDecoder.findMetaCharset("<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=koi8-r\">"));
+		assertNull(HtmlDecoder.findMetaCharset("<meta name=\"description\" content=\"charset=koi8-r\">"));
+		assertNull(HtmlDecoder.findMetaCharset("<meta charset=\"utf-8\""));
+	}
+
+	@Test
+	public void replacesUTF16InMetaTagsWithUTF8() {
+		assertEquals("UTF-8", HtmlDecoder.findMetaCharset("<meta charset=\"utf-16le\">"));
+	}
+
+	@Test
+	public void prefersTheByteOrderMarkToTheContentType() throws IOException {
+		final byte[] document = concat(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF }, "<p>ä</p>".getBytes("UTF-8"));
+		assertEquals("<p>ä</p>", decode(document, "text/html; charset=ISO-8859-1"));
+		assertEquals("<p>ä</p>", decode("<p>ä</p>".getBytes("UTF-16"), null));
+	}
+
+	@Test
+	public void prefersTheContentTypeToTheMetaTag() throws IOException {
+		final byte[] document = "<meta charset=\"ISO-8859-1\"><p>ä</p>".getBytes("UTF-8");
+		assertEquals("<meta charset=\"ISO-8859-1\"><p>ä</p>", decode(document, "text/html; charset=UTF-8"));
+	}
+
+	@Test
+	public void usesTheMetaTagWithoutAContentType() throws IOException {
+		final byte[] document = "<meta charset=\"UTF-8\"><p>ä</p>".getBytes("UTF-8");
+		assertEquals("<meta charset=\"UTF-8\"><p>ä</p>", decode(document, "text/html"));
+	}
+
+	@Test
+	public void fallsBackToTheDefaultForUnsupportedCharsets() throws IOException {
+		final byte[] document = "<p>ä</p>".getBytes("ISO-8859-1");
+		assertEquals("<p>ä</p>", decode(document, "text/html; charset=no-such-charset"));
+		assertEquals("<p>ä</p>", decode(document, "text/html; charset=\"illegal name!\""));
+	}
+
+	@Test
+	public void readsDocumentsLongerThanThePrescan() throws IOException {
+		final ByteArrayOutputStream document = new ByteArrayOutputStream();
+		document.write("<head>".getBytes("US-ASCII"));
+		for (int i = 0; i < HtmlDecoder.PRESCAN_BYTES; i++) {
+			document.write(' ');
+		}
+		document.write("<meta charset=\"UTF-8\"></head>ä".getBytes("UTF-8"));
+		// the declaration comes too late and the default applies
+		final String decoded = decode(document.toByteArray(), null);
+		assertEquals(document.size(), decoded.length());
+		assertTrue(decoded.endsWith("</head>Ã¤"));
+	}
+
+}
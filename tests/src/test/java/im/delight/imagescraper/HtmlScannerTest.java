@@ -0,0 +1,206 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class HtmlScannerTest {
+
+	/** The scanner of tests that need to access it from within the callback */
+	private HtmlScanner mScanner;
+
+	/** Records everything that the scanner reports */
+	private static class Recorder implements HtmlScannerCallback {
+
+		public final List<ImageCandidate> mCandidates = new ArrayList<ImageCandidate>();
+		public final List<String> mMetaTags = new ArrayList<String>();
+		public final List<String> mLinkTags = new ArrayList<String>();
+		public final List<String> mBaseURLs = new ArrayList<String>();
+		public int mHeadEndCount;
+
+		@Override
+		public void onBaseURL(String url) {
+			mBaseURLs.add(url);
+		}
+
+		@Override
+		public void onMetaTag(String property, String content) {
+			mMetaTags.add(property+"="+content);
+		}
+
+		@Override
+		public void onLinkTag(String rel, String href) {
+			mLinkTags.add(rel+"="+href);
+		}
+
+		@Override
+		public void onImageURL(ImageCandidate candidate) {
+			mCandidates.add(candidate);
+		}
+
+		@Override
+		public void onHeadEnd() {
+			mHeadEndCount++;
+		}
+
+		public List<String> getURLs() {
+			final List<String> urls = new ArrayList<String>();
+			for (ImageCandidate candidate : mCandidates) {
+				urls.add(candidate.getURL());
+			}
+			return urls;
+		}
+
+	}
+
+	private static Recorder scan(String html, int formats) throws IOException {
+		final Recorder recorder = new Recorder();
+		final HtmlScanner scanner = new HtmlScanner(recorder);
+		scanner.setImageFormats(formats);
+		scanner.scan(new StringReader(html));
+		return recorder;
+	}
+
+	@Test
+	public void parsesSrcsetWithWidthAndDensityDescriptors() throws IOException {
+		final Recorder recorder = scan("<img srcset=\"small.jpg 480w, large.jpg 1080w,huge.jpg   2.5x, plain.jpg\">", HtmlScanner.FORMAT_JPEG);
+		assertEquals(4, recorder.mCandidates.size());
+		assertEquals("small.jpg", recorder.mCandidates.get(0).getURL());
+		assertEquals(480, recorder.mCandidates.get(0).getDescriptorWidth());
+		assertEquals(1080, recorder.mCandidates.get(1).getDescriptorWidth());
+		assertEquals("huge.jpg", recorder.mCandidates.get(2).getURL());
+		assertEquals(2.5f, recorder.mCandidates.get(2).getDescriptorDensity(), 0);
+		assertEquals("plain.jpg", recorder.mCandidates.get(3).getURL());
+		assertEquals(0, recorder.mCandidates.get(3).getDescriptorWidth());
+		for (ImageCandidate candidate : recorder.mCandidates) {
+			assertEquals(ImageCandidate.SOURCE_SRCSET, candidate.getSource());
+		}
+	}
+
+	@Test
+	public void keepsCommasInsideOfSrcsetURLs() throws IOException {
+		final Recorder recorder = scan("<img srcset=\"/upload/w_300,c_fill/a.jpg 300w, /upload/w_600,c_fill/a.jpg 600w\">", HtmlScanner.FORMAT_JPEG);
+		assertEquals("[/upload/w_300,c_fill/a.jpg, /upload/w_600,c_fill/a.jpg]", recorder.getURLs().toString());
+	}
+
+	@Test
+	public void reportsAllVariantsOfATagInTheSameGroup() throws IOException {
+		final Recorder recorder = scan("<img src=\"a.jpg\" srcset=\"a-2x.jpg 2x\" width=\"300\" height=\"200px\"><img data-src=\"b.jpg\">", HtmlScanner.FORMAT_JPEG);
+		assertEquals(3, recorder.mCandidates.size());
+		final ImageCandidate first = recorder.mCandidates.get(0);
+		assertEquals(ImageCandidate.SOURCE_TAG, first.getSource());
+		assertEquals(300, first.getWidth());
+		assertEquals(200, first.getHeight());
+		assertEquals(first.getGroup(), recorder.mCandidates.get(1).getGroup());
+		assertTrue(recorder.mCandidates.get(2).getGroup() != first.getGroup());
+	}
+
+	@Test
+	public void ignoresRelativeDimensions() throws IOException {
+		final Recorder recorder = scan("<img src=\"a.jpg\" width=\"100%\" height=\"auto\">", HtmlScanner.FORMAT_JPEG);
+		assertEquals(0, recorder.mCandidates.get(0).getWidth());
+		assertEquals(0, recorder.mCandidates.get(0).getHeight());
+	}
+
+	@Test
+	public void tracksContentAndBoilerplateSections() throws IOException {
+		final Recorder recorder = scan("<img src=\"0.jpg\"><main><img src=\"1.jpg\"><aside><img src=\"2.jpg\"></aside><img src=\"3.jpg\"></main><footer><img src=\"4.jpg\"></footer><img src=\"5.jpg\">", HtmlScanner.FORMAT_JPEG);
+		final int[] expected = { ImageCandidate.CONTEXT_NEUTRAL, ImageCandidate.CONTEXT_CONTENT, ImageCandidate.CONTEXT_BOILERPLATE, ImageCandidate.CONTEXT_CONTENT, ImageCandidate.CONTEXT_BOILERPLATE, ImageCandidate.CONTEXT_NEUTRAL };
+		assertEquals(expected.length, recorder.mCandidates.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(i+".jpg", recorder.mCandidates.get(i).getURL());
+			assertEquals(i+".jpg", expected[i], recorder.mCandidates.get(i).getContext());
+		}
+	}
+
+	@Test
+	public void neverLetsUnbalancedClosingTagsMakeDepthsNegative() throws IOException {
+		final Recorder recorder = scan("</article></article><article><img src=\"a.jpg\">", HtmlScanner.FORMAT_JPEG);
+		assertEquals(ImageCandidate.CONTEXT_CONTENT, recorder.mCandidates.get(0).getContext());
+	}
+
+	@Test
+	public void findsURLsInTextAndScripts() throws IOException {
+		final Recorder recorder = scan("<script>var images = [\"https://cdn.example.com/a.jpg\", '/b.JPEG'];</script><div style=\"background: url(cc.jpg)\"></div><i style=\"background-image:url(&quot;/dd.jpg&quot;)\"></i>", HtmlScanner.FORMAT_JPEG);
+		assertEquals("[https://cdn.example.com/a.jpg, /b.JPEG, cc.jpg, /dd.jpg]", recorder.getURLs().toString());
+		assertEquals(ImageCandidate.SOURCE_TEXT, recorder.mCandidates.get(0).getSource());
+		assertEquals(ImageCandidate.NO_GROUP, recorder.mCandidates.get(0).getGroup());
+	}
+
+	@Test
+	public void keepsParenthesesThatArePartOfTheURL() throws IOException {
+		assertEquals("[/wiki/File:Photo_(2016).jpg, /gallery/curl(1).jpg]", scan("<a href=\"/wiki/File:Photo_(2016).jpg\">/gallery/curl(1).jpg</a>", HtmlScanner.FORMAT_JPEG).getURLs().toString());
+	}
+
+	@Test
+	public void ignoresTooShortURLsInTheText() throws IOException {
+		assertTrue(scan("<p>a.jpg or .jpg</p>", HtmlScanner.FORMAT_JPEG).mCandidates.isEmpty());
+	}
+
+	@Test
+	public void reportsOnlyTheRequestedFormats() throws IOException {
+		final String html = "<img src=\"a.jpg\"><img src=\"b.png\"><img src=\"c.webp?x=1\"><img src=\"d.gif\"><img src=\"e.svg\"><img src=\"f\">";
+		assertEquals("[a.jpg, f]", scan(html, HtmlScanner.FORMAT_JPEG).getURLs().toString());
+		assertEquals("[b.png, c.webp?x=1, f]", scan(html, HtmlScanner.FORMAT_PNG | HtmlScanner.FORMAT_WEBP).getURLs().toString());
+		assertEquals("[a.jpg, b.png, c.webp?x=1, d.gif, f]", scan(html, HtmlScanner.FORMAT_ALL).getURLs().toString());
+	}
+
+	@Test
+	public void skipsEmbeddedImages() throws IOException {
+		assertTrue(scan("<img src=\"data:image/jpeg;base64,AAAA\"><img src=\"javascript:void(0)\">", HtmlScanner.FORMAT_ALL).mCandidates.isEmpty());
+	}
+
+	@Test
+	public void reportsMetaDataOfTheHeadOnly() throws IOException {
+		final Recorder recorder = scan("<head><base href=\"/a/\"><base href=\"/b/\"><meta property=\"OG:Image\" content=\" og.jpg \"><meta name=\"twitter:image\" content=\"tw.jpg\"><meta name=\"description\" content=\"x\"><link rel=\"Icon\" href=\"i.png\"></head><body><meta property=\"og:image\" content=\"late.jpg\"></body>", HtmlScanner.FORMAT_JPEG);
+		assertEquals("[/a/]", recorder.mBaseURLs.toString());
+		assertEquals("[og:image=og.jpg, twitter:image=tw.jpg]", recorder.mMetaTags.toString());
+		assertEquals("[icon=i.png]", recorder.mLinkTags.toString());
+		assertEquals(1, recorder.mHeadEndCount);
+	}
+
+	@Test
+	public void numbersCandidatesInTheOrderOfTheDocument() throws IOException {
+		final Recorder recorder = scan("x.jpg <img src=\"y.jpg\" srcset=\"z.jpg 2x\">", HtmlScanner.FORMAT_JPEG);
+		for (int i = 0; i < recorder.mCandidates.size(); i++) {
+			assertEquals(i, recorder.mCandidates.get(i).getPosition());
+		}
+	}
+
+	@Test
+	public void stopsWhenRequested() throws IOException {
+		final Recorder recorder = new Recorder() {
+
+			@Override
+			public void onImageURL(ImageCandidate candidate) {
+				super.onImageURL(candidate);
+				mScanner.stop();
+			}
+
+		};
+		mScanner = new HtmlScanner(recorder);
+		mScanner.scan(new StringReader("<img src=\"a.jpg\"><img src=\"b.jpg\">"));
+		assertEquals("[a.jpg]", recorder.getURLs().toString());
+	}
+
+}
@@ -0,0 +1,80 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.HashMap;
+import org.junit.Test;
+
+public class HtmlTagParserTest {
+
+	private final HashMap<String, String> mAttributes = new HashMap<String, String>();
+
+	@Test
+	public void parsesAllKindsOfQuoting() {
+		assertEquals("meta", HtmlTagParser.parse("<META Property=\"og:image\" content='a.jpg' data-x=unquoted>", mAttributes));
+		assertEquals(3, mAttributes.size());
+		assertEquals("og:image", mAttributes.get("property"));
+		assertEquals("a.jpg", mAttributes.get("content"));
+		assertEquals("unquoted", mAttributes.get("data-x"));
+	}
+
+	@Test
+	public void keepsQuotesAndSpacesInsideOfValues() {
+		HtmlTagParser.parse("<img alt=\"it's > 1\" title='say \"hi\"'>", mAttributes);
+		assertEquals("it's > 1", mAttributes.get("alt"));
+		assertEquals("say \"hi\"", mAttributes.get("title"));
+	}
+
+	@Test
+	public void mapsAttributesWithoutValuesToEmptyStrings() {
+		HtmlTagParser.parse("<img src=a.jpg hidden loading = lazy>", mAttributes);
+		assertEquals("", mAttributes.get("hidden"));
+		assertEquals("lazy", mAttributes.get("loading"));
+		assertEquals("a.jpg", mAttributes.get("src"));
+	}
+
+	@Test
+	public void keepsOnlyTheFirstOccurrenceOfEveryAttribute() {
+		HtmlTagParser.parse("<img src=\"first.jpg\" SRC=\"second.jpg\">", mAttributes);
+		assertEquals("first.jpg", mAttributes.get("src"));
+	}
+
+	@Test
+	public void handlesSelfClosingTagsAndWhitespace() {
+		assertEquals("base", HtmlTagParser.parse("<base\n\thref=\"/b/\"/>", mAttributes));
+		assertEquals("/b/", mAttributes.get("href"));
+		assertEquals("br", HtmlTagParser.parse("<br/>", mAttributes));
+		assertTrue(mAttributes.isEmpty());
+	}
+
+	@Test
+	public void clearsPreviousAttributes() {
+		HtmlTagParser.parse("<img src=a.jpg>", mAttributes);
+		HtmlTagParser.parse("<link rel=icon>", mAttributes);
+		assertFalse(mAttributes.containsKey("src"));
+	}
+
+	@Test
+	public void toleratesUnterminatedTags() {
+		assertEquals("img", HtmlTagParser.parse("<img src=\"a.jpg", mAttributes));
+		assertEquals("a.jpg", mAttributes.get("src"));
+	}
+
+}
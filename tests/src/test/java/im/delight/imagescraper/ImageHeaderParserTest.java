@@ -0,0 +1,137 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Test;
+
+public class ImageHeaderParserTest {
+
+	private final ImageHeaderParser mParser = new ImageHeaderParser();
+
+	/** Parses the fixture with the given name from `src/test/resources/images` */
+	private boolean parseFixture(ImageHeaderParser parser, String name) throws IOException {
+		final InputStream in = getClass().getResourceAsStream("/images/"+name);
+		try {
+			return parser.parse(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private void assertDimensions(String name, int width, int height) throws IOException {
+		assertTrue(name, parseFixture(mParser, name));
+		assertEquals(name, width, mParser.getWidth());
+		assertEquals(name, height, mParser.getHeight());
+	}
+
+	private static byte[] bytes(int... values) {
+		final byte[] out = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			out[i] = (byte) values[i];
+		}
+		return out;
+	}
+
+	@Test
+	public void readsJPEG() throws IOException {
+		assertDimensions("31x17-baseline.jpg", 31, 17);
+		assertDimensions("31x17-progressive.jpg", 31, 17);
+	}
+
+	@Test
+	public void skipsLargeSegmentsInFrontOfTheJPEGFrameHeader() throws IOException {
+		assertDimensions("31x17-exif.jpg", 31, 17);
+		assertFalse(parseFixture(new ImageHeaderParser(1024), "31x17-exif.jpg"));
+	}
+
+	@Test
+	public void doesNotMistakeHuffmanTablesForJPEGFrameHeaders() {
+		// DHT (0xC4) with a dummy payload, followed by SOF0 with a height of 2 and a width of 3
+		assertTrue(mParser.parse(new ByteArrayInputStream(bytes(0xFF, 0xD8, 0xFF, 0xC4, 0x00, 0x06, 0x00, 0x10, 0x20, 0x30, 0xFF, 0xC0, 0x00, 0x11, 0x08, 0x00, 0x02, 0x00, 0x03))));
+		assertEquals(3, mParser.getWidth());
+		assertEquals(2, mParser.getHeight());
+	}
+
+	@Test
+	public void stopsAtTheJPEGScanData() {
+		assertFalse(mParser.parse(new ByteArrayInputStream(bytes(0xFF, 0xD8, 0xFF, 0xDA, 0x00, 0x02, 0xFF, 0xC0, 0x00, 0x11, 0x08, 0x00, 0x02, 0x00, 0x03))));
+	}
+
+	@Test
+	public void readsPNG() throws IOException {
+		assertDimensions("31x17.png", 31, 17);
+	}
+
+	@Test
+	public void readsGIF() throws IOException {
+		assertDimensions("31x17.gif", 31, 17);
+	}
+
+	@Test
+	public void readsLossyWebP() throws IOException {
+		assertDimensions("1x1-lossy.webp", 1, 1);
+		assertTrue(mParser.parse(new ByteArrayInputStream(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', ' ', 0, 0, 0, 0, 0x30, 0x01, 0x00, 0x9D, 0x01, 0x2A, 0x1F, 0x00, 0x11, 0x40))));
+		assertEquals(31, mParser.getWidth());
+		assertEquals(17, mParser.getHeight()); // the upper two bits are the scale
+	}
+
+	@Test
+	public void readsLosslessWebP() throws IOException {
+		assertDimensions("1x1-lossless.webp", 1, 1);
+		// width-1 in the lowest 14 bits and height-1 in the next 14 bits
+		assertTrue(mParser.parse(new ByteArrayInputStream(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'L', 0, 0, 0, 0, 0x2F, 0x1E, 0x00, 0x04, 0x00))));
+		assertEquals(31, mParser.getWidth());
+		assertEquals(17, mParser.getHeight());
+	}
+
+	@Test
+	public void readsExtendedWebP() {
+		// canvas of 400 x 300 pixels (stored minus one as 24-bit values)
+		assertTrue(mParser.parse(new ByteArrayInputStream(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'X', 10, 0, 0, 0, 0x10, 0, 0, 0, 0x8F, 0x01, 0x00, 0x2B, 0x01, 0x00))));
+		assertEquals(400, mParser.getWidth());
+		assertEquals(300, mParser.getHeight());
+	}
+
+	@Test
+	public void rejectsUnknownAndTruncatedFiles() {
+		assertFalse(mParser.parse(new ByteArrayInputStream(bytes('<', 'h', 't', 'm', 'l', '>'))));
+		assertFalse(mParser.parse(new ByteArrayInputStream(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 13, 'I', 'H', 'D', 'R', 0, 0))));
+		assertFalse(mParser.parse(new ByteArrayInputStream(new byte[0])));
+		assertEquals(0, mParser.getWidth());
+		assertEquals(0, mParser.getHeight());
+	}
+
+	@Test
+	public void rejectsRIFFFilesThatAreNotWebP() {
+		assertFalse(mParser.parse(new ByteArrayInputStream(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0))));
+	}
+
+	@Test
+	public void resetsTheDimensionsOfThePreviousImage() throws IOException {
+		assertDimensions("31x17.png", 31, 17);
+		assertFalse(mParser.parse(new ByteArrayInputStream(bytes('G', 'I', 'F'))));
+		assertEquals(0, mParser.getWidth());
+	}
+
+}
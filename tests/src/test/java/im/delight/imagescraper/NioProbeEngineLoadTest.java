@@ -0,0 +1,215 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs many probes at once against local hosts that respond slowly or never */
+public class NioProbeEngineLoadTest {
+
+	private static final String USER_AGENT = "NioProbeEngineLoadTest";
+	private static final int FILE_SIZE = 50000;
+	/** The time a probe of a stalled host may take (the read timeout plus the interval of the timeout checks plus some slack) */
+	private static final long STALLED_PROBE_MAX_MILLIS = ImageScraper.NETWORK_READ_TIMEOUT_MILLIS+1500;
+	private StubImageServer mHealthyHost;
+	private StubImageServer mStalledHost;
+
+	/** Collects the results of probes along with the times they arrived at */
+	private static class Results implements NioProbeCallback {
+
+		private final long mStartTime = System.currentTimeMillis();
+		private final CountDownLatch mLatch;
+		private final ConcurrentHashMap<String, ProbeCacheEntry> mEntries = new ConcurrentHashMap<String, ProbeCacheEntry>();
+		private final ConcurrentHashMap<String, Long> mFailures = new ConcurrentHashMap<String, Long>();
+		private final ConcurrentHashMap<String, Long> mTimes = new ConcurrentHashMap<String, Long>();
+
+		public Results(int count) {
+			mLatch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void onProbeFinished(String url, ProbeCacheEntry result) {
+			mTimes.put(url, System.currentTimeMillis()-mStartTime);
+			if (result == null) {
+				mFailures.put(url, mTimes.get(url));
+			}
+			else {
+				mEntries.put(url, result);
+			}
+			mLatch.countDown();
+		}
+
+		public void await(long timeoutMillis) throws InterruptedException {
+			assertTrue("probes did not finish in time", mLatch.await(timeoutMillis, TimeUnit.MILLISECONDS));
+		}
+
+		public long getMillis(List<String> urls, boolean max) {
+			long out = max ? 0 : Long.MAX_VALUE;
+			for (String url : urls) {
+				final long millis = mTimes.get(url);
+				out = max ? Math.max(out, millis) : Math.min(out, millis);
+			}
+			return out;
+		}
+
+	}
+
+	private static int countEngineThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith("ImageScraper-")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static List<String> getURLs(StubImageServer server, int count, int delayMillis, String prefix) {
+		final List<String> urls = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			urls.add(server.getURL(delayMillis, FILE_SIZE, prefix+"-"+i+".jpg"));
+		}
+		return urls;
+	}
+
+	@Before
+	public void startHosts() throws IOException {
+		mHealthyHost = new StubImageServer();
+		mStalledHost = new StubImageServer();
+	}
+
+	@After
+	public void stopHosts() throws IOException {
+		mHealthyHost.close();
+		mStalledHost.close();
+	}
+
+	@Test
+	public void multiplexesThousandSlowProbesOnAFewThreads() throws Exception {
+		final int probes = 1000;
+		final int delayMillis = 2000;
+		final int threadsBefore = countEngineThreads();
+		final NioProbeEngine engine = new NioProbeEngine(probes, probes);
+		final List<String> urls = getURLs(mHealthyHost, probes, delayMillis, "slow");
+		final Results results = new Results(probes);
+		for (String url : urls) {
+			engine.probe(url, USER_AGENT, false, results);
+		}
+		// the selector thread and the resolver threads are all that the engine needs
+		final long waitUntil = System.currentTimeMillis()+delayMillis;
+		while (mHealthyHost.getMaxPendingRequests() < probes && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(20);
+		}
+		assertTrue(countEngineThreads()-threadsBefore <= 3);
+
+		results.await(30000);
+		assertEquals(0, results.mFailures.size());
+		for (String url : urls) {
+			assertEquals(FILE_SIZE, results.mEntries.get(url).getFileSize());
+		}
+		// a pool of six threads would need `probes / 6 * delayMillis` (more than five minutes)
+		assertTrue("max pending "+mHealthyHost.getMaxPendingRequests(), mHealthyHost.getMaxPendingRequests() >= probes / 2);
+		assertTrue("took "+results.getMillis(urls, true), results.getMillis(urls, true) < 4 * delayMillis);
+	}
+
+	@Test
+	public void stalledHostsOnlyDelayTheirOwnProbes() throws Exception {
+		final NioProbeEngine engine = new NioProbeEngine(NioProbeEngine.DEFAULT_MAX_CONNECTIONS_PER_HOST, NioProbeEngine.DEFAULT_MAX_CONNECTIONS_TOTAL);
+		final List<String> stalled = getURLs(mStalledHost, NioProbeEngine.DEFAULT_MAX_CONNECTIONS_PER_HOST, StubImageServer.STALLED, "stalled");
+		final List<String> slow = getURLs(mHealthyHost, 40, 100, "slow");
+		final List<String> fast = getURLs(mHealthyHost, 200, 0, "fast");
+		final Results results = new Results(stalled.size()+slow.size()+fast.size());
+		// the stalled host takes its connections first
+		for (String url : stalled) {
+			engine.probe(url, USER_AGENT, false, results);
+		}
+		for (int i = 0; i < fast.size(); i++) {
+			engine.probe(fast.get(i), USER_AGENT, false, results);
+			if (i < slow.size()) {
+				engine.probe(slow.get(i), USER_AGENT, false, results);
+			}
+		}
+		results.await(STALLED_PROBE_MAX_MILLIS+5000);
+
+		for (String url : stalled) {
+			assertNull(results.mEntries.get(url));
+			assertNotNull(results.mFailures.get(url));
+		}
+		for (String url : slow) {
+			assertEquals(FILE_SIZE, results.mEntries.get(url).getFileSize());
+		}
+		for (String url : fast) {
+			assertEquals(FILE_SIZE, results.mEntries.get(url).getFileSize());
+		}
+		assertEquals(stalled.size(), mStalledHost.getRequestCount());
+		// the healthy host has been served while the stalled one was still holding its connections
+		assertTrue(results.getMillis(fast, true) < results.getMillis(stalled, false));
+		assertTrue(results.getMillis(slow, true) < results.getMillis(stalled, false));
+		assertTrue(results.getMillis(stalled, false) >= ImageScraper.NETWORK_READ_TIMEOUT_MILLIS);
+		assertTrue(results.getMillis(stalled, true) <= STALLED_PROBE_MAX_MILLIS);
+	}
+
+	@Test
+	public void imageCheckerReturnsTheBestImagesOfHealthyHosts() throws Exception {
+		final NioProbeEngine engine = new NioProbeEngine(NioProbeEngine.DEFAULT_MAX_CONNECTIONS_PER_HOST, NioProbeEngine.DEFAULT_MAX_CONNECTIONS_TOTAL);
+		final List<String> urls = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			urls.add(mStalledHost.getURL(StubImageServer.STALLED, ImageScraper.MAX_FILESIZE_BYTES, "stalled-"+i+".jpg"));
+		}
+		for (int i = 0; i < 100; i++) {
+			urls.add(mHealthyHost.getURL(i % 10 * 50, ImageScraper.MIN_FILESIZE_BYTES+i * 1000, "image-"+i+".jpg"));
+		}
+		final AtomicReference<PriorityBlockingQueue<ImageURL>> finished = new AtomicReference<PriorityBlockingQueue<ImageURL>>();
+		final ImageChecker checker = new ImageChecker(new ImageCheckerCallback() {
+
+			@Override
+			public void onImageCheckerFinished(PriorityBlockingQueue<ImageURL> imageURLs) {
+				finished.set(imageURLs);
+			}
+
+		}, USER_AGENT, engine);
+		checker.setMaxResults(3);
+		final long startTime = System.currentTimeMillis();
+		checker.start(urls);
+		final long durationMillis = System.currentTimeMillis()-startTime;
+
+		assertNotNull(finished.get());
+		final List<String> best = new ArrayList<String>();
+		for (ImageURL image : checker.getImageURLs()) {
+			best.add(image.getURL());
+		}
+		assertEquals(urls.get(urls.size()-1), best.get(0));
+		assertEquals(urls.get(urls.size()-2), best.get(1));
+		assertEquals(urls.get(urls.size()-3), best.get(2));
+		assertTrue("took "+durationMillis, durationMillis <= STALLED_PROBE_MAX_MILLIS);
+	}
+
+}
@@ -0,0 +1,98 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledHttpTransportTest {
+
+	private HttpServer mServer;
+
+	private String getURL(String path) {
+		return "http://127.0.0.1:"+mServer.getAddress().getPort()+path;
+	}
+
+	@Before
+	public void startServer() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		mServer.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final String path = exchange.getRequestURI().getPath();
+				if (path.startsWith("/to-")) { // e.g. `/to-ftp` redirects to `ftp://...`
+					exchange.getResponseHeaders().set("Location", path.substring(4)+"://127.0.0.1/image.jpg");
+					exchange.sendResponseHeaders(302, -1);
+				}
+				else {
+					exchange.sendResponseHeaders(200, -1);
+				}
+				exchange.close();
+			}
+
+		});
+		mServer.start();
+	}
+
+	@After
+	public void stopServer() {
+		mServer.stop(0);
+	}
+
+	@Test(timeout = 10000)
+	public void rejectsOtherProtocolsWithoutLosingPermits() throws IOException {
+		final PooledHttpTransport transport = new PooledHttpTransport(1, 1);
+		final String[] urls = { "ftp://127.0.0.1/image.jpg", "file:///image.jpg", getURL("/to-ftp"), getURL("/to-file"), getURL("/to-jar") };
+		for (String url : urls) {
+			try {
+				transport.execute(new HttpRequest(url)).close();
+				fail(url);
+			}
+			catch (IOException e) { }
+		}
+		// the only permit must have been returned every time
+		final HttpResponse response = transport.execute(new HttpRequest(getURL("/image.jpg")));
+		assertEquals(200, response.getStatusCode());
+		response.close();
+	}
+
+	@Test(timeout = 10000)
+	public void releasesPermitsWhenTheConnectionFails() throws IOException {
+		final PooledHttpTransport transport = new PooledHttpTransport(1, 1);
+		for (int i = 0; i < 3; i++) {
+			try {
+				transport.execute(new HttpRequest("http://127.0.0.1:1/image.jpg")).close();
+				fail();
+			}
+			catch (IOException e) { } // connection refused
+		}
+		final HttpResponse response = transport.execute(new HttpRequest(getURL("/image.jpg")));
+		assertEquals(200, response.getStatusCode());
+		response.close();
+	}
+
+}
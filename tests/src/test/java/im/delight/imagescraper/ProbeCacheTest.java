@@ -0,0 +1,144 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProbeCacheTest {
+
+	private static final long TTL_MILLIS = 60000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private static ProbeCacheEntry createEntry(int fileSize, String eTag, long ageMillis) {
+		return new ProbeCacheEntry("image/jpeg", fileSize, ImageCheckerTask.PROBE_METHOD_RANGE, true, 640, 480, eTag, "Mon, 04 Jan 2016 10:00:00 GMT", System.currentTimeMillis()-ageMillis);
+	}
+
+	@Test
+	public void returnsEntriesUntilTheyExpire() {
+		final ProbeCache cache = new ProbeCache(10, TTL_MILLIS);
+		final ProbeCacheEntry fresh = createEntry(1000, null, TTL_MILLIS-10000);
+		cache.put("http://www.example.com/fresh.jpg", fresh);
+		cache.put("http://www.example.com/expired.jpg", createEntry(1000, null, TTL_MILLIS+1));
+		assertSame(fresh, cache.get("http://www.example.com/fresh.jpg"));
+		assertNull(cache.get("http://www.example.com/expired.jpg"));
+		assertNull(cache.get("http://www.example.com/unknown.jpg"));
+	}
+
+	@Test
+	public void returnsExpiredEntriesWithValidatorsForRevalidationOnly() {
+		final ProbeCache cache = new ProbeCache(10, TTL_MILLIS);
+		final ProbeCacheEntry expired = createEntry(1000, "\"abc\"", TTL_MILLIS+1);
+		cache.put("http://www.example.com/expired.jpg", expired);
+		cache.put("http://www.example.com/fresh.jpg", createEntry(1000, "\"abc\"", 0));
+		assertNull(cache.getForRevalidation("http://www.example.com/expired.jpg"));
+		cache.setRevalidate(true);
+		assertNull(cache.get("http://www.example.com/expired.jpg"));
+		assertSame(expired, cache.getForRevalidation("http://www.example.com/expired.jpg"));
+		assertNull(cache.getForRevalidation("http://www.example.com/fresh.jpg"));
+		assertTrue(expired.revalidated(System.currentTimeMillis()).getTimestamp() > expired.getTimestamp());
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntries() {
+		final ProbeCache cache = new ProbeCache(2, TTL_MILLIS);
+		cache.put("a.jpg", createEntry(1, null, 0));
+		cache.put("b.jpg", createEntry(2, null, 0));
+		assertNotNull(cache.get("a.jpg"));
+		cache.put("c.jpg", createEntry(3, null, 0));
+		assertNotNull(cache.get("a.jpg"));
+		assertNull(cache.get("b.jpg"));
+		assertNotNull(cache.get("c.jpg"));
+	}
+
+	@Test
+	public void loadsPersistedEntriesBack() throws Exception {
+		final File directory = mFolder.newFolder("probes");
+		final ProbeCache writer = new ProbeCache(10, TTL_MILLIS);
+		writer.setDiskDirectory(directory);
+		final ProbeCacheEntry written = createEntry(123456, "\"abc\"", 1000);
+		writer.put("http://www.example.com/image.jpg", written);
+
+		final ProbeCache reader = new ProbeCache(10, TTL_MILLIS);
+		reader.setDiskDirectory(directory);
+		final ProbeCacheEntry read = reader.get("http://www.example.com/image.jpg");
+		assertNotNull(read);
+		assertEquals(written.toString(), read.toString());
+		assertEquals(written.isDimensionsProbed(), read.isDimensionsProbed());
+	}
+
+	@Test
+	public void readsEntriesBackFromDiskOnceTheyHaveBeenEvictedFromMemory() throws Exception {
+		final ProbeCache cache = new ProbeCache(1, TTL_MILLIS);
+		cache.setDiskDirectory(mFolder.newFolder("probes"));
+		cache.put("a.jpg", createEntry(1, null, 0));
+		cache.put("b.jpg", createEntry(2, null, 0));
+		assertEquals(1, cache.get("a.jpg").getFileSize());
+		assertEquals(2, cache.get("b.jpg").getFileSize());
+	}
+
+	@Test
+	public void deletesExpiredEntriesFromDisk() throws Exception {
+		final File directory = mFolder.newFolder("probes");
+		final ProbeCache writer = new ProbeCache(10, TTL_MILLIS);
+		writer.setDiskDirectory(directory);
+		writer.put("http://www.example.com/expired.jpg", createEntry(1000, null, TTL_MILLIS+1));
+		assertEquals(1, directory.list().length);
+
+		final ProbeCache reader = new ProbeCache(10, TTL_MILLIS);
+		reader.setDiskDirectory(directory);
+		assertNull(reader.get("http://www.example.com/expired.jpg"));
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void keepsExpiredEntriesWithValidatorsOnDiskWhileRevalidating() throws Exception {
+		final File directory = mFolder.newFolder("probes");
+		final ProbeCache writer = new ProbeCache(10, TTL_MILLIS);
+		writer.setDiskDirectory(directory);
+		writer.put("http://www.example.com/expired.jpg", createEntry(1000, "\"abc\"", TTL_MILLIS+1));
+
+		final ProbeCache reader = new ProbeCache(10, TTL_MILLIS);
+		reader.setRevalidate(true);
+		reader.setDiskDirectory(directory);
+		assertNull(reader.get("http://www.example.com/expired.jpg"));
+		assertNotNull(reader.getForRevalidation("http://www.example.com/expired.jpg"));
+		assertEquals(1, directory.list().length);
+	}
+
+	@Test
+	public void clearsMemoryAndDisk() throws Exception {
+		final File directory = mFolder.newFolder("probes");
+		final ProbeCache cache = new ProbeCache(10, TTL_MILLIS);
+		cache.setDiskDirectory(directory);
+		cache.put("a.jpg", createEntry(1, null, 0));
+		cache.clear();
+		assertNull(cache.get("a.jpg"));
+		assertFalse(directory.list().length > 0);
+	}
+
+}
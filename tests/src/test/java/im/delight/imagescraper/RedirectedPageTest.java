@@ -0,0 +1,84 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Relative image URLs of a redirected web page are resolved against the URL that the page has finally been retrieved from */
+public class RedirectedPageTest {
+
+	private static final int FILE_SIZE = 50000;
+	private StubWebServer mServer;
+
+	@Before
+	public void startServer() throws IOException {
+		mServer = new StubWebServer();
+		mServer.addImage("/b/image.jpg", FILE_SIZE, 0);
+		mServer.addImage("/b/c/image.jpg", FILE_SIZE, 0);
+	}
+
+	@After
+	public void stopServer() {
+		mServer.stop();
+	}
+
+	private ImageScraperResult scrape(String url) throws InterruptedException {
+		final CountDownLatch finished = new CountDownLatch(1);
+		final AtomicReference<ImageScraperResult> result = new AtomicReference<ImageScraperResult>();
+		final ImageScraper scraper = new ImageScraper(new ImageScraperCallback() {
+
+			@Override
+			public void onStarted() { }
+
+			@Override
+			public void onFinished(ImageScraperResult output) {
+				result.set(output);
+				finished.countDown();
+			}
+
+		}, url, 1);
+		scraper.setExecutor(new ScraperExecutor(1, 4));
+		scraper.setHttpTransport(new PooledHttpTransport(6, 24));
+		scraper.setHostLimiter(null);
+		scraper.start();
+		assertTrue(finished.await(15, TimeUnit.SECONDS));
+		return result.get();
+	}
+
+	@Test
+	public void resolvesAgainstTheFinalURL() throws Exception {
+		mServer.addRedirect("/a", "/b/page.html");
+		mServer.addPage("/b/page.html", "<html><body><img src=\"image.jpg\" width=\"600\" height=\"400\"></body></html>");
+		assertEquals("["+mServer.getURL("/b/image.jpg")+"]", SharedProbeTest.getImages(scrape(mServer.getURL("/a"))));
+	}
+
+	@Test
+	public void resolvesAgainstTheBaseOfTheFinalURL() throws Exception {
+		mServer.addRedirect("/a", "/b/page.html");
+		mServer.addPage("/b/page.html", "<html><head><base href=\"c/\"></head><body><img src=\"image.jpg\" width=\"600\" height=\"400\"></body></html>");
+		assertEquals("["+mServer.getURL("/b/c/image.jpg")+"]", SharedProbeTest.getImages(scrape(mServer.getURL("/a"))));
+	}
+
+}
@@ -0,0 +1,101 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultCacheTest {
+
+	private static final long TTL_MILLIS = 60000;
+	private static final String PAGE_URL = "http://www.example.com/article.html";
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private static ResultCacheEntry createEntry(String eTag, long ageMillis) {
+		final ImageScraperResult result = new ImageScraperResult(PAGE_URL, "Article", 3);
+		result.addImageURL("http://www.example.com/a.jpg");
+		result.addImageURL("http://www.example.com/b.jpg");
+		return new ResultCacheEntry(result, eTag, null, System.currentTimeMillis()-ageMillis);
+	}
+
+	@Test
+	public void normalizesTrivialDifferencesOfTheURL() {
+		assertEquals("http://www.example.com/Path?q=1", ResultCache.normalizeURL(" HTTP://WWW.Example.COM/Path?q=1#top "));
+		assertEquals("http://www.example.com/", ResultCache.normalizeURL("http://www.example.com"));
+	}
+
+	@Test
+	public void keepsSeparateEntriesPerRequestedCountAndOptions() {
+		final ResultCache cache = new ResultCache(10, TTL_MILLIS);
+		final ResultCacheEntry entry = createEntry(null, 0);
+		cache.put(PAGE_URL, 3, "jpeg", entry);
+		assertSame(entry, cache.get("HTTP://www.example.com/article.html#comments", 3, "jpeg"));
+		assertNull(cache.get(PAGE_URL, 5, "jpeg"));
+		assertNull(cache.get(PAGE_URL, 3, "png"));
+		assertNull(cache.get(PAGE_URL, 3));
+	}
+
+	@Test
+	public void returnsEntriesUntilTheyExpire() {
+		final ResultCache cache = new ResultCache(10, TTL_MILLIS);
+		cache.put(PAGE_URL, 3, createEntry("\"v1\"", TTL_MILLIS+1));
+		cache.put(PAGE_URL, 4, createEntry(null, TTL_MILLIS+1));
+		assertNull(cache.get(PAGE_URL, 3));
+		assertNotNull(cache.getForRevalidation(PAGE_URL, 3));
+		assertNull(cache.getForRevalidation(PAGE_URL, 4));
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntries() {
+		final ResultCache cache = new ResultCache(2, TTL_MILLIS);
+		cache.put("http://www.example.com/a.html", 3, createEntry(null, 0));
+		cache.put("http://www.example.com/b.html", 3, createEntry(null, 0));
+		cache.get("http://www.example.com/a.html", 3);
+		cache.put("http://www.example.com/c.html", 3, createEntry(null, 0));
+		assertNotNull(cache.get("http://www.example.com/a.html", 3));
+		assertNull(cache.get("http://www.example.com/b.html", 3));
+		assertNotNull(cache.get("http://www.example.com/c.html", 3));
+	}
+
+	@Test
+	public void loadsPersistedEntriesBack() throws Exception {
+		final File directory = mFolder.newFolder("results");
+		final ResultCache writer = new ResultCache(10, TTL_MILLIS);
+		writer.setDiskDirectory(directory);
+		final ResultCacheEntry written = createEntry("\"v1\"", 1000);
+		writer.put(PAGE_URL, 3, "jpeg", written);
+
+		final ResultCache reader = new ResultCache(10, TTL_MILLIS);
+		reader.setDiskDirectory(directory);
+		final ResultCacheEntry read = reader.get(PAGE_URL, 3, "jpeg");
+		assertNotNull(read);
+		assertEquals(written.getResult(), read.getResult());
+		assertEquals(written.getETag(), read.getETag());
+		assertNull(read.getLastModified());
+		assertEquals(written.getTimestamp(), read.getTimestamp());
+		assertNull(reader.get(PAGE_URL, 3, "png"));
+	}
+
+}
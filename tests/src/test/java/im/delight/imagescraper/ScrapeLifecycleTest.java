@@ -0,0 +1,139 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Whole scrapes that are cancelled, run into their deadline or have failing probes still deliver exactly one result */
+public class ScrapeLifecycleTest {
+
+	private static final int FILE_SIZE = 50000;
+	/** The time that every response for the slow image takes */
+	private static final long SLOW_DELAY_MILLIS = 3000;
+	private StubWebServer mServer;
+
+	/** A scrape whose results can be counted and waited for */
+	private static class Scrape implements ImageScraperCallback {
+
+		public final ImageScraper mScraper;
+		private final CountDownLatch mFinished = new CountDownLatch(1);
+		private final AtomicInteger mResultCount = new AtomicInteger();
+		private final AtomicReference<ImageScraperResult> mResult = new AtomicReference<ImageScraperResult>();
+
+		public Scrape(String url, int imagesRequestedCount) {
+			mScraper = new ImageScraper(this, url, imagesRequestedCount);
+			mScraper.setExecutor(new ScraperExecutor(1, 4));
+			mScraper.setHttpTransport(new PooledHttpTransport(6, 24));
+			mScraper.setHostLimiter(null);
+		}
+
+		@Override
+		public void onStarted() { }
+
+		@Override
+		public void onFinished(ImageScraperResult output) {
+			mResult.set(output);
+			mResultCount.incrementAndGet();
+			mFinished.countDown();
+		}
+
+		public ImageScraperResult await(long timeoutMillis) throws InterruptedException {
+			assertTrue("the scrape did not finish in time", mFinished.await(timeoutMillis, TimeUnit.MILLISECONDS));
+			return mResult.get();
+		}
+
+		public int getResultCount() {
+			return mResultCount.get();
+		}
+
+	}
+
+	@Before
+	public void startServer() throws IOException {
+		mServer = new StubWebServer();
+		mServer.addImage("/fast.jpg", FILE_SIZE, 0);
+		mServer.addImage("/slow.jpg", FILE_SIZE, SLOW_DELAY_MILLIS);
+		mServer.addError("/missing.jpg", 404);
+		mServer.addError("/broken.jpg", 500);
+	}
+
+	@After
+	public void stopServer() {
+		mServer.stop();
+	}
+
+	private static String img(String path) {
+		return "<img src=\""+path+"\" width=\"600\" height=\"400\">";
+	}
+
+	@Test(timeout = 20000)
+	public void finishesWhenSomeProbesFail() throws Exception {
+		mServer.addPage("/page.html", "<html><body>"+img("/missing.jpg")+img("/fast.jpg")+img("/broken.jpg")+"</body></html>");
+		final Scrape scrape = new Scrape(mServer.getURL("/page.html"), 3);
+		scrape.mScraper.start();
+		final ImageScraperResult result = scrape.await(10000);
+		assertEquals(ImageScraperResult.ERROR_NONE, result.getErrorCode());
+		assertFalse(result.isPartial());
+		assertEquals("["+mServer.getURL("/fast.jpg")+"]", SharedProbeTest.getImages(result));
+	}
+
+	@Test(timeout = 20000)
+	public void deliversThePartialResultAtTheDeadline() throws Exception {
+		mServer.addPage("/page.html", "<html><body>"+img("/fast.jpg")+img("/slow.jpg")+"</body></html>");
+		final Scrape scrape = new Scrape(mServer.getURL("/page.html"), 2);
+		scrape.mScraper.setDeadline(1000);
+		final long startedAt = System.nanoTime();
+		scrape.mScraper.start();
+		final ImageScraperResult result = scrape.await(10000);
+		final long elapsedMillis = (System.nanoTime()-startedAt) / 1000000;
+		assertTrue("the deadline has been missed by too much: "+elapsedMillis+" ms", elapsedMillis < SLOW_DELAY_MILLIS);
+		assertTrue(result.isPartial());
+		assertEquals("["+mServer.getURL("/fast.jpg")+"]", SharedProbeTest.getImages(result));
+		Thread.sleep(SLOW_DELAY_MILLIS);
+		assertEquals(1, scrape.getResultCount());
+	}
+
+	@Test(timeout = 20000)
+	public void deliversASingleResultWhenCancelled() throws Exception {
+		mServer.addPage("/page.html", "<html><body>"+img("/slow.jpg")+"</body></html>");
+		final Scrape scrape = new Scrape(mServer.getURL("/page.html"), 1);
+		scrape.mScraper.start();
+		final long waitUntil = System.currentTimeMillis()+5000;
+		while (mServer.getRequestCount("HEAD", "/slow.jpg") == 0 && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(10);
+		}
+		assertEquals("the image has not been probed", 1, mServer.getRequestCount("HEAD", "/slow.jpg"));
+		scrape.mScraper.cancel();
+		final ImageScraperResult result = scrape.await(5000);
+		assertTrue(scrape.mScraper.isCancelled());
+		assertTrue(result.isPartial());
+		assertEquals("[]", SharedProbeTest.getImages(result));
+		Thread.sleep(SLOW_DELAY_MILLIS);
+		assertEquals(1, scrape.getResultCount());
+	}
+
+}
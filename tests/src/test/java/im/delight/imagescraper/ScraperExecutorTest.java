@@ -0,0 +1,146 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ScraperExecutorTest {
+
+	/** Returns a task that records its name when it runs */
+	private static Runnable record(final String name, final List<String> order, final CountDownLatch finished) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				order.add(name);
+				finished.countDown();
+			}
+
+		};
+	}
+
+	@Test(timeout = 10000)
+	public void servesTheQueuesOfAllScrapesInTurn() throws Exception {
+		final ScraperExecutor executor = new ScraperExecutor(1, 1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		// occupies the only probe thread until the tasks of both queues are waiting
+		new ScraperQueue(executor).execute(new Runnable() {
+
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) { }
+			}
+
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch finished = new CountDownLatch(6);
+		final ScraperQueue first = new ScraperQueue(executor);
+		final ScraperQueue second = new ScraperQueue(executor);
+		for (int i = 1; i <= 3; i++) {
+			first.execute(record("a"+i, order, finished));
+		}
+		for (int i = 1; i <= 3; i++) {
+			second.execute(record("b"+i, order, finished));
+		}
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3", "b3"), order);
+	}
+
+	@Test(timeout = 10000)
+	public void discardsThePendingTasksOfAStoppedQueueOnly() throws Exception {
+		final ScraperExecutor executor = new ScraperExecutor(1, 1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		new ScraperQueue(executor).execute(new Runnable() {
+
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) { }
+			}
+
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch finished = new CountDownLatch(2);
+		final ScraperQueue stopped = new ScraperQueue(executor);
+		final ScraperQueue kept = new ScraperQueue(executor);
+		stopped.execute(record("a1", order, finished));
+		stopped.execute(record("a2", order, finished));
+		kept.execute(record("b1", order, finished));
+		kept.execute(record("b2", order, finished));
+		assertEquals(2, stopped.shutdownNow().size());
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertTrue(stopped.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("b1", "b2"), order);
+	}
+
+	@Test(timeout = 10000)
+	public void removesCancelledTimeoutsRightAway() {
+		final ScraperExecutor executor = new ScraperExecutor(1, 1);
+		final Runnable task = new Runnable() {
+
+			@Override
+			public void run() { }
+
+		};
+		final List<ScheduledFuture<?>> timeouts = new ArrayList<ScheduledFuture<?>>();
+		for (int i = 0; i < 100; i++) {
+			timeouts.add(executor.scheduleTimeout(task, TimeUnit.HOURS.toMillis(1)));
+		}
+		assertEquals(100, executor.getScheduledTimeoutCount());
+		for (ScheduledFuture<?> timeout : timeouts) {
+			timeout.cancel(false);
+		}
+		assertEquals(0, executor.getScheduledTimeoutCount());
+	}
+
+	@Test(timeout = 10000)
+	public void runsTimeoutsThatAreDue() throws Exception {
+		final CountDownLatch ran = new CountDownLatch(1);
+		new ScraperExecutor(1, 1).scheduleTimeout(new Runnable() {
+
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+
+		}, 50);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+}
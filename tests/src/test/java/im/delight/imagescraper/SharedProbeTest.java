@@ -0,0 +1,165 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Two scrapes of different pages share the probe of the same image while one of them is cancelled
+ * <p>
+ * The server omits the length in its responses to `HEAD` requests, so a probe that is cancelled while it waits for the `HEAD` response stops before its `GET` request
+ */
+public class SharedProbeTest {
+
+	private static final int FILE_SIZE = 50000;
+	/** The time that the `HEAD` response takes, during which the probes are cancelled */
+	private static final long HEAD_DELAY_MILLIS = 1500;
+	private StubWebServer mServer;
+
+	/** A scrape whose result can be waited for */
+	private static class Scrape implements ImageScraperCallback {
+
+		public final ImageScraper mScraper;
+		private final CountDownLatch mFinished = new CountDownLatch(1);
+		private final AtomicReference<ImageScraperResult> mResult = new AtomicReference<ImageScraperResult>();
+
+		public Scrape(String url, NioProbeEngine probeEngine) {
+			mScraper = new ImageScraper(this, url, 1);
+			mScraper.setExecutor(new ScraperExecutor(1, 4));
+			mScraper.setHttpTransport(new PooledHttpTransport(6, 24));
+			mScraper.setHostLimiter(null);
+			if (probeEngine != null) {
+				mScraper.setProbeEngine(probeEngine);
+			}
+		}
+
+		@Override
+		public void onStarted() { }
+
+		@Override
+		public void onFinished(ImageScraperResult output) {
+			mResult.set(output);
+			mFinished.countDown();
+		}
+
+		public ImageScraperResult await() throws InterruptedException {
+			assertTrue("the scrape did not finish in time", mFinished.await(15, TimeUnit.SECONDS));
+			return mResult.get();
+		}
+
+	}
+
+	@Before
+	public void startServer() throws IOException {
+		mServer = new StubWebServer();
+		mServer.addImageWithoutHeadLength("/shared.jpg", FILE_SIZE, HEAD_DELAY_MILLIS);
+		mServer.addPage("/a.html", "<html><body><img src=\"/shared.jpg\" width=\"600\" height=\"400\"></body></html>");
+		mServer.addPage("/b.html", "<html><body><img src=\"/shared.jpg\" width=\"600\" height=\"400\"></body></html>");
+	}
+
+	@After
+	public void stopServer() {
+		mServer.stop();
+	}
+
+	/** Returns the images of the given result without its empty slots */
+	static String getImages(ImageScraperResult result) {
+		final List<String> images = new ArrayList<String>();
+		for (String url : result.getImageURLs()) {
+			if (url != null) {
+				images.add(url);
+			}
+		}
+		return images.toString();
+	}
+
+	private void awaitProbes(int count) throws InterruptedException {
+		final long waitUntil = System.currentTimeMillis()+5000;
+		while (mServer.getRequestCount("HEAD", "/shared.jpg") < count && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, mServer.getRequestCount("HEAD", "/shared.jpg"));
+	}
+
+	/** Waits until the page of the given scrape has been served and its probe has had the time to join the probe that is in flight */
+	private void awaitJoined(String page) throws InterruptedException {
+		final long waitUntil = System.currentTimeMillis()+5000;
+		while (mServer.getRequestCount("GET", page) == 0 && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(300);
+	}
+
+	@Test
+	public void probesAgainWhenTheLeadingScrapeIsCancelled() throws InterruptedException {
+		final Scrape first = new Scrape(mServer.getURL("/a.html"), null);
+		first.mScraper.start();
+		awaitProbes(1);
+		final Scrape second = new Scrape(mServer.getURL("/b.html"), null);
+		second.mScraper.start();
+		awaitJoined("/b.html");
+		assertEquals(1, mServer.getRequestCount("HEAD", "/shared.jpg")); // the second scrape waits for the first probe
+
+		first.mScraper.cancel();
+		assertEquals("[]", getImages(first.await()));
+		// the aborted probe tells nothing about the image, so the second scrape probes it on its own
+		assertEquals("["+mServer.getURL("/shared.jpg")+"]", getImages(second.await()));
+		assertEquals(2, mServer.getRequestCount("HEAD", "/shared.jpg"));
+	}
+
+	@Test
+	public void sharesTheResultWhenAFollowingScrapeIsCancelled() throws InterruptedException {
+		final Scrape first = new Scrape(mServer.getURL("/a.html"), null);
+		first.mScraper.start();
+		awaitProbes(1);
+		final Scrape second = new Scrape(mServer.getURL("/b.html"), null);
+		second.mScraper.start();
+		awaitJoined("/b.html");
+
+		second.mScraper.cancel();
+		assertEquals("[]", getImages(second.await()));
+		assertEquals("["+mServer.getURL("/shared.jpg")+"]", getImages(first.await()));
+		assertEquals(1, mServer.getRequestCount("HEAD", "/shared.jpg"));
+	}
+
+	@Test
+	public void keepsTheSharedProbeOfTheEngineRunningWhenOneScrapeIsCancelled() throws Exception {
+		final NioProbeEngine engine = new NioProbeEngine(NioProbeEngine.DEFAULT_MAX_CONNECTIONS_PER_HOST, NioProbeEngine.DEFAULT_MAX_CONNECTIONS_TOTAL);
+		final Scrape first = new Scrape(mServer.getURL("/a.html"), engine);
+		first.mScraper.start();
+		awaitProbes(1);
+		final Scrape second = new Scrape(mServer.getURL("/b.html"), engine);
+		second.mScraper.start();
+		awaitJoined("/b.html");
+
+		first.mScraper.cancel();
+		assertEquals("[]", getImages(first.await()));
+		assertEquals("["+mServer.getURL("/shared.jpg")+"]", getImages(second.await()));
+		assertEquals(1, mServer.getRequestCount("HEAD", "/shared.jpg"));
+	}
+
+}
@@ -0,0 +1,165 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP server on the loopback interface that answers probes of fake images after a delay or never at all
+ * <p>
+ * Every path has the form `/{delayMillis}/{fileSize}/{name}` where a delay of `-1` makes the server accept the request but never respond (like a stalled host)
+ */
+class StubImageServer {
+
+	/** The delay that makes the server never respond */
+	public static final int STALLED = -1;
+	private static final int BACKLOG = 4096;
+	private final ServerSocket mServerSocket;
+	private final ExecutorService mConnections;
+	private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+	private final AtomicInteger mRequests = new AtomicInteger();
+	private final AtomicInteger mPendingRequests = new AtomicInteger();
+	private final AtomicInteger mMaxPendingRequests = new AtomicInteger();
+
+	public StubImageServer() throws IOException {
+		mServerSocket = new ServerSocket();
+		mServerSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), BACKLOG);
+		mConnections = Executors.newCachedThreadPool();
+		final Thread acceptor = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (!mServerSocket.isClosed()) {
+					try {
+						final Socket socket = mServerSocket.accept();
+						mSockets.add(socket);
+						mConnections.execute(new Runnable() {
+
+							@Override
+							public void run() {
+								handle(socket);
+							}
+
+						});
+					}
+					catch (IOException e) { } // closed
+				}
+			}
+
+		}, "StubImageServer-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getURL(int delayMillis, int fileSize, String name) {
+		return "http://127.0.0.1:"+mServerSocket.getLocalPort()+"/"+delayMillis+"/"+fileSize+"/"+name;
+	}
+
+	/** Returns the number of requests that have been received so far */
+	public int getRequestCount() {
+		return mRequests.get();
+	}
+
+	/** Returns the largest number of requests that have been waiting for their responses at the same time */
+	public int getMaxPendingRequests() {
+		return mMaxPendingRequests.get();
+	}
+
+	public void close() throws IOException {
+		mServerSocket.close();
+		synchronized (mSockets) {
+			for (Socket socket : mSockets) {
+				socket.close();
+			}
+		}
+		mConnections.shutdownNow();
+	}
+
+	private void handle(Socket socket) {
+		try {
+			final InputStream in = socket.getInputStream();
+			final String request = readHeaders(in);
+			if (request == null) {
+				return;
+			}
+			mRequests.incrementAndGet();
+			final int pending = mPendingRequests.incrementAndGet();
+			int max;
+			while (pending > (max = mMaxPendingRequests.get()) && !mMaxPendingRequests.compareAndSet(max, pending)) { }
+			try {
+				final String[] requestLine = request.substring(0, request.indexOf("\r\n")).split(" ");
+				final String[] path = requestLine[1].split("/");
+				final int delayMillis = Integer.parseInt(path[1]);
+				final int fileSize = Integer.parseInt(path[2]);
+				if (delayMillis == STALLED) {
+					while (in.read() != -1) { } // until the client gives up
+					return;
+				}
+				Thread.sleep(delayMillis);
+				final String response;
+				if (requestLine[0].equals("HEAD")) {
+					response = "HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: "+fileSize+"\r\nConnection: close\r\n\r\n";
+				}
+				else {
+					response = "HTTP/1.1 501 Not Implemented\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+				}
+				final OutputStream out = socket.getOutputStream();
+				out.write(response.getBytes("US-ASCII"));
+				out.flush();
+			}
+			finally {
+				mPendingRequests.decrementAndGet();
+			}
+		}
+		catch (IOException e) { }
+		catch (InterruptedException e) { }
+		catch (RuntimeException e) { } // malformed request
+		finally {
+			mSockets.remove(socket);
+			try {
+				socket.close();
+			}
+			catch (IOException e) { }
+		}
+	}
+
+	/** Reads the request line and headers or returns `null` if the connection is closed before */
+	private static String readHeaders(InputStream in) throws IOException {
+		final StringBuilder headers = new StringBuilder();
+		int b;
+		while ((b = in.read()) != -1) {
+			headers.append((char) b);
+			if (headers.length() >= 4 && headers.lastIndexOf("\r\n\r\n") == headers.length()-4) {
+				return headers.toString();
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,202 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Minimal web server on the loopback interface that serves pages, fake images and redirects for whole scrapes */
+class StubWebServer {
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final ConcurrentHashMap<String, Resource> mResources = new ConcurrentHashMap<String, Resource>();
+	private final ConcurrentHashMap<String, AtomicInteger> mRequestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private static class Resource {
+
+		public int mStatusCode = 200;
+		public String mContentType;
+		public byte[] mBody;
+		/** The length that a fake image claims (its body consists of zeros) */
+		public long mLength;
+		public String mLocation;
+		public long mDelayMillis;
+		/** The delay of responses to `HEAD` requests only */
+		public long mHeadDelayMillis;
+		/** Whether responses to `HEAD` requests declare the length (like most but not all servers) */
+		public boolean mLengthOnHead = true;
+
+	}
+
+	public StubWebServer() throws IOException {
+		mExecutor = Executors.newCachedThreadPool();
+		mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		mServer.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange);
+				}
+				finally {
+					exchange.close();
+				}
+			}
+
+		});
+		mServer.setExecutor(mExecutor);
+		mServer.start();
+	}
+
+	public String getURL(String path) {
+		return "http://127.0.0.1:"+mServer.getAddress().getPort()+path;
+	}
+
+	public void addPage(String path, String html) throws IOException {
+		final Resource resource = new Resource();
+		resource.mContentType = "text/html; charset=UTF-8";
+		resource.mBody = html.getBytes("UTF-8");
+		resource.mLength = resource.mBody.length;
+		mResources.put(path, resource);
+	}
+
+	/**
+	 * Adds a JPEG image of the given size whose responses (to `HEAD` and `GET` requests) are delayed by the given time
+	 *
+	 * @param path the path of the image
+	 * @param fileSize the size of the image in bytes
+	 * @param delayMillis the delay of every response
+	 */
+	public void addImage(String path, int fileSize, long delayMillis) {
+		final Resource resource = new Resource();
+		resource.mContentType = "image/jpeg";
+		resource.mLength = fileSize;
+		resource.mDelayMillis = delayMillis;
+		mResources.put(path, resource);
+	}
+
+	/**
+	 * Adds a JPEG image whose responses to `HEAD` requests are delayed and do not declare the length, so that probes have to send a `GET` request afterwards
+	 *
+	 * @param path the path of the image
+	 * @param fileSize the size of the image in bytes
+	 * @param headDelayMillis the delay of every response to a `HEAD` request
+	 */
+	public void addImageWithoutHeadLength(String path, int fileSize, long headDelayMillis) {
+		final Resource resource = new Resource();
+		resource.mContentType = "image/jpeg";
+		resource.mLength = fileSize;
+		resource.mHeadDelayMillis = headDelayMillis;
+		resource.mLengthOnHead = false;
+		mResources.put(path, resource);
+	}
+
+	/**
+	 * Adds a resource that responds with the given status code and no body (e.g. `500` for a failing image)
+	 *
+	 * @param path the path of the resource
+	 * @param statusCode the status code of every response
+	 */
+	public void addError(String path, int statusCode) {
+		final Resource resource = new Resource();
+		resource.mStatusCode = statusCode;
+		mResources.put(path, resource);
+	}
+
+	public void addRedirect(String path, String location) {
+		final Resource resource = new Resource();
+		resource.mStatusCode = 302;
+		resource.mLocation = location;
+		mResources.put(path, resource);
+	}
+
+	/**
+	 * Returns how often the given path has been requested with the given method
+	 *
+	 * @param method the HTTP method, e.g. `HEAD`
+	 * @param path the path of the resource
+	 * @return the number of requests so far
+	 */
+	public int getRequestCount(String method, String path) {
+		final AtomicInteger count = mRequestCounts.get(method+" "+path);
+		return count == null ? 0 : count.get();
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final String key = exchange.getRequestMethod()+" "+path;
+		mRequestCounts.putIfAbsent(key, new AtomicInteger());
+		mRequestCounts.get(key).incrementAndGet();
+		final Resource resource = mResources.get(path);
+		if (resource == null) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		final long delayMillis = exchange.getRequestMethod().equals("HEAD") ? resource.mDelayMillis+resource.mHeadDelayMillis : resource.mDelayMillis;
+		if (delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+		}
+		if (resource.mLocation != null) {
+			exchange.getResponseHeaders().set("Location", resource.mLocation);
+		}
+		if (resource.mContentType == null) {
+			exchange.sendResponseHeaders(resource.mStatusCode, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", resource.mContentType);
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			if (resource.mLengthOnHead) { // the length of a response to a HEAD request must be set manually
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(resource.mLength));
+			}
+			exchange.sendResponseHeaders(resource.mStatusCode, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(resource.mStatusCode, resource.mLength);
+		final OutputStream out = exchange.getResponseBody();
+		if (resource.mBody != null) {
+			out.write(resource.mBody);
+		}
+		else {
+			final byte[] zeros = new byte[8192];
+			for (long remaining = resource.mLength; remaining > 0; remaining -= zeros.length) {
+				out.write(zeros, 0, (int) Math.min(zeros.length, remaining));
+			}
+		}
+		out.close();
+	}
+
+}
@@ -0,0 +1,114 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TopImageCollectorTest {
+
+	private static List<String> getURLs(List<ImageURL> images) {
+		final List<String> urls = new ArrayList<String>();
+		for (ImageURL image : images) {
+			urls.add(image.getURL());
+		}
+		return urls;
+	}
+
+	@Test
+	public void keepsTheLargestImagesInDescendingOrder() {
+		final TopImageCollector collector = new TopImageCollector(3, false);
+		final int[] sizes = { 500, 100, 900, 300, 700, 200, 800 };
+		for (int size : sizes) {
+			collector.add(new ImageURL(size+".jpg", size));
+		}
+		assertEquals("[900.jpg, 800.jpg, 700.jpg]", getURLs(collector.toList()).toString());
+		assertEquals(4, collector.getDroppedCount());
+	}
+
+	@Test
+	public void matchesAFullSortForRandomInput() {
+		final Random random = new Random(1);
+		final List<ImageURL> all = new ArrayList<ImageURL>();
+		final TopImageCollector collector = new TopImageCollector(10, false);
+		for (int i = 0; i < 1000; i++) {
+			final ImageURL image = new ImageURL("image-"+i+".jpg", 1+random.nextInt(100000));
+			all.add(image);
+			collector.add(image);
+		}
+		Collections.sort(all, TopImageCollector.createComparator(ImageScorer.FILE_SIZE));
+		assertEquals(getURLs(all.subList(0, 10)), getURLs(collector.toList()));
+	}
+
+	@Test
+	public void rejectsImagesWithoutASize() {
+		final TopImageCollector collector = new TopImageCollector(3, false);
+		assertFalse(collector.add(new ImageURL("missing.jpg", 0)));
+		assertFalse(collector.add(new ImageURL("failed.jpg", -1)));
+		assertEquals(2, collector.getRejectedCount());
+		assertTrue(collector.toList().isEmpty());
+	}
+
+	@Test
+	public void ranksByDimensionsAndThenByFileSize() {
+		final TopImageCollector collector = new TopImageCollector(2, true);
+		collector.add(new ImageURL("large-file.jpg", 90000, ImageCheckerTask.PROBE_METHOD_GET, 100, 100));
+		collector.add(new ImageURL("large-image.jpg", 10000, ImageCheckerTask.PROBE_METHOD_GET, 1000, 800));
+		collector.add(new ImageURL("same-dimensions.jpg", 20000, ImageCheckerTask.PROBE_METHOD_GET, 100, 100));
+		assertEquals("[large-image.jpg, large-file.jpg]", getURLs(collector.toList()).toString());
+	}
+
+	@Test
+	public void keepsAllImagesIfUnbounded() {
+		final TopImageCollector collector = new TopImageCollector(TopImageCollector.UNBOUNDED, false);
+		for (int i = 1; i <= 100; i++) {
+			assertTrue(collector.add(new ImageURL(i+".jpg", i)));
+		}
+		final List<ImageURL> images = collector.toList();
+		assertEquals(100, images.size());
+		assertEquals("100.jpg", images.get(0).getURL());
+		assertEquals("1.jpg", images.get(99).getURL());
+	}
+
+	@Test
+	public void removesImagesAndKeepsTheHeapOrdered() {
+		final TopImageCollector collector = new TopImageCollector(5, false);
+		for (int size = 1; size <= 5; size++) {
+			collector.add(new ImageURL(size+".jpg", size * 100));
+		}
+		assertTrue(collector.remove("2.jpg"));
+		assertFalse(collector.remove("2.jpg"));
+		assertTrue(collector.add(new ImageURL("6.jpg", 50)));
+		assertEquals("[5.jpg, 4.jpg, 3.jpg, 1.jpg, 6.jpg]", getURLs(collector.toList()).toString());
+	}
+
+	@Test
+	public void dropsImagesThatDoNotBeatTheSmallestOne() {
+		final TopImageCollector collector = new TopImageCollector(1, false);
+		assertTrue(collector.add(new ImageURL("a.jpg", 100)));
+		assertFalse(collector.add(new ImageURL("b.jpg", 100)));
+		assertTrue(collector.add(new ImageURL("c.jpg", 101)));
+		assertEquals("[c.jpg]", getURLs(collector.toList()).toString());
+	}
+
+}
@@ -0,0 +1,108 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class URLCanonicalizerTest {
+
+	private final URLCanonicalizer mDefault = new URLCanonicalizer(true);
+	private final URLCanonicalizer mPlain = new URLCanonicalizer(false);
+
+	@Test
+	public void groupsSpellingsOfTheSameURL() {
+		final String key = mPlain.canonicalize("http://www.example.com/images/a.jpg");
+		assertEquals(key, mPlain.canonicalize("https://www.example.com/images/a.jpg"));
+		assertEquals(key, mPlain.canonicalize("http://WWW.Example.COM:80/images/a.jpg"));
+		assertEquals(key, mPlain.canonicalize("https://www.example.com:443/images/a.jpg"));
+		assertEquals(key, mPlain.canonicalize("http://www.example.com./images/a.jpg"));
+		assertEquals(key, mPlain.canonicalize("http://www.example.com/images/./x/../a.jpg"));
+		assertEquals(key, mPlain.canonicalize("http://www.example.com/images/%61.jpg"));
+		assertEquals(key, mPlain.canonicalize("http://www.example.com/images/a.jpg#top"));
+	}
+
+	@Test
+	public void keepsDifferencesThatChangeTheResource() {
+		final String key = mPlain.canonicalize("http://www.example.com/images/a.jpg");
+		assertNotEquals(key, mPlain.canonicalize("http://www.example.com/images/A.jpg"));
+		assertNotEquals(key, mPlain.canonicalize("http://www.example.com:8080/images/a.jpg"));
+		assertNotEquals(key, mPlain.canonicalize("http://www.example.com/images/a.jpg?id=2"));
+		assertNotEquals(key, mPlain.canonicalize("http://cdn.example.com/images/a.jpg"));
+	}
+
+	@Test
+	public void normalizesPercentEncodingsToUpperCase() {
+		assertEquals(mPlain.canonicalize("http://example.com/a%2fb.jpg"), mPlain.canonicalize("http://example.com/a%2Fb.jpg"));
+	}
+
+	@Test
+	public void keepsTheSchemeIfConfigured() {
+		final URLCanonicalizer canonicalizer = new URLCanonicalizer(false);
+		canonicalizer.setIgnoreScheme(false);
+		assertNotEquals(canonicalizer.canonicalize("http://example.com/a.jpg"), canonicalizer.canonicalize("https://example.com/a.jpg"));
+		// the default port is only removed for its own scheme
+		assertEquals(canonicalizer.canonicalize("https://example.com/a.jpg"), canonicalizer.canonicalize("https://example.com:443/a.jpg"));
+		assertNotEquals(canonicalizer.canonicalize("http://example.com/a.jpg"), canonicalizer.canonicalize("http://example.com:443/a.jpg"));
+	}
+
+	@Test
+	public void groupsVariantsOfCommonImageCDNs() {
+		assertEquals(mDefault.canonicalize("http://example.com/uploads/photo.jpg"), mDefault.canonicalize("http://example.com/uploads/photo-300x200.jpg"));
+		assertEquals(mDefault.canonicalize("http://example.com/uploads/photo.png"), mDefault.canonicalize("http://example.com/uploads/photo@2x.png"));
+		assertEquals(mDefault.canonicalize("https://res.example.org/image/upload/v1/photo.jpg"), mDefault.canonicalize("https://res.example.org/image/upload/w_400,c_fill/v1/photo.jpg"));
+		assertEquals(mDefault.canonicalize("https://img.example.net/photo.jpg?id=7"), mDefault.canonicalize("https://img.example.net/photo.jpg?w=640&id=7&q=80"));
+	}
+
+	@Test
+	public void doesNotGroupVariantsWithoutRules() {
+		assertNotEquals(mPlain.canonicalize("http://example.com/uploads/photo.jpg"), mPlain.canonicalize("http://example.com/uploads/photo-300x200.jpg"));
+		assertNotEquals(mPlain.canonicalize("https://img.example.net/photo.jpg"), mPlain.canonicalize("https://img.example.net/photo.jpg?w=640"));
+	}
+
+	@Test
+	public void appliesCustomRules() {
+		final URLCanonicalizer canonicalizer = new URLCanonicalizer(false);
+		canonicalizer.addIgnoredParameter("Size");
+		canonicalizer.addPathRule("/thumbs(?=/)");
+		assertEquals(canonicalizer.canonicalize("http://example.com/a.jpg"), canonicalizer.canonicalize("http://example.com/a.jpg?size=small"));
+		assertEquals(canonicalizer.canonicalize("http://example.com/img/a.jpg"), canonicalizer.canonicalize("http://example.com/img/thumbs/a.jpg"));
+	}
+
+	@Test
+	public void detectsVariants() {
+		assertTrue(mDefault.isVariant("http://example.com/uploads/photo-300x200.jpg"));
+		assertTrue(mDefault.isVariant("http://example.com/uploads/photo@2x.jpg"));
+		assertTrue(mDefault.isVariant("https://img.example.net/photo.jpg?W=640"));
+		assertFalse(mDefault.isVariant("http://example.com/uploads/photo.jpg"));
+		assertFalse(mDefault.isVariant("http://example.com/uploads/photo.jpg?id=7"));
+		assertFalse(mPlain.isVariant("http://example.com/uploads/photo-300x200.jpg"));
+	}
+
+	@Test
+	public void hasTheSameKeyForTheSameRules() {
+		assertEquals(new URLCanonicalizer(true).getKey(), mDefault.getKey());
+		assertNotEquals(mPlain.getKey(), mDefault.getKey());
+		final URLCanonicalizer canonicalizer = new URLCanonicalizer(false);
+		canonicalizer.setIgnoreScheme(false);
+		assertNotEquals(mPlain.getKey(), canonicalizer.getKey());
+	}
+
+}
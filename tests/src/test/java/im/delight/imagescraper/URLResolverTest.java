@@ -0,0 +1,121 @@
+package im.delight.imagescraper;
+
+/*
+ * Copyright (c) delight.im <info@delight.im>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class URLResolverTest {
+
+	/** The base URI of the examples in RFC 3986, section 5.4 */
+	private static final String RFC_BASE = "http://a/b/c/d;p?q";
+	/** The normal examples from RFC 3986, section 5.4.1 (reference and expected target) */
+	private static final String[][] RFC_NORMAL_EXAMPLES = {
+		{ "g:h", "g:h" },
+		{ "g", "http://a/b/c/g" },
+		{ "./g", "http://a/b/c/g" },
+		{ "g/", "http://a/b/c/g/" },
+		{ "/g", "http://a/g" },
+		// an empty path is normalized to "/" for URLs with an authority (RFC 3986, section 6.2.3)
+		{ "//g", "http://g/" },
+		{ "?y", "http://a/b/c/d;p?y" },
+		{ "g?y", "http://a/b/c/g?y" },
+		{ "#s", "http://a/b/c/d;p?q#s" },
+		{ "g#s", "http://a/b/c/g#s" },
+		{ "g?y#s", "http://a/b/c/g?y#s" },
+		{ ";x", "http://a/b/c/;x" },
+		{ "g;x", "http://a/b/c/g;x" },
+		{ "g;x?y#s", "http://a/b/c/g;x?y#s" },
+		{ "", "http://a/b/c/d;p?q" },
+		{ ".", "http://a/b/c/" },
+		{ "./", "http://a/b/c/" },
+		{ "..", "http://a/b/" },
+		{ "../", "http://a/b/" },
+		{ "../g", "http://a/b/g" },
+		{ "../..", "http://a/" },
+		{ "../../", "http://a/" },
+		{ "../../g", "http://a/g" }
+	};
+	/** The abnormal examples from RFC 3986, section 5.4.2 (reference and expected target of a strict parser) */
+	private static final String[][] RFC_ABNORMAL_EXAMPLES = {
+		{ "../../../g", "http://a/g" },
+		{ "../../../../g", "http://a/g" },
+		{ "/./g", "http://a/g" },
+		{ "/../g", "http://a/g" },
+		{ "g.", "http://a/b/c/g." },
+		{ ".g", "http://a/b/c/.g" },
+		{ "g..", "http://a/b/c/g.." },
+		{ "..g", "http://a/b/c/..g" },
+		{ "./../g", "http://a/b/g" },
+		{ "./g/.", "http://a/b/c/g/" },
+		{ "g/./h", "http://a/b/c/g/h" },
+		{ "g/../h", "http://a/b/c/h" },
+		{ "g;x=1/./y", "http://a/b/c/g;x=1/y" },
+		{ "g;x=1/../y", "http://a/b/c/y" },
+		{ "g?y/./x", "http://a/b/c/g?y/./x" },
+		{ "g?y/../x", "http://a/b/c/g?y/../x" },
+		{ "g#s/./x", "http://a/b/c/g#s/./x" },
+		{ "g#s/../x", "http://a/b/c/g#s/../x" },
+		{ "http:g", "http:g" }
+	};
+
+	@Test
+	public void resolvesNormalExamplesOfRfc3986() {
+		for (String[] example : RFC_NORMAL_EXAMPLES) {
+			assertEquals("\""+example[0]+"\"", example[1], URLResolver.resolve(RFC_BASE, example[0]));
+		}
+	}
+
+	@Test
+	public void resolvesAbnormalExamplesOfRfc3986() {
+		for (String[] example : RFC_ABNORMAL_EXAMPLES) {
+			assertEquals("\""+example[0]+"\"", example[1], URLResolver.resolve(RFC_BASE, example[0]));
+		}
+	}
+
+	@Test
+	public void protocolRelativeReferencesInheritTheSchemeOfTheBase() {
+		assertEquals("https://cdn.example.com/a.jpg", URLResolver.resolve("https://www.example.com/page.html", "//cdn.example.com/a.jpg"));
+		assertEquals("http://cdn.example.com/a.jpg", URLResolver.resolve("http://www.example.com/page.html", "//cdn.example.com/a.jpg"));
+	}
+
+	@Test
+	public void decodesCharacterReferencesBeforeResolving() {
+		assertEquals("http://a/b/c/g?w=1&h=2", URLResolver.resolve(RFC_BASE, "g?w=1&amp;h=2"));
+		assertEquals("http://a/b/c/g?w=1&h=2", URLResolver.resolve(RFC_BASE, "g?w=1&#38;h=2"));
+		assertEquals("http://a/b/c/g?w=1&h=2", URLResolver.resolve(RFC_BASE, "g?w=1&#x26;h=2"));
+	}
+
+	@Test
+	public void stripsSurroundingWhitespace() {
+		assertEquals("http://a/g.jpg", URLResolver.resolve(RFC_BASE, " \n/g.jpg\t"));
+	}
+
+	@Test
+	public void decodesOnlyKnownCharacterReferences() {
+		assertEquals("a&b", URLResolver.decodeEntities("a&amp;b"));
+		assertEquals("a&unknown;b", URLResolver.decodeEntities("a&unknown;b"));
+		assertEquals("no references", URLResolver.decodeEntities("no references"));
+	}
+
+	@Test
+	public void removesDotSegments() {
+		assertEquals("/a/g", URLResolver.removeDotSegments("/a/b/c/./../../g"));
+		assertEquals("mid/6", URLResolver.removeDotSegments("mid/content=5/../6"));
+	}
+
+}